@@ -32,5 +32,31 @@
 ADDAPI int hackrf_sweep_lib_start( void (*_fft_power_callback)(char full_sweep_done, int bins, double* freqStart,  float fft_bin_Hz, float* powerdBm),
 		uint32_t freq_min, uint32_t freq_max, uint32_t fft_bin_width, uint32_t num_samples, unsigned int lna_gain, unsigned int vga_gain, unsigned int _antennaPowerEnable, unsigned int _enableAntennaLNA);
 ADDAPI void hackrf_sweep_lib_stop();
+/**
+ * waits until hackrf_sweep_lib_start() returns, returns non-zero if stopped, 0 on timeout
+ */
+ADDAPI int hackrf_sweep_lib_wait_stopped(unsigned int timeout_ms);
+
+/**
+ * applies to the next hackrf_sweep_lib_start()
+ * enabled = 0 - callback is called for every USB transfer (default)
+ * enabled = 1 - bins are collected into a full sweep buffer indexed by frequency and passed in one callback per sweep, 
+ * if max_interval_ms is not 0, partially filled sweep is also passed when max_interval_ms elapsed since the last callback
+ */
+ADDAPI void hackrf_sweep_lib_set_aggregation(unsigned int enabled, unsigned int max_interval_ms);
+
+/**
+ * next hackrf_sweep_lib_start() writes raw sweep USB transfers to given file, NULL disables recording
+ */
+ADDAPI void hackrf_sweep_lib_set_iq_recording(const char* path);
+
+#define HACKRF_SWEEP_REPLAY_LOOP		(1)
+#define HACKRF_SWEEP_REPLAY_REALTIME	(2)
+/**
+ * next hackrf_sweep_lib_start() reads sweep transfers recorded by hackrf_sweep_lib_set_iq_recording() instead of USB
+ * and returns when the file ends, use the same freq_min and fft_bin_width as when recording, NULL disables replay
+ * flags - HACKRF_SWEEP_REPLAY_LOOP to replay the file until stopped, HACKRF_SWEEP_REPLAY_REALTIME to replay at the sample rate
+ */
+ADDAPI void hackrf_sweep_lib_set_iq_replay(const char* path, unsigned int flags);
 
 #endif /* HACKRF_SWEEP_H_ */
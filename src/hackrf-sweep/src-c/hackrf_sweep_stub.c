@@ -0,0 +1,134 @@
+/*
+ * Fake implementation of hackrf_sweep.h used to benchmark the java native bridges without HackRF hardware.
+ * Emits synthetic data with the same cadence and layout as the patched hackrf_sweep.c:
+ * every callback carries BLOCKS_PER_TRANSFER blocks, each block two runs of fftSize/4 bins,
+ * full_sweep_done is signalled when the tuning frequency wraps past freq_max.
+ * Callbacks are emitted as fast as possible until hackrf_sweep_lib_stop() is called,
+ * power values are generated only once so that the time is dominated by the bridge, not by the stub.
+ * With aggregation enabled, transfers are collected and passed in one callback per sweep or time slice,
+ * iq recording and replay are not supported.
+ */
+#include <stdlib.h>
+#include <string.h>
+#include <pthread.h>
+#include <time.h>
+#include "hackrf_sweep.h"
+
+#define DEFAULT_SAMPLE_RATE_HZ	(20000000)
+#define TUNE_STEP_HZ			(DEFAULT_SAMPLE_RATE_HZ)
+#define OFFSET_HZ				(7500000)
+#define BLOCKS_PER_TRANSFER		(16)
+#define FREQ_ONE_MHZ			(1000000ull)
+
+static volatile int do_exit = 0;
+static pthread_mutex_t state_lock = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t state_changed = PTHREAD_COND_INITIALIZER;
+static int running = 0;
+static unsigned int aggregation = 0;
+static unsigned int aggregation_interval_ms = 0;
+
+static long long elapsed_ms(struct timespec* since)
+{
+	struct timespec now;
+	clock_gettime(CLOCK_MONOTONIC, &now);
+	return (now.tv_sec - since->tv_sec) * 1000LL + (now.tv_nsec - since->tv_nsec) / 1000000LL;
+}
+
+ADDAPI int hackrf_sweep_lib_start( void (*_fft_power_callback)(char full_sweep_done, int bins, double* freqStart,  float fft_bin_Hz, float* powerdBm),
+		uint32_t freq_min, uint32_t freq_max, uint32_t fft_bin_width, uint32_t num_samples, unsigned int lna_gain, unsigned int vga_gain, unsigned int _antennaPowerEnable, unsigned int _enableAntennaLNA)
+{
+	int fftSize = DEFAULT_SAMPLE_RATE_HZ / fft_bin_width;
+	int runBins = fftSize / 4;
+	int steps = (int) (((freq_max - freq_min) * FREQ_ONE_MHZ + TUNE_STEP_HZ - 1) / TUNE_STEP_HZ);
+	int binsMaxEntries = runBins * 2 * (BLOCKS_PER_TRANSFER + (aggregation ? steps : 0));
+	double* freqStart = malloc(sizeof(double) * binsMaxEntries);
+	float* powerdBm = malloc(sizeof(float) * binsMaxEntries);
+	uint64_t frequency = freq_min * FREQ_ONE_MHZ;
+	uint32_t noise = 12345;
+	char fullSweepDone = 0;
+	int bins = 0;
+	struct timespec lastCallback;
+
+	for (int i = 0; i < binsMaxEntries; i++)
+	{
+		noise = noise * 1103515245 + 12345;
+		powerdBm[i] = -100.0f + (float) ((noise >> 16) & 0x3ff) / 100.0f;
+	}
+
+	pthread_mutex_lock(&state_lock);
+	running = 1;
+	pthread_mutex_unlock(&state_lock);
+	do_exit = 0;
+	clock_gettime(CLOCK_MONOTONIC, &lastCallback);
+	while (!do_exit)
+	{
+		for (int block = 0; block < BLOCKS_PER_TRANSFER; block++)
+		{
+			for (int run = 0; run < 2; run++)
+			{
+				double runStart = (double) (frequency + (run == 0 ? OFFSET_HZ : OFFSET_HZ + DEFAULT_SAMPLE_RATE_HZ / 4)) - DEFAULT_SAMPLE_RATE_HZ / 8.0;
+				for (int i = 0; i < runBins; i++)
+					freqStart[bins++] = runStart + i * (double) fft_bin_width;
+			}
+			frequency += TUNE_STEP_HZ;
+			if (frequency >= freq_max * FREQ_ONE_MHZ)
+			{
+				frequency = freq_min * FREQ_ONE_MHZ;
+				fullSweepDone = 1;
+			}
+		}
+		if (!aggregation || fullSweepDone || (aggregation_interval_ms > 0 && elapsed_ms(&lastCallback) >= aggregation_interval_ms))
+		{
+			_fft_power_callback(fullSweepDone, bins, freqStart, (float) fft_bin_width, powerdBm);
+			clock_gettime(CLOCK_MONOTONIC, &lastCallback);
+			fullSweepDone = 0;
+			bins = 0;
+		}
+	}
+
+	free(freqStart);
+	free(powerdBm);
+	pthread_mutex_lock(&state_lock);
+	running = 0;
+	pthread_cond_broadcast(&state_changed);
+	pthread_mutex_unlock(&state_lock);
+	return 0;
+}
+
+ADDAPI void hackrf_sweep_lib_stop()
+{
+	do_exit = 1;
+}
+
+ADDAPI void hackrf_sweep_lib_set_aggregation(unsigned int enabled, unsigned int max_interval_ms)
+{
+	aggregation = enabled;
+	aggregation_interval_ms = max_interval_ms;
+}
+
+ADDAPI void hackrf_sweep_lib_set_iq_recording(const char* path)
+{
+}
+
+ADDAPI void hackrf_sweep_lib_set_iq_replay(const char* path, unsigned int flags)
+{
+}
+
+ADDAPI int hackrf_sweep_lib_wait_stopped(unsigned int timeout_ms)
+{
+	struct timespec deadline;
+	clock_gettime(CLOCK_REALTIME, &deadline);
+	deadline.tv_sec += timeout_ms / 1000;
+	deadline.tv_nsec += (long) (timeout_ms % 1000) * 1000000L;
+	if (deadline.tv_nsec >= 1000000000L)
+	{
+		deadline.tv_sec++;
+		deadline.tv_nsec -= 1000000000L;
+	}
+	pthread_mutex_lock(&state_lock);
+	while (running && pthread_cond_timedwait(&state_changed, &state_lock, &deadline) == 0)
+		;
+	int stopped = !running;
+	pthread_mutex_unlock(&state_lock);
+	return stopped;
+}
@@ -10,6 +10,8 @@ import com.sun.jna.ptr.FloatByReference;
  * For help, please visit <a href="http://nativelibs4java.googlecode.com/">NativeLibs4Java</a> , <a href="http://rococoa.dev.java.net/">Rococoa</a>, or <a href="http://jna.dev.java.net/">JNA</a>.
  */
 public class HackrfSweepLibrary implements Library {
+	public static final int HACKRF_SWEEP_REPLAY_LOOP = 1;
+	public static final int HACKRF_SWEEP_REPLAY_REALTIME = 2;
 	public interface hackrf_sweep_lib_start__fft_power_callback_callback extends Callback {
 		void apply(byte full_sweep_done, int bins, DoubleByReference freqStart, float fft_bin_Hz, FloatByReference powerdBm);
 	};
@@ -20,4 +22,29 @@ public class HackrfSweepLibrary implements Library {
 	public static native int hackrf_sweep_lib_start(HackrfSweepLibrary.hackrf_sweep_lib_start__fft_power_callback_callback _fft_power_callback, int freq_min, int freq_max, int fft_bin_width, int num_samples, int lna_gain, int vga_gain, int _antennaPowerEnable, int _enableAntennaLNA);
 	/** Original signature : <code>void hackrf_sweep_lib_stop()</code> */
 	public static native void hackrf_sweep_lib_stop();
+	/**
+	 * waits until hackrf_sweep_lib_start() returns, returns non-zero if stopped, 0 on timeout<br>
+	 * Original signature : <code>int hackrf_sweep_lib_wait_stopped(unsigned int)</code>
+	 */
+	public static native int hackrf_sweep_lib_wait_stopped(int timeout_ms);
+	/**
+	 * applies to the next hackrf_sweep_lib_start()<br>
+	 * enabled = 0 - callback is called for every USB transfer (default)<br>
+	 * enabled = 1 - bins are collected into a full sweep buffer indexed by frequency and passed in one callback per sweep,<br>
+	 * if max_interval_ms is not 0, partially filled sweep is also passed when max_interval_ms elapsed since the last callback<br>
+	 * Original signature : <code>void hackrf_sweep_lib_set_aggregation(unsigned int, unsigned int)</code>
+	 */
+	public static native void hackrf_sweep_lib_set_aggregation(int enabled, int max_interval_ms);
+	/**
+	 * next hackrf_sweep_lib_start() writes raw sweep USB transfers to given file, NULL disables recording<br>
+	 * Original signature : <code>void hackrf_sweep_lib_set_iq_recording(const char*)</code>
+	 */
+	public static native void hackrf_sweep_lib_set_iq_recording(String path);
+	/**
+	 * next hackrf_sweep_lib_start() reads sweep transfers recorded by hackrf_sweep_lib_set_iq_recording() instead of USB<br>
+	 * and returns when the file ends, use the same freq_min and fft_bin_width as when recording, NULL disables replay<br>
+	 * flags - HACKRF_SWEEP_REPLAY_LOOP to replay the file until stopped, HACKRF_SWEEP_REPLAY_REALTIME to replay at the sample rate<br>
+	 * Original signature : <code>void hackrf_sweep_lib_set_iq_replay(const char*, unsigned int)</code>
+	 */
+	public static native void hackrf_sweep_lib_set_iq_replay(String path, int flags);
 }
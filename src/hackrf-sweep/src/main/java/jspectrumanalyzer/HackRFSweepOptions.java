@@ -0,0 +1,165 @@
+package jspectrumanalyzer;
+
+import java.io.File;
+import java.util.Properties;
+
+import jspectrumanalyzer.nativebridge.HackRFSweepNativeBridge;
+import jspectrumanalyzer.recording.SpectrumExportFormat;
+import jspectrumanalyzer.recording.SpectrumHistory;
+
+/**
+ * Startup options of the analyzer, given as system properties (<code>-Dhackrf.name=value</code>) and read here once.
+ * Everything that can change while running is a {@link jspectrumanalyzer.core.HackRFSettings} value,
+ * the options only give the initial value of such settings.
+ * <pre>
+ * Data source
+ *  hackrf.source                        native (default), file, replay or synthetic
+ *  hackrf.file                          file source: outputs of the stock hackrf_sweep tool separated by comma or path separator, default sweep.csv
+ *  hackrf.replay                        replay source: recording to play, default recording
+ *  hackrf.replay.speed                  replay source: 1 = real time (default), 0 = as fast as possible
+ *  hackrf.replay.loop                   replay source: false stops at the end of the recording
+ *  hackrf.synthetic.sweepsPerSecond     synthetic source: 0 = as fast as possible, default = hardware rate
+ *  hackrf.synthetic.binsPerCallback     synthetic source: default = same as hardware
+ *  hackrf.aggregation                   native source: off (default), sweep = one callback per sweep, number = per sweep or after given ms
+ *  hackrf.iq.record                     native source: file to record the raw sweep transfers to
+ *  hackrf.iq.replay                     native source: recorded transfers processed instead of HackRF, looped
+ *  hackrf.iq.replay.realtime            native source: false replays as fast as possible
+ *  hackrf.bridge                        native bridge, see {@link HackRFSweepNativeBridge#BRIDGE_PROPERTY}, read when the bridge loads
+ *  hackrf.pooledBins                    false lets the native bridge allocate new arrays for every callback
+ *
+ * Processing
+ *  hackrf.threads                       threads splitting the processing of wide spans, default number of processors
+ *  hackrf.progressive                   true refreshes the spectrum with the bins of the running sweep, for very long sweeps
+ *
+ * Recording, initial state of the "Record sweeps" setting
+ *  hackrf.record                        path prefix of the recordings, starts recording, default recording
+ *  hackrf.record.mode                   bins (default) records raw fft bins, frames records whole sweeps
+ *
+ * Triggered capture, initial state of the "Triggered capture" setting, captures are also triggered by F9
+ *  hackrf.capture                       path prefix of the captures, arms the capture, default capture
+ *  hackrf.capture.pre                   seconds recorded before a trigger, default 10
+ *  hackrf.capture.post                  seconds recorded after a trigger, default 10
+ *  hackrf.capture.memory                size of the pre-trigger ring in MB, default 64
+ *  hackrf.capture.level                 triggers on power above the level in dBm, default off
+ *  hackrf.capture.freq                  MHz range "from-to" of the level trigger, default any frequency
+ *  hackrf.capture.channel               true compares the channel power of the range instead of single bins
+ *
+ * Outputs of completed sweeps
+ *  hackrf.archive                       path of the spectrogram archive, default off
+ *  hackrf.archive.bits                  8 (default) stores 0.5dB steps, 16 stores 0.01dB steps
+ *  hackrf.export                        path of the exported files without extension, default off
+ *  hackrf.export.format                 csv (default), sigmf or binary
+ *  hackrf.export.interval               minimum ms between exports, 0 (default) exports every sweep
+ *  hackrf.history                       path of the long term history, one file per span, default off
+ *  hackrf.history.bins                  history bins per span, default {@value SpectrumHistory#DEFAULT_BINS}, at most the spectrum bins
+ * </pre>
+ */
+public class HackRFSweepOptions
+{
+	public static final String			SOURCE_NATIVE		= "native";
+	public static final String			SOURCE_FILE			= "file";
+	public static final String			SOURCE_REPLAY		= "replay";
+	public static final String			SOURCE_SYNTHETIC	= "synthetic";
+
+	public final String					source;
+	public final File[]					files;
+	public final String					replayPath;
+	public final double					replaySpeed;
+	public final boolean				replayLoop;
+	/**
+	 * NaN for the hardware rate
+	 */
+	public final double					syntheticSweepsPerSecond;
+	public final int					syntheticBinsPerCallback;
+	public final boolean				aggregation;
+	/**
+	 * 0 for one callback per sweep
+	 */
+	public final int					aggregationMillis;
+	public final String					iqRecordPath;
+	public final String					iqReplayPath;
+	public final boolean				iqReplayRealtime;
+	public final boolean				pooledBins;
+
+	public final int					threads;
+	public final boolean				progressive;
+
+	public final String					recordPath;
+	public final boolean				recordOnStart;
+	public final boolean				recordFrames;
+
+	public final String					capturePath;
+	public final boolean				captureOnStart;
+	public final int					capturePreSeconds;
+	public final int					capturePostSeconds;
+	public final int					captureMemoryMB;
+	/**
+	 * NaN if the level trigger is off
+	 */
+	public final float					captureLevel;
+	public final double					captureFreqFromMHz;
+	public final double					captureFreqToMHz;
+	public final boolean				captureChannelPower;
+
+	/**
+	 * null if off, same for the other output paths
+	 */
+	public final String					archivePath;
+	public final int					archiveBits;
+	public final String					exportPath;
+	public final SpectrumExportFormat	exportFormat;
+	public final int					exportIntervalMillis;
+	public final String					historyPath;
+	public final int					historyBins;
+
+	/**
+	 * @param properties usually {@link System#getProperties()}
+	 * @throws IllegalArgumentException if a value cannot be parsed
+	 */
+	public HackRFSweepOptions(Properties properties)
+	{
+		source = properties.getProperty("hackrf.source", SOURCE_NATIVE).toLowerCase();
+		String[] paths = properties.getProperty("hackrf.file", "sweep.csv").split("[," + File.pathSeparator + "]");
+		files = new File[paths.length];
+		for (int i = 0; i < paths.length; i++)
+			files[i] = new File(paths[i].trim());
+		replayPath = properties.getProperty("hackrf.replay", "recording");
+		replaySpeed = Double.parseDouble(properties.getProperty("hackrf.replay.speed", "1"));
+		replayLoop = Boolean.parseBoolean(properties.getProperty("hackrf.replay.loop", "true"));
+		syntheticSweepsPerSecond = Double.parseDouble(properties.getProperty("hackrf.synthetic.sweepsPerSecond", "NaN"));
+		syntheticBinsPerCallback = Integer.parseInt(properties.getProperty("hackrf.synthetic.binsPerCallback", "0"));
+		String aggregation = properties.getProperty("hackrf.aggregation", "off");
+		this.aggregation = !aggregation.equalsIgnoreCase("off");
+		aggregationMillis = !this.aggregation || aggregation.equalsIgnoreCase("sweep") ? 0 : Integer.parseInt(aggregation);
+		iqRecordPath = properties.getProperty("hackrf.iq.record");
+		iqReplayPath = properties.getProperty("hackrf.iq.replay");
+		iqReplayRealtime = Boolean.parseBoolean(properties.getProperty("hackrf.iq.replay.realtime", "true"));
+		pooledBins = Boolean.parseBoolean(properties.getProperty("hackrf.pooledBins", "true"));
+
+		threads = Integer.parseInt(properties.getProperty("hackrf.threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+		progressive = Boolean.parseBoolean(properties.getProperty("hackrf.progressive", "false"));
+
+		recordOnStart = properties.getProperty("hackrf.record") != null;
+		recordPath = properties.getProperty("hackrf.record", "recording");
+		recordFrames = "frames".equalsIgnoreCase(properties.getProperty("hackrf.record.mode"));
+
+		captureOnStart = properties.getProperty("hackrf.capture") != null;
+		capturePath = properties.getProperty("hackrf.capture", "capture");
+		capturePreSeconds = Integer.parseInt(properties.getProperty("hackrf.capture.pre", "10"));
+		capturePostSeconds = Integer.parseInt(properties.getProperty("hackrf.capture.post", "10"));
+		captureMemoryMB = Integer.parseInt(properties.getProperty("hackrf.capture.memory", "64"));
+		captureLevel = Float.parseFloat(properties.getProperty("hackrf.capture.level", "NaN"));
+		String[] captureFreq = properties.getProperty("hackrf.capture.freq", "0-" + Integer.MAX_VALUE).split("-");
+		captureFreqFromMHz = Double.parseDouble(captureFreq[0]);
+		captureFreqToMHz = Double.parseDouble(captureFreq[1]);
+		captureChannelPower = Boolean.parseBoolean(properties.getProperty("hackrf.capture.channel", "false"));
+
+		archivePath = properties.getProperty("hackrf.archive");
+		archiveBits = Integer.parseInt(properties.getProperty("hackrf.archive.bits", "8"));
+		exportPath = properties.getProperty("hackrf.export");
+		exportFormat = SpectrumExportFormat.valueOf(properties.getProperty("hackrf.export.format", "csv").toUpperCase());
+		exportIntervalMillis = Integer.parseInt(properties.getProperty("hackrf.export.interval", "0"));
+		historyPath = properties.getProperty("hackrf.history");
+		historyBins = Integer.parseInt(properties.getProperty("hackrf.history.bins", Integer.toString(SpectrumHistory.DEFAULT_BINS)));
+	}
+}
@@ -9,9 +9,11 @@ import java.awt.Frame;
 import java.awt.Graphics2D;
 import java.awt.Insets;
 import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
@@ -20,19 +22,33 @@ import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.lang.reflect.InvocationTargetException;
 import java.math.BigDecimal;
 import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.swing.AbstractAction;
 import javax.swing.ImageIcon;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JSplitPane;
+import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 
@@ -69,16 +85,36 @@ import org.jfree.chart.ui.TextAnchor;
 import jspectrumanalyzer.capture.ScreenCapture;
 import jspectrumanalyzer.core.DatasetSpectrumPeak;
 import jspectrumanalyzer.core.FFTBins;
+import jspectrumanalyzer.core.FFTBinsOverflowPolicy;
+import jspectrumanalyzer.core.FFTBinsRingBuffer;
+import jspectrumanalyzer.core.FloatArrayPool;
 import jspectrumanalyzer.core.FrequencyAllocationTable;
 import jspectrumanalyzer.core.FrequencyAllocations;
 import jspectrumanalyzer.core.FrequencyBand;
 import jspectrumanalyzer.core.FrequencyRange;
 import jspectrumanalyzer.core.HackRFSettings;
+import jspectrumanalyzer.core.LatencyHistogram;
 import jspectrumanalyzer.core.PersistentDisplay;
+import jspectrumanalyzer.core.SpectrumStripes;
+import jspectrumanalyzer.core.SpectrumTraces;
 import jspectrumanalyzer.core.SpurFilter;
+import jspectrumanalyzer.core.TraceMode;
 import jspectrumanalyzer.core.jfc.XYSeriesCollectionImmutable;
+import jspectrumanalyzer.core.jfc.XYSeriesImmutable;
+import jspectrumanalyzer.synthetic.SyntheticSweepSource;
 import jspectrumanalyzer.nativebridge.HackRFSweepDataCallback;
 import jspectrumanalyzer.nativebridge.HackRFSweepNativeBridge;
+import jspectrumanalyzer.nativebridge.HackRFSweepNativeSource;
+import jspectrumanalyzer.nativebridge.HackRFSweepSource;
+import jspectrumanalyzer.recording.HackRFSweepFileSource;
+import jspectrumanalyzer.recording.SpectrogramArchiveWriter;
+import jspectrumanalyzer.recording.SpectrumExportFormat;
+import jspectrumanalyzer.recording.SpectrumExporter;
+import jspectrumanalyzer.recording.SpectrumHistory;
+import jspectrumanalyzer.recording.SweepRecorder;
+import jspectrumanalyzer.recording.SweepRecordingSettings;
+import jspectrumanalyzer.recording.SweepReplaySource;
+import jspectrumanalyzer.recording.TriggeredCapture;
 import jspectrumanalyzer.ui.HackRFSweepSettingsUI;
 import jspectrumanalyzer.ui.WaterfallPlot;
 import shared.mvc.MVCController;
@@ -88,20 +124,31 @@ import shared.mvc.ModelValue.ModelValueInt;
 
 public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepDataCallback {
 
+	/**
+	 * Durations of one processing stage. Recording is lock-free, the statistics thread drains the recorded values
+	 * into the interval shown in the debug overlay and into the cumulative histogram that can be dumped to a file.
+	 */
 	private static class PerformanceEntry{
 		final String name;
-		long nanosSum;
-		int count;
+		final LatencyHistogram recorder	= new LatencyHistogram();
+		final LatencyHistogram.Snapshot interval	= new LatencyHistogram.Snapshot();
+		final LatencyHistogram.Snapshot cumulative	= new LatencyHistogram.Snapshot();
 		public PerformanceEntry(String name) {
 			this.name 	= name;
 		}
 		public void addDrawingTime(long nanos) {
-			nanosSum	+= nanos;
-			count++;
+			recorder.record(nanos);
+		}
+		/**
+		 * replaces the interval with values recorded since the last call and adds them to the cumulative histogram
+		 */
+		public void drain() {
+			interval.clear();
+			recorder.drainTo(interval);
+			cumulative.add(interval);
 		}
 		public void reset() {
-			count	= 0;
-			nanosSum	= 0;
+			interval.clear();
 		}
 		@Override
 		public String toString() {
@@ -109,25 +156,122 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 		}
 	}
 	
+	/**
+	 * Change of sweep parameters to be applied by the processing thread to the datasets
+	 */
+	private static class PendingRetune {
+		final FrequencyRange	frequency;
+		/**
+		 * when the change was requested by the user
+		 */
+		final long				requestedNanos;
+		/**
+		 * when the source was started with new parameters, data captured before are stale
+		 */
+		final long				sourceStartedNanos;
+		public PendingRetune(FrequencyRange frequency, long requestedNanos, long sourceStartedNanos) {
+			this.frequency = frequency;
+			this.requestedNanos = requestedNanos;
+			this.sourceStartedNanos = sourceStartedNanos;
+		}
+	}
+
 	private static class RuntimePerformanceWatch {
+		private final FFTBinsRingBuffer hwQueue;
 		/**
 		 * incoming full spectrum updates from the hardware
 		 */
 		int				hwFullSpectrumRefreshes	= 0;
 		volatile long	lastStatisticsRefreshed	= System.currentTimeMillis();
+		/**
+		 * bytes allocated by the native callback thread during the last full sweep, -1 if unknown
+		 */
+		volatile long	callbackAllocatedBytesPerSweep	= -1;
+		volatile String	sourceName	= "";
+		volatile int	threads		= 1;
+		volatile SweepRecorder	recorder	= null;
+		volatile SpectrogramArchiveWriter	archiveWriter	= null;
+		volatile SpectrumExporter	exporter	= null;
+		volatile SpectrumHistory	history		= null;
+		volatile TriggeredCapture	capture		= null;
+		/**
+		 * how the last retune was handled and how long it took until the first frame with new data was displayed
+		 */
+		volatile String	retuneKind	= "n/a";
+		volatile long	retuneToFirstFrameNanos	= -1;
+		/**
+		 * time from stop request until the sweep thread finished
+		 */
+		volatile long	stopLastNanos	= -1;
+		volatile long	stopMaxNanos	= -1;
+		/**
+		 * restarts skipped because a newer restart was requested before they started the source
+		 */
+		final AtomicLong	restartsCoalesced	= new AtomicLong();
+		/**
+		 * from capture of the data to its take from the HW queue
+		 */
+		PerformanceEntry queueWait	= new PerformanceEntry("HW queue wait");
+		/**
+		 * addition of the data to the spectrum dataset
+		 */
+		PerformanceEntry ingest	= new PerformanceEntry("Ingest");
+		PerformanceEntry spurFilter = new PerformanceEntry("Spur.fil");
+		PerformanceEntry peaks	= new PerformanceEntry("Peaks");
+		PerformanceEntry traces	= new PerformanceEntry("Traces");
 		PerformanceEntry persisentDisplay	= new PerformanceEntry("Pers.disp");
 		PerformanceEntry waterfallUpdate	= new PerformanceEntry("Wtrfall.upd");
 		PerformanceEntry waterfallDraw	= new PerformanceEntry("Wtrfll.drw");
 		PerformanceEntry chartDrawing	= new PerformanceEntry("Spectr.chart");
-		PerformanceEntry spurFilter = new PerformanceEntry("Spur.fil");
+		/**
+		 * from posting the chart update to its execution in the swing thread
+		 */
+		PerformanceEntry edtHandoff	= new PerformanceEntry("EDT handoff");
+		/**
+		 * capture to display latencies of the newest data in the frame
+		 */
+		PerformanceEntry captureToPost	= new PerformanceEntry("Capture>post");
+		PerformanceEntry captureToChart	= new PerformanceEntry("Capture>chart");
+		PerformanceEntry captureToWaterfall	= new PerformanceEntry("Capture>wtrfl");
+		/**
+		 * chart updates posted to the swing thread and not executed yet
+		 */
+		final AtomicInteger	edtFramesPending	= new AtomicInteger();
+		volatile int	edtFramesPendingMax	= 0;
+		/**
+		 * sweep ids of the last frame sent to the chart and the last frame the chart finished drawing
+		 */
+		volatile long	postedSweepId	= -1;
+		volatile long	displayedSweepId	= -1;
 		
 		private ArrayList<PerformanceEntry> entries	= new ArrayList<>();
-		public RuntimePerformanceWatch() {
+		/**
+		 * stages not counted to the total draw time
+		 */
+		private ArrayList<PerformanceEntry> latencies	= new ArrayList<>();
+		private final long startedMillis	= System.currentTimeMillis();
+		public RuntimePerformanceWatch(FFTBinsRingBuffer hwQueue) {
+			this.hwQueue	= hwQueue;
+			entries.add(ingest);
+			entries.add(spurFilter);
+			entries.add(peaks);
+			entries.add(traces);
 			entries.add(persisentDisplay);
 			entries.add(waterfallUpdate);
 			entries.add(waterfallDraw);
 			entries.add(chartDrawing);
-			entries.add(spurFilter);
+			latencies.add(queueWait);
+			latencies.add(edtHandoff);
+			latencies.add(captureToPost);
+			latencies.add(captureToChart);
+			latencies.add(captureToWaterfall);
+		}
+
+		public void framePosted(long sweepId) {
+			postedSweepId	= sweepId;
+			int pending	= edtFramesPending.incrementAndGet();
+			if (pending > edtFramesPendingMax)
+				edtFramesPendingMax	= pending;
 		}
 		
 		public synchronized String generateStatistics() {
@@ -137,11 +281,47 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 			StringBuilder b	= new StringBuilder();
 			long sumNanos	= 0;
 			for (PerformanceEntry entry : entries) {
-				sumNanos	+= entry.nanosSum;
-				float callsPerSec	= entry.count/(timeElapsed/1000f);
-				b.append(entry.name).append(String.format(" %3dms (%5.1f calls/s) \n", entry.nanosSum/1000000, callsPerSec));
+				entry.drain();
+				sumNanos	+= entry.interval.getSum();
+				appendStatistics(b, entry, timeElapsed);
 			}
-			b.append(String.format("Total: %4dms draw time/s: ", sumNanos/1000000));
+			b.append(String.format("Total: %4dms draw time/s \n", sumNanos/1000000));
+			for (PerformanceEntry entry : latencies) {
+				entry.drain();
+				appendStatistics(b, entry, timeElapsed);
+			}
+			/**
+			 * capture>post is spent in the source, the HW queue and the processing thread, the rest of capture>chart in the swing thread.
+			 * Waiting in the HW queue is a backlog of the processing thread, it is shown separately but counts to processing.
+			 */
+			long postNanos	= captureToPost.interval.getValueAtPercentile(50);
+			long queueWaitNanos	= Math.min(postNanos, queueWait.interval.getValueAtPercentile(50));
+			long edtNanos	= captureToChart.interval.getValueAtPercentile(50) - postNanos;
+			String bottleneck	= captureToChart.interval.getCount() == 0 ? "n/a" 
+					: edtNanos > postNanos || edtFramesPendingMax > 1 ? "EDT" : "processing";
+			b.append(String.format("Bottleneck: %s  (HW queue %.1fms, processing %.1fms, EDT %.1fms, EDT backlog max %d)  displayed sweep %d, %d behind \n",
+					bottleneck, queueWaitNanos / 1e6, (postNanos - queueWaitNanos) / 1e6, Math.max(0, edtNanos) / 1e6, edtFramesPendingMax, displayedSweepId,
+					displayedSweepId < 0 ? 0 : postedSweepId - displayedSweepId));
+			b.append(String.format("Callback alloc/sweep: %s  source %s  threads %d \n", callbackAllocatedBytesPerSweep < 0 ? "n/a"
+					: String.format("%.1fkB", callbackAllocatedBytesPerSweep / 1024d), sourceName, threads));
+			b.append(String.format("HW queue: depth %d/%d  max %d  dropped %d  [%s] \n", hwQueue.getDepth(), hwQueue.capacity(),
+					hwQueue.getHighWaterMark(), hwQueue.getDroppedCount(), hwQueue.getOverflowPolicy()));
+			b.append("Overflow: ").append(hwQueue.getOverflowStatistics()).append(" \n");
+			if (recorder != null)
+				b.append("Recorder: ").append(recorder.getStatistics()).append(" \n");
+			if (archiveWriter != null)
+				b.append("Archive: ").append(archiveWriter.getStatistics()).append(" \n");
+			if (exporter != null)
+				b.append("Export: ").append(exporter.getStatistics()).append(" \n");
+			if (history != null)
+				b.append("History: ").append(history.getStatistics()).append(" \n");
+			if (capture != null)
+				b.append("Capture: ").append(capture.getStatistics()).append(" \n");
+			b.append(String.format("Retune: %s  %s to first frame \n", retuneKind,
+					retuneToFirstFrameNanos < 0 ? "n/a" : String.format("%dms", retuneToFirstFrameNanos / 1000000)));
+			b.append(String.format("Stop: last %s  max %s  restarts coalesced %d",
+					stopLastNanos < 0 ? "n/a" : String.format("%.1fms", stopLastNanos / 1e6),
+					stopMaxNanos < 0 ? "n/a" : String.format("%.1fms", stopMaxNanos / 1e6), restartsCoalesced.get()));
 			return b.toString();
 //			double timeSpentDrawingChartPerSec = chartDrawingSum / (timeElapsed / 1000d) / 1000d;
 //			return String.format("Spectrum refreshes: %d / Chart redraws: %d / Drawing time in 1 sec %.2fs",
@@ -149,11 +329,43 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 
 		}
 
+		private void appendStatistics(StringBuilder b, PerformanceEntry entry, long timeElapsed) {
+			LatencyHistogram.Snapshot h	= entry.interval;
+			float callsPerSec	= h.getCount()/(timeElapsed/1000f);
+			b.append(String.format("%-12s %3dms (%5.1f calls/s)", entry.name, h.getSum()/1000000, callsPerSec));
+			if (h.getCount() > 0) {
+				b.append(String.format("  p50 %6.2fms p99 %6.2fms max %6.2fms", h.getValueAtPercentile(50) / 1e6,
+						h.getValueAtPercentile(99) / 1e6, h.getMax() / 1e6));
+			}
+			b.append(" \n");
+		}
+
+		/**
+		 * Writes cumulative histograms of all stages since the start
+		 */
+		public synchronized void dumpHistograms(File file) throws IOException {
+			try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+				writer.println(String.format("# latency histograms, %.1fs since start", (System.currentTimeMillis() - startedMillis) / 1000d));
+				ArrayList<PerformanceEntry> all	= new ArrayList<>(latencies);
+				all.addAll(entries);
+				for (PerformanceEntry entry : all) {
+					writer.println();
+					writer.println("# " + entry.name);
+					entry.cumulative.print(writer);
+				}
+			}
+		}
+
 		public synchronized void reset() {
 			hwFullSpectrumRefreshes = 0;
 			for (PerformanceEntry dataDrawingEntry : entries) {
 				dataDrawingEntry.reset();
 			}
+			for (PerformanceEntry latencyEntry : latencies) {
+				latencyEntry.reset();
+			}
+			edtFramesPendingMax	= edtFramesPending.get();
+			hwQueue.resetHighWaterMark();
 			lastStatisticsRefreshed = System.currentTimeMillis();
 		}
 	}
@@ -170,6 +382,17 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 	}
 
 	public static final int	SPECTRUM_PALETTE_SIZE_MIN	= 5;
+	/**
+	 * granularity of waiting for the sweep source to stop
+	 */
+	private static final int	STOP_WAIT_SLICE_MS	= 20;
+	/**
+	 * traces drawn as own series after the peaks and the spectrum, which is {@link TraceMode#CLEAR_WRITE}
+	 */
+	private static final TraceMode[]	CHART_TRACES	= { TraceMode.MAX_HOLD, TraceMode.MIN_HOLD, TraceMode.AVERAGE,
+			TraceMode.EXPONENTIAL_AVERAGE, TraceMode.RMS };
+	private static final Color[]	TRACE_COLORS	= { new Color(255, 80, 80), new Color(80, 160, 255), new Color(255, 210, 0),
+			new Color(0, 220, 120), new Color(220, 100, 255) };
 	private static boolean	captureGIF					= false;
 
 	private static long		initTime					= System.currentTimeMillis();
@@ -198,7 +421,6 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 	private ChartPanel								chartPanel;
 	private ColorScheme								colors								= new ColorScheme();
 	private DatasetSpectrumPeak						datasetSpectrum;
-	private int										dropped								= 0;
 	private volatile boolean						flagManualGain						= false;
 	private volatile boolean						forceStopSweep						= false;
 	/**
@@ -206,11 +428,83 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 	 */
 	private ScreenCapture							gifCap								= null;
 	private ArrayList<HackRFEventListener>			hRFlisteners							= new ArrayList<>();
-	private ArrayBlockingQueue<FFTBins>				hwProcessingQueue						= new ArrayBlockingQueue<>(
-			1000);
+	/**
+	 * startup options given by system properties, all of them are documented in {@link HackRFSweepOptions}
+	 */
+	private final HackRFSweepOptions				options								= new HackRFSweepOptions(System.getProperties());
+	/**
+	 * preallocated hand-off of native data to the processing thread
+	 */
+	private FFTBinsRingBuffer						hwProcessingQueue						= new FFTBinsRingBuffer(1024);
+	/**
+	 * native data is copied directly into {@link #hwProcessingQueue}'s slots unless the native bridge allocates new arrays for every callback
+	 */
+	private boolean									hwPooledBins						= options.pooledBins;
+	/**
+	 * producer of the data, synthetic source runs without hardware
+	 */
+	private HackRFSweepSource						sweepSource							= createSweepSource(options);
+	/**
+	 * records processed data while {@link #parameterRecording} is set, opened and closed by the processing thread, see {@link #updateRecording()}
+	 */
+	private volatile SweepRecorder					recorder							= null;
+	private boolean									recordFrames						= options.recordFrames;
+	/**
+	 * settings of the running sweep for recorders opened later
+	 */
+	private volatile SweepRecordingSettings			recordingSettings					= null;
+	/**
+	 * archives completed sweeps, see {@link #createArchiveWriter(HackRFSweepOptions)}
+	 */
+	private SpectrogramArchiveWriter				archiveWriter						= createArchiveWriter(options);
+	/**
+	 * exports spectrum and peak hold traces, see {@link #createExporter(HackRFSweepOptions)}
+	 */
+	private SpectrumExporter						exporter							= createExporter(options);
+	private long									exportIntervalNanos					= TimeUnit.MILLISECONDS.toNanos(options.exportIntervalMillis);
+	private long									lastExportNanos						= 0;
+	/**
+	 * long term history kept per span, see {@link SpectrumHistory#spanPath(String, int, int)} and {@link #addToHistory()}
+	 */
+	private String									historyPath							= options.historyPath;
+	private volatile SpectrumHistory				history								= null;
+	/**
+	 * records the sweeps around triggers while {@link #parameterTriggeredCapture} is set, see {@link #updateRecording()}
+	 */
+	private volatile TriggeredCapture				capture								= null;
+	private long									callbackAllocatedBytesLast			= -1;
+	private long									callbackAllocationThreadId			= -1;
 	private BufferedImage							imageFrequencyAllocationTableBands	= null;
 	private boolean											isChartDrawing						= false;
 	private ReentrantLock							lock								= new ReentrantLock();
+	private AtomicReference<PendingRetune>			pendingRetune						= new AtomicReference<>();
+	/**
+	 * retune waiting for its first displayed frame
+	 */
+	private PendingRetune							retuneAwaitingFrame					= null;
+	/**
+	 * capture time and sweep id of the data set to the chart and not drawn yet, 0 if drawn, swing thread only
+	 */
+	private long									chartFrameCaptureTimeNanos			= 0;
+	private long									chartFrameSweepId					= -1;
+	private volatile long							restartRequestedNanos				= System.nanoTime();
+	/**
+	 * incremented by every restart request, stale restarts compare it and give up
+	 */
+	private AtomicLong								restartGeneration					= new AtomicLong();
+	/**
+	 * arrays recycled when datasets are resized by retune
+	 */
+	private FloatArrayPool							spectrumBufferPool					= new FloatArrayPool(8 << 20);
+	/**
+	 * splits per-sweep processing of wide spans across frequency stripes, 1 thread processes everything in the processing thread
+	 */
+	private SpectrumStripes							spectrumStripes						= new SpectrumStripes(options.threads);
+	/**
+	 * refreshes peaks and the spectrum chart with the bins of the running sweep at the chart frame rate,
+	 * for very long sweeps; only bins changed since the previous frame are processed
+	 */
+	private boolean									progressiveRendering				= options.progressive;
 
 	private ModelValueBoolean						parameterAntennaLNA   				= new ModelValueBoolean("Antenna LNA +14dB", false);
 	private ModelValueBoolean						parameterAntPower					= new ModelValueBoolean("Ant power", false);
@@ -233,23 +527,38 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 	private ModelValueBoolean						parameterShowPeaks					= new ModelValueBoolean("Show peaks", false);
 
 	private ModelValueBoolean 						parameterDebugDisplay				= new ModelValueBoolean("Debug", false);
+	private ModelValueBoolean						parameterRecording					= new ModelValueBoolean("Record sweeps", options.recordOnStart);
+	private ModelValueBoolean						parameterTriggeredCapture			= new ModelValueBoolean("Triggered capture", options.captureOnStart);
+	
+	/**
+	 * files are read as fast as the processing takes the data, nothing has to be dropped
+	 */
+	private ModelValue<FFTBinsOverflowPolicy>		parameterHwQueueOverflowPolicy		= new ModelValue<>("HW queue overflow",
+			sweepSource instanceof HackRFSweepFileSource ? FFTBinsOverflowPolicy.BLOCK_WITH_TIMEOUT : FFTBinsOverflowPolicy.DROP_NEWEST);
 	
 	private ModelValue<BigDecimal>					parameterSpectrumLineThickness		= new ModelValue<>("Spectrum line thickness", new BigDecimal("1"));
 	private ModelValueInt							parameterSpectrumPaletteSize		= new ModelValueInt("Spectrum palette size", 0);
 	private ModelValueInt							parameterSpectrumPaletteStart		= new ModelValueInt("Spectrum palette start", 0);
 	private ModelValueBoolean						parameterSpurRemoval				= new ModelValueBoolean("Spur removal", false);
 	private ModelValueBoolean						parameterWaterfallVisible			= new ModelValueBoolean("Waterfall visible", true);
+	/**
+	 * visibility of each trace, the spectrum itself is {@link TraceMode#CLEAR_WRITE}
+	 */
+	private EnumMap<TraceMode, ModelValueBoolean>	parameterTraces						= createTraceParameters();
+	private ModelValueInt							parameterTraceAverageSweeps			= new ModelValueInt("Average sweeps",
+			SpectrumTraces.DEFAULT_AVERAGE_SWEEPS, 1, 1, 1000);
 	
 	private PersistentDisplay						persistentDisplay					= new PersistentDisplay();
 	private float									spectrumInitValue					= -150;
 	private SpurFilter								spurFilter;
+	private SpectrumTraces							spectrumTraces;
 	private Thread									threadHackrfSweep;
 	private ArrayBlockingQueue<Integer>				threadLaunchCommands				= new ArrayBlockingQueue<>(1);
 	private Thread									threadLauncher;
 	private Thread									threadProcessing;
 	private TextTitle								titleFreqBand						= new TextTitle("",
 			new Font("Dialog", Font.PLAIN, 11));
-	private RuntimePerformanceWatch					perfWatch							= new RuntimePerformanceWatch();
+	private RuntimePerformanceWatch					perfWatch							= new RuntimePerformanceWatch(hwProcessingQueue);
 	private JFrame									uiFrame;
 	private ValueMarker								waterfallPaletteEndMarker;
 	private ValueMarker								waterfallPaletteStartMarker;
@@ -305,6 +614,10 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 		setupChartMouseMarkers();
 
 		waterfallPlot = new WaterfallPlot(chartPanel, 300);
+		waterfallPlot.setDrawingLatencyHistogram(perfWatch.waterfallDraw.recorder);
+		waterfallPlot.setDisplayLatencyHistogram(perfWatch.captureToWaterfall.recorder);
+		waterfallPlot.setStripes(spectrumStripes);
+		persistentDisplay.setStripes(spectrumStripes);
 		waterfallPaletteStartMarker = new ValueMarker(waterfallPlot.getSpectrumPaletteStart(), colors.palette2,
 				new BasicStroke(1f));
 		waterfallPaletteEndMarker = new ValueMarker(
@@ -327,6 +640,19 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 		labelMessages = new JLabel("dsadasd");
 		labelMessages.setForeground(Color.white);
 		labelMessages.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+		labelMessages.setToolTipText("Click to dump latency histograms to a file");
+		labelMessages.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				File file = new File(String.format("latency_histograms_%1$tY%1$tm%1$td_%1$tH%1$tM%1$tS.txt", System.currentTimeMillis()));
+				try {
+					perfWatch.dumpHistograms(file);
+					System.out.println("Latency histograms written to " + file.getAbsolutePath());
+				} catch (IOException ex) {
+					ex.printStackTrace();
+				}
+			}
+		});
 		parameterDebugDisplay.addListener((debug) -> {
 			labelMessages.setVisible(debug);
 		});
@@ -346,6 +672,19 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 		uiFrame.add(splitPanePanel, BorderLayout.CENTER);
 		uiFrame.setMinimumSize(new Dimension(600, 600));
 		uiFrame.add(settingsPanel, BorderLayout.EAST);
+		/**
+		 * F9 triggers a capture manually while the capture is armed
+		 */
+		uiFrame.getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_F9, 0), "triggerCapture");
+		uiFrame.getRootPane().getActionMap().put("triggerCapture", new AbstractAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override public void actionPerformed(ActionEvent e) {
+				TriggeredCapture armed = capture;
+				if (armed != null)
+					armed.trigger();
+			}
+		});
 		try {
 			uiFrame.setIconImage(new ImageIcon("program.png").getImage());
 		} catch (Exception e) {
@@ -370,7 +709,26 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 		setupParameterObservers();
 
 		//shutdown on exit
-		Runtime.getRuntime().addShutdownHook(new Thread(() -> stopHackrfSweep()));
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			stopHackrfSweep();
+			try {
+				if (recorder != null)
+					recorder.close();
+				if (archiveWriter != null)
+					archiveWriter.close();
+				if (exporter != null)
+					exporter.close();
+				if (history != null)
+					history.close();
+				if (capture != null)
+					capture.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}));
+		perfWatch.archiveWriter = archiveWriter;
+		perfWatch.exporter = exporter;
+		perfWatch.threads = spectrumStripes.getParallelism();
 
 		if (captureGIF) {
 			try {
@@ -461,11 +819,36 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 		return parameterShowPeaks;
 	}
 	
+	@Override
+	public ModelValueBoolean isTraceVisible(TraceMode mode) {
+		return parameterTraces.get(mode);
+	}
+
+	@Override
+	public ModelValueInt getTraceAverageSweeps() {
+		return parameterTraceAverageSweeps;
+	}
+
 	@Override
 	public ModelValueBoolean isDebugDisplay() {
 		return parameterDebugDisplay;
 	}
 
+	@Override
+	public ModelValueBoolean isRecording() {
+		return parameterRecording;
+	}
+
+	@Override
+	public ModelValueBoolean isTriggeredCapture() {
+		return parameterTriggeredCapture;
+	}
+
+	@Override
+	public ModelValue<FFTBinsOverflowPolicy> getHwQueueOverflowPolicy() {
+		return parameterHwQueueOverflowPolicy;
+	}
+
 	@Override
 	public ModelValueBoolean isFilterSpectrum() {
 		return parameterFilterSpectrum;
@@ -491,10 +874,21 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 			float[] signalPowerdBm) {
 		//		System.out.println(frequencyStart+" "+fftBinWidthHz+" "+signalPowerdBm);
 		fireHardwareStateChanged(true);
-		if (!hwProcessingQueue.offer(new FFTBins(fullSweepDone, frequencyStart, fftBinWidthHz, signalPowerdBm))) {
-			System.out.println("queue full");
-			dropped++;
-		}
+		measureCallbackAllocation(fullSweepDone);
+		hwProcessingQueue.publish(fullSweepDone, frequencyStart, fftBinWidthHz, signalPowerdBm);
+	}
+
+	@Override
+	public void newSpectrumData(FFTBins fftBins) {
+		fireHardwareStateChanged(true);
+		measureCallbackAllocation(fftBins.fullSweepDone);
+		hwProcessingQueue.publish(fftBins);
+	}
+
+	@Override
+	public void spectrumDataDropped(boolean fullSweepDone) {
+		measureCallbackAllocation(fullSweepDone);
+		hwProcessingQueue.dropped(fullSweepDone);
 	}
 
 	@Override
@@ -538,6 +932,28 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 		}
 	}
 
+	/**
+	 * Measures bytes allocated by the native callback thread between full sweeps to
+	 * make the garbage generated by data ingest visible in the debug display
+	 * @param fullSweepDone
+	 */
+	private void measureCallbackAllocation(boolean fullSweepDone) {
+		if (!fullSweepDone)
+			return;
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+			return;
+		long threadId = Thread.currentThread().getId();
+		long allocated = ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(threadId);
+		if (allocated < 0)
+			return;
+		if (callbackAllocationThreadId == threadId && callbackAllocatedBytesLast >= 0) {
+			perfWatch.callbackAllocatedBytesPerSweep = allocated - callbackAllocatedBytesLast;
+		}
+		callbackAllocationThreadId = threadId;
+		callbackAllocatedBytesLast = allocated;
+	}
+
 	private FrequencyRange getFreq() {
 		return parameterFrequency.getValue();
 	}
@@ -553,14 +969,6 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 		//mainWhile:
 		//while(true)
 		{
-			FFTBins bin1 = null;
-			try {
-				bin1 = hwProcessingQueue.take();
-			} catch (InterruptedException e1) {
-				return;
-			}
-			float binHz = bin1.fftBinWidthHz;
-
 			/**
 			 * prevents from spectrum chart from using too much CPU
 			 */
@@ -569,18 +977,11 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 			
 			//			PowerCalibration calibration	 = new PowerCalibration(-45, -12.5, 40); 
 
-			datasetSpectrum = new DatasetSpectrumPeak(binHz, getFreq().getStartMHz(), getFreq().getEndMHz(),
-					spectrumInitValue, 15, parameterPeakFallRateSecs.getValue() * 1000);
-			chart.getXYPlot().getDomainAxis().setRange(getFreq().getStartMHz(), getFreq().getEndMHz());
-
 			XYSeries spectrumPeaksEmpty	= new XYSeries("peaks");
-			
-			float maxPeakJitterdB = 6;
-			float peakThresholdAboveNoise = 4;
-			int maxPeakBins = 4;
-			int validIterations = 25;
-			spurFilter = new SpurFilter(maxPeakJitterdB, peakThresholdAboveNoise, maxPeakBins, validIterations,
-					datasetSpectrum);
+			XYSeries spectrumEmpty	= new XYSeries("spectrum");
+			XYSeries[] tracesEmpty	= new XYSeries[CHART_TRACES.length];
+			for (int i = 0; i < CHART_TRACES.length; i++)
+				tracesEmpty[i]	= new XYSeries(CHART_TRACES[i].toString());
 
 			long lastChartUpdated = System.currentTimeMillis();
 			long lastScanStartTime = System.currentTimeMillis();
@@ -590,36 +991,88 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 				try {
 					counter++;
 					FFTBins bins = hwProcessingQueue.take();
-					if (parameterIsCapturingPaused.getValue())
+					perfWatch.queueWait.addDrawingTime(System.nanoTime() - bins.captureTimeNanos);
+					updateRecording();
+					PendingRetune retune = pendingRetune.get();
+					if (retune != null) {
+						if (bins.captureTimeNanos - retune.sourceStartedNanos < 0) {
+							/**
+							 * captured with previous parameters
+							 */
+							bins.release();
+							continue;
+						}
+						applyRetune(retune, bins.fftBinWidthHz);
+					}
+					if (datasetSpectrum == null) {
+						bins.release();
+						continue;
+					}
+					if (parameterIsCapturingPaused.getValue()) {
+						bins.release();
 						continue;
+					}
 					boolean triggerChartRefresh = bins.fullSweepDone;
+					/**
+					 * partial frame of the running sweep, see {@link #progressiveRendering}
+					 */
+					boolean progressiveFrame = !triggerChartRefresh && progressiveRendering
+							&& System.currentTimeMillis() - lastChartUpdated > 1000/limitChartRefreshFPS;
 					//continue;
+					if (recorder != null && !recordFrames)
+						recorder.record(bins);
 				
-					if (bins.freqStart != null && bins.sigPowdBm != null) {
+					if (bins.binsCount > 0) {
+						long start	= System.nanoTime();
 						//						PowerCalibration.correctPower(calibration, parameterGaindB, bins);
 						datasetSpectrum.addNewData(bins);
+						perfWatch.ingest.addDrawingTime(System.nanoTime() - start);
 					}
+					bins.release();
 
-					if ((triggerChartRefresh/* || timeDiff > 1000 */)) {
+					if ((triggerChartRefresh || progressiveFrame/* || timeDiff > 1000 */)) {
 						//						System.out.println("ctr "+counter+" dropped "+dropped);
+						if (triggerChartRefresh && recorder != null && recordFrames)
+							recorder.record(datasetSpectrum);
 						/**
-						 * filter first
+						 * filter first, calibrate only with complete sweeps
 						 */
-						if (parameterSpurRemoval.getValue()) {
+						if (parameterSpurRemoval.getValue() && (triggerChartRefresh || spurFilter.isFilterCalibrated())) {
 							long start	= System.nanoTime();
 							spurFilter.filterDataset();
-							synchronized (perfWatch) {
-								perfWatch.spurFilter.addDrawingTime(System.nanoTime()-start);
-							}
+							perfWatch.spurFilter.addDrawingTime(System.nanoTime()-start);
 						}
+						/**
+						 * archives keep the filtered spectrum, the same as shown
+						 */
+						if (triggerChartRefresh && archiveWriter != null)
+							archiveWriter.append(datasetSpectrum);
 						/**
 						 * after filtering, calculate peak spectrum
 						 */
 						if (parameterShowPeaks.getValue()) {
+							long start	= System.nanoTime();
 							datasetSpectrum.refreshPeakSpectrum();
+							perfWatch.peaks.addDrawingTime(System.nanoTime()-start);
 							waterfallPlot.setStatusMessage(String.format("Total Spectrum Peak Power %.1fdBm",
 									datasetSpectrum.calculateSpectrumPeakPower()), 0);
 						}
+						/**
+						 * traces, history, capture and export take complete sweeps only
+						 */
+						if (triggerChartRefresh) {
+							long tracesStart	= System.nanoTime();
+							spectrumTraces.update();
+							perfWatch.traces.addDrawingTime(System.nanoTime()-tracesStart);
+						}
+						if (triggerChartRefresh && historyPath != null)
+							addToHistory();
+						if (triggerChartRefresh && capture != null)
+							capture.add(datasetSpectrum);
+						if (triggerChartRefresh && exporter != null && System.nanoTime() - lastExportNanos >= exportIntervalNanos) {
+							lastExportNanos = System.nanoTime();
+							exporter.export(datasetSpectrum);
+						}
 
 						/**
 						 * Update performance counters
@@ -627,8 +1080,6 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 						if (System.currentTimeMillis() - perfWatch.lastStatisticsRefreshed > 1000) {
 							synchronized (perfWatch) {
 //								waterfallPlot.setStatusMessage(perfWatch.generateStatistics(), 1);
-								perfWatch.waterfallDraw.nanosSum	= waterfallPlot.getDrawTimeSumAndReset();
-								perfWatch.waterfallDraw.count	= waterfallPlot.getDrawingCounterAndReset();
 								String stats	= perfWatch.generateStatistics();
 								SwingUtilities.invokeLater(() -> {
 									labelMessages.setText(stats);
@@ -647,35 +1098,7 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 							lastChartUpdated = System.currentTimeMillis();
 						}
 
-						
-						XYSeries spectrumSeries;
-						XYSeries spectrumPeaks;
-
-						if (true) {
-							spectrumSeries = datasetSpectrum.createSpectrumDataset("spectrum");
-
-							if (parameterShowPeaks.getValue()) {
-								spectrumPeaks = datasetSpectrum.createPeaksDataset("peaks");
-							} else {
-								spectrumPeaks = spectrumPeaksEmpty;
-							}
-						} else {
-							spectrumSeries = new XYSeries("spectrum", false, true);
-							spectrumSeries.setNotify(false);
-							datasetSpectrum.fillToXYSeries(spectrumSeries);
-							spectrumSeries.setNotify(true);
-
-							spectrumPeaks =
-									//									new XYSeries("peaks");
-									new XYSeries("peaks", false, true);
-							if (parameterShowPeaks.getValue()) {
-								spectrumPeaks.setNotify(false);
-								datasetSpectrum.fillPeaksToXYSeries(spectrumPeaks);
-								spectrumPeaks.setNotify(false);
-							}
-						}
-
-						if (parameterPersistentDisplay.getValue()) {
+						if (triggerChartRefresh && parameterPersistentDisplay.getValue()) {
 							long start	= System.nanoTime();
 							boolean redraw	= false;
 							if (flagChartRedraw && frameCounterChart % limitPersistentRefreshEveryChartFrame == 0)
@@ -686,47 +1109,108 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 							(datasetSpectrum,
 									(float) chart.getXYPlot().getRangeAxis().getRange().getLowerBound(),
 									(float) chart.getXYPlot().getRangeAxis().getRange().getUpperBound(), redraw);
-							synchronized (perfWatch) {
-								perfWatch.persisentDisplay.addDrawingTime(System.nanoTime()-start);	
-							}
+							perfWatch.persisentDisplay.addDrawingTime(System.nanoTime()-start);
 						}
 
 						/**
 						 * do not render it in swing thread because it might
 						 * miss data
 						 */
-						if (parameterWaterfallVisible.getValue()) {
+						if (triggerChartRefresh && parameterWaterfallVisible.getValue()) {
 							long start	= System.nanoTime();
 							waterfallPlot.addNewData(datasetSpectrum);
-							synchronized (perfWatch) {
-								perfWatch.waterfallUpdate.addDrawingTime(System.nanoTime()-start);	
-							}
+							perfWatch.waterfallUpdate.addDrawingTime(System.nanoTime()-start);
 						}
 						
 						if (flagChartRedraw) {
 							if (parameterWaterfallVisible.getValue()) {
 								waterfallPlot.repaint();
 							}
+							/**
+							 * series hold snapshots until replaced, create them only for posted frames
+							 */
+							XYSeries spectrumSeries;
+							XYSeries spectrumPeaks;
+
+							if (true) {
+								spectrumSeries = parameterTraces.get(TraceMode.CLEAR_WRITE).getValue() ? 
+										datasetSpectrum.createSpectrumDataset("spectrum") : spectrumEmpty;
+
+								if (parameterShowPeaks.getValue()) {
+									spectrumPeaks = datasetSpectrum.createPeaksDataset("peaks");
+								} else {
+									spectrumPeaks = spectrumPeaksEmpty;
+								}
+							} else {
+								spectrumSeries = new XYSeries("spectrum", false, true);
+								spectrumSeries.setNotify(false);
+								datasetSpectrum.fillToXYSeries(spectrumSeries);
+								spectrumSeries.setNotify(true);
+
+								spectrumPeaks =
+										//									new XYSeries("peaks");
+										new XYSeries("peaks", false, true);
+								if (parameterShowPeaks.getValue()) {
+									spectrumPeaks.setNotify(false);
+									datasetSpectrum.fillPeaksToXYSeries(spectrumPeaks);
+									spectrumPeaks.setNotify(false);
+								}
+							}
+
+							/**
+							 * traces are converted to dBm only for displayed frames
+							 */
+							XYSeries[] traceSeries	= new XYSeries[CHART_TRACES.length];
+							for (int i = 0; i < CHART_TRACES.length; i++) {
+								TraceMode mode	= CHART_TRACES[i];
+								traceSeries[i]	= spectrumTraces.isValid(mode) ? spectrumTraces.createTraceDataset(mode, mode.toString()) : tracesEmpty[i];
+							}
+							PendingRetune frameRetune = retuneAwaitingFrame;
+							retuneAwaitingFrame = null;
+							long posted	= System.nanoTime();
+							long frameCaptureTime	= datasetSpectrum.getCaptureTimeNanos();
+							long frameSweepId	= datasetSpectrum.getSweepId();
+							perfWatch.captureToPost.addDrawingTime(posted - frameCaptureTime);
+							perfWatch.framePosted(frameSweepId);
 							SwingUtilities.invokeLater(() -> {
+								perfWatch.edtFramesPending.decrementAndGet();
+								perfWatch.edtHandoff.addDrawingTime(System.nanoTime() - posted);
 
 								chart.setNotify(false);
 
+								/**
+								 * replaced frames go back to the snapshot pools
+								 */
+								for (int i = 0; i < chartDataset.getSeriesCount(); i++) {
+									XYSeries displayed	= chartDataset.getSeries(i);
+									if (displayed instanceof XYSeriesImmutable)
+										((XYSeriesImmutable) displayed).release();
+								}
 								chartDataset.removeAllSeries();
 								chartDataset.addSeries(spectrumPeaks);
 								chartDataset.addSeries(spectrumSeries);
+								for (XYSeries series : traceSeries)
+									chartDataset.addSeries(series);
+								chartFrameCaptureTimeNanos = frameCaptureTime;
+								chartFrameSweepId = frameSweepId;
 								chart.setNotify(true);
 
+								if (frameRetune != null) {
+									perfWatch.retuneToFirstFrameNanos = System.nanoTime() - frameRetune.requestedNanos;
+								}
+
 								if (gifCap != null) {
 									gifCap.captureFrame();
 								}
 							});
 						}
 
-						synchronized (perfWatch) {
-							perfWatch.hwFullSpectrumRefreshes++;
+						if (triggerChartRefresh) {
+							synchronized (perfWatch) {
+								perfWatch.hwFullSpectrumRefreshes++;
+							}
+							counter = 0;
 						}
-
-						counter = 0;
 					}
 
 				} catch (InterruptedException e) {
@@ -738,6 +1222,50 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 
 	}
 
+	/**
+	 * Executes in the processing thread. Keeps the datasets if the span and fft bin width did not change, 
+	 * otherwise resizes them in place with arrays from {@link #spectrumBufferPool}.
+	 */
+	private void applyRetune(PendingRetune retune, float binHz) {
+		if (!pendingRetune.compareAndSet(retune, null))
+			return;
+		int freqStartMHz = retune.frequency.getStartMHz();
+		int freqEndMHz = retune.frequency.getEndMHz();
+		if (datasetSpectrum == null) {
+			datasetSpectrum = new DatasetSpectrumPeak(binHz, freqStartMHz, freqEndMHz,
+					spectrumInitValue, 15, parameterPeakFallRateSecs.getValue() * 1000);
+			datasetSpectrum.setStripes(spectrumStripes);
+
+			float maxPeakJitterdB = 6;
+			float peakThresholdAboveNoise = 4;
+			int maxPeakBins = 4;
+			int validIterations = 25;
+			spurFilter = new SpurFilter(maxPeakJitterdB, peakThresholdAboveNoise, maxPeakBins, validIterations,
+					datasetSpectrum, spectrumBufferPool, spectrumStripes);
+			spectrumTraces = new SpectrumTraces(datasetSpectrum, spectrumBufferPool, spectrumStripes);
+			spectrumTraces.setAverageSweeps(parameterTraceAverageSweeps.getValue());
+			for (TraceMode mode : TraceMode.values())
+				spectrumTraces.setEnabled(mode, parameterTraces.get(mode).getValue());
+			perfWatch.retuneKind = "new";
+		} else if (datasetSpectrum.getFFTBinSizeHz() == binHz && datasetSpectrum.getFreqStartMHz() == freqStartMHz
+				&& datasetSpectrum.getFreqStopMHz() == freqEndMHz) {
+			/**
+			 * spurs change with gain, everything else stays
+			 */
+			spurFilter.recalibrate();
+			spectrumTraces.reset();
+			perfWatch.retuneKind = "hot";
+		} else {
+			datasetSpectrum.reconfigure(binHz, freqStartMHz, freqEndMHz, spectrumBufferPool);
+			spurFilter.reconfigure();
+			spectrumTraces.reconfigure();
+			perfWatch.retuneKind = "resized";
+		}
+		chart.getXYPlot().getDomainAxis().setRange(freqStartMHz, freqEndMHz);
+		if (retune.requestedNanos >= 0)
+			retuneAwaitingFrame = retune;
+	}
+
 	private void recalculateGains(int totalGain) {
 		/**
 		 * use only lna gain when <=40 when >40, add only vga gain
@@ -756,6 +1284,8 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 	 * is important, delete others
 	 */
 	private synchronized void restartHackrfSweep() {
+		restartRequestedNanos = System.nanoTime();
+		restartGeneration.incrementAndGet();
 		if (threadLaunchCommands.offer(0) == false) {
 			threadLaunchCommands.clear();
 			threadLaunchCommands.offer(0);
@@ -766,12 +1296,30 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 	 * no need to synchronize, executes only in the launcher thread
 	 */
 	private void restartHackrfSweepExecute() {
-		stopHackrfSweep();
+		long generation = restartGeneration.get();
+		stopSweepThread();
+		if (generation != restartGeneration.get()) {
+			/**
+			 * newer restart was requested while stopping, its command is already queued
+			 */
+			perfWatch.restartsCoalesced.incrementAndGet();
+			return;
+		}
+		/**
+		 * processing thread and its datasets survive restarts, retune is applied to them in place
+		 */
+		if (threadProcessing == null) {
+			threadProcessing = new Thread(() -> {
+				Thread.currentThread().setName("hackrf_sweep data processing thread");
+				processingThread();
+			});
+			threadProcessing.start();
+		}
 		threadHackrfSweep = new Thread(() -> {
 			Thread.currentThread().setName("hackrf_sweep");
 			try {
 				forceStopSweep = false;
-				sweep();
+				sweep(generation);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -852,6 +1400,8 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 		plot.setBackgroundPaint(colors.palette4);
 		chart.setBackgroundPaint(colors.palette4);
 		chartLineRenderer.setSeriesPaint(1, colors.palette1);
+		for (int i = 0; i < CHART_TRACES.length; i++)
+			chartLineRenderer.setSeriesPaint(2 + i, TRACE_COLORS[i]);
 
 		chartPanel = new ChartPanel(chart);
 		chartPanel.setMaximumDrawWidth(4096);
@@ -942,8 +1492,15 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 				if (arg0.getType() == ChartProgressEvent.DRAWING_STARTED) {
 					chartRedrawStarted = System.nanoTime();
 				} else if (arg0.getType() == ChartProgressEvent.DRAWING_FINISHED) {
-					synchronized (perfWatch) {
-						perfWatch.chartDrawing.addDrawingTime(System.nanoTime() - chartRedrawStarted);
+					long now = System.nanoTime();
+					perfWatch.chartDrawing.addDrawingTime(now - chartRedrawStarted);
+					if (chartFrameCaptureTimeNanos != 0) {
+						/**
+						 * first drawing of a new frame, later redraws (e.g. mouse markers) show the same data
+						 */
+						perfWatch.captureToChart.addDrawingTime(now - chartFrameCaptureTimeNanos);
+						perfWatch.displayedSweepId = chartFrameSweepId;
+						chartFrameCaptureTimeNanos = 0;
 					}
 				}
 			}
@@ -1049,6 +1606,8 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 		parameterFFTBinHz.addListener(restartHackrf);
 		parameterSamples.addListener(restartHackrf);
 		parameterIsCapturingPaused.addListener(this::fireCapturingStateChanged);
+		parameterHwQueueOverflowPolicy.addListener(hwProcessingQueue::setOverflowPolicy);
+		hwProcessingQueue.setOverflowPolicy(parameterHwQueueOverflowPolicy.getValue());
 
 		parameterGainTotal.addListener((gainTotal) -> {
 			if (flagManualGain) //flag is being adjusted manually by LNA or VGA, do not recalculate the gains
@@ -1104,6 +1663,18 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 			});
 
 		});
+		for (TraceMode mode : TraceMode.values()) {
+			parameterTraces.get(mode).addListener((visible) -> {
+				SpectrumTraces traces = spectrumTraces;
+				if (traces != null)
+					traces.setEnabled(mode, visible);
+			});
+		}
+		parameterTraceAverageSweeps.addListener((sweeps) -> {
+			SpectrumTraces traces = spectrumTraces;
+			if (traces != null)
+				traces.setAverageSweeps(sweeps);
+		});
 		parameterPeakFallRateSecs.addListener((fallRate) -> {
 			datasetSpectrum.setPeakFalloutMillis(fallRate * 1000l);
 		});
@@ -1184,25 +1755,40 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 	 * no need to synchronize, executes only in launcher thread
 	 */
 	private void stopHackrfSweep() {
+		stopSweepThread();
+		stopProcessingThread();
+	}
+
+	/**
+	 * Stops the source and waits for the sweep thread. Sources with stop handshake signal completion
+	 * as soon as they return, stop is re-requested every {@link #STOP_WAIT_SLICE_MS} in case it was issued 
+	 * before the source started.
+	 */
+	private void stopSweepThread() {
+		long stopStarted = System.nanoTime();
 		forceStopSweep = true;
 		if (threadHackrfSweep != null) {
 			while (threadHackrfSweep.isAlive()) {
 				forceStopSweep = true;
 				//				System.out.println("Calling HackRFSweepNativeBridge.stop()");
-				HackRFSweepNativeBridge.stop();
+				sweepSource.stop();
 				try {
-					Thread.sleep(20);
+					sweepSource.awaitStopped(STOP_WAIT_SLICE_MS);
+					threadHackrfSweep.join(STOP_WAIT_SLICE_MS);
 				} catch (InterruptedException e) {
 				}
 			}
-			try {
-				threadHackrfSweep.join();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
 			threadHackrfSweep = null;
+			long stopNanos = System.nanoTime() - stopStarted;
+			perfWatch.stopLastNanos = stopNanos;
+			perfWatch.stopMaxNanos = Math.max(perfWatch.stopMaxNanos, stopNanos);
+			System.out.println(String.format("HackRFSweep thread stopped in %.1fms.", stopNanos / 1e6));
+		} else {
+			System.out.println("HackRFSweep thread stopped.");
 		}
-		System.out.println("HackRFSweep thread stopped.");
+	}
+
+	private void stopProcessingThread() {
 		if (threadProcessing != null) {
 			threadProcessing.interrupt();
 			try {
@@ -1215,31 +1801,200 @@ public class HackRFSweepSpectrumAnalyzer implements HackRFSettings, HackRFSweepD
 		}
 	}
 
-	private void sweep() throws IOException {
-		lock.lock();
+	private static EnumMap<TraceMode, ModelValueBoolean> createTraceParameters() {
+		EnumMap<TraceMode, ModelValueBoolean> traces = new EnumMap<>(TraceMode.class);
+		for (TraceMode mode : TraceMode.values())
+			traces.put(mode, new ModelValueBoolean(mode.toString(), mode == TraceMode.CLEAR_WRITE));
+		return traces;
+	}
+
+	/**
+	 * @see HackRFSweepOptions for the data source options
+	 */
+	private static HackRFSweepSource createSweepSource(HackRFSweepOptions options) {
+		if (HackRFSweepOptions.SOURCE_FILE.equals(options.source))
+			return new HackRFSweepFileSource(options.files);
+		if (HackRFSweepOptions.SOURCE_REPLAY.equals(options.source)) {
+			SweepReplaySource source = new SweepReplaySource(options.replayPath);
+			source.setSpeed(options.replaySpeed);
+			source.setLoop(options.replayLoop);
+			return source;
+		}
+		if (HackRFSweepOptions.SOURCE_SYNTHETIC.equals(options.source)) {
+			SyntheticSweepSource source = new SyntheticSweepSource();
+			if (!Double.isNaN(options.syntheticSweepsPerSecond))
+				source.setSweepsPerSecond(options.syntheticSweepsPerSecond);
+			source.setBinsPerCallback(options.syntheticBinsPerCallback);
+			return source;
+		}
+		HackRFSweepNativeSource source = new HackRFSweepNativeSource();
+		if (options.aggregation)
+			source.setAggregation(true, options.aggregationMillis);
+		source.setIQRecording(options.iqRecordPath);
+		source.setIQReplay(options.iqReplayPath, HackRFSweepNativeBridge.REPLAY_LOOP
+				| (options.iqReplayRealtime ? HackRFSweepNativeBridge.REPLAY_REALTIME : 0));
+		return source;
+	}
+
+	/**
+	 * Opens or closes the recorder and the capture after {@link #parameterRecording} and {@link #parameterTriggeredCapture} changed,
+	 * processing thread only. Every start creates a new recording named by the path prefix and the current time,
+	 * a setting is cleared again if its recording cannot be created.
+	 */
+	private void updateRecording() {
+		if (parameterRecording.getValue() != (recorder != null)) {
+			if (recorder == null) {
+				try {
+					SweepRecorder opened = new SweepRecorder(timestampedPath(options.recordPath));
+					if (recordingSettings != null)
+						opened.setSettings(recordingSettings);
+					recorder = opened;
+				} catch (IOException e) {
+					e.printStackTrace();
+					parameterRecording.setValue(false);
+				}
+			} else {
+				try {
+					recorder.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				recorder = null;
+			}
+			perfWatch.recorder = recorder;
+		}
+		if (parameterTriggeredCapture.getValue() != (capture != null)) {
+			if (capture == null) {
+				TriggeredCapture opened = new TriggeredCapture(timestampedPath(options.capturePath), options.captureMemoryMB << 18,
+						TriggeredCapture.DEFAULT_MAX_SWEEPS, TimeUnit.SECONDS.toMillis(options.capturePreSeconds),
+						TimeUnit.SECONDS.toMillis(options.capturePostSeconds));
+				if (!Float.isNaN(options.captureLevel))
+					opened.setLevelTrigger(options.captureFreqFromMHz * 1e6, options.captureFreqToMHz * 1e6, options.captureLevel,
+							options.captureChannelPower);
+				if (recordingSettings != null)
+					opened.setSettings(recordingSettings);
+				capture = opened;
+			} else {
+				try {
+					capture.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				capture = null;
+			}
+			perfWatch.capture = capture;
+		}
+	}
+
+	private static String timestampedPath(String prefix) {
+		return prefix + new SimpleDateFormat("-yyyyMMdd-HHmmss").format(new Date());
+	}
+
+	/**
+	 * Adds the completed sweep to the history of its span. After a retune the history of the previous span is closed
+	 * and the history of the new span is opened, or created if the span was not monitored before.
+	 * The number of history bins is at most the number of spectrum bins.
+	 */
+	private void addToHistory() {
+		int freqStartMHz = datasetSpectrum.getFreqStartMHz();
+		int freqStopMHz = datasetSpectrum.getFreqStopMHz();
+		if (history != null && !history.hasSpan(freqStartMHz, freqStopMHz)) {
+			try {
+				history.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			history = null;
+		}
+		if (history == null) {
+			int bins = Math.min(datasetSpectrum.spectrumLength(), options.historyBins);
+			try {
+				history = new SpectrumHistory(SpectrumHistory.spanPath(historyPath, freqStartMHz, freqStopMHz), freqStartMHz, freqStopMHz, bins);
+			} catch (IOException e) {
+				e.printStackTrace();
+				historyPath = null;
+				return;
+			}
+			perfWatch.history = history;
+		}
+		history.addSweep(datasetSpectrum);
+	}
+
+	/**
+	 * @return null if export is off or the exporter cannot be created
+	 */
+	private static SpectrumExporter createExporter(HackRFSweepOptions options) {
+		if (options.exportPath == null)
+			return null;
 		try {
-			threadProcessing = new Thread(() -> {
-				Thread.currentThread().setName("hackrf_sweep data processing thread");
-				processingThread();
-			});
-			threadProcessing.start();
+			return new SpectrumExporter(options.exportPath, options.exportFormat);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * 16 bit archive stores power in 0.01dB steps instead of 8 bit 0.5dB steps
+	 * @return null if archive is off or the archive cannot be created
+	 */
+	private static SpectrogramArchiveWriter createArchiveWriter(HackRFSweepOptions options) {
+		if (options.archivePath == null)
+			return null;
+		try {
+			if (options.archiveBits == 16)
+				return new SpectrogramArchiveWriter(options.archivePath, 16, -200, 0.01f, SpectrogramArchiveWriter.DEFAULT_FRAMES_PER_CHUNK);
+			return new SpectrogramArchiveWriter(options.archivePath);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
 
+	/**
+	 * @param generation restart generation this sweep was launched for, 
+	 * the source is not started if a newer restart was requested meanwhile
+	 */
+	private void sweep(long generation) throws IOException {
+		lock.lock();
+		try {
+			long requestedNanos = restartRequestedNanos;
 			/**
 			 * Ensures auto-restart if HW disconnects
 			 */
 			while (forceStopSweep == false) {
+				if (generation != restartGeneration.get()) {
+					perfWatch.restartsCoalesced.incrementAndGet();
+					break;
+				}
 				System.out.println(
 						"Starting hackrf_sweep... " + getFreq().getStartMHz() + "-" + getFreq().getEndMHz() + "MHz ");
 				System.out.println("hackrf_sweep params:  freq " + getFreq().getStartMHz() + "-" + getFreq().getEndMHz()
 						+ "MHz  FFTBin " + parameterFFTBinHz.getValue() + "Hz  samples " + parameterSamples.getValue()
 						+ "  lna: " + parameterGainLNA.getValue() + " vga: " + parameterGainVGA.getValue() + " antenna_lna: "+parameterAntennaLNA.getValue());
 				fireHardwareStateChanged(false);
-				HackRFSweepNativeBridge.start(this, getFreq().getStartMHz(), getFreq().getEndMHz(),
+				hwProcessingQueue.setFrequencyRange(getFreq().getStartMHz(), getFreq().getEndMHz());
+				perfWatch.sourceName = sweepSource.getName();
+				FrequencyRange freq = getFreq();
+				pendingRetune.set(new PendingRetune(freq, requestedNanos, System.nanoTime()));
+				requestedNanos = -1;
+				SweepRecordingSettings settings	= new SweepRecordingSettings(freq.getStartMHz(), freq.getEndMHz(), parameterFFTBinHz.getValue(),
+						parameterSamples.getValue(), parameterGainLNA.getValue(), parameterGainVGA.getValue(), parameterAntPower.getValue(),
+						parameterAntennaLNA.getValue());
+				recordingSettings = settings;
+				if (recorder != null)
+					recorder.setSettings(settings);
+				if (capture != null)
+					capture.setSettings(settings);
+				sweepSource.start(this, hwPooledBins ? hwProcessingQueue : null, freq.getStartMHz(), freq.getEndMHz(),
 						parameterFFTBinHz.getValue(), parameterSamples.getValue(), parameterGainLNA.getValue(),
 						parameterGainVGA.getValue(), parameterAntPower.getValue(), parameterAntennaLNA.getValue());
 				fireHardwareStateChanged(false);
-				if (forceStopSweep == false) {
-					Thread.sleep(1000);
+				/**
+				 * wait before auto-restart in short slices so that stop is not delayed
+				 */
+				for (int i = 0; i < 1000 / STOP_WAIT_SLICE_MS && forceStopSweep == false; i++) {
+					Thread.sleep(STOP_WAIT_SLICE_MS);
 				}
 			}
 		} catch (InterruptedException e) {
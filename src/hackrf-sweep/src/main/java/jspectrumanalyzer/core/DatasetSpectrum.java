@@ -16,14 +16,39 @@ public class DatasetSpectrum implements Cloneable
 	private final boolean useCached	= false;
 	protected ArrayList<ArrayList<XYDataItem>> cachedDataItems	= new ArrayList<>();
 	protected int cachedDataItemsIndex	= 0;
-	protected  final float	fftBinSizeHz;
+	protected  float	fftBinSizeHz;
 
-	protected  final long	freqStartHz;
-	protected  final int	freqStartMHz;
+	protected  long	freqStartHz;
+	protected  int	freqStartMHz;
 	
-	protected  final int	freqStopMHz;
+	protected  int	freqStopMHz;
 	protected  float[]		spectrum;
 	protected  float		spectrumInitPower;
+	/**
+	 * {@link FFTBins#captureTimeNanos} and {@link FFTBins#sweepId} of the newest data added
+	 */
+	protected  long		captureTimeNanos;
+	protected  long		sweepId	= -1;
+	/**
+	 * splits processing of large data, see {@link #setStripes(SpectrumStripes)}
+	 */
+	protected  SpectrumStripes	stripes	= SpectrumStripes.SERIAL;
+	/**
+	 * data being added by {@link #addNewData(FFTBins)}
+	 */
+	private  FFTBins	addedBins;
+	/**
+	 * bins changed by {@link #addNewData(FFTBins)}, reset or reconfiguration
+	 */
+	protected  DirtyBlocks	dirty;
+	/**
+	 * frequencies of the bins in MHz shared by published snapshots, replaced and never modified when the span changes
+	 */
+	private  float[]	frequenciesMHz;
+	private  SpectrumSnapshots	spectrumSnapshots	= new SpectrumSnapshots();
+
+	private static final SpectrumStripes.StripeTask<DatasetSpectrum>	COPY_SEGMENTS	= (dataset, stripe, from, to) -> dataset
+			.copySegments(dataset.addedBins, from, to);
 	
 	/**
 	 * Inits
@@ -45,6 +70,7 @@ public class DatasetSpectrum implements Cloneable
 		int datapoints = (int) (Math.ceil(freqStopMHz - freqStartMHz) * 1000000d / fftBinSizeHz);
 		spectrum = new float[datapoints];
 		Arrays.fill(spectrum, spectrumInitPower);
+		dirty = new DirtyBlocks(datapoints);
 
 		if (useCached) {
 			for (int j = 0; j < 5; j++) {
@@ -67,20 +93,115 @@ public class DatasetSpectrum implements Cloneable
 	{
 		boolean triggerRefresh = false;
 		triggerRefresh	= fftBins.fullSweepDone;
+		captureTimeNanos	= fftBins.captureTimeNanos;
+		sweepId	= fftBins.sweepId;
 
-		for (int binsIndex = 0; binsIndex < fftBins.freqStart.length; binsIndex++)
+		if (fftBins.fftBinWidthHz == fftBinSizeHz)
 		{
-			double freqStart = fftBins.freqStart[binsIndex];
-			int spectrIndex = (int) ((freqStart - freqStartHz) / fftBinSizeHz);
-			if (spectrIndex < 0 || spectrIndex >= spectrum.length)
-				continue;
-			spectrum[spectrIndex] = fftBins.sigPowdBm[binsIndex];
+			/**
+			 * bins are spaced the same as the spectrum, copy whole segments, 
+			 * large data is split by the spectrum range so that the stripes never write the same bin
+			 */
+			addedBins = fftBins;
+			stripes.forEach(stripes.stripeCount(fftBins.binsCount), spectrum.length, this, COPY_SEGMENTS);
+			addedBins = null;
+			for (int segment = 0; segment < fftBins.segmentsCount; segment++)
+			{
+				int spectrIndex = (int) Math.floor((fftBins.segmentFreqStartHz[segment] - freqStartHz) / fftBinSizeHz);
+				dirty.mark(spectrIndex, spectrIndex + fftBins.segmentBinCount[segment]);
+			}
+			return triggerRefresh;
+		}
+
+		int powerIndex = 0;
+		for (int segment = 0; segment < fftBins.segmentsCount; segment++)
+		{
+			int bins = fftBins.segmentBinCount[segment];
+			double freqStart = fftBins.segmentFreqStartHz[segment];
+			for (int i = 0; i < bins; i++)
+			{
+				int spectrIndex = (int) ((freqStart + i * (double) fftBins.fftBinWidthHz - freqStartHz) / fftBinSizeHz);
+				if (spectrIndex < 0 || spectrIndex >= spectrum.length)
+					continue;
+				spectrum[spectrIndex] = fftBins.sigPowdBm[powerIndex + i];
+			}
+			if (bins > 0)
+				dirty.mark((int) ((freqStart - freqStartHz) / fftBinSizeHz),
+						(int) ((freqStart + (bins - 1) * (double) fftBins.fftBinWidthHz - freqStartHz) / fftBinSizeHz) + 1);
+			powerIndex += bins;
 		}
-		
+
 
 		return triggerRefresh;
 	}
+
+	/**
+	 * Copies the parts of all segments that fall within spectrum indexes from to to - 1, 
+	 * segments are copied in order so later data overwrites earlier as if copied whole
+	 */
+	private void copySegments(FFTBins fftBins, int from, int to)
+	{
+		int powerIndex = 0;
+		for (int segment = 0; segment < fftBins.segmentsCount; segment++)
+		{
+			int bins = fftBins.segmentBinCount[segment];
+			int spectrIndex = (int) Math.floor((fftBins.segmentFreqStartHz[segment] - freqStartHz) / fftBinSizeHz);
+			int srcIndex = powerIndex;
+			int length = bins;
+			if (spectrIndex < from)
+			{
+				srcIndex += from - spectrIndex;
+				length -= from - spectrIndex;
+				spectrIndex = from;
+			}
+			if (spectrIndex + length > to)
+				length = to - spectrIndex;
+			if (length > 0)
+				System.arraycopy(fftBins.sigPowdBm, srcIndex, spectrum, spectrIndex, length);
+			powerIndex += bins;
+		}
+	}
+
+	/**
+	 * Sets the stripes used to process large data in parallel, {@link SpectrumStripes#SERIAL} by default
+	 */
+	public void setStripes(SpectrumStripes stripes)
+	{
+		this.stripes = stripes;
+	}
 	
+	/**
+	 * Changes frequency range and bin size of the dataset and resets it. 
+	 * Arrays are reused if the number of bins did not change, otherwise they are exchanged with the pool.
+	 * @param fftBinSizeHz
+	 * @param freqStartMHz
+	 * @param freqStopMHz
+	 * @param pool
+	 */
+	public void reconfigure(float fftBinSizeHz, int freqStartMHz, int freqStopMHz, FloatArrayPool pool)
+	{
+		this.fftBinSizeHz = fftBinSizeHz;
+		this.freqStartMHz = freqStartMHz;
+		this.freqStartHz = freqStartMHz * 1000000l;
+		this.freqStopMHz = freqStopMHz;
+		spectrum = resize(spectrum, pool);
+		Arrays.fill(spectrum, spectrumInitPower);
+		dirty.resize(spectrum.length);
+		frequenciesMHz = null;
+	}
+
+	/**
+	 * @return array of length matching current configuration, either the given one or one from the pool
+	 */
+	protected float[] resize(float[] array, FloatArrayPool pool)
+	{
+		int datapoints = (int) (Math.ceil(freqStopMHz - freqStartMHz) * 1000000d / fftBinSizeHz);
+		if (array.length == datapoints)
+			return array;
+		pool.release(array);
+		return pool.acquire(datapoints);
+	}
+
 	public DatasetSpectrum cloneMe()
 	{
 		DatasetSpectrum copy;
@@ -103,23 +224,71 @@ public class DatasetSpectrum implements Cloneable
 	public void copyTo(DatasetSpectrum filtered)
 	{
 		System.arraycopy(spectrum, 0, filtered.spectrum, 0, spectrum.length);
+		filtered.captureTimeNanos = captureTimeNanos;
+		filtered.sweepId = sweepId;
+		filtered.dirty.markAll();
 	}
 
 	/**
-	 * Creates {@link XYSeriesImmutable} from spectrum data 
+	 * @return {@link System#nanoTime()} when the newest data in the dataset was received from the source
+	 */
+	public long getCaptureTimeNanos()
+	{
+		return captureTimeNanos;
+	}
+
+	/**
+	 * @return id of the sweep the newest data belongs to, -1 if no data was added
+	 */
+	public long getSweepId()
+	{
+		return sweepId;
+	}
+
+	/**
+	 * Publishes the spectrum as {@link SpectrumSnapshot} and creates {@link XYSeriesImmutable} reading it without a copy,
+	 * {@link XYSeriesImmutable#release()} it once it is not displayed anymore
 	 * @param name
 	 * @return
 	 */
 	public XYSeriesImmutable createSpectrumDataset(String name) {
-		float[] xValues	= new float[spectrum.length];
-		float[] yValues	= spectrum;
-		for (int i = 0; i < spectrum.length; i++)
+		publishSpectrum();
+		XYSeriesImmutable xySeriesF	= new XYSeriesImmutable(name, spectrumSnapshots.acquire());
+		return xySeriesF;
+	}
+
+	/**
+	 * Publishes the current spectrum to readers of {@link #getSpectrumSnapshots()}, must be called by the processing thread
+	 */
+	public void publishSpectrum()
+	{
+		spectrumSnapshots.publish(getFrequenciesMHz(), spectrum, spectrum.length, sweepId, captureTimeNanos);
+	}
+
+	/**
+	 * @return snapshots of the spectrum published by {@link #publishSpectrum()}
+	 */
+	public SpectrumSnapshots getSpectrumSnapshots()
+	{
+		return spectrumSnapshots;
+	}
+
+	/**
+	 * @return frequencies of the bins in MHz, the array is replaced when the span changes and must not be modified
+	 */
+	public float[] getFrequenciesMHz()
+	{
+		float[] frequencies = frequenciesMHz;
+		if (frequencies == null)
 		{
-			float freq = (freqStartHz + fftBinSizeHz * i) / 1000000f;
-			xValues[i]	= freq;
+			frequencies = new float[spectrum.length];
+			for (int i = 0; i < frequencies.length; i++)
+			{
+				frequencies[i]	= (freqStartHz + fftBinSizeHz * i) / 1000000f;
+			}
+			frequenciesMHz = frequencies;
 		}
-		XYSeriesImmutable xySeriesF	= new XYSeriesImmutable(name, xValues, yValues);
-		return xySeriesF;
+		return frequencies;
 	}
 	
 	/**
@@ -158,11 +327,32 @@ public class DatasetSpectrum implements Cloneable
 		return freq;
 	}
 
+	/**
+	 * Calculates channel power, the sum of linear power of all bins with frequency within the range, see {@link DecibelTable}
+	 * @return power in dBm, {@link Double#NEGATIVE_INFINITY} if no bin is within the range
+	 */
+	public double calculateChannelPower(double freqFromHz, double freqToHz)
+	{
+		int from = (int) Math.max(0, Math.ceil((freqFromHz - freqStartHz) / fftBinSizeHz));
+		int to = (int) Math.min(spectrum.length - 1, Math.floor((freqToHz - freqStartHz) / fftBinSizeHz));
+		if (from > to)
+			return Double.NEGATIVE_INFINITY;
+		return 10 * Math.log10(DecibelTable.sumLinear(spectrum, from, to + 1));
+	}
+
 	public float getPower(int index)
 	{
 		return spectrum[index];
 	}
 
+	/**
+	 * @return bins changed since a stage last processed them, writes to {@link #getSpectrumArray()} from outside are not tracked
+	 */
+	public DirtyBlocks getDirtyBlocks()
+	{
+		return dirty;
+	}
+
 	public float[] getSpectrumArray()
 	{
 		return spectrum;
@@ -171,6 +361,7 @@ public class DatasetSpectrum implements Cloneable
 	public void resetSpectrum()
 	{
 		Arrays.fill(spectrum, spectrumInitPower);
+		dirty.markAll();
 	}
 	public void setSpectrumInitPower(float spectrumInitPower)
 	{
@@ -186,6 +377,8 @@ public class DatasetSpectrum implements Cloneable
 	{
 		DatasetSpectrum copy	= (DatasetSpectrum) super.clone();
 		copy.spectrum			= spectrum.clone();
+		copy.dirty				= new DirtyBlocks(spectrum.length);
+		copy.spectrumSnapshots	= new SpectrumSnapshots();
 		return copy;
 	}
 	
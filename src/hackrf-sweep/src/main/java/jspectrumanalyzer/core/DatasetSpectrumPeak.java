@@ -8,7 +8,6 @@ import jspectrumanalyzer.core.jfc.XYSeriesImmutable;
 
 public class DatasetSpectrumPeak extends DatasetSpectrum
 {
-	protected long		lastAdded			= System.currentTimeMillis();
 	protected long		peakFalloutMillis	= 1000;
 	protected float		peakFallThreshold;
 	/**
@@ -20,6 +19,26 @@ public class DatasetSpectrumPeak extends DatasetSpectrum
 	 * stores real peaks and if {@link #spectrumPeak} falls more than preset value below it, start using values from {@link #spectrumPeak}
 	 */
 	protected float[]	spectrumPeakHold;
+	/**
+	 * time of the last peak update and linear power sum of the peak hold of every {@link DirtyBlocks} block,
+	 * blocks not changed since the previous {@link #refreshPeakSpectrum()} keep both
+	 */
+	private long[]		blockRefreshMillis	= new long[0];
+	private double[]	blockPowerSums		= new double[0];
+	private boolean		blockPowerSumsValid	= false;
+	/**
+	 * newest change of the spectrum already in the peaks, the version the running {@link #refreshPeakSpectrum()} started from and its time
+	 */
+	private long		peaksVersion		= -1;
+	private long		refreshSince;
+	private long		refreshMillis;
+	/**
+	 * peak hold published for readers in other threads
+	 */
+	private SpectrumSnapshots	peakSnapshots	= new SpectrumSnapshots();
+
+	private static final SpectrumStripes.StripeTask<DatasetSpectrumPeak>	PEAK_UPDATE	= (dataset, stripe, from, to) -> dataset.refreshBlocks(from, to);
+	private static final SpectrumStripes.StripeTask<DatasetSpectrumPeak>	POWER_SUM	= (dataset, stripe, from, to) -> dataset.sumBlocks(from, to);
 	
 	public DatasetSpectrumPeak(float fftBinSizeHz, int freqStartMHz, int freqStopMHz, float spectrumInitPower, float peakFallThreshold, long peakFalloutMillis)
 	{
@@ -39,6 +58,14 @@ public class DatasetSpectrumPeak extends DatasetSpectrum
 
 	}
 
+	@Override public void reconfigure(float fftBinSizeHz, int freqStartMHz, int freqStopMHz, FloatArrayPool pool)
+	{
+		super.reconfigure(fftBinSizeHz, freqStartMHz, freqStopMHz, pool);
+		spectrumPeak = resize(spectrumPeak, pool);
+		spectrumPeakHold = resize(spectrumPeakHold, pool);
+		resetPeaks();
+	}
+
 	public void setPeakFalloutMillis(long peakFalloutMillis) {
 		this.peakFalloutMillis = peakFalloutMillis;
 	}
@@ -48,6 +75,7 @@ public class DatasetSpectrumPeak extends DatasetSpectrum
 		super.copyTo(filtered);
 		System.arraycopy(spectrumPeak, 0, filtered.spectrumPeak, 0, spectrumPeak.length);
 		System.arraycopy(spectrumPeakHold, 0, filtered.spectrumPeakHold, 0, spectrumPeakHold.length);
+		filtered.blockPowerSumsValid = false;
 	}
 
 	/**
@@ -61,23 +89,50 @@ public class DatasetSpectrumPeak extends DatasetSpectrum
 	}
 	
 
+	/**
+	 * Publishes the peak hold as {@link SpectrumSnapshot} and creates {@link XYSeriesImmutable} reading it without a copy,
+	 * {@link XYSeriesImmutable#release()} it once it is not displayed anymore
+	 */
 	public XYSeriesImmutable createPeaksDataset(String name) {
-		float[] xValues	= new float[spectrum.length];
-		float[] yValues	= spectrumPeakHold;
-		for (int i = 0; i < spectrum.length; i++)
-		{
-			float freq = (freqStartHz + fftBinSizeHz * i) / 1000000f;
-			xValues[i]	= freq;
-		}
-		XYSeriesImmutable xySeriesF	= new XYSeriesImmutable(name, xValues, yValues);
+		publishPeaks();
+		XYSeriesImmutable xySeriesF	= new XYSeriesImmutable(name, peakSnapshots.acquire());
 		return xySeriesF;
 	}
 
+	/**
+	 * Publishes the current peak hold to readers of {@link #getPeakSnapshots()}, must be called by the processing thread
+	 */
+	public void publishPeaks()
+	{
+		peakSnapshots.publish(getFrequenciesMHz(), spectrumPeakHold, spectrumPeakHold.length, sweepId, captureTimeNanos);
+	}
+
+	/**
+	 * @return snapshots of the peak hold published by {@link #publishPeaks()}
+	 */
+	public SpectrumSnapshots getPeakSnapshots()
+	{
+		return peakSnapshots;
+	}
+
+	/**
+	 * @return peak hold values, same indexing as {@link #getSpectrumArray()}
+	 */
+	public float[] getPeakHoldArray()
+	{
+		return spectrumPeakHold;
+	}
+
 	public double calculateSpectrumPeakPower(){
-		double powerSum	= 0;
-		for (int i = 0; i < spectrumPeakHold.length; i++) {
-			powerSum	+= Math.pow(10, spectrumPeakHold[i]/10); /*convert dB to mW to sum power in linear form*/
+		ensureBlocks();
+		if (!blockPowerSumsValid)
+		{
+			stripes.forEach(stripes.stripeCount(spectrumPeakHold.length), blockPowerSums.length, this, POWER_SUM); /*convert dB to mW to sum power in linear form*/
+			blockPowerSumsValid = true;
 		}
+		double powerSum	= 0;
+		for (double blockSum : blockPowerSums)
+			powerSum	+= blockSum;
 		powerSum	= 10*Math.log10(powerSum); /*convert back to dB*/ 
 		return powerSum;
 	}
@@ -92,35 +147,69 @@ public class DatasetSpectrumPeak extends DatasetSpectrum
 			debugLastPeakRerfreshTime	= System.currentTimeMillis();
 		}
 		
-		long timeDiffFromPrevValueMillis = System.currentTimeMillis() - lastAdded;
-		if (timeDiffFromPrevValueMillis < 1)
-			timeDiffFromPrevValueMillis = 1;
-		
-		lastAdded = System.currentTimeMillis();
-		
 //		peakFallThreshold = 10;
 //		peakFalloutMillis	= 30000;
-		for (int spectrIndex = 0; spectrIndex < spectrum.length; spectrIndex++)
+		ensureBlocks();
+		refreshMillis = System.currentTimeMillis();
+		refreshSince = peaksVersion;
+		peaksVersion = dirty.getVersion();
+		/**
+		 * only blocks changed since the previous refresh are updated, each decays by the time since its own last update
+		 */
+		stripes.forEach(stripes.stripeCount(dirty.countDirtyBins(refreshSince)), dirty.getBlockCount(), this, PEAK_UPDATE);
+	}
+
+	/**
+	 * Updates peaks of the blocks from to to - 1 changed since {@link #refreshSince}
+	 */
+	private void refreshBlocks(int fromBlock, int toBlock)
+	{
+		for (int block = fromBlock; block < toBlock; block++)
+		{
+			if (!dirty.isDirty(block, refreshSince))
+				continue;
+			long timeDiffFromPrevValueMillis = Math.max(1, refreshMillis - blockRefreshMillis[block]);
+			float weight = (float) Math.min(1, EMA.timeDependentWeight(timeDiffFromPrevValueMillis, peakFalloutMillis));
+			int from = dirty.blockStart(block);
+			int to = dirty.blockEnd(block);
+			SpectrumKernels.peakUpdate(spectrum, spectrumPeak, spectrumPeakHold, weight, peakFallThreshold, from, to);
+			blockRefreshMillis[block] = refreshMillis;
+			blockPowerSums[block] = DecibelTable.sumLinear(spectrumPeakHold, from, to);
+		}
+	}
+
+	private void sumBlocks(int fromBlock, int toBlock)
+	{
+		for (int block = fromBlock; block < toBlock; block++)
 		{
-			float spectrumVal = spectrum[spectrIndex];
-			if (spectrumVal > spectrumPeakHold[spectrIndex])
-			{
-				spectrumPeakHold[spectrIndex] = spectrumPeak[spectrIndex] = spectrumVal;
-			}
-
-			spectrumPeak[spectrIndex] = (float) EMA.calculateTimeDependent(spectrumVal, spectrumPeak[spectrIndex], timeDiffFromPrevValueMillis,
-					peakFalloutMillis);
-			if (spectrumPeakHold[spectrIndex] - spectrumPeak[spectrIndex] > peakFallThreshold)
-			{
-				spectrumPeakHold[spectrIndex] = spectrumPeak[spectrIndex];
-			}
+			blockPowerSums[block] = DecibelTable.sumLinear(spectrumPeakHold, dirty.blockStart(block), dirty.blockEnd(block));
 		}
 	}
 
+	/**
+	 * Sizes the per block state to the current {@link DirtyBlocks}, allocates only after {@link #reconfigure(float, int, int, FloatArrayPool)}
+	 */
+	private void ensureBlocks()
+	{
+		int blocks = dirty.getBlockCount();
+		if (blockRefreshMillis.length == blocks)
+			return;
+		blockRefreshMillis = new long[blocks];
+		Arrays.fill(blockRefreshMillis, System.currentTimeMillis());
+		blockPowerSums = new double[blocks];
+		blockPowerSumsValid = false;
+	}
+
 	public void resetPeaks()
 	{
 		Arrays.fill(spectrumPeak, spectrumInitPower);
 		Arrays.fill(spectrumPeakHold, spectrumInitPower);
+		Arrays.fill(blockRefreshMillis, System.currentTimeMillis());
+		blockPowerSumsValid = false;
+		/**
+		 * all blocks take the current spectrum at the next refresh
+		 */
+		peaksVersion = -1;
 	}
 
 	@Override protected Object clone() throws CloneNotSupportedException
@@ -128,7 +217,10 @@ public class DatasetSpectrumPeak extends DatasetSpectrum
 		DatasetSpectrumPeak copy = (DatasetSpectrumPeak) super.clone();
 		copy.spectrumPeakHold = spectrumPeakHold.clone();
 		copy.spectrumPeak = spectrumPeak.clone();
-		return super.clone();
+		copy.blockRefreshMillis = blockRefreshMillis.clone();
+		copy.blockPowerSums = blockPowerSums.clone();
+		copy.peakSnapshots = new SpectrumSnapshots();
+		return copy;
 	}
 
 }
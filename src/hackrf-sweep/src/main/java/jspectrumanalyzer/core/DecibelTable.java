@@ -0,0 +1,117 @@
+package jspectrumanalyzer.core;
+
+/**
+ * Conversion between dB and linear power using lookup tables with linear interpolation, shared by all power summations and linear averages.
+ * <p>
+ * dB to linear uses a table of 10^(dB/10) with {@value #STEPS_PER_DB} steps per dB from {@value #MIN_DB} to {@value #MAX_DB}dB,
+ * values outside are clamped to the range. The maximal relative error is 3e-5, i.e. 0.00013dB.
+ * <p>
+ * Linear to dB splits the float into exponent and mantissa and interpolates log2 of the mantissa in a table of 2^{@value #LOG2_BITS} steps.
+ * The maximal error is 0.00005dB, values below 10^({@value #MIN_DB}/10) including zero and negative values return {@value #MIN_DB}.
+ * <p>
+ * Both are several times faster than {@link Math#pow(double, double)}, {@link Math#exp(double)} and {@link Math#log10(double)}.
+ */
+public final class DecibelTable
+{
+	public static final int			MIN_DB			= -200;
+	public static final int			MAX_DB			= 100;
+	public static final int			STEPS_PER_DB	= 16;
+	public static final int			LOG2_BITS		= 10;
+
+	private static final float		MAX_INDEX		= (MAX_DB - MIN_DB) * STEPS_PER_DB;
+	private static final float		MIN_LINEAR		= (float) Math.pow(10, MIN_DB / 10d);
+	private static final int		MANTISSA_SHIFT	= 23 - LOG2_BITS;
+	private static final int		FRACTION_MASK	= (1 << MANTISSA_SHIFT) - 1;
+	private static final float		FRACTION_SCALE	= 1f / (1 << MANTISSA_SHIFT);
+	private static final float		DB_PER_OCTAVE	= (float) (10 * Math.log10(2));
+
+	/**
+	 * 10^(dB/10) for every step, one extra entry so that the interpolation of the last step does not need a bounds check
+	 */
+	private static final float[]	LINEAR			= new float[(int) MAX_INDEX + 2];
+	/**
+	 * log2(1 + mantissa) for every step of the mantissa, with the extra entry log2(2) = 1
+	 */
+	private static final float[]	LOG2			= new float[(1 << LOG2_BITS) + 1];
+
+	static
+	{
+		for (int i = 0; i < LINEAR.length; i++)
+		{
+			LINEAR[i] = (float) Math.pow(10, (MIN_DB + i / (double) STEPS_PER_DB) / 10);
+		}
+		for (int i = 0; i < LOG2.length; i++)
+		{
+			LOG2[i] = (float) (Math.log1p(i / (double) (1 << LOG2_BITS)) / Math.log(2));
+		}
+	}
+
+	private DecibelTable()
+	{
+	}
+
+	/**
+	 * @return 10^(dB/10), e.g. mW from dBm
+	 */
+	public static float toLinear(float dB)
+	{
+		float position = (dB - MIN_DB) * STEPS_PER_DB;
+		/**
+		 * comparisons instead of Math.min/max, lookups are not vectorized and the intrinsics are slower for scalars
+		 */
+		position = position > 0 ? (position < MAX_INDEX ? position : MAX_INDEX) : 0;
+		int index = (int) position;
+		float low = LINEAR[index];
+		return low + (LINEAR[index + 1] - low) * (position - index);
+	}
+
+	/**
+	 * @return 10 * log10(linear), e.g. dBm from mW
+	 */
+	public static float toDecibels(float linear)
+	{
+		int bits = Float.floatToRawIntBits(linear > MIN_LINEAR ? linear : MIN_LINEAR);
+		int exponent = (bits >>> 23) - 127;
+		int mantissa = bits & 0x7fffff;
+		int index = mantissa >>> MANTISSA_SHIFT;
+		float low = LOG2[index];
+		float log2 = low + (LOG2[index + 1] - low) * ((mantissa & FRACTION_MASK) * FRACTION_SCALE);
+		return (exponent + log2) * DB_PER_OCTAVE;
+	}
+
+	/**
+	 * linear[i] = 10^(dB[i]/10) for i from to to - 1
+	 */
+	public static void toLinear(float[] dB, float[] linear, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			linear[i] = toLinear(dB[i]);
+		}
+	}
+
+	/**
+	 * dB[i] = 10 * log10(linear[i] * scale) for i from to to - 1
+	 * @param scale e.g. 1/N to convert sums of N values to dB of their mean
+	 */
+	public static void toDecibels(float[] linear, float scale, float[] dB, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			dB[i] = toDecibels(linear[i] * scale);
+		}
+	}
+
+	/**
+	 * @return sum of linear power of dB[from] to dB[to - 1], e.g. total power in mW of dBm values
+	 */
+	public static double sumLinear(float[] dB, int from, int to)
+	{
+		double sum = 0;
+		for (int i = from; i < to; i++)
+		{
+			sum += toLinear(dB[i]);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,232 @@
+package jspectrumanalyzer.core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks which bins of a spectrum changed, as a coarse map of blocks of {@link #BLOCK_BINS} bins.
+ * <p>
+ * Every change stamps its blocks with a new version. A stage remembers the {@link #getVersion()} it last processed
+ * and processes only blocks changed after it, so any number of stages consume the same changes independently.
+ * Versions are unique across all instances, a version consumed from a replaced instance is older than every change of the new one.
+ * <p>
+ * A stage that must process every written bin exactly once, like the spur filter, uses the exact per-bin map of
+ * {@link #forEachPendingRange(long, int, int, int, Object, SpectrumStripes.StripeTask)} instead, as blocks may be written only partially.
+ * <p>
+ * Not thread safe, used by the processing thread.
+ */
+public class DirtyBlocks
+{
+	public static final int				BLOCK_SHIFT	= 10;
+	public static final int				BLOCK_BINS	= 1 << BLOCK_SHIFT;
+	private static final AtomicLong		VERSIONS	= new AtomicLong();
+
+	private int							bins;
+	/**
+	 * version of the newest change of every block
+	 */
+	private long[]						versions	= new long[0];
+	/**
+	 * bins marked by {@link #mark(int, int)} and not cleared by {@link #clearPending(long)} yet, one bit per bin
+	 */
+	private long[]						pending		= new long[0];
+	private long						version		= VERSIONS.get();
+
+	public DirtyBlocks(int bins)
+	{
+		resize(bins);
+	}
+
+	/**
+	 * Adapts to the new number of bins and marks all of them changed
+	 */
+	public void resize(int bins)
+	{
+		this.bins = bins;
+		int blocks = (bins + BLOCK_BINS - 1) >> BLOCK_SHIFT;
+		if (versions.length != blocks)
+			versions = new long[blocks];
+		int words = (bins + 63) >> 6;
+		if (pending.length != words)
+			pending = new long[words];
+		markAll();
+	}
+
+	/**
+	 * Marks bins from to to - 1 changed
+	 */
+	public void mark(int from, int to)
+	{
+		from = Math.max(0, from);
+		to = Math.min(bins, to);
+		if (from >= to)
+			return;
+		version = VERSIONS.incrementAndGet();
+		Arrays.fill(versions, from >> BLOCK_SHIFT, ((to - 1) >> BLOCK_SHIFT) + 1, version);
+		int fromWord = from >> 6;
+		int toWord = (to - 1) >> 6;
+		long fromMask = -1L << (from & 63);
+		long toMask = -1L >>> (63 - ((to - 1) & 63));
+		if (fromWord == toWord)
+		{
+			pending[fromWord] |= fromMask & toMask;
+		}
+		else
+		{
+			pending[fromWord] |= fromMask;
+			Arrays.fill(pending, fromWord + 1, toWord, -1L);
+			pending[toWord] |= toMask;
+		}
+	}
+
+	public void markAll()
+	{
+		mark(0, bins);
+	}
+
+	/**
+	 * Marks the blocks changed after the given version changed again, used by stages that modify the bins they process
+	 * so that the stages that already processed them see the modification
+	 */
+	public void markAgain(long sinceVersion)
+	{
+		long newVersion = VERSIONS.incrementAndGet();
+		for (int block = 0; block < versions.length; block++)
+		{
+			if (versions[block] > sinceVersion)
+				versions[block] = newVersion;
+		}
+		version = newVersion;
+	}
+
+	/**
+	 * @return version of the newest change, blocks changed later than the returned version will have greater versions
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	public int getBlockCount()
+	{
+		return versions.length;
+	}
+
+	/**
+	 * @return true if the block changed after the given version
+	 */
+	public boolean isDirty(int block, long sinceVersion)
+	{
+		return versions[block] > sinceVersion;
+	}
+
+	/**
+	 * @return first bin of the block
+	 */
+	public int blockStart(int block)
+	{
+		return block << BLOCK_SHIFT;
+	}
+
+	/**
+	 * @return bin after the last bin of the block
+	 */
+	public int blockEnd(int block)
+	{
+		return Math.min(bins, (block + 1) << BLOCK_SHIFT);
+	}
+
+	/**
+	 * Runs the task for every run of consecutive blocks changed after the version, clipped to bins from to to - 1
+	 * @param stripe passed to the task
+	 */
+	public <T> void forEachDirtyRange(long sinceVersion, int stripe, int from, int to, T target, SpectrumStripes.StripeTask<? super T> task)
+	{
+		to = Math.min(to, bins);
+		if (from >= to)
+			return;
+		int lastBlock = (to - 1) >> BLOCK_SHIFT;
+		int block = from >> BLOCK_SHIFT;
+		while (block <= lastBlock)
+		{
+			if (versions[block] <= sinceVersion)
+			{
+				block++;
+				continue;
+			}
+			int runStart = block;
+			while (block <= lastBlock && versions[block] > sinceVersion)
+				block++;
+			task.run(target, stripe, Math.max(from, blockStart(runStart)), Math.min(to, blockStart(block)));
+		}
+	}
+
+	/**
+	 * Runs the task for every run of consecutive bins marked by {@link #mark(int, int)} and not cleared yet,
+	 * within blocks changed after the version and clipped to bins from to to - 1
+	 * @param stripe passed to the task
+	 */
+	public <T> void forEachPendingRange(long sinceVersion, int stripe, int from, int to, T target, SpectrumStripes.StripeTask<? super T> task)
+	{
+		to = Math.min(to, bins);
+		int bin = from;
+		while (bin < to)
+		{
+			int block = bin >> BLOCK_SHIFT;
+			int end = Math.min(to, blockEnd(block));
+			if (versions[block] > sinceVersion)
+			{
+				while ((bin = nextBit(bin, end, true)) < end)
+				{
+					int runEnd = nextBit(bin, end, false);
+					task.run(target, stripe, bin, runEnd);
+					bin = runEnd;
+				}
+			}
+			bin = Math.max(bin, end);
+		}
+	}
+
+	/**
+	 * Clears the pending bins of blocks changed after the version, called once the pending bins were processed
+	 */
+	public void clearPending(long sinceVersion)
+	{
+		for (int block = 0; block < versions.length; block++)
+		{
+			if (versions[block] > sinceVersion)
+				Arrays.fill(pending, blockStart(block) >> 6, (blockEnd(block) + 63) >> 6, 0);
+		}
+	}
+
+	/**
+	 * @return first bin from bin to to - 1 with the pending bit set as given, to if none
+	 */
+	private int nextBit(int bin, int to, boolean set)
+	{
+		long invert = set ? 0 : -1L;
+		int word = bin >> 6;
+		long bits = (pending[word] ^ invert) & (-1L << (bin & 63));
+		while (bits == 0)
+		{
+			if (++word << 6 >= to)
+				return to;
+			bits = pending[word] ^ invert;
+		}
+		return Math.min(to, (word << 6) + Long.numberOfTrailingZeros(bits));
+	}
+
+	/**
+	 * @return number of bins in blocks changed after the given version
+	 */
+	public int countDirtyBins(long sinceVersion)
+	{
+		int count = 0;
+		for (int block = 0; block < versions.length; block++)
+		{
+			if (versions[block] > sinceVersion)
+				count += blockEnd(block) - blockStart(block);
+		}
+		return count;
+	}
+}
@@ -12,8 +12,7 @@ public class EMA
 
 	public static double calculateTimeDependent(double currentValue, double previousEMA, long timeDiffFromPreviousValueMillis, double orderInMillis)
 	{
-		double order = timeDiffFromPreviousValueMillis <= 0 ? 1 : orderInMillis / timeDiffFromPreviousValueMillis;
-		double k = 2 / (order + 1);
+		double k = timeDependentWeight(timeDiffFromPreviousValueMillis, orderInMillis);
 		double result;
 
 		result = currentValue * k + previousEMA * (1 - k);
@@ -21,6 +20,15 @@ public class EMA
 		return (result);
 	}
 
+	/**
+	 * @return weight of the current value used by {@link #calculateTimeDependent(double, double, long, double)}
+	 */
+	public static double timeDependentWeight(long timeDiffFromPreviousValueMillis, double orderInMillis)
+	{
+		double order = timeDiffFromPreviousValueMillis <= 0 ? 1 : orderInMillis / timeDiffFromPreviousValueMillis;
+		return 2 / (order + 1);
+	}
+
 	private double	ema	= 0;
 
 	private int		order;
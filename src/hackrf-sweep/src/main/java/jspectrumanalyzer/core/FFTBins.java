@@ -1,18 +1,169 @@
 package jspectrumanalyzer.core;
 
 /**
- * Storage for raw data coming out of hackrf_sweep
+ * Storage for raw data coming out of hackrf_sweep.
+ * <p>
+ * hackrf_sweep emits contiguous runs of fft bins, so frequencies are stored as segments -
+ * start frequency and bin count of each run with bins spaced by {@link #fftBinWidthHz}.
+ * Power values of all segments are stored one after another in {@link #sigPowdBm}.
+ * <p>
+ * Instances leased from {@link FFTBinsPool} are reused, their arrays can be larger than
+ * the data they hold, so always use {@link #binsCount} and {@link #segmentsCount} instead of the array length.
  */
 public class FFTBins
 {
-	public final float	fftBinWidthHz, sigPowdBm[];
-	public final double	freqStart[];
-	public final boolean fullSweepDone;
+	public float		fftBinWidthHz, sigPowdBm[];
+	public boolean		fullSweepDone;
+	/**
+	 * number of valid entries in {@link #sigPowdBm}
+	 */
+	public int			binsCount;
+	/**
+	 * start frequency of each segment's first bin
+	 */
+	public double		segmentFreqStartHz[];
+	/**
+	 * number of bins in each segment
+	 */
+	public int			segmentBinCount[];
+	/**
+	 * number of valid segments
+	 */
+	public int			segmentsCount;
+	/**
+	 * {@link System#nanoTime()} when the data was received from the source
+	 */
+	public long			captureTimeNanos;
+	/**
+	 * sequence number of the sweep the data belongs to, data flushed with {@link #fullSweepDone} completes the sweep
+	 */
+	public long			sweepId;
+	private final FFTBinsPool	pool;
+
 	public FFTBins(boolean fullSweepDone, double frequencyStart[], float fftBinWidthHz, float signalPowerdBm[])
 	{
 		this.fullSweepDone	= fullSweepDone;
 		this.fftBinWidthHz = fftBinWidthHz;
-		this.freqStart = frequencyStart;
 		this.sigPowdBm = signalPowerdBm;
+		this.binsCount = frequencyStart == null || signalPowerdBm == null ? 0 : frequencyStart.length;
+		this.pool = null;
+		this.captureTimeNanos = System.nanoTime();
+		this.segmentFreqStartHz = new double[4];
+		this.segmentBinCount = new int[4];
+		if (binsCount > 0)
+			addSegments(frequencyStart, 0, binsCount);
+	}
+
+	/**
+	 * Creates reusable bins owned by the given pool
+	 * @param pool
+	 * @param capacity initial capacity of the arrays
+	 */
+	FFTBins(FFTBinsPool pool, int capacity)
+	{
+		this.pool = pool;
+		this.sigPowdBm = new float[capacity];
+		this.segmentFreqStartHz = new double[16];
+		this.segmentBinCount = new int[16];
+	}
+
+	/**
+	 * Appends a segment of contiguous bins
+	 * @param freqStartHz frequency of the first bin
+	 * @param bins
+	 */
+	public void addSegment(double freqStartHz, int bins)
+	{
+		if (segmentsCount == segmentBinCount.length)
+		{
+			double[] freqs = new double[segmentsCount * 2];
+			int[] counts = new int[segmentsCount * 2];
+			System.arraycopy(segmentFreqStartHz, 0, freqs, 0, segmentsCount);
+			System.arraycopy(segmentBinCount, 0, counts, 0, segmentsCount);
+			segmentFreqStartHz = freqs;
+			segmentBinCount = counts;
+		}
+		segmentFreqStartHz[segmentsCount] = freqStartHz;
+		segmentBinCount[segmentsCount] = bins;
+		segmentsCount++;
+	}
+
+	/**
+	 * Converts per bin frequencies to segments and appends them.
+	 * Consecutive bins belong to the same segment if they are {@link #fftBinWidthHz} apart.
+	 * @param frequencyStart
+	 * @param offset
+	 * @param bins
+	 */
+	public void addSegments(double frequencyStart[], int offset, int bins)
+	{
+		double tolerance = fftBinWidthHz * 0.001;
+		int segmentStart = offset;
+		int end = offset + bins;
+		for (int i = offset + 1; i <= end; i++)
+		{
+			if (i == end || Math.abs(frequencyStart[i] - frequencyStart[i - 1] - fftBinWidthHz) > tolerance)
+			{
+				addSegment(frequencyStart[segmentStart], i - segmentStart);
+				segmentStart = i;
+			}
+		}
+	}
+
+	public int capacity()
+	{
+		return sigPowdBm == null ? 0 : sigPowdBm.length;
+	}
+
+	/**
+	 * Makes sure the power array can hold at least given number of bins. Reallocates only when growing.
+	 * @param bins
+	 */
+	public void ensureCapacity(int bins)
+	{
+		if (capacity() < bins)
+		{
+			sigPowdBm = new float[bins];
+		}
+	}
+
+	/**
+	 * Clears all data, keeps the arrays
+	 */
+	public void clear()
+	{
+		binsCount = 0;
+		segmentsCount = 0;
+		fullSweepDone = false;
+	}
+
+	/**
+	 * Expands the segments into a newly allocated array with one frequency per bin
+	 * @return frequencies or null if there are no bins
+	 */
+	public double[] toFrequencyArray()
+	{
+		if (binsCount == 0)
+			return null;
+		double[] freqs = new double[binsCount];
+		int index = 0;
+		for (int s = 0; s < segmentsCount; s++)
+		{
+			for (int i = 0; i < segmentBinCount[s]; i++)
+			{
+				freqs[index++] = segmentFreqStartHz[s] + i * (double) fftBinWidthHz;
+			}
+		}
+		return freqs;
+	}
+
+	/**
+	 * Returns the bins to the pool they were leased from. Does nothing for non-pooled bins.
+	 * The instance must not be used after it was released.
+	 */
+	public void release()
+	{
+		if (pool != null)
+			pool.release(this);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,97 @@
+package jspectrumanalyzer.core;
+
+import java.util.Arrays;
+
+/**
+ * Merges {@link FFTBins} into a single spectrum spanning the whole sweep range
+ * keeping only the latest power value of each bin.
+ * Used by {@link FFTBinsRingBuffer} to keep the newest picture when the processing falls behind.
+ */
+public class FFTBinsCoalescer {
+	private final long		freqStartHz;
+	private final float		fftBinWidthHz;
+	/**
+	 * latest power of each bin, NaN if the bin did not receive new data
+	 */
+	private final float[]	power;
+	private int				dirtyFrom	= Integer.MAX_VALUE;
+	private int				dirtyTo		= -1;
+	private boolean			fullSweepDone	= false;
+	/**
+	 * capture time of the newest merged data
+	 */
+	private long			captureTimeNanos;
+	private long			sweepId;
+
+	public FFTBinsCoalescer(int freqStartMHz, int freqStopMHz, float fftBinWidthHz) {
+		this.freqStartHz = freqStartMHz * 1000000l;
+		this.fftBinWidthHz = fftBinWidthHz;
+		int datapoints = (int) (Math.ceil(freqStopMHz - freqStartMHz) * 1000000d / fftBinWidthHz);
+		power = new float[datapoints];
+		Arrays.fill(power, Float.NaN);
+	}
+
+	/**
+	 * Writes all bins' power values over the previously merged values
+	 * @param fftBins
+	 */
+	public void merge(FFTBins fftBins) {
+		fullSweepDone |= fftBins.fullSweepDone;
+		captureTimeNanos = fftBins.captureTimeNanos;
+		sweepId = fftBins.sweepId;
+		int powerIndex = 0;
+		for (int segment = 0; segment < fftBins.segmentsCount; segment++) {
+			int bins = fftBins.segmentBinCount[segment];
+			double freqStart = fftBins.segmentFreqStartHz[segment];
+			for (int i = 0; i < bins; i++) {
+				int index = (int) ((freqStart + i * (double) fftBins.fftBinWidthHz - freqStartHz) / fftBinWidthHz);
+				if (index < 0 || index >= power.length)
+					continue;
+				power[index] = fftBins.sigPowdBm[powerIndex + i];
+				if (index < dirtyFrom)
+					dirtyFrom = index;
+				if (index > dirtyTo)
+					dirtyTo = index;
+			}
+			powerIndex += bins;
+		}
+	}
+
+	public boolean isCompatible(int freqStartMHz, int freqStopMHz, float fftBinWidthHz) {
+		return this.freqStartHz == freqStartMHz * 1000000l && this.fftBinWidthHz == fftBinWidthHz
+				&& power.length == (int) (Math.ceil(freqStopMHz - freqStartMHz) * 1000000d / fftBinWidthHz);
+	}
+
+	public boolean isEmpty() {
+		return dirtyTo < 0 && !fullSweepDone;
+	}
+
+	/**
+	 * Moves merged data to the target as segments of updated bins and clears this coalescer
+	 * @param target
+	 */
+	public void drainTo(FFTBins target) {
+		target.ensureCapacity(power.length);
+		target.clear();
+		target.fftBinWidthHz = fftBinWidthHz;
+		target.fullSweepDone = fullSweepDone;
+		target.captureTimeNanos = captureTimeNanos;
+		target.sweepId = sweepId;
+		int segmentStart = -1;
+		for (int i = dirtyFrom; i <= dirtyTo + 1; i++) {
+			boolean hasValue = i <= dirtyTo && !Float.isNaN(power[i]);
+			if (hasValue) {
+				if (segmentStart < 0)
+					segmentStart = i;
+				target.sigPowdBm[target.binsCount++] = power[i];
+				power[i] = Float.NaN;
+			} else if (segmentStart >= 0) {
+				target.addSegment(freqStartHz + segmentStart * (double) fftBinWidthHz, i - segmentStart);
+				segmentStart = -1;
+			}
+		}
+		dirtyFrom = Integer.MAX_VALUE;
+		dirtyTo = -1;
+		fullSweepDone = false;
+	}
+}
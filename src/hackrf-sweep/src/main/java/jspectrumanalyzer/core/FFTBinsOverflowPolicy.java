@@ -0,0 +1,35 @@
+package jspectrumanalyzer.core;
+
+/**
+ * What {@link FFTBinsRingBuffer} does with new data when the processing falls behind and the ring is full
+ */
+public enum FFTBinsOverflowPolicy {
+	/**
+	 * new data is thrown away
+	 */
+	DROP_NEWEST("Drop newest"),
+	/**
+	 * the oldest data waiting for processing is thrown away to make room for the new data
+	 */
+	DROP_OLDEST("Drop oldest"),
+	/**
+	 * new data is merged by frequency into a single spectrum keeping only the latest power per bin, 
+	 * which is processed as soon as the older data is drained
+	 */
+	COALESCE_BY_FREQUENCY("Coalesce by frequency"),
+	/**
+	 * producer waits for free space, new data is dropped if it does not become available in time
+	 */
+	BLOCK_WITH_TIMEOUT("Block with timeout");
+
+	private final String description;
+
+	private FFTBinsOverflowPolicy(String description) {
+		this.description = description;
+	}
+
+	@Override
+	public String toString() {
+		return description;
+	}
+}
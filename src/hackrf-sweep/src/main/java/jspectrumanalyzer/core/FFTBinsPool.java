@@ -0,0 +1,22 @@
+package jspectrumanalyzer.core;
+
+/**
+ * Source of reusable {@link FFTBins}. Bins are leased by the producer (native callback),
+ * handed to the consumer which returns them with {@link FFTBins#release()} when done,
+ * so that steady state data ingest does not allocate anything.
+ */
+public interface FFTBinsPool
+{
+	/**
+	 * Leases bins able to hold at least given number of fft bins.
+	 * @param bins
+	 * @return leased bins with {@link FFTBins#binsCount} set to bins or null if none are available
+	 */
+	public FFTBins lease(int bins);
+
+	/**
+	 * Returns bins to the pool, called by {@link FFTBins#release()}
+	 * @param fftBins
+	 */
+	public void release(FFTBins fftBins);
+}
@@ -0,0 +1,451 @@
+package jspectrumanalyzer.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single producer / single consumer ring of preallocated {@link FFTBins} slots used to hand
+ * data over from the native callback thread to the processing thread without locking or allocating.
+ * <p>
+ * Producer: {@link #lease(int)} a slot, fill it and {@link #publish(FFTBins)} it.<br>
+ * Consumer: {@link #take()} the oldest published slot, process it and {@link FFTBins#release()} it.
+ * <p>
+ * Slots are released in the same order they were taken, the consumer can hold only one slot at a time.
+ * What happens when the ring is full is decided by {@link FFTBinsOverflowPolicy}.
+ */
+public class FFTBinsRingBuffer implements FFTBinsPool
+{
+	private static final int	SLOT_FREE			= 0;
+	private static final int	SLOT_WRITING		= 1;
+	private static final int	SLOT_PUBLISHED		= 2;
+	private static final int	SLOT_READING		= 3;
+
+	private final FFTBins[]		slots;
+	/**
+	 * state of each slot, producer and consumer claim slots with CAS so that
+	 * {@link FFTBinsOverflowPolicy#DROP_OLDEST} can safely take over an unread slot
+	 */
+	private final AtomicIntegerArray	slotStates;
+	private final int			mask;
+	/**
+	 * sequence of the next slot to be taken by the consumer
+	 */
+	private final AtomicLong	head				= new AtomicLong();
+	/**
+	 * sequence of the next slot to be published by the producer
+	 */
+	private final AtomicLong	tail				= new AtomicLong();
+	/**
+	 * slot leased by the producer but not yet published
+	 */
+	private FFTBins				leased				= null;
+	private volatile Thread		waitingConsumer		= null;
+	/**
+	 * set by the producer after the last published data, see {@link #close()}
+	 */
+	private volatile boolean	closed				= false;
+
+	private volatile FFTBinsOverflowPolicy	overflowPolicy		= FFTBinsOverflowPolicy.DROP_NEWEST;
+	private volatile long		blockTimeoutNanos	= TimeUnit.MILLISECONDS.toNanos(100);
+
+	/**
+	 * {@link FFTBinsOverflowPolicy#COALESCE_BY_FREQUENCY} state, guarded by {@link #coalesceLock}
+	 */
+	private final Object		coalesceLock		= new Object();
+	private final FFTBins		coalesceInput		= new FFTBins(this, 0);
+	private final FFTBins		coalesceOutput		= new FFTBins(this, 0);
+	private FFTBinsCoalescer	coalescer			= null;
+	private volatile int		coalesceFreqStartMHz, coalesceFreqStopMHz;
+	private volatile boolean	coalescePending		= false;
+	/**
+	 * sequence published before the coalescing started, coalesced data is newer than anything before it
+	 */
+	private volatile long		coalesceBarrier		= 0;
+
+	/**
+	 * producer only, id assigned to the published data, incremented after data completing a sweep
+	 */
+	private long				producerSweepId		= 0;
+	private volatile int		highWaterMark		= 0;
+	private volatile long		publishedCount		= 0;
+	private volatile long		droppedNewestCount	= 0;
+	private volatile long		droppedOldestCount	= 0;
+	private volatile long		coalescedCount		= 0;
+	private volatile long		blockedCount		= 0;
+	private volatile long		blockedNanos		= 0;
+	private volatile long		blockTimeoutCount	= 0;
+
+	/**
+	 * @param capacity number of slots, rounded up to the power of two
+	 */
+	public FFTBinsRingBuffer(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		slots = new FFTBins[size];
+		slotStates = new AtomicIntegerArray(size);
+		mask = size - 1;
+		for (int i = 0; i < size; i++)
+		{
+			slots[i] = new FFTBins(this, 0);
+		}
+	}
+
+	public int capacity()
+	{
+		return slots.length;
+	}
+
+	/**
+	 * @return number of published slots waiting for the consumer
+	 */
+	public int getDepth()
+	{
+		return (int) (tail.get() - head.get());
+	}
+
+	/**
+	 * @return total number of data batches lost regardless of the policy
+	 */
+	public long getDroppedCount()
+	{
+		return droppedNewestCount + droppedOldestCount + blockTimeoutCount;
+	}
+
+	/**
+	 * @return maximum depth reached since the last {@link #resetHighWaterMark()}
+	 */
+	public int getHighWaterMark()
+	{
+		return highWaterMark;
+	}
+
+	public FFTBinsOverflowPolicy getOverflowPolicy()
+	{
+		return overflowPolicy;
+	}
+
+	public long getPublishedCount()
+	{
+		return publishedCount;
+	}
+
+	/**
+	 * @return human readable counters of the overflow policies
+	 */
+	public String getOverflowStatistics()
+	{
+		return String.format("drop newest %d / drop oldest %d / coalesced %d / blocked %d (%dms, %d timeouts)",
+				droppedNewestCount, droppedOldestCount, coalescedCount, blockedCount,
+				TimeUnit.NANOSECONDS.toMillis(blockedNanos), blockTimeoutCount);
+	}
+
+	/**
+	 * Producer only. Leases the next free slot able to hold given number of bins.
+	 * Slot's arrays are only reallocated if they are too small.
+	 * @param bins
+	 * @return slot or null if the ring is full and the overflow policy decided to drop the data
+	 */
+	@Override
+	public FFTBins lease(int bins)
+	{
+		FFTBinsOverflowPolicy policy = overflowPolicy;
+		if (coalescePending)
+		{
+			/**
+			 * keep coalescing until the consumer picks up the coalesced data, even if the policy changed meanwhile
+			 */
+			return leaseSlot(coalesceInput, bins);
+		}
+
+		long seq = tail.get();
+		if (seq - head.get() >= slots.length)
+		{
+			switch (policy)
+			{
+				case DROP_OLDEST:
+					if (!dropOldest())
+					{
+						droppedNewestCount++;
+						return null;
+					}
+					droppedOldestCount++;
+					break;
+				case COALESCE_BY_FREQUENCY:
+					return leaseSlot(coalesceInput, bins);
+				case BLOCK_WITH_TIMEOUT:
+					if (!waitForFreeSlot(seq))
+						return null;
+					break;
+				case DROP_NEWEST:
+				default:
+					droppedNewestCount++;
+					return null;
+			}
+		}
+		int index = (int) seq & mask;
+		if (!slotStates.compareAndSet(index, SLOT_FREE, SLOT_WRITING) && slotStates.get(index) != SLOT_WRITING)
+		{
+			droppedNewestCount++;
+			return null;
+		}
+		return leaseSlot(slots[index], bins);
+	}
+
+	/**
+	 * Producer only. Makes the leased slot visible to the consumer.
+	 * @param fftBins slot returned by the last {@link #lease(int)}
+	 */
+	public void publish(FFTBins fftBins)
+	{
+		if (fftBins != leased)
+			throw new IllegalStateException("Publishing slot that was not leased");
+		leased = null;
+		fftBins.sweepId = producerSweepId;
+		if (fftBins.fullSweepDone)
+			producerSweepId++;
+		if (fftBins == coalesceInput)
+		{
+			publishCoalesced(fftBins);
+			return;
+		}
+		long seq = tail.get();
+		slotStates.set((int) seq & mask, SLOT_PUBLISHED);
+		tail.set(seq + 1);
+		publishedCount++;
+		int depth = (int) (seq + 1 - head.get());
+		if (depth > highWaterMark)
+			highWaterMark = depth;
+		wakeUpConsumer();
+	}
+
+	/**
+	 * Producer only. Marks the end of the data, {@link #take()} returns null once all published data was taken.
+	 */
+	public void close()
+	{
+		closed = true;
+		wakeUpConsumer();
+	}
+
+	/**
+	 * Producer only. Keeps sweep ids in sync when the producer drops data because {@link #lease(int)} returned null.
+	 */
+	public void dropped(boolean fullSweepDone)
+	{
+		if (fullSweepDone)
+			producerSweepId++;
+	}
+
+	/**
+	 * Producer only. Copies given data into a new slot and publishes it.
+	 * @return false if the data was dropped
+	 */
+	public boolean publish(boolean fullSweepDone, double[] frequencyStart, float fftBinWidthHz, float[] signalPowerdBm)
+	{
+		int bins = frequencyStart == null || signalPowerdBm == null ? 0 : frequencyStart.length;
+		FFTBins slot = lease(bins);
+		if (slot == null)
+		{
+			dropped(fullSweepDone);
+			return false;
+		}
+		slot.fullSweepDone = fullSweepDone;
+		slot.fftBinWidthHz = fftBinWidthHz;
+		if (bins > 0)
+		{
+			System.arraycopy(signalPowerdBm, 0, slot.sigPowdBm, 0, bins);
+			slot.addSegments(frequencyStart, 0, bins);
+		}
+		publish(slot);
+		return true;
+	}
+
+	/**
+	 * Consumer only. Releases the slot returned by {@link #take()},
+	 * or cancels the lease if called by the producer for not yet published slot.
+	 */
+	@Override
+	public void release(FFTBins fftBins)
+	{
+		if (fftBins == leased)
+		{
+			leased = null;
+			if (fftBins != coalesceInput)
+				slotStates.set((int) tail.get() & mask, SLOT_FREE);
+			return;
+		}
+		if (fftBins == coalesceOutput)
+			return;
+		long seq = head.get();
+		int index = (int) seq & mask;
+		if (slots[index] != fftBins || slotStates.get(index) != SLOT_READING)
+			throw new IllegalStateException("Releasing slot out of order");
+		slotStates.set(index, SLOT_FREE);
+		head.set(seq + 1);
+	}
+
+	public void resetHighWaterMark()
+	{
+		highWaterMark = getDepth();
+	}
+
+	/**
+	 * @param timeout how long the producer waits for a free slot with {@link FFTBinsOverflowPolicy#BLOCK_WITH_TIMEOUT}
+	 * @param unit
+	 */
+	public void setBlockTimeout(long timeout, TimeUnit unit)
+	{
+		this.blockTimeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Sets frequency range of the sweep, required by {@link FFTBinsOverflowPolicy#COALESCE_BY_FREQUENCY}
+	 * @param freqStartMHz
+	 * @param freqStopMHz
+	 */
+	public void setFrequencyRange(int freqStartMHz, int freqStopMHz)
+	{
+		this.coalesceFreqStartMHz = freqStartMHz;
+		this.coalesceFreqStopMHz = freqStopMHz;
+	}
+
+	public void setOverflowPolicy(FFTBinsOverflowPolicy overflowPolicy)
+	{
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Consumer only. Waits for the oldest published slot.
+	 * @return slot that has to be released with {@link FFTBins#release()} before taking the next one,
+	 * null if the producer {@link #close() closed} the ring and all data was taken
+	 * @throws InterruptedException
+	 */
+	public FFTBins take() throws InterruptedException
+	{
+		int spins = 100;
+		while (true)
+		{
+			long seq = head.get();
+			if (tail.get() != seq)
+			{
+				int index = (int) seq & mask;
+				if (slotStates.compareAndSet(index, SLOT_PUBLISHED, SLOT_READING))
+				{
+					if (head.get() == seq)
+						return slots[index];
+					/**
+					 * the slot was taken over by the producer and published again as a newer one
+					 */
+					slotStates.set(index, SLOT_PUBLISHED);
+				}
+				continue;
+			}
+			if (coalescePending && coalesceBarrier == seq)
+			{
+				synchronized (coalesceLock)
+				{
+					coalescer.drainTo(coalesceOutput);
+					coalescePending = false;
+				}
+				return coalesceOutput;
+			}
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			/**
+			 * the producer publishes before closing, recheck the data after seeing the ring closed
+			 */
+			if (closed && tail.get() == seq && !coalescePending)
+				return null;
+			if (spins-- > 0)
+				continue;
+			waitingConsumer = Thread.currentThread();
+			if (tail.get() == seq && !coalescePending && !closed)
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+			waitingConsumer = null;
+		}
+	}
+
+	/**
+	 * Takes over the oldest published slot that the consumer did not start reading yet.
+	 * @return true if the slot was freed
+	 */
+	private boolean dropOldest()
+	{
+		long seq = head.get();
+		int index = (int) seq & mask;
+		if (!slotStates.compareAndSet(index, SLOT_PUBLISHED, SLOT_WRITING))
+			return false;
+		if (!head.compareAndSet(seq, seq + 1))
+		{
+			slotStates.set(index, SLOT_PUBLISHED);
+			return false;
+		}
+		return true;
+	}
+
+	private FFTBins leaseSlot(FFTBins slot, int bins)
+	{
+		slot.ensureCapacity(bins);
+		slot.clear();
+		slot.binsCount = bins;
+		slot.captureTimeNanos = System.nanoTime();
+		leased = slot;
+		return slot;
+	}
+
+	private void publishCoalesced(FFTBins fftBins)
+	{
+		synchronized (coalesceLock)
+		{
+			int freqStartMHz = coalesceFreqStartMHz;
+			int freqStopMHz = coalesceFreqStopMHz;
+			if (freqStopMHz <= freqStartMHz)
+			{
+				droppedNewestCount++;
+				return;
+			}
+			if (coalescer == null || (!coalescePending && !coalescer.isCompatible(freqStartMHz, freqStopMHz, fftBins.fftBinWidthHz)))
+				coalescer = new FFTBinsCoalescer(freqStartMHz, freqStopMHz, fftBins.fftBinWidthHz);
+			coalescer.merge(fftBins);
+			coalescedCount++;
+			if (!coalescePending)
+			{
+				coalesceBarrier = tail.get();
+				coalescePending = true;
+			}
+		}
+		wakeUpConsumer();
+	}
+
+	/**
+	 * @return true if a slot became free before the timeout
+	 */
+	private boolean waitForFreeSlot(long seq)
+	{
+		long start = System.nanoTime();
+		long deadline = start + blockTimeoutNanos;
+		blockedCount++;
+		while (seq - head.get() >= slots.length)
+		{
+			long now = System.nanoTime();
+			if (now >= deadline)
+			{
+				blockedNanos += now - start;
+				blockTimeoutCount++;
+				return false;
+			}
+			LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(50));
+		}
+		blockedNanos += System.nanoTime() - start;
+		return true;
+	}
+
+	private void wakeUpConsumer()
+	{
+		Thread consumer = waitingConsumer;
+		if (consumer != null)
+			LockSupport.unpark(consumer);
+	}
+}
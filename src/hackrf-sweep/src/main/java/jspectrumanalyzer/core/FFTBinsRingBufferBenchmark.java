@@ -0,0 +1,189 @@
+package jspectrumanalyzer.core;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the hand-off from the native callback thread to the processing thread through {@link FFTBinsRingBuffer}
+ * with the former {@link ArrayBlockingQueue} of newly allocated {@link FFTBins}:
+ * <pre>
+ * java -cp hackrf_sweep_spectrum_analyzer.jar jspectrumanalyzer.core.FFTBinsRingBufferBenchmark [bins] [batches] [batches/s]
+ * </pre>
+ * The throughput run publishes as fast as possible and waits when the hand-off is full,
+ * the paced run publishes at the given rate, drops data when the hand-off is full and shows the hand-off latency.
+ */
+public class FFTBinsRingBufferBenchmark
+{
+	/**
+	 * capacity of the former queue
+	 */
+	private static final int	CAPACITY	= 1000;
+
+	private interface HandOff
+	{
+		/**
+		 * @return false if the data was dropped
+		 */
+		boolean offer(double[] frequencyStart, float fftBinWidthHz, float[] signalPowerdBm) throws InterruptedException;
+
+		/**
+		 * Hands over the end marker, waits until there is space for it
+		 */
+		void end() throws InterruptedException;
+
+		FFTBins take() throws InterruptedException;
+	}
+
+	/**
+	 * Former hand-off, every callback allocates new arrays and bins
+	 */
+	private static class QueueHandOff implements HandOff
+	{
+		private final ArrayBlockingQueue<FFTBins>	queue	= new ArrayBlockingQueue<>(CAPACITY);
+		private final boolean						blocking;
+
+		QueueHandOff(boolean blocking)
+		{
+			this.blocking = blocking;
+		}
+
+		@Override public boolean offer(double[] frequencyStart, float fftBinWidthHz, float[] signalPowerdBm) throws InterruptedException
+		{
+			FFTBins bins = new FFTBins(false, frequencyStart.clone(), fftBinWidthHz, signalPowerdBm.clone());
+			if (!blocking)
+				return queue.offer(bins);
+			queue.put(bins);
+			return true;
+		}
+
+		@Override public void end() throws InterruptedException
+		{
+			queue.put(new FFTBins(false, null, -1, null));
+		}
+
+		@Override public FFTBins take() throws InterruptedException
+		{
+			return queue.take();
+		}
+	}
+
+	private static class RingHandOff implements HandOff
+	{
+		private final FFTBinsRingBuffer	ring	= new FFTBinsRingBuffer(CAPACITY);
+
+		RingHandOff(boolean blocking)
+		{
+			ring.setOverflowPolicy(blocking ? FFTBinsOverflowPolicy.BLOCK_WITH_TIMEOUT : FFTBinsOverflowPolicy.DROP_NEWEST);
+			ring.setBlockTimeout(1, TimeUnit.MINUTES);
+		}
+
+		@Override public boolean offer(double[] frequencyStart, float fftBinWidthHz, float[] signalPowerdBm)
+		{
+			return ring.publish(false, frequencyStart, fftBinWidthHz, signalPowerdBm);
+		}
+
+		@Override public void end()
+		{
+			ring.setOverflowPolicy(FFTBinsOverflowPolicy.BLOCK_WITH_TIMEOUT);
+			ring.publish(false, null, -1, null);
+		}
+
+		@Override public FFTBins take() throws InterruptedException
+		{
+			return ring.take();
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		int bins = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+		int batches = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+		int rate = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+
+		float fftBinWidthHz = 100_000;
+		double[] frequencyStart = new double[bins];
+		float[] signalPowerdBm = new float[bins];
+		Random random = new Random(1);
+		for (int i = 0; i < bins; i++)
+		{
+			frequencyStart[i] = 2_400_000_000d + i * fftBinWidthHz;
+			signalPowerdBm[i] = -100 + random.nextFloat() * 10;
+		}
+		System.out.println(String.format("%d bins per batch, %d batches, paced at %d batches/s", bins, batches, rate));
+		System.out.println("hand-off  run           batches/s   p50 us   p99 us p99.9 us   max us  dropped");
+
+		/**
+		 * warm up both hand-offs before measuring
+		 */
+		for (int i = 0; i < 2; i++)
+		{
+			run(null, new QueueHandOff(true), frequencyStart, fftBinWidthHz, signalPowerdBm, batches / 4, 0);
+			run(null, new RingHandOff(true), frequencyStart, fftBinWidthHz, signalPowerdBm, batches / 4, 0);
+		}
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+		run("queue     throughput", new QueueHandOff(true), frequencyStart, fftBinWidthHz, signalPowerdBm, batches, 0);
+		run("ring      throughput", new RingHandOff(true), frequencyStart, fftBinWidthHz, signalPowerdBm, batches, 0);
+		run("queue     paced     ", new QueueHandOff(false), frequencyStart, fftBinWidthHz, signalPowerdBm, batches, intervalNanos);
+		run("ring      paced     ", new RingHandOff(false), frequencyStart, fftBinWidthHz, signalPowerdBm, batches, intervalNanos);
+	}
+
+	/**
+	 * Publishes the batches from the calling thread, a consumer thread takes them and records the hand-off latency
+	 * @param name printed with the results, null does not print anything
+	 * @param intervalNanos time between batches, 0 publishes as fast as possible
+	 */
+	private static void run(String name, HandOff handOff, double[] frequencyStart, float fftBinWidthHz, float[] signalPowerdBm, int batches,
+			long intervalNanos) throws InterruptedException
+	{
+		LatencyHistogram latency = new LatencyHistogram();
+		float[] checksum = new float[1];
+		Thread consumer = new Thread(() -> {
+			try
+			{
+				while (true)
+				{
+					FFTBins fftBins = handOff.take();
+					if (fftBins.fftBinWidthHz < 0)
+					{
+						fftBins.release();
+						return;
+					}
+					latency.record(System.nanoTime() - fftBins.captureTimeNanos);
+					checksum[0] += fftBins.sigPowdBm[fftBins.binsCount - 1];
+					fftBins.release();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}, "Benchmark consumer");
+		consumer.start();
+
+		long dropped = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < batches; i++)
+		{
+			if (intervalNanos > 0)
+			{
+				long due = start + i * intervalNanos;
+				while (System.nanoTime() < due)
+					;
+			}
+			if (!handOff.offer(frequencyStart, fftBinWidthHz, signalPowerdBm))
+				dropped++;
+		}
+		handOff.end();
+		consumer.join();
+		long elapsed = System.nanoTime() - start;
+		if (name == null)
+			return;
+
+		LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+		latency.drainTo(snapshot);
+		System.out.println(String.format("%s %12.0f %8.1f %8.1f %8.1f %8.1f %8d", name, (batches - dropped) * 1e9 / elapsed,
+				snapshot.getValueAtPercentile(50) / 1e3, snapshot.getValueAtPercentile(99) / 1e3, snapshot.getValueAtPercentile(99.9) / 1e3,
+				snapshot.getMax() / 1e3, dropped));
+	}
+}
@@ -0,0 +1,50 @@
+package jspectrumanalyzer.core;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Pool of float arrays of exact lengths, used to resize spectrum datasets without producing garbage
+ * when the span or the fft bin width changes back and forth.
+ */
+public class FloatArrayPool
+{
+	private final HashMap<Integer, ArrayDeque<float[]>>	free	= new HashMap<>();
+	/**
+	 * maximal number of floats kept in the pool, arrays released above this limit are left to GC
+	 */
+	private final long									maxRetainedFloats;
+	private long										retainedFloats	= 0;
+
+	public FloatArrayPool(long maxRetainedFloats)
+	{
+		this.maxRetainedFloats = maxRetainedFloats;
+	}
+
+	/**
+	 * Returns pooled array or allocates new one. The content of pooled array is undefined.
+	 * @param length
+	 * @return array of exactly the given length
+	 */
+	public synchronized float[] acquire(int length)
+	{
+		ArrayDeque<float[]> arrays = free.get(length);
+		float[] array = arrays == null ? null : arrays.poll();
+		if (array == null)
+			return new float[length];
+		retainedFloats -= length;
+		return array;
+	}
+
+	/**
+	 * Returns array to the pool. The array must not be used by the caller anymore.
+	 * @param array can be null
+	 */
+	public synchronized void release(float[] array)
+	{
+		if (array == null || retainedFloats + array.length > maxRetainedFloats)
+			return;
+		free.computeIfAbsent(array.length, length -> new ArrayDeque<>()).add(array);
+		retainedFloats += array.length;
+	}
+}
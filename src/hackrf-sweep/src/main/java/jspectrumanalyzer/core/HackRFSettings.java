@@ -41,6 +41,8 @@ public interface HackRFSettings {
 	
 	public ModelValueBoolean isDebugDisplay();
 
+	public ModelValue<FFTBinsOverflowPolicy> getHwQueueOverflowPolicy();
+
 	public ModelValueInt getSamples();
 
 	public ModelValueInt getSpectrumPaletteSize();
@@ -66,6 +68,14 @@ public interface HackRFSettings {
 
 	public ModelValueBoolean isSpurRemoval();
 
+	public ModelValueBoolean isTraceVisible(TraceMode mode);
+
+	public ModelValueInt getTraceAverageSweeps();
+
+	public ModelValueBoolean isRecording();
+
+	public ModelValueBoolean isTriggeredCapture();
+
 	public void registerListener(HackRFEventListener listener);
 
 	public void removeListener(HackRFEventListener listener);
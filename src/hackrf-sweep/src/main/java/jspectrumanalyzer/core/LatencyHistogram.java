@@ -0,0 +1,166 @@
+package jspectrumanalyzer.core;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency recorder with fixed memory and HDR-style log-linear buckets.
+ * <p>
+ * Values below {@link #SUB_BUCKETS} are counted exactly, larger values fall into one of {@link #SUB_BUCKETS}
+ * buckets per power of two, so the relative error of the reported values is below 1/{@link #SUB_BUCKETS}.
+ * Any thread can {@link #record(long)}, one consumer periodically moves the recorded counts into a {@link Snapshot}
+ * with {@link #drainTo(Snapshot)} without stopping the recording threads and without losing values.
+ */
+public class LatencyHistogram
+{
+	private static final int	SUB_BUCKET_BITS	= 5;
+	public static final int		SUB_BUCKETS		= 1 << SUB_BUCKET_BITS;
+	/**
+	 * values from 2^(MAX_EXPONENT+1) ns (~73 minutes) are counted in the last bucket
+	 */
+	private static final int	MAX_EXPONENT	= 41;
+	static final int			BUCKETS			= (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray	counts	= new AtomicLongArray(BUCKETS);
+	private final AtomicLong		sum		= new AtomicLong();
+	private final AtomicLong		max		= new AtomicLong();
+
+	/**
+	 * Records one value, can be called from any thread, does not allocate
+	 * @param nanos negative values are counted as 0
+	 */
+	public void record(long nanos)
+	{
+		if (nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(bucketIndex(nanos));
+		sum.addAndGet(nanos);
+		long currentMax;
+		while (nanos > (currentMax = max.get()) && !max.compareAndSet(currentMax, nanos))
+			;
+	}
+
+	/**
+	 * Moves all values recorded so far to the snapshot, values recorded concurrently end up either in this
+	 * or in the next drained snapshot.
+	 * @param interval snapshot the values are added to
+	 */
+	public void drainTo(Snapshot interval)
+	{
+		long drained = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			long count = counts.getAndSet(i, 0);
+			interval.counts[i] += count;
+			drained += count;
+		}
+		interval.count += drained;
+		interval.sum += sum.getAndSet(0);
+		interval.max = Math.max(interval.max, max.getAndSet(0));
+	}
+
+	static int bucketIndex(long value)
+	{
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT)
+			return BUCKETS - 1;
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * @return the highest value counted in the bucket
+	 */
+	static long bucketHighestValue(int index)
+	{
+		if (index < SUB_BUCKETS)
+			return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowest + (1l << shift) - 1;
+	}
+
+	/**
+	 * Plain histogram owned by one thread, filled by {@link LatencyHistogram#drainTo(Snapshot)}
+	 */
+	public static class Snapshot
+	{
+		private final long[]	counts	= new long[BUCKETS];
+		private long			count	= 0;
+		private long			sum		= 0;
+		private long			max		= 0;
+
+		public long getCount()
+		{
+			return count;
+		}
+
+		public long getSum()
+		{
+			return sum;
+		}
+
+		public long getMax()
+		{
+			return max;
+		}
+
+		/**
+		 * @param percentile 0-100
+		 * @return value at the given percentile (highest value of its bucket, at most {@link #getMax()}), 0 if empty
+		 */
+		public long getValueAtPercentile(double percentile)
+		{
+			if (count == 0)
+				return 0;
+			long target = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100d));
+			long cumulative = 0;
+			for (int i = 0; i < BUCKETS; i++)
+			{
+				cumulative += counts[i];
+				if (cumulative >= target)
+					return Math.min(max, bucketHighestValue(i));
+			}
+			return max;
+		}
+
+		public void add(Snapshot other)
+		{
+			for (int i = 0; i < BUCKETS; i++)
+				counts[i] += other.counts[i];
+			count += other.count;
+			sum += other.sum;
+			max = Math.max(max, other.max);
+		}
+
+		public void clear()
+		{
+			for (int i = 0; i < BUCKETS; i++)
+				counts[i] = 0;
+			count = 0;
+			sum = 0;
+			max = 0;
+		}
+
+		/**
+		 * Writes percentile distribution in milliseconds, one line per non-empty bucket
+		 */
+		public void print(PrintWriter writer)
+		{
+			writer.println(String.format("%12s %14s %10s", "Value(ms)", "Percentile", "TotalCount"));
+			long cumulative = 0;
+			for (int i = 0; i < BUCKETS; i++)
+			{
+				if (counts[i] == 0)
+					continue;
+				cumulative += counts[i];
+				writer.println(String.format("%12.4f %14.6f %10d", Math.min(max, bucketHighestValue(i)) / 1e6, cumulative / (double) count,
+						cumulative));
+			}
+			writer.println(String.format("#[Mean = %.4f, Max = %.4f, Total count = %d]", count == 0 ? 0 : sum / 1e6 / count, max / 1e6, count));
+		}
+	}
+}
@@ -33,10 +33,8 @@ public class PersistentDisplay {
 			return y * width + x;
 		}
 
-		public void multiplyAllValues(float value) {
-			for (int i = 0; i < data.length; i++) {
-				data[i] *= value;
-			}
+		public void multiplyValues(float value, int from, int to) {
+			SpectrumKernels.multiply(data, value, from, to);
 		}
 
 		public void set(int x, int y, float value) {
@@ -68,6 +66,24 @@ public class PersistentDisplay {
 	private HotIronBluePalette			palette				= new HotIronBluePalette();
 	private int							persistenceTimeSecs	= 5;
 	private float						updatesPerSecond	= 1;
+	private SpectrumStripes				stripes				= SpectrumStripes.SERIAL;
+	/**
+	 * arguments of the running {@link #drawSpectrumFloat(DatasetSpectrum, float, float, boolean)}
+	 */
+	private FloatImage					drawImage;
+	private float[]						drawSpectrum;
+	private float						drawDecay, drawYMin, drawHDivYRange, drawMaxAccumulatedValue;
+	private DirtyBlocks					drawDirty;
+	/**
+	 * bins of the spectrum already accumulated, only bins changed after {@link #drawnVersion} of {@link #drawnBlocks} are accumulated
+	 */
+	private DirtyBlocks					drawnBlocks;
+	private long						drawnVersion		= -1;
+
+	private static final SpectrumStripes.StripeTask<PersistentDisplay>	DECAY			= (display, stripe, from, to) -> display.drawImage
+			.multiplyValues(display.drawDecay, from, to);
+	private static final SpectrumStripes.StripeTask<PersistentDisplay>	ACCUMULATE		= (display, stripe, from, to) -> display.accumulate(stripe, from, to);
+	private static final SpectrumStripes.StripeTask<PersistentDisplay>	ACCUMULATE_BINS	= (display, stripe, from, to) -> display.accumulateBins(from, to);
 
 	public PersistentDisplay() {
 		setImageSize(320, 240);
@@ -119,36 +135,35 @@ public class PersistentDisplay {
 		float k = 2f / (order + 1f);
 		//		double result = currentValue * k + previousEMA * (1 - k);
 		float kM1 = 1 - k; /* apply decay only */
-		imagePowerAccumulated.multiplyAllValues(kM1);
+		drawImage = imagePowerAccumulated;
+		drawDecay = kM1;
+		stripes.forEach(rawImagePowerArr.length, this, DECAY);
 
 		float[] spectrum = datasetSpectrum.getSpectrumArray();
-		int width = image.getWidth();
-		int height = image.getHeight();
+		int width = imagePowerAccumulated.width;
+		int height = imagePowerAccumulated.height;
 		float hDivYRange = (-height) / (yMax - yMin);
 
 		/**
 		 * pipeline: float image accumulates power for each pixel, then the
 		 * power value gets converted to color based on the hot iron palette
 		 */
-		float maxAccumulatedValue = updatesPerSecond * persistenceTimeSecs;
-		for (int i = 0; i < spectrum.length; i++) {
-			float power = spectrum[i];
-			float powerLin = 1; /*
-								 * each occurence of power value at given
-								 * frequency is simply +1
-								 */
-
-			int x = i * width / spectrum.length;
-			int y = //(power - yMin) * (0 - height) / (yMax - yMin) + height; 
-					(int) ((power - yMin) * hDivYRange
-							+ height); /* optimized map() */
-
-			if (x >= 0 && y >= 0 && x < width && y < height) {
-				int index = imagePowerAccumulated.getIndex(x, y);
-				if (imagePowerAccumulated.data[index] < maxAccumulatedValue)
-					imagePowerAccumulated.data[index] += powerLin;
-			}
-		}
+		drawSpectrum = spectrum;
+		drawYMin = yMin;
+		drawHDivYRange = hDivYRange;
+		drawMaxAccumulatedValue = updatesPerSecond * persistenceTimeSecs;
+		drawDirty = datasetSpectrum.getDirtyBlocks();
+		if (drawDirty != drawnBlocks)
+			drawnVersion = -1;
+		/**
+		 * split by image columns so that no two stripes add to the same pixel
+		 */
+		stripes.forEach(stripes.stripeCount(drawDirty.countDirtyBins(drawnVersion)), width, this, ACCUMULATE);
+		drawnBlocks = drawDirty;
+		drawnVersion = drawDirty.getVersion();
+		drawImage = null;
+		drawSpectrum = null;
+		drawDirty = null;
 
 		/**
 		 * render image only when requested
@@ -215,6 +230,51 @@ public class PersistentDisplay {
 		}
 	}
 
+	/**
+	 * Accumulates the changed bins of the spectrum drawn into image columns fromX to toX - 1
+	 */
+	private void accumulate(int stripe, int fromX, int toX) {
+		int width = drawImage.width;
+		int length = drawSpectrum.length;
+		/**
+		 * first bins with x = i * width / spectrum.length at the stripe's columns
+		 */
+		int from = (int) (((long) fromX * length + width - 1) / width);
+		int to = (int) (((long) toX * length + width - 1) / width);
+		drawDirty.forEachDirtyRange(drawnVersion, stripe, from, to, this, ACCUMULATE_BINS);
+	}
+
+	/**
+	 * Accumulates bins from to to - 1 of the spectrum
+	 */
+	private void accumulateBins(int from, int to) {
+		FloatImage imagePowerAccumulated = drawImage;
+		float[] spectrum = drawSpectrum;
+		int width = imagePowerAccumulated.width;
+		int height = imagePowerAccumulated.height;
+		float yMin = drawYMin;
+		float hDivYRange = drawHDivYRange;
+		float maxAccumulatedValue = drawMaxAccumulatedValue;
+		for (int i = from; i < to; i++) {
+			float power = spectrum[i];
+			float powerLin = 1; /*
+								 * each occurence of power value at given
+								 * frequency is simply +1
+								 */
+
+			int x = (int) ((long) i * width / spectrum.length);
+			int y = //(power - yMin) * (0 - height) / (yMax - yMin) + height; 
+					(int) ((power - yMin) * hDivYRange
+							+ height); /* optimized map() */
+
+			if (y >= 0 && y < height) {
+				int index = imagePowerAccumulated.getIndex(x, y);
+				if (imagePowerAccumulated.data[index] < maxAccumulatedValue)
+					imagePowerAccumulated.data[index] += powerLin;
+			}
+		}
+	}
+
 	public ModelValue<BufferedImage> getDisplayImage() {
 		return displayImage;
 	}
@@ -245,4 +305,11 @@ public class PersistentDisplay {
 	public void setPersistenceTime(int persistenceTimeSecs) {
 		this.persistenceTimeSecs = persistenceTimeSecs;
 	}
+
+	/**
+	 * Sets the stripes used to accumulate large spectra in parallel, {@link SpectrumStripes#SERIAL} by default
+	 */
+	public void setStripes(SpectrumStripes stripes) {
+		this.stripes = stripes;
+	}
 }
@@ -16,7 +16,7 @@ public class PowerCalibration
 	public static void correctPower(PowerCalibration cal, double gain, FFTBins bins){
 //		bins.fftBinWidthHz
 		double offset	= cal.getOffset_dB(gain);
-		for (int i = 0; i < bins.sigPowdBm.length; i++) {
+		for (int i = 0; i < bins.binsCount; i++) {
 			bins.sigPowdBm[i]	+= offset; 
 		}
 	}
@@ -0,0 +1,69 @@
+package jspectrumanalyzer.core;
+
+/**
+ * Per-bin loops over float spectrum arrays shared by the processing stages.
+ * <p>
+ * Every kernel is a plain counted loop over indexes from to to - 1 without calls or branches on loop-carried state, with all invariants
+ * computed by the caller, so that the JIT can unroll it and use SIMD instructions where the platform supports it.
+ * The ranges let {@link SpectrumStripes} process stripes of one array in parallel.
+ * Conversions between dB and linear power are in {@link DecibelTable}.
+ */
+public final class SpectrumKernels
+{
+	private SpectrumKernels()
+	{
+	}
+
+	/**
+	 * Peak hold with EMA decay, see {@link DatasetSpectrumPeak#refreshPeakSpectrum()}: the hold follows new maximums,
+	 * the EMA peak starts at each new maximum and decays towards the spectrum, the hold drops to the EMA peak
+	 * when it falls more than fallThreshold below.
+	 * @param weight weight of the new value in the EMA, see {@link EMA#timeDependentWeight(long, double)}
+	 */
+	public static void peakUpdate(float[] spectrum, float[] peak, float[] peakHold, float weight, float fallThreshold, int from, int to)
+	{
+		float previousWeight = 1 - weight;
+		for (int i = from; i < to; i++)
+		{
+			float value = spectrum[i];
+			float hold = peakHold[i];
+			float ema = value * weight + (value > hold ? value : peak[i]) * previousWeight;
+			hold = value > hold ? value : hold;
+			peak[i] = ema;
+			peakHold[i] = hold - ema > fallThreshold ? ema : hold;
+		}
+	}
+
+	/**
+	 * values[i] -= subtrahend[i]
+	 */
+	public static void subtract(float[] values, float[] subtrahend, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			values[i] -= subtrahend[i];
+		}
+	}
+
+	/**
+	 * values[i] *= factor
+	 */
+	public static void multiply(float[] values, float factor, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			values[i] *= factor;
+		}
+	}
+
+	/**
+	 * out[i] = (in[i] - offset) * scale clamped to &lt;0, 1&gt;, e.g. the position of the power in the color palette
+	 */
+	public static void scaleAndClamp(float[] in, float[] out, float offset, float scale, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			out[i] = Math.min(1f, Math.max(0f, (in[i] - offset) * scale));
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package jspectrumanalyzer.core;
+
+import java.util.Random;
+
+/**
+ * Compares {@link SpectrumKernels} and {@link DecibelTable} with the per-bin loops they replaced on spectra of 100k, 1M and 5M bins:
+ * <pre>
+ * java -cp hackrf_sweep_spectrum_analyzer.jar jspectrumanalyzer.core.SpectrumKernelsBenchmark [milliseconds per measurement]
+ * </pre>
+ */
+public class SpectrumKernelsBenchmark
+{
+	private interface Operation
+	{
+		void run(int length);
+	}
+
+	private static final int[]	SIZES			= { 100_000, 1_000_000, 5_000_000 };
+	private static final float	PEAK_WEIGHT		= (float) EMA.timeDependentWeight(100, 30000);
+	private static final float	FALL_THRESHOLD	= 15;
+
+	private static float[]		spectrum;
+	private static float[]		filter;
+	private static float[]		peak;
+	private static float[]		peakHold;
+	private static float[]		out;
+	private static float[]		linear;
+	private static double		sink;
+	/**
+	 * alternates between decay and its inverse so that values do not become denormal
+	 */
+	private static float		decay			= 0.999f;
+
+	public static void main(String[] args)
+	{
+		long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+		int maxSize = SIZES[SIZES.length - 1];
+		Random random = new Random(1);
+		spectrum = new float[maxSize];
+		filter = new float[maxSize];
+		peak = new float[maxSize];
+		peakHold = new float[maxSize];
+		out = new float[maxSize];
+		linear = new float[maxSize];
+		for (int i = 0; i < maxSize; i++)
+		{
+			spectrum[i] = -100 + random.nextFloat() * 60;
+			filter[i] = random.nextFloat() * 0.001f;
+			linear[i] = DecibelTable.toLinear(spectrum[i]) * 10;
+			peak[i] = peakHold[i] = -150;
+		}
+
+		for (int size : SIZES)
+		{
+			System.out.println(String.format("%d bins                 previous      kernel", size));
+			compare("dBm to mW sum", size, millis, length -> {
+				double sum = 0;
+				for (int i = 0; i < length; i++)
+					sum += Math.pow(10, spectrum[i] / 10);
+				sink += sum;
+			}, length -> sink += DecibelTable.sumLinear(spectrum, 0, length));
+			compare("mW to dBm", size, millis, length -> {
+				for (int i = 0; i < length; i++)
+					out[i] = (float) (10 * Math.log10(linear[i] / 10));
+			}, length -> DecibelTable.toDecibels(linear, 1f / 10, out, 0, length));
+			compare("peak update", size, millis, length -> {
+				for (int i = 0; i < length; i++)
+				{
+					float value = spectrum[i];
+					if (value > peakHold[i])
+						peakHold[i] = peak[i] = value;
+					peak[i] = (float) EMA.calculateTimeDependent(value, peak[i], 100, 30000);
+					if (peakHold[i] - peak[i] > FALL_THRESHOLD)
+						peakHold[i] = peak[i];
+				}
+			}, length -> SpectrumKernels.peakUpdate(spectrum, peak, peakHold, PEAK_WEIGHT, FALL_THRESHOLD, 0, length));
+			compare("subtract filter", size, millis, length -> {
+				for (int i = 0; i < length; i++)
+					out[i] -= filter[i];
+			}, length -> SpectrumKernels.subtract(out, filter, 0, length));
+			compare("decay multiply", size, millis, length -> {
+				decay = 1 / decay;
+				for (int i = 0; i < length; i++)
+					out[i] *= decay;
+			}, length -> SpectrumKernels.multiply(out, decay = 1 / decay, 0, length));
+			compare("scale and clamp", size, millis, length -> {
+				double start = -90, max = -40, inverseSize = 1d / 50, startDivSize = start / 50;
+				for (int i = 0; i < length; i++)
+				{
+					double power = spectrum[i];
+					double percentagePower = 0;
+					if (power > start)
+						percentagePower = power < max ? power * inverseSize - startDivSize : 1;
+					out[i] = (float) percentagePower;
+				}
+			}, length -> SpectrumKernels.scaleAndClamp(spectrum, out, -90, 1f / 50, 0, length));
+		}
+	}
+
+	private static void compare(String name, int size, long millis, Operation previous, Operation kernel)
+	{
+		/**
+		 * warm up both, then measure
+		 */
+		measure(previous, size, millis / 2);
+		measure(kernel, size, millis / 2);
+		double previousMillis = measure(previous, size, millis);
+		double kernelMillis = measure(kernel, size, millis);
+		System.out.println(String.format("  %-20s %8.3fms  %8.3fms  %5.1fx", name, previousMillis, kernelMillis, previousMillis / kernelMillis));
+	}
+
+	/**
+	 * @return average milliseconds per run
+	 */
+	private static double measure(Operation operation, int size, long millis)
+	{
+		long start = System.nanoTime();
+		long end = start + millis * 1000000l;
+		int runs = 0;
+		do
+		{
+			operation.run(size);
+			runs++;
+		}
+		while (System.nanoTime() < end);
+		return (System.nanoTime() - start) / 1e6 / runs;
+	}
+}
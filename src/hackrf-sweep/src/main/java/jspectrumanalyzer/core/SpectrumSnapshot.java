@@ -0,0 +1,104 @@
+package jspectrumanalyzer.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Frame of spectrum values published by {@link SpectrumSnapshots}, readers must not modify it.
+ * <p>
+ * Every reader that got the snapshot from {@link SpectrumSnapshots#acquire()} calls {@link #release()} once done,
+ * the buffer goes back to the pool of its publisher when the last reader releases it.
+ */
+public final class SpectrumSnapshot
+{
+	private final SpectrumSnapshots	owner;
+	private final AtomicInteger		references	= new AtomicInteger();
+	/**
+	 * frequencies are shared by all snapshots of the same span and are never modified
+	 */
+	float[]							frequenciesMHz;
+	float[]							values		= new float[0];
+	int								size;
+	long							captureTimeNanos;
+	long							sweepId;
+	/**
+	 * next free snapshot in the pool of {@link #owner}
+	 */
+	SpectrumSnapshot				nextFree;
+
+	SpectrumSnapshot(SpectrumSnapshots owner)
+	{
+		this.owner = owner;
+	}
+
+	/**
+	 * @return x values of the chart in MHz, the array may be longer than {@link #size()}
+	 */
+	public float[] getFrequenciesMHz()
+	{
+		return frequenciesMHz;
+	}
+
+	/**
+	 * @return power values in dBm, the array may be longer than {@link #size()}
+	 */
+	public float[] getValues()
+	{
+		return values;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @see DatasetSpectrum#getCaptureTimeNanos()
+	 */
+	public long getCaptureTimeNanos()
+	{
+		return captureTimeNanos;
+	}
+
+	/**
+	 * @see DatasetSpectrum#getSweepId()
+	 */
+	public long getSweepId()
+	{
+		return sweepId;
+	}
+
+	/**
+	 * Returns the snapshot to the pool when no reader uses it anymore
+	 */
+	public void release()
+	{
+		int remaining = references.decrementAndGet();
+		if (remaining == 0)
+			owner.recycle(this);
+		else if (remaining < 0)
+			throw new IllegalStateException("Snapshot released more times than acquired");
+	}
+
+	/**
+	 * Adds a reader unless the snapshot was already returned to the pool
+	 */
+	boolean retain()
+	{
+		while (true)
+		{
+			int count = references.get();
+			if (count == 0)
+				return false;
+			if (references.compareAndSet(count, count + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * Makes the filled snapshot visible to {@link #retain()}, the publisher holds the first reference
+	 */
+	void publish()
+	{
+		references.set(1);
+	}
+}
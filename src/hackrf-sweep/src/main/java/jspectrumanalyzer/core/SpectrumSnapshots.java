@@ -0,0 +1,97 @@
+package jspectrumanalyzer.core;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the newest {@link SpectrumSnapshot} of a spectrum to readers in other threads without locks and copies on the reader side.
+ * <p>
+ * The publisher copies values into a snapshot recycled from a small pool and swaps it in through an atomic reference,
+ * readers {@link #acquire()} the newest snapshot and release it once done. A new snapshot is allocated only when all
+ * recycled ones are still being read or when the spectrum grows.
+ * <p>
+ * {@link #publish(float[], float[], int, long, long)} must be called by one thread, {@link #acquire()} by any.
+ */
+public class SpectrumSnapshots
+{
+	private final AtomicReference<SpectrumSnapshot>	latest		= new AtomicReference<>();
+	/**
+	 * stack of free snapshots, pushed by any thread, popped only by the publisher so that popping cannot suffer from ABA
+	 */
+	private final AtomicReference<SpectrumSnapshot>	free		= new AtomicReference<>();
+	private volatile int							allocated	= 0;
+
+	/**
+	 * Copies values 0 to size - 1 into a recycled snapshot and makes it the newest one
+	 * @param frequenciesMHz x values shared by the snapshot, must not be modified afterwards
+	 */
+	public void publish(float[] frequenciesMHz, float[] values, int size, long sweepId, long captureTimeNanos)
+	{
+		SpectrumSnapshot snapshot = popFree();
+		if (snapshot == null)
+		{
+			snapshot = new SpectrumSnapshot(this);
+			allocated++;
+		}
+		if (snapshot.values.length < size)
+			snapshot.values = new float[size];
+		System.arraycopy(values, 0, snapshot.values, 0, size);
+		snapshot.frequenciesMHz = frequenciesMHz;
+		snapshot.size = size;
+		snapshot.sweepId = sweepId;
+		snapshot.captureTimeNanos = captureTimeNanos;
+		snapshot.publish();
+		SpectrumSnapshot previous = latest.getAndSet(snapshot);
+		if (previous != null)
+			previous.release();
+	}
+
+	/**
+	 * @return newest snapshot to be released by the caller, null if nothing was published yet
+	 */
+	public SpectrumSnapshot acquire()
+	{
+		while (true)
+		{
+			SpectrumSnapshot snapshot = latest.get();
+			if (snapshot == null || snapshot.retain())
+				return snapshot;
+			/**
+			 * replaced and recycled meanwhile, retry with the newer one
+			 */
+		}
+	}
+
+	/**
+	 * @return number of snapshots allocated so far, grows only while readers hold more snapshots than ever before
+	 */
+	public int getAllocatedCount()
+	{
+		return allocated;
+	}
+
+	void recycle(SpectrumSnapshot snapshot)
+	{
+		while (true)
+		{
+			SpectrumSnapshot head = free.get();
+			snapshot.nextFree = head;
+			if (free.compareAndSet(head, snapshot))
+				return;
+		}
+	}
+
+	private SpectrumSnapshot popFree()
+	{
+		while (true)
+		{
+			SpectrumSnapshot head = free.get();
+			if (head == null)
+				return null;
+			if (free.compareAndSet(head, head.nextFree))
+			{
+				head.nextFree = null;
+				return head;
+			}
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package jspectrumanalyzer.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits per-bin processing of a sweep into frequency stripes processed in parallel on a {@link ForkJoinPool}.
+ * <p>
+ * A range is split into at most one stripe per thread and only if every stripe gets at least {@link #MIN_STRIPE_BINS} bins,
+ * smaller ranges are processed by the calling thread without any hand-off. Tasks are reused, splitting does not allocate
+ * as long as the {@link StripeTask} does not capture variables.
+ * <p>
+ * Stripes of one call run concurrently, a task must write only within its stripe and must not split again.
+ */
+public class SpectrumStripes
+{
+	/**
+	 * Processes indexes from to to - 1 of the target
+	 * @param stripe index of the stripe, from 0 to number of stripes - 1
+	 */
+	public interface StripeTask<T>
+	{
+		void run(T target, int stripe, int from, int to);
+	}
+
+	/**
+	 * smaller stripes would spend more time in the hand-off than in processing
+	 */
+	public static final int					MIN_STRIPE_BINS	= 1 << 15;
+	/**
+	 * processes everything in the calling thread
+	 */
+	public static final SpectrumStripes		SERIAL			= new SpectrumStripes(1);
+
+	private final int						parallelism;
+	private final ForkJoinPool				pool;
+	private final Stripe[]					stripes;
+	private final Fork						fork			= new Fork();
+	private int								stripeCount;
+
+	/**
+	 * @param threads number of threads of the pool, 1 processes everything in the calling thread
+	 */
+	public SpectrumStripes(int threads)
+	{
+		this.parallelism = Math.max(1, threads);
+		this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		this.stripes = new Stripe[parallelism];
+		for (int i = 0; i < stripes.length; i++)
+		{
+			stripes[i] = new Stripe();
+		}
+	}
+
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+
+	/**
+	 * @return number of stripes {@link #forEach(int, Object, StripeTask)} splits the given number of bins to
+	 */
+	public int stripeCount(int bins)
+	{
+		return Math.max(1, Math.min(parallelism, bins / MIN_STRIPE_BINS));
+	}
+
+	/**
+	 * Splits indexes 0 to length - 1 into {@link #stripeCount(int)} stripes of equal size, runs the task for each
+	 * and returns when all stripes are done
+	 */
+	public <T> void forEach(int length, T target, StripeTask<? super T> task)
+	{
+		forEach(stripeCount(length), length, target, task);
+	}
+
+	/**
+	 * Splits indexes 0 to length - 1 into the given number of stripes of equal size, runs the task for each
+	 * and returns when all stripes are done. Used to split e.g. pixel columns when the number of stripes
+	 * follows from the number of bins drawn into them.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> void forEach(int stripeCount, int length, T target, StripeTask<? super T> task)
+	{
+		int count = Math.max(1, Math.min(Math.min(stripeCount, parallelism), length));
+		if (count == 1)
+		{
+			task.run(target, 0, 0, length);
+			return;
+		}
+		for (int i = 0; i < count; i++)
+		{
+			Stripe stripe = stripes[i];
+			stripe.reinitialize();
+			stripe.task = (StripeTask<Object>) task;
+			stripe.target = target;
+			stripe.index = i;
+			stripe.from = (int) ((long) length * i / count);
+			stripe.to = (int) ((long) length * (i + 1) / count);
+		}
+		this.stripeCount = count;
+		fork.reinitialize();
+		try
+		{
+			pool.invoke(fork);
+		}
+		finally
+		{
+			for (int i = 0; i < count; i++)
+			{
+				stripes[i].task = null;
+				stripes[i].target = null;
+			}
+		}
+	}
+
+	/**
+	 * forks all stripes from a worker thread of the pool
+	 */
+	private class Fork extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override protected void compute()
+		{
+			for (int i = 1; i < stripeCount; i++)
+			{
+				stripes[i].fork();
+			}
+			stripes[0].invoke();
+			for (int i = stripeCount - 1; i > 0; i--)
+			{
+				stripes[i].join();
+			}
+		}
+	}
+
+	private static class Stripe extends RecursiveAction
+	{
+		private static final long	serialVersionUID	= 1L;
+		private StripeTask<Object>	task;
+		private Object				target;
+		private int					index, from, to;
+
+		@Override protected void compute()
+		{
+			task.run(target, index, from, to);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package jspectrumanalyzer.core;
+
+import java.util.Random;
+
+/**
+ * Measures per-sweep processing of a wide span split by {@link SpectrumStripes} with 1, 2, 4 and 8 threads:
+ * <pre>
+ * java -cp hackrf_sweep_spectrum_analyzer.jar jspectrumanalyzer.core.SpectrumStripesBenchmark [bins] [sweeps]
+ * </pre>
+ * Covers the stages that do not need a display: adding the sweep, spur filter, peaks with total power and traces.
+ * Persistent display and waterfall are shown in the performance statistics of the application started with -Dhackrf.threads=N.
+ */
+public class SpectrumStripesBenchmark
+{
+	private static final int	FREQ_MIN_MHZ	= 1;
+	private static final int	FREQ_MAX_MHZ	= 6001;
+	private static final int[]	THREADS			= { 1, 2, 4, 8 };
+
+	public static void main(String[] args)
+	{
+		int bins = args.length > 0 ? Integer.parseInt(args[0]) : 6_000_000;
+		int sweeps = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		float fftBinWidth = (FREQ_MAX_MHZ - FREQ_MIN_MHZ) * 1e6f / bins;
+
+		FFTBins fftBins = new FFTBins(true, null, fftBinWidth, null);
+		fftBins.ensureCapacity(bins);
+		Random random = new Random(1);
+		for (int i = 0; i < bins; i++)
+			fftBins.sigPowdBm[i] = -100 + random.nextFloat() * 10;
+		fftBins.addSegment(FREQ_MIN_MHZ * 1e6, bins);
+		fftBins.binsCount = bins;
+		System.out.println(String.format("%d bins, %d sweeps, %d processors available", bins, sweeps, Runtime.getRuntime().availableProcessors()));
+		System.out.println("threads      add   spurs   peaks  traces   total  sweeps/s  speedup");
+
+		double singleThreadMillis = 0;
+		for (int threads : THREADS)
+		{
+			double[] millis = run(new SpectrumStripes(threads), fftBins, fftBinWidth, sweeps);
+			double total = millis[0] + millis[1] + millis[2] + millis[3];
+			if (threads == 1)
+				singleThreadMillis = total;
+			System.out.println(String.format("%7d %8.2f%8.2f%8.2f%8.2f%8.2f%10.1f%8.2fx", threads, millis[0], millis[1], millis[2], millis[3], total,
+					1000 / total, singleThreadMillis / total));
+		}
+	}
+
+	/**
+	 * @return average milliseconds per sweep of each stage
+	 */
+	private static double[] run(SpectrumStripes stripes, FFTBins fftBins, float fftBinWidth, int sweeps)
+	{
+		DatasetSpectrumPeak spectrum = new DatasetSpectrumPeak(fftBinWidth, FREQ_MIN_MHZ, FREQ_MAX_MHZ, -150, 15, 1000);
+		spectrum.setStripes(stripes);
+		SpurFilter spurFilter = new SpurFilter(6, 4, 4, 5, spectrum, new FloatArrayPool(0), stripes);
+		SpectrumTraces traces = new SpectrumTraces(spectrum, new FloatArrayPool(0), stripes);
+		traces.setEnabled(TraceMode.MAX_HOLD, true);
+		traces.setEnabled(TraceMode.AVERAGE, true);
+		traces.setEnabled(TraceMode.RMS, true);
+
+		double[] millis = new double[4];
+		/**
+		 * warm up, also calibrates the spur filter
+		 */
+		for (int i = 0; i < 10; i++)
+			sweep(spectrum, spurFilter, traces, fftBins, null);
+		for (int i = 0; i < sweeps; i++)
+			sweep(spectrum, spurFilter, traces, fftBins, millis);
+		for (int i = 0; i < millis.length; i++)
+			millis[i] /= sweeps;
+		return millis;
+	}
+
+	private static void sweep(DatasetSpectrumPeak spectrum, SpurFilter spurFilter, SpectrumTraces traces, FFTBins fftBins, double[] millis)
+	{
+		long start = System.nanoTime();
+		spectrum.addNewData(fftBins);
+		long added = System.nanoTime();
+		spurFilter.filterDataset();
+		long filtered = System.nanoTime();
+		spectrum.refreshPeakSpectrum();
+		spectrum.calculateSpectrumPeakPower();
+		long peaks = System.nanoTime();
+		traces.update();
+		long end = System.nanoTime();
+		if (millis == null)
+			return;
+		millis[0] += (added - start) / 1e6;
+		millis[1] += (filtered - added) / 1e6;
+		millis[2] += (peaks - filtered) / 1e6;
+		millis[3] += (end - peaks) / 1e6;
+	}
+}
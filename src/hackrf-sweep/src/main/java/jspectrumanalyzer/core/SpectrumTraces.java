@@ -0,0 +1,330 @@
+package jspectrumanalyzer.core;
+
+import java.util.Arrays;
+
+import jspectrumanalyzer.core.jfc.XYSeriesImmutable;
+
+/**
+ * Keeps any combination of {@link TraceMode} traces of the input dataset.
+ * <p>
+ * {@link #update()} refreshes all enabled traces in one pass over the spectrum and converts every bin to linear power at most once
+ * using {@link DecibelTable}.
+ * Traces averaging linear power are kept in linear units and converted to dBm only when they are read by {@link #getTrace(TraceMode)}.
+ * Arrays are taken from the pool when a trace is enabled or the input is reconfigured, updates do not allocate.
+ * <p>
+ * {@link #setEnabled(TraceMode, boolean)}, {@link #setAverageSweeps(int)} and {@link #reset()} may be called from any thread
+ * and are applied by the next {@link #update()}, everything else must be called from the processing thread.
+ */
+public class SpectrumTraces
+{
+	public static final int				DEFAULT_AVERAGE_SWEEPS	= 10;
+	private static final TraceMode[]	MODES					= TraceMode.values();
+
+	private final DatasetSpectrum		input;
+	private final FloatArrayPool		pool;
+	private final SpectrumStripes		stripes;
+	/**
+	 * modes as bits of {@link TraceMode#ordinal()}
+	 */
+	private volatile int				requestedModes			= 1 << TraceMode.CLEAR_WRITE.ordinal();
+	private int							enabledModes			= 0;
+	private volatile int				averageSweeps			= DEFAULT_AVERAGE_SWEEPS;
+	private volatile boolean			resetRequested			= false;
+
+	/**
+	 * values in the natural units of the mode: dBm for holds and {@link TraceMode#EXPONENTIAL_AVERAGE},
+	 * sum of linear power of the current block for {@link TraceMode#AVERAGE}, linear power for {@link TraceMode#RMS}
+	 */
+	private final float[][]				values					= new float[MODES.length][];
+	/**
+	 * dBm values of the traces kept in linear units, valid if {@link #displayValid} is set
+	 */
+	private final float[][]				display					= new float[MODES.length][];
+	private final boolean[]				displayValid			= new boolean[MODES.length];
+	/**
+	 * dBm values published by {@link #createTraceDataset(TraceMode, String)}
+	 */
+	private final SpectrumSnapshots[]	snapshots				= new SpectrumSnapshots[MODES.length];
+	/**
+	 * sweeps added since the trace was started
+	 */
+	private final int[]					sweeps					= new int[MODES.length];
+	/**
+	 * sum of linear power of the last completed block of {@link TraceMode#AVERAGE} and its number of sweeps
+	 */
+	private float[]						averageBlock			= null;
+	private int							averageBlockSweeps		= 0;
+	/**
+	 * weights of the running {@link #update()}, arguments of the running conversion in {@link #getTrace(TraceMode)}
+	 */
+	private float						expWeight, rmsWeight;
+	private float[]						convertLinear, convertDBm;
+	private float						convertScale;
+
+	private static final SpectrumStripes.StripeTask<SpectrumTraces>	UPDATE	= (traces, stripe, from, to) -> traces.update(from, to);
+	private static final SpectrumStripes.StripeTask<SpectrumTraces>	CONVERT	= (traces, stripe, from, to) -> DecibelTable
+			.toDecibels(traces.convertLinear, traces.convertScale, traces.convertDBm, from, to);
+
+	public SpectrumTraces(DatasetSpectrum input, FloatArrayPool pool)
+	{
+		this(input, pool, SpectrumStripes.SERIAL);
+	}
+
+	/**
+	 * @param stripes splits updates and conversions of large spectra
+	 */
+	public SpectrumTraces(DatasetSpectrum input, FloatArrayPool pool, SpectrumStripes stripes)
+	{
+		this.input = input;
+		this.pool = pool;
+		this.stripes = stripes;
+		for (int i = 0; i < snapshots.length; i++)
+		{
+			snapshots[i] = new SpectrumSnapshots();
+		}
+	}
+
+	public void setEnabled(TraceMode mode, boolean enabled)
+	{
+		int bit = 1 << mode.ordinal();
+		synchronized (this)
+		{
+			requestedModes = enabled ? requestedModes | bit : requestedModes & ~bit;
+		}
+	}
+
+	/**
+	 * @param averageSweeps number of sweeps N of the averages, at least 1
+	 */
+	public void setAverageSweeps(int averageSweeps)
+	{
+		this.averageSweeps = Math.max(1, averageSweeps);
+	}
+
+	/**
+	 * Restarts all traces with the next sweep
+	 */
+	public void reset()
+	{
+		resetRequested = true;
+	}
+
+	/**
+	 * @return true if the trace is enabled and was updated with at least one sweep
+	 */
+	public boolean isValid(TraceMode mode)
+	{
+		return (enabledModes & (1 << mode.ordinal())) != 0 && (mode == TraceMode.CLEAR_WRITE || sweeps[mode.ordinal()] > 0);
+	}
+
+	/**
+	 * Adapts the traces to the input's new frequency range and bin size and restarts them
+	 */
+	public void reconfigure()
+	{
+		int length = input.spectrumLength();
+		for (int i = 0; i < MODES.length; i++)
+		{
+			values[i] = resize(values[i], length);
+			display[i] = resize(display[i], length);
+		}
+		averageBlock = resize(averageBlock, length);
+		for (TraceMode mode : MODES)
+		{
+			if ((enabledModes & (1 << mode.ordinal())) != 0)
+				start(mode);
+		}
+	}
+
+	/**
+	 * Adds the input's spectrum to all enabled traces, applies requested changes first.
+	 * Returns immediately if only {@link TraceMode#CLEAR_WRITE} is enabled.
+	 */
+	public void update()
+	{
+		applyRequests();
+		if ((enabledModes & ~(1 << TraceMode.CLEAR_WRITE.ordinal())) == 0)
+			return;
+		float[] average = values[TraceMode.AVERAGE.ordinal()];
+		int n = averageSweeps;
+		/**
+		 * exponential averages start as the mean of the sweeps so far
+		 */
+		expWeight = 1f / Math.min(sweeps[TraceMode.EXPONENTIAL_AVERAGE.ordinal()] + 1, n);
+		rmsWeight = 1f / Math.min(sweeps[TraceMode.RMS.ordinal()] + 1, n);
+		stripes.forEach(input.spectrumLength(), this, UPDATE);
+
+		for (int i = 0; i < MODES.length; i++)
+		{
+			if (values[i] != null)
+				sweeps[i]++;
+			displayValid[i] = false;
+		}
+		if (average != null && sweeps[TraceMode.AVERAGE.ordinal()] % n == 0)
+		{
+			/**
+			 * block completed, keep its sum and start the next one
+			 */
+			values[TraceMode.AVERAGE.ordinal()] = averageBlock;
+			averageBlock = average;
+			averageBlockSweeps = n;
+			Arrays.fill(values[TraceMode.AVERAGE.ordinal()], 0);
+		}
+	}
+
+	/**
+	 * Adds bins from to to - 1 of the input's spectrum to all enabled traces
+	 */
+	private void update(int from, int to)
+	{
+		float[] spectrum = input.getSpectrumArray();
+		float[] maxHold = values[TraceMode.MAX_HOLD.ordinal()];
+		float[] minHold = values[TraceMode.MIN_HOLD.ordinal()];
+		float[] average = values[TraceMode.AVERAGE.ordinal()];
+		float[] expAverage = values[TraceMode.EXPONENTIAL_AVERAGE.ordinal()];
+		float[] rms = values[TraceMode.RMS.ordinal()];
+		boolean linear = average != null || rms != null;
+		float expWeight = this.expWeight;
+		float rmsWeight = this.rmsWeight;
+
+		for (int i = from; i < to; i++)
+		{
+			float value = spectrum[i];
+			if (maxHold != null && value > maxHold[i])
+				maxHold[i] = value;
+			if (minHold != null && value < minHold[i])
+				minHold[i] = value;
+			if (expAverage != null)
+				expAverage[i] += (value - expAverage[i]) * expWeight;
+			if (linear)
+			{
+				float power = DecibelTable.toLinear(value);
+				if (average != null)
+					average[i] += power;
+				if (rms != null)
+					rms[i] += (power - rms[i]) * rmsWeight;
+			}
+		}
+	}
+
+	/**
+	 * @return dBm values of the enabled trace, same indexing as {@link DatasetSpectrum#getSpectrumArray()}, null if the trace is not enabled.
+	 * The array is owned by the traces and changes with the next update.
+	 */
+	public float[] getTrace(TraceMode mode)
+	{
+		int index = mode.ordinal();
+		if (mode == TraceMode.CLEAR_WRITE)
+			return (enabledModes & (1 << index)) != 0 ? input.getSpectrumArray() : null;
+		if (values[index] == null)
+			return null;
+		if (mode != TraceMode.AVERAGE && mode != TraceMode.RMS)
+			return values[index];
+		if (!displayValid[index])
+		{
+			float[] linear = values[index];
+			float scale = 1;
+			if (mode == TraceMode.AVERAGE)
+			{
+				/**
+				 * running mean until the first block is completed
+				 */
+				int blockSweeps = averageBlockSweeps;
+				if (blockSweeps > 0)
+					linear = averageBlock;
+				else
+					blockSweeps = sweeps[index] % averageSweeps;
+				scale = 1f / Math.max(1, blockSweeps);
+			}
+			convertLinear = linear;
+			convertScale = scale;
+			convertDBm = display[index];
+			stripes.forEach(linear.length, this, CONVERT);
+			convertLinear = convertDBm = null;
+			displayValid[index] = true;
+		}
+		return display[index];
+	}
+
+	/**
+	 * Publishes the trace as {@link SpectrumSnapshot} and creates {@link XYSeriesImmutable} reading it without a copy, x values in MHz.
+	 * {@link XYSeriesImmutable#release()} it once it is not displayed anymore.
+	 * @return null if the trace is not enabled
+	 */
+	public XYSeriesImmutable createTraceDataset(TraceMode mode, String name)
+	{
+		float[] yValues = getTrace(mode);
+		if (yValues == null)
+			return null;
+		SpectrumSnapshots modeSnapshots = snapshots[mode.ordinal()];
+		modeSnapshots.publish(input.getFrequenciesMHz(), yValues, yValues.length, input.getSweepId(), input.getCaptureTimeNanos());
+		return new XYSeriesImmutable(name, modeSnapshots.acquire());
+	}
+
+	private void applyRequests()
+	{
+		int requested = requestedModes;
+		boolean reset = resetRequested;
+		if (reset)
+			resetRequested = false;
+		if (requested == enabledModes && !reset)
+			return;
+		int length = input.spectrumLength();
+		for (TraceMode mode : MODES)
+		{
+			int index = mode.ordinal();
+			boolean enable = (requested & (1 << index)) != 0;
+			boolean enabled = (enabledModes & (1 << index)) != 0;
+			if (enable && mode != TraceMode.CLEAR_WRITE)
+			{
+				if (!enabled)
+				{
+					values[index] = pool.acquire(length);
+					if (mode == TraceMode.AVERAGE || mode == TraceMode.RMS)
+						display[index] = pool.acquire(length);
+					if (mode == TraceMode.AVERAGE)
+						averageBlock = pool.acquire(length);
+				}
+				if (!enabled || reset)
+					start(mode);
+			}
+			else if (!enable && enabled)
+			{
+				pool.release(values[index]);
+				pool.release(display[index]);
+				values[index] = display[index] = null;
+				if (mode == TraceMode.AVERAGE)
+				{
+					pool.release(averageBlock);
+					averageBlock = null;
+				}
+			}
+		}
+		enabledModes = requested;
+	}
+
+	private void start(TraceMode mode)
+	{
+		int index = mode.ordinal();
+		sweeps[index] = 0;
+		displayValid[index] = false;
+		if (values[index] == null)
+			return;
+		if (mode == TraceMode.MAX_HOLD)
+			Arrays.fill(values[index], Float.NEGATIVE_INFINITY);
+		else if (mode == TraceMode.MIN_HOLD)
+			Arrays.fill(values[index], Float.POSITIVE_INFINITY);
+		else
+			Arrays.fill(values[index], 0);
+		if (mode == TraceMode.AVERAGE)
+			averageBlockSweeps = 0;
+	}
+
+	private float[] resize(float[] array, int length)
+	{
+		if (array == null || array.length == length)
+			return array;
+		pool.release(array);
+		return pool.acquire(length);
+	}
+}
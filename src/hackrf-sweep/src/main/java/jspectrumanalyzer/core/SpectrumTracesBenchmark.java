@@ -0,0 +1,74 @@
+package jspectrumanalyzer.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumSet;
+import java.util.Random;
+
+/**
+ * Measures {@link SpectrumTraces#update()} with different combinations of traces and the bytes allocated per update:
+ * <pre>
+ * java -cp hackrf_sweep_spectrum_analyzer.jar jspectrumanalyzer.core.SpectrumTracesBenchmark [bins] [sweeps]
+ * </pre>
+ * Real HackRF sweeps about 8GHz per second, a sweep of the whole 6GHz span takes about 750ms regardless of the number of bins.
+ */
+public class SpectrumTracesBenchmark
+{
+	private static final int	FREQ_MIN_MHZ	= 1;
+	private static final int	FREQ_MAX_MHZ	= 6001;
+
+	public static void main(String[] args) throws Exception
+	{
+		int bins = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+		int sweeps = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		float fftBinWidth = (FREQ_MAX_MHZ - FREQ_MIN_MHZ) * 1e6f / bins;
+
+		DatasetSpectrum spectrum = new DatasetSpectrum(fftBinWidth, FREQ_MIN_MHZ, FREQ_MAX_MHZ, -150);
+		bins = spectrum.spectrumLength();
+		FFTBins fftBins = new FFTBins(true, null, fftBinWidth, null);
+		fftBins.ensureCapacity(bins);
+		Random random = new Random(1);
+		for (int i = 0; i < bins; i++)
+			fftBins.sigPowdBm[i] = -100 + random.nextFloat() * 10;
+		fftBins.addSegment(FREQ_MIN_MHZ * 1e6, bins);
+		fftBins.binsCount = bins;
+		spectrum.addNewData(fftBins);
+		System.out.println(String.format("%d bins, %d sweeps per combination", bins, sweeps));
+
+		run(spectrum, sweeps, "none", EnumSet.noneOf(TraceMode.class));
+		run(spectrum, sweeps, "max hold", EnumSet.of(TraceMode.MAX_HOLD));
+		run(spectrum, sweeps, "max hold, min hold, exp. average", EnumSet.of(TraceMode.MAX_HOLD, TraceMode.MIN_HOLD, TraceMode.EXPONENTIAL_AVERAGE));
+		run(spectrum, sweeps, "max hold, average, rms", EnumSet.of(TraceMode.MAX_HOLD, TraceMode.AVERAGE, TraceMode.RMS));
+		run(spectrum, sweeps, "all", EnumSet.allOf(TraceMode.class));
+	}
+
+	private static void run(DatasetSpectrum spectrum, int sweeps, String name, EnumSet<TraceMode> modes)
+	{
+		SpectrumTraces traces = new SpectrumTraces(spectrum, new FloatArrayPool(0));
+		for (TraceMode mode : TraceMode.values())
+			traces.setEnabled(mode, modes.contains(mode));
+		float[] powers = spectrum.getSpectrumArray();
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		/**
+		 * warm up, also allocates the arrays of the traces
+		 */
+		for (int i = 0; i < 20; i++)
+			traces.update();
+		long allocated = threads.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		for (int i = 0; i < sweeps; i++)
+		{
+			powers[i % powers.length] += 0.5f;
+			traces.update();
+		}
+		double millis = (System.nanoTime() - start) / 1e6 / sweeps;
+		allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+		long displayStart = System.nanoTime();
+		for (TraceMode mode : modes)
+			traces.getTrace(mode);
+		double displayMillis = (System.nanoTime() - displayStart) / 1e6;
+		System.out.println(String.format("%-34s update %7.2fms/sweep  allocated %d bytes/sweep  conversion for display %.2fms", name, millis,
+				allocated / sweeps, displayMillis));
+	}
+}
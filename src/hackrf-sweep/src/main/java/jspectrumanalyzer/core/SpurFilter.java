@@ -17,7 +17,14 @@ public class SpurFilter
 	 * contains spur correction power values 
 	 */
 	private final DatasetSpectrum		filter;
-	private ArrayList<DatasetSpectrum>	filterInputs	= new ArrayList<>();
+	/**
+	 * spectrum snapshots collected for the calibration, arrays are taken from {@link #pool}
+	 */
+	private ArrayList<float[]>			filterInputs	= new ArrayList<>();
+	/**
+	 * newest change of the input already filtered, see {@link DatasetSpectrum#getDirtyBlocks()}
+	 */
+	private long						filteredVersion	= -1;
 	private final DatasetSpectrum		input;
 	private final int					maxPeakBins;
 	/**
@@ -28,18 +35,48 @@ public class SpurFilter
 	private final float					maxPeakJitterdB;
 	private final DatasetSpectrum		noiseFloor;
 	private final float					peakThresholdAboveNoise;
+	private final FloatArrayPool		pool;
+	private final SpectrumStripes		stripes;
 	private final int					validIterations;
 
+	private static final SpectrumStripes.StripeTask<SpurFilter>	SUBTRACT_RANGE	= (spurFilter, stripe, from, to) -> SpectrumKernels
+			.subtract(spurFilter.input.getSpectrumArray(), spurFilter.filter.getSpectrumArray(), from, to);
+	private static final SpectrumStripes.StripeTask<SpurFilter>	SUBTRACT		= (spurFilter, stripe, from, to) -> spurFilter.input
+			.getDirtyBlocks().forEachPendingRange(spurFilter.filteredVersion, stripe, from, to, spurFilter, SUBTRACT_RANGE);
+	private static final SpectrumStripes.StripeTask<SpurFilter>	AVERAGE			= (spurFilter, stripe, from, to) -> spurFilter.average(from, to);
+
 	public SpurFilter(float maxPeakJitterdB, float peakThresholdAboveNoise, int maxPeakBins, int validIterations, DatasetSpectrum input)
+	{
+		this(maxPeakJitterdB, peakThresholdAboveNoise, maxPeakBins, validIterations, input, new FloatArrayPool(0));
+	}
+
+	/**
+	 * @param pool source of arrays for calibration and {@link #reconfigure()}
+	 */
+	public SpurFilter(float maxPeakJitterdB, float peakThresholdAboveNoise, int maxPeakBins, int validIterations, DatasetSpectrum input,
+			FloatArrayPool pool)
+	{
+		this(maxPeakJitterdB, peakThresholdAboveNoise, maxPeakBins, validIterations, input, pool, SpectrumStripes.SERIAL);
+	}
+
+	/**
+	 * @param pool source of arrays for calibration and {@link #reconfigure()}
+	 * @param stripes splits filtering and averaging of the calibration, 
+	 * spur detection reads {@link #maxPeakBins} neighbours and follows the noise floor across the whole span, so it is not split
+	 */
+	public SpurFilter(float maxPeakJitterdB, float peakThresholdAboveNoise, int maxPeakBins, int validIterations, DatasetSpectrum input,
+			FloatArrayPool pool, SpectrumStripes stripes)
 	{
 		this.maxPeakJitterdB = maxPeakJitterdB;
 		this.peakThresholdAboveNoise = peakThresholdAboveNoise;
 		this.maxPeakBins = maxPeakBins;
 		this.validIterations = validIterations;
 		this.input = input;
+		this.pool = pool;
+		this.stripes = stripes;
 		this.filter = new DatasetSpectrum(input.getFFTBinSizeHz(), input.getFreqStartMHz(), input.getFreqStopMHz(), 0);
-		this.avgSpectrum = input.cloneMe();
-		this.noiseFloor = avgSpectrum.cloneMe();
+		this.avgSpectrum = new DatasetSpectrum(input.getFFTBinSizeHz(), input.getFreqStartMHz(), input.getFreqStopMHz(), input.spectrumInitPower);
+		this.noiseFloor = new DatasetSpectrum(input.getFFTBinSizeHz(), input.getFreqStartMHz(), input.getFreqStopMHz(), input.spectrumInitPower);
 	}
 
 	/**
@@ -71,14 +108,31 @@ public class SpurFilter
 	public void recalibrate()
 	{
 		calibrated = false;
+		for (float[] spectr : filterInputs)
+		{
+			pool.release(spectr);
+		}
 		filterInputs.clear();
 	}
 
+	/**
+	 * Adapts the filter to the input dataset's new frequency range and bin size and starts new calibration
+	 */
+	public void reconfigure()
+	{
+		recalibrate();
+		filter.reconfigure(input.getFFTBinSizeHz(), input.getFreqStartMHz(), input.getFreqStopMHz(), pool);
+		avgSpectrum.reconfigure(input.getFFTBinSizeHz(), input.getFreqStartMHz(), input.getFreqStopMHz(), pool);
+		noiseFloor.reconfigure(input.getFFTBinSizeHz(), input.getFreqStartMHz(), input.getFreqStopMHz(), pool);
+	}
+
 	private void calibrate()
 	{
 		if (calibrated)
 			return;
-		filterInputs.add(input.cloneMe());
+		float[] snapshot = pool.acquire(input.spectrumLength());
+		System.arraycopy(input.getSpectrumArray(), 0, snapshot, 0, snapshot.length);
+		filterInputs.add(snapshot);
 
 		//int validIterations	= 20;
 		//float peakThresholdAboveNoise	= 4;
@@ -89,9 +143,6 @@ public class SpurFilter
 			/**
 			 * trigger calibration
 			 */
-			avgSpectrum.setSpectrumInitPower(0);
-			avgSpectrum.resetSpectrum();
-
 			/**
 			 * use different noise floor for different portions of the spectrum
 			 * due to non-linear sensitivity in different bands 
@@ -102,18 +153,7 @@ public class SpurFilter
 			 * Calculate average values 
 			 */
 			float[] avgSpectrArray = avgSpectrum.getSpectrumArray();
-			for (DatasetSpectrum datasetSpectrum : filterInputs)
-			{
-				float[] spectr = datasetSpectrum.getSpectrumArray();
-				for (int i = 0; i < spectr.length; i++)
-				{
-					avgSpectrArray[i] += spectr[i];
-				}
-			}
-			for (int i = 0; i < avgSpectrArray.length; i++)
-			{
-				avgSpectrArray[i] /= validIterations;
-			}
+			stripes.forEach(avgSpectrArray.length, this, AVERAGE);
 
 			LinkedList<Integer> spurIndexes = new LinkedList<>();
 			int end = avgSpectrArray.length - maxPeakBins;
@@ -165,9 +205,8 @@ public class SpurFilter
 			{
 				Integer spurIndex = iterator.next();
 				boolean valid = true;
-				for (DatasetSpectrum datasetSpectrum : filterInputs)
+				for (float[] spectr : filterInputs)
 				{
-					float[] spectr = datasetSpectrum.getSpectrumArray();
 					float diff = Math.abs(spectr[spurIndex] - avgSpectrArray[spurIndex]);
 					if (diff > maxPeakJitterdB)
 					{
@@ -195,6 +234,26 @@ public class SpurFilter
 			calibrated = false;
 	}
 
+	/**
+	 * Averages the calibration inputs of bins from to to - 1 into {@link #avgSpectrum}
+	 */
+	private void average(int from, int to)
+	{
+		float[] avgSpectrArray = avgSpectrum.getSpectrumArray();
+		Arrays.fill(avgSpectrArray, from, to, 0);
+		for (float[] spectr : filterInputs)
+		{
+			for (int i = from; i < to; i++)
+			{
+				avgSpectrArray[i] += spectr[i];
+			}
+		}
+		for (int i = from; i < to; i++)
+		{
+			avgSpectrArray[i] /= validIterations;
+		}
+	}
+
 	private void filterDatasetExec()
 	{
 		float input[] = this.input.getSpectrumArray();
@@ -207,10 +266,15 @@ public class SpurFilter
 		debug = 0;
 		if (debug == 0)
 		{
-			for (int i = 0; i < input.length; i++)
-			{
-				input[i] -= filter.getSpectrumArray()[i];
-			}
+			/**
+			 * every bin is filtered once after it was added, also when progressive frames filter partially written blocks,
+			 * filtered bins are marked changed for the stages that already processed them
+			 */
+			DirtyBlocks dirty = this.input.getDirtyBlocks();
+			stripes.forEach(stripes.stripeCount(dirty.countDirtyBins(filteredVersion)), input.length, this, SUBTRACT);
+			dirty.clearPending(filteredVersion);
+			dirty.markAgain(filteredVersion);
+			filteredVersion = dirty.getVersion();
 		}
 		else
 		{
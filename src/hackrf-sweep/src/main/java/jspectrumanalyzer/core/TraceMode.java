@@ -0,0 +1,42 @@
+package jspectrumanalyzer.core;
+
+/**
+ * Traces kept by {@link SpectrumTraces}, averages count with the number of average sweeps N
+ */
+public enum TraceMode {
+	/**
+	 * the newest sweep
+	 */
+	CLEAR_WRITE("Clear/write"),
+	/**
+	 * maximum of every bin since the trace was started
+	 */
+	MAX_HOLD("Max hold"),
+	/**
+	 * minimum of every bin since the trace was started
+	 */
+	MIN_HOLD("Min hold"),
+	/**
+	 * mean of linear power over blocks of N sweeps, shows the last completed block
+	 */
+	AVERAGE("Average"),
+	/**
+	 * exponential average of the dBm values (video average) with the time constant of N sweeps
+	 */
+	EXPONENTIAL_AVERAGE("Exp. average"),
+	/**
+	 * exponential average of linear power with the time constant of N sweeps, root mean square of the amplitude
+	 */
+	RMS("RMS");
+
+	private final String description;
+
+	private TraceMode(String description) {
+		this.description = description;
+	}
+
+	@Override
+	public String toString() {
+		return description;
+	}
+}
@@ -4,6 +4,8 @@ import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.data.xy.XYDataItem;
 import org.jfree.data.xy.XYSeries;
 
+import jspectrumanalyzer.core.SpectrumSnapshot;
+
 /**
  * Optimized immutable {@link XYSeries} for use with {@link XYLineAndShapeRenderer}.
  * No allocation of {@link XYDataItem} or any other objects.
@@ -11,6 +13,11 @@ import org.jfree.data.xy.XYSeries;
 public class XYSeriesImmutable extends XYSeries {
 	private float[] xValues;
 	private float[] yValues;
+	private int itemCount;
+	/**
+	 * snapshot read without a copy, null if the values were copied
+	 */
+	private SpectrumSnapshot snapshot;
 	
 	public XYSeriesImmutable(Comparable key, float[] xValues, float[] yValues) {
 		super(key, false, false);
@@ -18,6 +25,28 @@ public class XYSeriesImmutable extends XYSeries {
 			throw new IllegalArgumentException("x/y values are not of the same size");
 		this.xValues	= xValues.clone();
 		this.yValues	= yValues.clone();
+		this.itemCount	= xValues.length;
+	}
+
+	/**
+	 * Reads the acquired snapshot without a copy until {@link #release()}
+	 */
+	public XYSeriesImmutable(Comparable<?> key, SpectrumSnapshot snapshot) {
+		super(key, false, false);
+		this.xValues	= snapshot.getFrequenciesMHz();
+		this.yValues	= snapshot.getValues();
+		this.itemCount	= snapshot.size();
+		this.snapshot	= snapshot;
+	}
+
+	/**
+	 * Releases the snapshot the series reads, the series must not be read afterwards
+	 */
+	public void release() {
+		SpectrumSnapshot snapshot	= this.snapshot;
+		this.snapshot	= null;
+		if (snapshot != null)
+			snapshot.release();
 	}
 	
 	public double getXX(int item) {
@@ -30,7 +59,7 @@ public class XYSeriesImmutable extends XYSeries {
 	
 	@Override
 	public int getItemCount() {
-		return xValues.length;
+		return itemCount;
 	}
 	
 	@Override
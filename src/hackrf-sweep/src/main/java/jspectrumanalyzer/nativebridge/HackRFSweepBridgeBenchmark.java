@@ -0,0 +1,110 @@
+package jspectrumanalyzer.nativebridge;
+
+import jspectrumanalyzer.core.FFTBins;
+import jspectrumanalyzer.core.FFTBinsOverflowPolicy;
+import jspectrumanalyzer.core.FFTBinsRingBuffer;
+
+/**
+ * Compares per callback overhead of the native bridges, with and without native sweep aggregation.
+ * <p>
+ * Intended to run against the stub library built by "make stub" (src-c/hackrf_sweep_stub.c)
+ * which fakes hackrf_sweep_lib_start and emits callbacks as fast as possible:
+ * <pre>
+ * java -Djna.library.path=build/stub -cp hackrf_sweep_spectrum_analyzer.jar jspectrumanalyzer.nativebridge.HackRFSweepBridgeBenchmark [sweeps]
+ * </pre>
+ * Running it against the real library measures the hardware rate instead.
+ */
+public class HackRFSweepBridgeBenchmark
+{
+	private static final int	FREQ_MIN_MHZ	= 1;
+	private static final int	FREQ_MAX_MHZ	= 6000;
+	private static final int	FFT_BIN_WIDTH	= 100_000;
+	private static final int	NUM_SAMPLES		= 8192;
+
+	private enum Bridge {
+		JNA_ALLOCATING, JNA_POOLED, FFM_POOLED
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		int sweeps = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+		System.out.println("Bridge used by the application: " + HackRFSweepNativeBridge.getBridgeName());
+		for (Bridge bridge : Bridge.values())
+		{
+			if (bridge == Bridge.FFM_POOLED && !HackRFSweepNativeBridge.getBridgeName().equals("FFM"))
+			{
+				System.out.println(bridge + ": not available on this JDK");
+				continue;
+			}
+			for (boolean aggregation : new boolean[] { false, true })
+			{
+				HackRFSweepNativeBridge.setAggregation(aggregation, 0);
+				run(bridge, sweeps / 10);
+				long[] result = run(bridge, sweeps);
+				System.out.println(String.format("%s%s: %d sweeps, %.1f callbacks/sweep, %.0f ns/callback, %.1f us/sweep", bridge,
+						aggregation ? " aggregated" : "", sweeps, result[1] / (double) sweeps, result[0] / (double) result[1],
+						result[0] / 1000d / sweeps));
+			}
+		}
+		HackRFSweepNativeBridge.setAggregation(false, 0);
+	}
+
+	/**
+	 * @return total time of given number of sweeps in nanoseconds and the number of callbacks
+	 */
+	private static long[] run(Bridge bridge, int sweeps) throws InterruptedException
+	{
+		FFTBinsRingBuffer ring = new FFTBinsRingBuffer(64);
+		ring.setOverflowPolicy(FFTBinsOverflowPolicy.BLOCK_WITH_TIMEOUT);
+		Thread consumer = new Thread(() -> {
+			try
+			{
+				while (true)
+					ring.take().release();
+			}
+			catch (InterruptedException e)
+			{
+			}
+		}, "bridge benchmark consumer");
+		consumer.setDaemon(true);
+		consumer.start();
+
+		long[] callbacks = new long[1];
+		HackRFSweepDataCallback callback = new HackRFSweepDataCallback()
+		{
+			private int sweepCount = 0;
+
+			@Override public void newSpectrumData(boolean fullSweepDone, double[] frequencyStart, float fftBinWidthHz, float[] signalPowerdBm)
+			{
+				counted(fullSweepDone);
+			}
+
+			@Override public void newSpectrumData(FFTBins fftBins)
+			{
+				boolean fullSweepDone = fftBins.fullSweepDone;
+				ring.publish(fftBins);
+				counted(fullSweepDone);
+			}
+
+			@Override public void spectrumDataDropped(boolean fullSweepDone)
+			{
+				counted(fullSweepDone);
+			}
+
+			private void counted(boolean fullSweepDone)
+			{
+				callbacks[0]++;
+				if (fullSweepDone && ++sweepCount == sweeps)
+					HackRFSweepNativeBridge.stop();
+			}
+		};
+
+		long start = System.nanoTime();
+		HackRFSweepNativeBridge.start(callback, bridge == Bridge.JNA_ALLOCATING ? null : ring, bridge == Bridge.FFM_POOLED, FREQ_MIN_MHZ, FREQ_MAX_MHZ,
+				FFT_BIN_WIDTH, NUM_SAMPLES, 0, 0, false, false);
+		long nanos = System.nanoTime() - start;
+		consumer.interrupt();
+		consumer.join();
+		return new long[] { nanos, callbacks[0] };
+	}
+}
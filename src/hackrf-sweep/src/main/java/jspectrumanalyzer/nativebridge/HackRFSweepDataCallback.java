@@ -1,5 +1,9 @@
 package jspectrumanalyzer.nativebridge;
 
+import java.util.Arrays;
+
+import jspectrumanalyzer.core.FFTBins;
+
 public interface HackRFSweepDataCallback
 {
 	/**
@@ -10,4 +14,28 @@ public interface HackRFSweepDataCallback
 	 * @param signalPowerdBm array of fft bin's power in dB, null if no data
 	 */
 	public void newSpectrumData(boolean sweepStarted, double frequencyStart[], float fftBinWidthHz, float signalPowerdBm[]);
+
+	/**
+	 * Called by native code when new spectrum data is available in pooled bins.
+	 * The callee takes over the ownership and has to call {@link FFTBins#release()} when the data was consumed.
+	 * Default implementation copies the data and forwards it to {@link #newSpectrumData(boolean, double[], float, float[])}.
+	 * @param fftBins
+	 */
+	public default void newSpectrumData(FFTBins fftBins)
+	{
+		double[] freqStart = fftBins.toFrequencyArray();
+		float[] powerdBm = fftBins.binsCount == 0 ? null : Arrays.copyOf(fftBins.sigPowdBm, fftBins.binsCount);
+		boolean fullSweepDone = fftBins.fullSweepDone;
+		float fftBinWidthHz = fftBins.fftBinWidthHz;
+		fftBins.release();
+		newSpectrumData(fullSweepDone, freqStart, fftBinWidthHz, powerdBm);
+	}
+
+	/**
+	 * Called by native code when pooled bins could not be leased and the data had to be dropped
+	 * @param fullSweepDone
+	 */
+	public default void spectrumDataDropped(boolean fullSweepDone)
+	{
+	}
 }
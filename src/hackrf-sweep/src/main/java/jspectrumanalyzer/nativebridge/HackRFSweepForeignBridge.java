@@ -0,0 +1,215 @@
+package jspectrumanalyzer.nativebridge;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+
+import jspectrumanalyzer.core.FFTBins;
+import jspectrumanalyzer.core.FFTBinsPool;
+
+/**
+ * Bridge to hackrf_sweep library built on the Foreign Function & Memory API (java.lang.foreign, JDK 22+).
+ * <p>
+ * The project is compiled for Java 8, so the API is bound at runtime through method handles
+ * and the bridge is only available when running on a JDK that provides it.
+ * Native callback goes through an upcall stub which receives freq/power arrays as MemorySegments
+ * and reads them directly, without JNA callback marshalling and ByReference wrappers.
+ */
+class HackRFSweepForeignBridge
+{
+	/**
+	 * java.lang.foreign.MemorySegment
+	 */
+	private final Class<?>		memorySegmentClass;
+	private final Object		linker;
+	private final Object		layoutInt, layoutFloat, layoutDouble;
+	private final Object		callbackDescriptor;
+	/**
+	 * hackrf_sweep_lib_start(callback, 8x uint32_t)
+	 */
+	private final MethodHandle	startHandle;
+	private final MethodHandle	arenaOfShared, arenaClose, upcallStub;
+	/**
+	 * (Object segment, long newSize)Object
+	 */
+	private final MethodHandle	segmentReinterpret;
+	/**
+	 * (Object segment, Object layout, long offset)double
+	 */
+	private final MethodHandle	segmentGetDouble;
+	/**
+	 * (Object srcSegment, Object srcLayout, long srcOffset, Object dstArray, int dstIndex, int elementCount)void
+	 */
+	private final MethodHandle	segmentCopyToArray;
+
+	/**
+	 * Binds the foreign API and looks up hackrf_sweep_lib_start in given library
+	 * @param library native library file
+	 * @throws Throwable if the API is not available or the library cannot be loaded
+	 */
+	HackRFSweepForeignBridge(File library) throws Throwable
+	{
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		Class<?> linkerClass = Class.forName("java.lang.foreign.Linker");
+		Class<?> arenaClass = Class.forName("java.lang.foreign.Arena");
+		Class<?> symbolLookupClass = Class.forName("java.lang.foreign.SymbolLookup");
+		Class<?> functionDescriptorClass = Class.forName("java.lang.foreign.FunctionDescriptor");
+		Class<?> memoryLayoutClass = Class.forName("java.lang.foreign.MemoryLayout");
+		Class<?> valueLayoutClass = Class.forName("java.lang.foreign.ValueLayout");
+		Class<?> linkerOptionClass = Class.forName("java.lang.foreign.Linker$Option");
+		memorySegmentClass = Class.forName("java.lang.foreign.MemorySegment");
+
+		linker = linkerClass.getMethod("nativeLinker").invoke(null);
+		layoutInt = valueLayoutClass.getField("JAVA_INT").get(null);
+		layoutFloat = valueLayoutClass.getField("JAVA_FLOAT").get(null);
+		layoutDouble = valueLayoutClass.getField("JAVA_DOUBLE").get(null);
+		Object layoutByte = valueLayoutClass.getField("JAVA_BYTE").get(null);
+		Object layoutAddress = valueLayoutClass.getField("ADDRESS").get(null);
+
+		Object layouts = Array.newInstance(memoryLayoutClass, 5);
+		Object[] callbackArgs = { layoutByte, layoutInt, layoutAddress, layoutFloat, layoutAddress };
+		for (int i = 0; i < callbackArgs.length; i++)
+			Array.set(layouts, i, callbackArgs[i]);
+		callbackDescriptor = functionDescriptorClass.getMethod("ofVoid", layouts.getClass()).invoke(null, layouts);
+
+		Object startLayouts = Array.newInstance(memoryLayoutClass, 9);
+		Array.set(startLayouts, 0, layoutAddress);
+		for (int i = 1; i < 9; i++)
+			Array.set(startLayouts, i, layoutInt);
+		Object startDescriptor = functionDescriptorClass.getMethod("of", memoryLayoutClass, startLayouts.getClass()).invoke(null, layoutInt, startLayouts);
+
+		/**
+		 * global arena - the library stays loaded for the lifetime of the application, same as with JNA
+		 */
+		Object globalArena = arenaClass.getMethod("global").invoke(null);
+		Object symbolLookup = symbolLookupClass.getMethod("libraryLookup", java.nio.file.Path.class, arenaClass).invoke(null, library.toPath(), globalArena);
+		java.util.Optional<?> startSymbol = (java.util.Optional<?>) symbolLookupClass.getMethod("find", String.class).invoke(symbolLookup, "hackrf_sweep_lib_start");
+		if (!startSymbol.isPresent())
+			throw new UnsatisfiedLinkError("hackrf_sweep_lib_start not found in " + library);
+		Object noOptions = Array.newInstance(linkerOptionClass, 0);
+		startHandle = (MethodHandle) linkerClass.getMethod("downcallHandle", memorySegmentClass, functionDescriptorClass, noOptions.getClass())
+				.invoke(linker, startSymbol.get(), startDescriptor, noOptions);
+
+		arenaOfShared = lookup.findStatic(arenaClass, "ofShared", MethodType.methodType(arenaClass));
+		arenaClose = lookup.findVirtual(arenaClass, "close", MethodType.methodType(void.class));
+		upcallStub = MethodHandles.insertArguments(lookup.findVirtual(linkerClass, "upcallStub",
+				MethodType.methodType(memorySegmentClass, MethodHandle.class, functionDescriptorClass, arenaClass, noOptions.getClass())), 4, noOptions);
+
+		segmentReinterpret = lookup.findVirtual(memorySegmentClass, "reinterpret", MethodType.methodType(memorySegmentClass, long.class))
+				.asType(MethodType.methodType(Object.class, Object.class, long.class));
+		Class<?> ofDoubleClass = Class.forName("java.lang.foreign.ValueLayout$OfDouble");
+		segmentGetDouble = lookup.findVirtual(memorySegmentClass, "get", MethodType.methodType(double.class, ofDoubleClass, long.class))
+				.asType(MethodType.methodType(double.class, Object.class, Object.class, long.class));
+		segmentCopyToArray = lookup.findStatic(memorySegmentClass, "copy",
+				MethodType.methodType(void.class, memorySegmentClass, valueLayoutClass, long.class, Object.class, int.class, int.class))
+				.asType(MethodType.methodType(void.class, Object.class, Object.class, long.class, Object.class, int.class, int.class));
+	}
+
+	/**
+	 * Starts hackrf_sweep and blocks until it finishes.
+	 * @see HackRFSweepNativeBridge#start(HackRFSweepDataCallback, FFTBinsPool, int, int, int, int, int, int, boolean, boolean)
+	 */
+	void start(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool, int freq_min_MHz, int freq_max_MHz, int fft_bin_width, int num_samples,
+			int lna_gain, int vga_gain, boolean antennaPowerEnable, boolean internalLNA) throws Throwable
+	{
+		Upcall upcall = new Upcall(dataCallback, binsPool);
+		MethodHandle target = MethodHandles.lookup().findVirtual(Upcall.class, "apply",
+				MethodType.methodType(void.class, byte.class, int.class, Object.class, float.class, Object.class))
+				.bindTo(upcall)
+				.asType(MethodType.methodType(void.class, byte.class, int.class, memorySegmentClass, float.class, memorySegmentClass));
+		Object arena = arenaOfShared.invoke();
+		try
+		{
+			Object callbackStub = upcallStub.invoke(linker, target, callbackDescriptor, arena);
+			startHandle.invoke(callbackStub, freq_min_MHz, freq_max_MHz, fft_bin_width, num_samples, lna_gain, vga_gain, antennaPowerEnable ? 1 : 0,
+					internalLNA ? 1 : 0);
+		}
+		finally
+		{
+			arenaClose.invoke(arena);
+		}
+	}
+
+	/**
+	 * Target of the upcall stub. Must never throw, an exception escaping an upcall terminates the JVM.
+	 */
+	private class Upcall
+	{
+		private final HackRFSweepDataCallback	dataCallback;
+		private final FFTBinsPool				binsPool;
+		/**
+		 * length of the contiguous runs of bins the native code produces, learned from the data
+		 */
+		private int								segmentLengthHint	= 0;
+		private double[]						freqScratch			= new double[0];
+
+		public Upcall(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool)
+		{
+			this.dataCallback = dataCallback;
+			this.binsPool = binsPool;
+		}
+
+		public void apply(byte sweep_started, int bins, Object freqStart, float fftBinWidth, Object powerdBm)
+		{
+			try
+			{
+				boolean fullSweepDone = sweep_started != 0;
+				FFTBins fftBins = binsPool.lease(bins);
+				if (fftBins == null)
+				{
+					dataCallback.spectrumDataDropped(fullSweepDone);
+					return;
+				}
+				fftBins.fullSweepDone = fullSweepDone;
+				fftBins.fftBinWidthHz = fftBinWidth;
+				if (bins > 0)
+				{
+					Object powers = segmentReinterpret.invokeExact(powerdBm, bins * 4l);
+					segmentCopyToArray.invokeExact(powers, layoutFloat, 0l, (Object) fftBins.sigPowdBm, 0, bins);
+					readSegments(segmentReinterpret.invokeExact(freqStart, bins * 8l), bins, fftBins);
+				}
+				dataCallback.newSpectrumData(fftBins);
+			}
+			catch (Throwable e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		/**
+		 * Reads only the first and the last frequency of each expected run of bins instead
+		 * of the whole frequency array. Falls back to reading all remaining frequencies
+		 * if a run is not contiguous.
+		 */
+		private void readSegments(Object freqStart, int bins, FFTBins fftBins) throws Throwable
+		{
+			double binWidth = fftBins.fftBinWidthHz;
+			int index = 0;
+			while (index < bins)
+			{
+				int length = Math.min(segmentLengthHint, bins - index);
+				if (length > 0)
+				{
+					double first = (double) segmentGetDouble.invokeExact(freqStart, layoutDouble, index * 8l);
+					double last = length == 1 ? first : (double) segmentGetDouble.invokeExact(freqStart, layoutDouble, (index + length - 1) * 8l);
+					if (Math.abs(last - first - (length - 1) * binWidth) <= binWidth * 0.001)
+					{
+						fftBins.addSegment(first, length);
+						index += length;
+						continue;
+					}
+				}
+				int remaining = bins - index;
+				if (freqScratch.length < remaining)
+					freqScratch = new double[remaining];
+				segmentCopyToArray.invokeExact(freqStart, layoutDouble, index * 8l, (Object) freqScratch, 0, remaining);
+				int firstNewSegment = fftBins.segmentsCount;
+				fftBins.addSegments(freqScratch, 0, remaining);
+				segmentLengthHint = fftBins.segmentBinCount[firstNewSegment];
+				return;
+			}
+		}
+	}
+}
@@ -4,16 +4,30 @@ import com.sun.jna.CallbackThreadInitializer;
 import com.sun.jna.Native;
 import com.sun.jna.NativeLibrary;
 import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
 import com.sun.jna.ptr.DoubleByReference;
 import com.sun.jna.ptr.FloatByReference;
 
 import hackrfsweep.HackrfSweepLibrary;
 import hackrfsweep.HackrfSweepLibrary.hackrf_sweep_lib_start__fft_power_callback_callback;
+import jspectrumanalyzer.core.FFTBins;
+import jspectrumanalyzer.core.FFTBinsPool;
 
 public class HackRFSweepNativeBridge
 {
 	public static final String			JNA_LIBRARY_NAME	= "hackrf-sweep";
 	public static final NativeLibrary	JNA_NATIVE_LIB;
+	/**
+	 * selects the bridge used for data callbacks: "auto" (default) uses FFM when the JDK supports it, 
+	 * "ffm" or "jna" force one of them
+	 */
+	public static final String			BRIDGE_PROPERTY		= "hackrf.bridge";
+	private static final HackRFSweepForeignBridge	FOREIGN_BRIDGE;
+	/**
+	 * flags of {@link #setIQReplay(String, int)}
+	 */
+	public static final int				REPLAY_LOOP			= HackrfSweepLibrary.HACKRF_SWEEP_REPLAY_LOOP;
+	public static final int				REPLAY_REALTIME		= HackrfSweepLibrary.HACKRF_SWEEP_REPLAY_REALTIME;
 	static
 	{
 		/**
@@ -30,20 +44,152 @@ public class HackRFSweepNativeBridge
 		JNA_NATIVE_LIB		= NativeLibrary.getInstance(JNA_LIBRARY_NAME);
 		Native.register(HackrfSweepLibrary.class, JNA_NATIVE_LIB);		
 
+		FOREIGN_BRIDGE	= createForeignBridge(System.getProperty(BRIDGE_PROPERTY, "auto"));
+	}
+
+	private static HackRFSweepForeignBridge createForeignBridge(String bridge)
+	{
+		if (bridge.equalsIgnoreCase("jna") || JNA_NATIVE_LIB.getFile() == null)
+			return null;
+		try
+		{
+			return new HackRFSweepForeignBridge(JNA_NATIVE_LIB.getFile());
+		}
+		catch (Throwable e)
+		{
+			if (bridge.equalsIgnoreCase("ffm"))
+				System.err.println("FFM bridge not available, falling back to JNA: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return name of the bridge used for pooled data callbacks
+	 */
+	public static String getBridgeName()
+	{
+		return FOREIGN_BRIDGE != null ? "FFM" : "JNA";
 	}
 
 	public static synchronized void start(HackRFSweepDataCallback dataCallback, int freq_min_MHz, int freq_max_MHz, int fft_bin_width, int num_samples,
 			int lna_gain, int vga_gain, boolean antennaPowerEnable, boolean internalLNA)
 	{
-		hackrf_sweep_lib_start__fft_power_callback_callback callback = new hackrf_sweep_lib_start__fft_power_callback_callback()
+		start(dataCallback, null, freq_min_MHz, freq_max_MHz, fft_bin_width, num_samples, lna_gain, vga_gain, antennaPowerEnable, internalLNA);
+	}
+
+	/**
+	 * Starts hackrf_sweep and blocks until it finishes.
+	 * @param dataCallback
+	 * @param binsPool if not null, native data is copied into bins leased from the pool 
+	 * and passed to {@link HackRFSweepDataCallback#newSpectrumData(FFTBins)}, 
+	 * otherwise new arrays are allocated for every callback. Pooled callbacks go through FFM bridge when available.
+	 */
+	public static synchronized void start(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool, int freq_min_MHz, int freq_max_MHz, int fft_bin_width, int num_samples,
+			int lna_gain, int vga_gain, boolean antennaPowerEnable, boolean internalLNA)
+	{
+		start(dataCallback, binsPool, FOREIGN_BRIDGE != null, freq_min_MHz, freq_max_MHz, fft_bin_width, num_samples, lna_gain, vga_gain, antennaPowerEnable, internalLNA);
+	}
+
+	/**
+	 * Starts hackrf_sweep with explicitly selected bridge and blocks until it finishes.
+	 * @param foreignBridge if true, FFM bridge is used for pooled callbacks, falls back to JNA if not available
+	 */
+	static synchronized void start(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool, boolean foreignBridge, int freq_min_MHz, int freq_max_MHz, int fft_bin_width, int num_samples,
+			int lna_gain, int vga_gain, boolean antennaPowerEnable, boolean internalLNA)
+	{
+		if (foreignBridge && FOREIGN_BRIDGE != null && binsPool != null)
 		{
-			@Override public void apply(byte sweep_started, int bins, DoubleByReference freqStart, float fftBinWidth, FloatByReference powerdBm)
+			try
+			{
+				FOREIGN_BRIDGE.start(dataCallback, binsPool, freq_min_MHz, freq_max_MHz, fft_bin_width, num_samples, lna_gain, vga_gain, antennaPowerEnable, internalLNA);
+			}
+			catch (RuntimeException | Error e)
+			{
+				throw e;
+			}
+			catch (Throwable e)
 			{
-				double[] freqStartArr = bins == 0 ? null : freqStart.getPointer().getDoubleArray(0, bins);
-				float[] powerArr =  bins == 0 ? null : powerdBm.getPointer().getFloatArray(0, bins);
-				dataCallback.newSpectrumData(sweep_started==0 ? false : true, freqStartArr, fftBinWidth, powerArr);
+				throw new RuntimeException(e);
 			}
-		};
+			return;
+		}
+		hackrf_sweep_lib_start__fft_power_callback_callback callback;
+		if (binsPool == null)
+		{
+			callback = new hackrf_sweep_lib_start__fft_power_callback_callback()
+			{
+				@Override public void apply(byte sweep_started, int bins, DoubleByReference freqStart, float fftBinWidth, FloatByReference powerdBm)
+				{
+					double[] freqStartArr = bins == 0 ? null : freqStart.getPointer().getDoubleArray(0, bins);
+					float[] powerArr =  bins == 0 ? null : powerdBm.getPointer().getFloatArray(0, bins);
+					dataCallback.newSpectrumData(sweep_started==0 ? false : true, freqStartArr, fftBinWidth, powerArr);
+				}
+			};
+		}
+		else
+		{
+			callback = new hackrf_sweep_lib_start__fft_power_callback_callback()
+			{
+				/**
+				 * length of the contiguous runs of bins the native code produces, learned from the data
+				 */
+				private int			segmentLengthHint	= 0;
+				private double[]	freqScratch			= new double[0];
+
+				@Override public void apply(byte sweep_started, int bins, DoubleByReference freqStart, float fftBinWidth, FloatByReference powerdBm)
+				{
+					boolean fullSweepDone = sweep_started != 0;
+					FFTBins fftBins = binsPool.lease(bins);
+					if (fftBins == null)
+					{
+						dataCallback.spectrumDataDropped(fullSweepDone);
+						return;
+					}
+					fftBins.fullSweepDone = fullSweepDone;
+					fftBins.fftBinWidthHz = fftBinWidth;
+					if (bins > 0)
+					{
+						powerdBm.getPointer().read(0, fftBins.sigPowdBm, 0, bins);
+						readSegments(freqStart.getPointer(), bins, fftBins);
+					}
+					dataCallback.newSpectrumData(fftBins);
+				}
+
+				/**
+				 * Reads only the first and the last frequency of each expected run of bins instead
+				 * of the whole frequency array. Falls back to reading all remaining frequencies
+				 * if a run is not contiguous.
+				 */
+				private void readSegments(Pointer freqStart, int bins, FFTBins fftBins)
+				{
+					double binWidth = fftBins.fftBinWidthHz;
+					int index = 0;
+					while (index < bins)
+					{
+						int length = Math.min(segmentLengthHint, bins - index);
+						if (length > 0)
+						{
+							double first = freqStart.getDouble(index * 8l);
+							double last = length == 1 ? first : freqStart.getDouble((index + length - 1) * 8l);
+							if (Math.abs(last - first - (length - 1) * binWidth) <= binWidth * 0.001)
+							{
+								fftBins.addSegment(first, length);
+								index += length;
+								continue;
+							}
+						}
+						int remaining = bins - index;
+						if (freqScratch.length < remaining)
+							freqScratch = new double[remaining];
+						freqStart.read(index * 8l, freqScratch, 0, remaining);
+						int firstNewSegment = fftBins.segmentsCount;
+						fftBins.addSegments(freqScratch, 0, remaining);
+						segmentLengthHint = fftBins.segmentBinCount[firstNewSegment];
+						return;
+					}
+				}
+			};
+		}
 		Native.setCallbackThreadInitializer(callback, new CallbackThreadInitializer(true));
 
 		HackrfSweepLibrary.hackrf_sweep_lib_start(callback, freq_min_MHz, freq_max_MHz, fft_bin_width, num_samples, lna_gain, vga_gain, antennaPowerEnable ? 1 : 0, internalLNA ? 1 : 0);
@@ -53,4 +199,44 @@ public class HackRFSweepNativeBridge
 	{
 		HackrfSweepLibrary.hackrf_sweep_lib_stop();
 	}
+
+	/**
+	 * Waits until native hackrf_sweep_lib_start() returns.
+	 * @return true if the library is not running, false on timeout
+	 */
+	public static boolean awaitStopped(long timeoutMillis)
+	{
+		return HackrfSweepLibrary.hackrf_sweep_lib_wait_stopped((int) Math.min(Integer.MAX_VALUE, Math.max(0, timeoutMillis))) != 0;
+	}
+
+	/**
+	 * Native sweep aggregation, applies to the next start.
+	 * @param enabled if true, bins are collected into a full sweep buffer in the library and passed in one callback per sweep
+	 * instead of one callback per USB transfer
+	 * @param maxIntervalMillis if not 0, partially collected sweep is passed when this time elapsed since the last callback
+	 */
+	public static void setAggregation(boolean enabled, int maxIntervalMillis)
+	{
+		HackrfSweepLibrary.hackrf_sweep_lib_set_aggregation(enabled ? 1 : 0, maxIntervalMillis);
+	}
+
+	/**
+	 * Records raw sweep transfers received from HackRF during the next start
+	 * @param path file to write or null to disable recording
+	 */
+	public static void setIQRecording(String path)
+	{
+		HackrfSweepLibrary.hackrf_sweep_lib_set_iq_recording(path);
+	}
+
+	/**
+	 * Next start processes sweep transfers recorded by {@link #setIQRecording(String)} instead of HackRF,
+	 * the same start frequency and FFT bin width as when recording must be used.
+	 * @param path recorded file or null to use HackRF
+	 * @param flags {@link #REPLAY_LOOP}, {@link #REPLAY_REALTIME}
+	 */
+	public static void setIQReplay(String path, int flags)
+	{
+		HackrfSweepLibrary.hackrf_sweep_lib_set_iq_replay(path, flags);
+	}
 }
@@ -0,0 +1,66 @@
+package jspectrumanalyzer.nativebridge;
+
+import jspectrumanalyzer.core.FFTBinsPool;
+
+/**
+ * HackRF hardware accessed through {@link HackRFSweepNativeBridge}
+ */
+public class HackRFSweepNativeSource implements HackRFSweepSource
+{
+	private boolean	aggregation				= false;
+	private int		aggregationIntervalMs	= 0;
+	private String	iqRecordingPath			= null;
+	private String	iqReplayPath			= null;
+	private int		iqReplayFlags			= 0;
+
+	/**
+	 * @see HackRFSweepNativeBridge#setAggregation(boolean, int)
+	 */
+	public void setAggregation(boolean enabled, int maxIntervalMillis)
+	{
+		this.aggregation = enabled;
+		this.aggregationIntervalMs = maxIntervalMillis;
+	}
+
+	/**
+	 * @see HackRFSweepNativeBridge#setIQRecording(String)
+	 */
+	public void setIQRecording(String path)
+	{
+		this.iqRecordingPath = path;
+	}
+
+	/**
+	 * @see HackRFSweepNativeBridge#setIQReplay(String, int)
+	 */
+	public void setIQReplay(String path, int flags)
+	{
+		this.iqReplayPath = path;
+		this.iqReplayFlags = flags;
+	}
+
+	@Override public void start(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool, int freq_min_MHz, int freq_max_MHz, int fft_bin_width,
+			int num_samples, int lna_gain, int vga_gain, boolean antennaPowerEnable, boolean internalLNA)
+	{
+		HackRFSweepNativeBridge.setAggregation(aggregation, aggregationIntervalMs);
+		HackRFSweepNativeBridge.setIQRecording(iqRecordingPath);
+		HackRFSweepNativeBridge.setIQReplay(iqReplayPath, iqReplayFlags);
+		HackRFSweepNativeBridge.start(dataCallback, binsPool, freq_min_MHz, freq_max_MHz, fft_bin_width, num_samples, lna_gain, vga_gain, antennaPowerEnable,
+				internalLNA);
+	}
+
+	@Override public void stop()
+	{
+		HackRFSweepNativeBridge.stop();
+	}
+
+	@Override public boolean awaitStopped(long timeoutMillis)
+	{
+		return HackRFSweepNativeBridge.awaitStopped(timeoutMillis);
+	}
+
+	@Override public String getName()
+	{
+		return (iqReplayPath != null ? "IQ replay/" : "HackRF/") + HackRFSweepNativeBridge.getBridgeName() + (aggregation ? "/aggregated" : "");
+	}
+}
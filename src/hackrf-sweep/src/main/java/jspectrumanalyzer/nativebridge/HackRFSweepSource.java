@@ -0,0 +1,37 @@
+package jspectrumanalyzer.nativebridge;
+
+import jspectrumanalyzer.core.FFTBinsPool;
+
+/**
+ * Producer of sweep data. Calls {@link HackRFSweepDataCallback} the same way the native hackrf_sweep library does,
+ * so that the whole processing pipeline can be driven by HackRF hardware or any other source.
+ */
+public interface HackRFSweepSource
+{
+	/**
+	 * Starts sweeping and blocks until {@link #stop()} is called or the source finishes.
+	 * @param dataCallback
+	 * @param binsPool if not null, data is passed in bins leased from the pool to {@link HackRFSweepDataCallback#newSpectrumData(jspectrumanalyzer.core.FFTBins)},
+	 * otherwise new arrays are allocated for every callback
+	 */
+	public void start(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool, int freq_min_MHz, int freq_max_MHz, int fft_bin_width, int num_samples,
+			int lna_gain, int vga_gain, boolean antennaPowerEnable, boolean internalLNA);
+
+	/**
+	 * Requests {@link #start(HackRFSweepDataCallback, FFTBinsPool, int, int, int, int, int, int, boolean, boolean)} to return.
+	 * Can be called from any thread, does not wait.
+	 */
+	public void stop();
+
+	/**
+	 * Waits until {@link #start(HackRFSweepDataCallback, FFTBinsPool, int, int, int, int, int, int, boolean, boolean)} returns 
+	 * or the timeout elapses.
+	 * @return true if the source is stopped, false on timeout or if the source cannot signal it
+	 */
+	public boolean awaitStopped(long timeoutMillis) throws InterruptedException;
+
+	/**
+	 * @return short name shown to the user
+	 */
+	public String getName();
+}
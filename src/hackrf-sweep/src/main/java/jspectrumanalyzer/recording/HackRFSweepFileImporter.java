@@ -0,0 +1,385 @@
+package jspectrumanalyzer.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import jspectrumanalyzer.core.DatasetSpectrumPeak;
+import jspectrumanalyzer.core.FFTBins;
+import jspectrumanalyzer.core.FFTBinsOverflowPolicy;
+import jspectrumanalyzer.core.FFTBinsRingBuffer;
+import jspectrumanalyzer.core.SpurFilter;
+import jspectrumanalyzer.nativebridge.HackRFSweepDataCallback;
+
+/**
+ * Converts files written by the stock hackrf_sweep command line tool to {@link SweepRecorder} recordings
+ * and optionally to {@link SpectrogramArchiveWriter} archives, several files in parallel:
+ * <pre>
+ * java -cp hackrf_sweep_spectrum_analyzer.jar jspectrumanalyzer.recording.HackRFSweepFileImporter [-threads n] [-out directory] [-archive] [-spur] files...
+ * </pre>
+ * Each file is parsed by {@link HackRFSweepFileParser} on one thread and passed through a {@link FFTBinsRingBuffer}
+ * to a second thread that records the bins and, for archives, builds the spectrum in {@link DatasetSpectrumPeak} the same way as the analyzer does.
+ * Nothing is dropped, the parser waits for the processing and the processing for the disk.
+ * Output files are named after the input files with the dots replaced by underscores, the recording is indexed, see {@link SweepRecordingIndex}.
+ */
+public class HackRFSweepFileImporter
+{
+	private static final int	QUEUE_CAPACITY	= 256;
+
+	private final File			outputDirectory;
+	private final boolean		archive;
+	private final boolean		spurRemoval;
+
+	/**
+	 * @param outputDirectory where to write the recordings, null to write them next to the input files
+	 * @param archive true to also write spectrogram archives of completed sweeps
+	 * @param spurRemoval true to filter spurs before the peaks are calculated
+	 */
+	public HackRFSweepFileImporter(File outputDirectory, boolean archive, boolean spurRemoval)
+	{
+		this.outputDirectory = outputDirectory;
+		this.archive = archive;
+		this.spurRemoval = spurRemoval;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int threads = Runtime.getRuntime().availableProcessors() / 2;
+		File outputDirectory = null;
+		boolean archive = false;
+		boolean spurRemoval = false;
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-out"))
+				outputDirectory = new File(args[++i]);
+			else if (args[i].equals("-archive"))
+				archive = true;
+			else if (args[i].equals("-spur"))
+				spurRemoval = true;
+			else
+				files.add(new File(args[i]));
+		}
+		if (files.isEmpty())
+		{
+			System.out.println("Usage: HackRFSweepFileImporter [-threads n] [-out directory] [-archive] [-spur] files...");
+			return;
+		}
+		if (outputDirectory != null)
+			outputDirectory.mkdirs();
+
+		HackRFSweepFileImporter importer = new HackRFSweepFileImporter(outputDirectory, archive, spurRemoval);
+		long start = System.nanoTime();
+		List<Result> results = importer.importFiles(files, Math.max(1, threads));
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long bytes = 0;
+		for (Result result : results)
+		{
+			System.out.println(result);
+			bytes += result.bytes;
+		}
+		System.out.println(String.format("Imported %d files, %.1fMB in %.1fs (%.1fMB/s)", results.size(), bytes / 1048576d, seconds,
+				bytes / 1048576d / seconds));
+	}
+
+	/**
+	 * Imports the files in parallel, blocks until all are done
+	 * @param threads number of files imported at once
+	 * @return results in the order of the files, failed imports are reported in the result
+	 */
+	public List<Result> importFiles(List<File> files, int threads) throws InterruptedException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			List<Future<Result>> futures = new ArrayList<>();
+			for (File file : files)
+				futures.add(executor.submit(() -> importFile(file)));
+			List<Result> results = new ArrayList<>();
+			for (int i = 0; i < futures.size(); i++)
+			{
+				Result result;
+				try
+				{
+					result = futures.get(i).get();
+				}
+				catch (ExecutionException e)
+				{
+					result = new Result(files.get(i));
+					result.error = e.getCause();
+				}
+				results.add(result);
+			}
+			return results;
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Imports one file on the calling thread and one processing thread
+	 */
+	public Result importFile(File file) throws IOException, InterruptedException
+	{
+		Result result = new Result(file);
+		long start = System.nanoTime();
+		/**
+		 * sweep.csv and sweep.bin must not end up in the same recording
+		 */
+		String name = file.getName().replace('.', '_');
+		String basePath = new File(outputDirectory != null ? outputDirectory : file.getAbsoluteFile().getParentFile(), name).getPath();
+
+		FFTBinsRingBuffer queue = new FFTBinsRingBuffer(QUEUE_CAPACITY);
+		queue.setOverflowPolicy(FFTBinsOverflowPolicy.BLOCK_WITH_TIMEOUT);
+		queue.setBlockTimeout(1, TimeUnit.MINUTES);
+		try (HackRFSweepFileParser parser = new HackRFSweepFileParser(file); SweepRecorder recorder = new SweepRecorder(basePath))
+		{
+			parser.setUseFileTimestamps(true);
+			recorder.setBlockWhenFull(true);
+			result.format = parser.getFormat();
+			FileProcessor processor = new FileProcessor(queue, recorder, archive ? basePath + SpectrogramArchiveFormat.FILE_EXTENSION : null);
+			Thread processingThread = new Thread(processor, "Import " + file.getName());
+			processingThread.start();
+			try
+			{
+				parser.parse(new HackRFSweepDataCallback()
+				{
+					@Override public void newSpectrumData(FFTBins fftBins)
+					{
+						queue.publish(fftBins);
+					}
+
+					@Override public void newSpectrumData(boolean fullSweepDone, double[] frequencyStart, float fftBinWidthHz, float[] signalPowerdBm)
+					{
+						queue.publish(fullSweepDone, frequencyStart, fftBinWidthHz, signalPowerdBm);
+					}
+
+					@Override public void spectrumDataDropped(boolean fullSweepDone)
+					{
+						queue.dropped(fullSweepDone);
+						result.dropped++;
+					}
+				}, queue);
+			}
+			finally
+			{
+				queue.close();
+				processingThread.join();
+			}
+			if (processor.error != null)
+				throw new IOException("Processing of " + file + " failed", processor.error);
+			result.bytes = parser.getBytesRead();
+			result.sweeps = parser.getSweepsCount();
+			result.bins = parser.getBinsCount();
+			result.peakPowerdBm = processor.peakPowerdBm;
+			result.dropped += recorder.getDroppedCount();
+		}
+		result.seconds = (System.nanoTime() - start) / 1e9;
+		return result;
+	}
+
+	/**
+	 * Consumer of the parsed bins. The spectrum covers the span of the first sweep, settings are recorded once it is known.
+	 */
+	private class FileProcessor implements Runnable
+	{
+		private final FFTBinsRingBuffer	queue;
+		private final SweepRecorder		recorder;
+		private final String			archivePath;
+		private volatile Throwable		error			= null;
+		private volatile double			peakPowerdBm	= Double.NaN;
+
+		/**
+		 * copies of the bins of the first sweep, until the span is known
+		 */
+		private List<FFTBins>			firstSweep		= new ArrayList<>();
+		private double					minFreqHz		= Double.MAX_VALUE, maxFreqHz = 0;
+		private DatasetSpectrumPeak		dataset;
+		private SpurFilter				spurFilter;
+		private SpectrogramArchiveWriter	archiveWriter;
+
+		public FileProcessor(FFTBinsRingBuffer queue, SweepRecorder recorder, String archivePath)
+		{
+			this.queue = queue;
+			this.recorder = recorder;
+			this.archivePath = archivePath;
+		}
+
+		@Override public void run()
+		{
+			try
+			{
+				FFTBins bins;
+				while ((bins = queue.take()) != null)
+				{
+					try
+					{
+						if (firstSweep != null)
+							collectFirstSweep(bins);
+						else
+							process(bins);
+					}
+					finally
+					{
+						bins.release();
+					}
+				}
+				if (firstSweep != null && !firstSweep.isEmpty())
+					startProcessing();
+				if (dataset != null)
+					peakPowerdBm = dataset.calculateSpectrumPeakPower();
+			}
+			catch (Throwable e)
+			{
+				error = e;
+				/**
+				 * keep draining until the parser closes the queue so that it does not wait for the queue
+				 */
+				try
+				{
+					FFTBins bins;
+					while ((bins = queue.take()) != null)
+						bins.release();
+				}
+				catch (InterruptedException e1)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+			finally
+			{
+				if (archiveWriter != null)
+				{
+					try
+					{
+						archiveWriter.close();
+					}
+					catch (IOException e)
+					{
+						if (error == null)
+							error = e;
+					}
+				}
+			}
+		}
+
+		private void collectFirstSweep(FFTBins bins) throws IOException
+		{
+			FFTBins copy = new FFTBins(bins.fullSweepDone, null, bins.fftBinWidthHz, null);
+			copy.ensureCapacity(bins.binsCount);
+			if (bins.binsCount > 0)
+				System.arraycopy(bins.sigPowdBm, 0, copy.sigPowdBm, 0, bins.binsCount);
+			copy.binsCount = bins.binsCount;
+			for (int i = 0; i < bins.segmentsCount; i++)
+			{
+				copy.addSegment(bins.segmentFreqStartHz[i], bins.segmentBinCount[i]);
+				minFreqHz = Math.min(minFreqHz, bins.segmentFreqStartHz[i]);
+				maxFreqHz = Math.max(maxFreqHz, bins.segmentFreqStartHz[i] + bins.segmentBinCount[i] * (double) bins.fftBinWidthHz);
+			}
+			copy.captureTimeNanos = bins.captureTimeNanos;
+			copy.sweepId = bins.sweepId;
+			firstSweep.add(copy);
+			if (bins.fullSweepDone)
+				startProcessing();
+		}
+
+		private void startProcessing() throws IOException
+		{
+			List<FFTBins> firstSweep = this.firstSweep;
+			this.firstSweep = null;
+			float binWidthHz = 0;
+			for (FFTBins bins : firstSweep)
+				if (bins.binsCount > 0)
+					binWidthHz = bins.fftBinWidthHz;
+			if (binWidthHz > 0)
+			{
+				int freqStartMHz = (int) Math.floor(minFreqHz / 1e6);
+				int freqStopMHz = (int) Math.ceil(maxFreqHz / 1e6);
+				recorder.setSettings(new SweepRecordingSettings(freqStartMHz, freqStopMHz, (int) binWidthHz, 0, 0, 0, false, false));
+				if (archivePath != null)
+				{
+					dataset = new DatasetSpectrumPeak(binWidthHz, freqStartMHz, freqStopMHz, -150, 15, 30000);
+					if (spurRemoval)
+						spurFilter = new SpurFilter(6, 4, 4, 25, dataset);
+					archiveWriter = new SpectrogramArchiveWriter(archivePath);
+					archiveWriter.setBlockWhenFull(true);
+				}
+			}
+			for (FFTBins bins : firstSweep)
+				process(bins);
+		}
+
+		private void process(FFTBins bins)
+		{
+			recorder.record(bins);
+			if (dataset == null)
+				return;
+			if (bins.binsCount > 0)
+				dataset.addNewData(bins);
+			if (bins.fullSweepDone)
+			{
+				/**
+				 * archive the filtered spectrum, as the analyzer does
+				 */
+				if (spurFilter != null)
+					spurFilter.filterDataset();
+				archiveWriter.append(dataset);
+				dataset.refreshPeakSpectrum();
+			}
+		}
+	}
+
+	public static class Result
+	{
+		private final File						file;
+		private HackRFSweepFileParser.Format	format;
+		private long							bytes, sweeps, bins, dropped;
+		private double							seconds;
+		private double							peakPowerdBm	= Double.NaN;
+		private Throwable						error;
+
+		Result(File file)
+		{
+			this.file = file;
+		}
+
+		public File getFile()
+		{
+			return file;
+		}
+
+		public long getSweeps()
+		{
+			return sweeps;
+		}
+
+		public long getDropped()
+		{
+			return dropped;
+		}
+
+		public Throwable getError()
+		{
+			return error;
+		}
+
+		@Override public String toString()
+		{
+			if (error != null)
+				return file.getName() + ": FAILED " + error;
+			return String.format("%s: %s, %.1fMB, %d sweeps, %d bins in %.1fs (%.1fMB/s, %.0f sweeps/s), dropped %d%s", file.getName(), format,
+					bytes / 1048576d, sweeps, bins, seconds, bytes / 1048576d / seconds, sweeps / seconds, dropped,
+					Double.isNaN(peakPowerdBm) ? "" : String.format(", total spectrum peak power %.1fdBm", peakPowerdBm));
+		}
+	}
+}
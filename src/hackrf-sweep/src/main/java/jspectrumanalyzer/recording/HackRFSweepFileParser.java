@@ -0,0 +1,467 @@
+package jspectrumanalyzer.recording;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+import jspectrumanalyzer.core.FFTBins;
+import jspectrumanalyzer.core.FFTBinsPool;
+import jspectrumanalyzer.nativebridge.HackRFSweepDataCallback;
+
+/**
+ * Streaming parser of files written by the stock hackrf_sweep command line tool,
+ * either the default CSV output or the binary output (-B).
+ * <p>
+ * CSV: one line per run of bins, <code>date, time, hz_low, hz_high, hz_bin_width, num_samples, dB, dB, ...</code><br>
+ * Binary: one little endian record per run of bins, <code>uint32 record_length, uint64 hz_low, uint64 hz_high, float32 dB[]</code>,
+ * record_length counts the bytes following it.
+ * <p>
+ * Runs are parsed directly from a reused read buffer without creating strings or other per line objects
+ * and are passed to {@link HackRFSweepDataCallback} with the same layout as the native library:
+ * up to {@link #RUNS_PER_CALLBACK} runs per callback, the data accumulated before the file wraps back to the start frequency are flushed with fullSweepDone flag.
+ * <p>
+ * One parser reads one file from one thread, files can be parsed in parallel by separate parsers.
+ */
+public class HackRFSweepFileParser implements Closeable
+{
+	public enum Format
+	{
+		CSV, BINARY
+	}
+
+	/**
+	 * same as the number of runs the native library passes in one callback
+	 */
+	public static final int		RUNS_PER_CALLBACK	= 32;
+	private static final int	BUFFER_SIZE			= 1 << 20;
+	/**
+	 * binary records longer than this are treated as corrupted
+	 */
+	private static final int	MAX_RECORD_LENGTH	= 1 << 24;
+	private static final double[]	POWERS_OF_TEN	= { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18 };
+
+	private final File			file;
+	private final Format		format;
+	private final FileChannel	channel;
+	private ByteBuffer			buffer				= ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private volatile boolean	running				= true;
+	private boolean				useFileTimestamps	= false;
+	/**
+	 * converts epoch nanoseconds of the file to {@link System#nanoTime()} capture times
+	 */
+	private final long			epochNanosOffset;
+
+	/**
+	 * runs accumulated for the next callback
+	 */
+	private final FFTBins		pending				= new FFTBins(false, null, 0, null);
+	private int					pendingRuns			= 0;
+	private long				pendingEpochNanos	= 0;
+	/**
+	 * lowest start frequency seen, a run starting at or below it begins a new sweep
+	 */
+	private long				sweepStartHz		= Long.MAX_VALUE;
+	private boolean				sweepHasData		= false;
+
+	/**
+	 * cached start of the last parsed CSV date
+	 */
+	private int					cachedDate			= -1;
+	private long				cachedDateEpochNanos;
+	private int					lineNumber			= 0;
+	/**
+	 * position in the line being parsed, advanced by the field parsers
+	 */
+	private int					cursor;
+
+	private volatile long		bytesRead			= 0;
+	private volatile long		runsCount			= 0;
+	private volatile long		sweepsCount			= 0;
+	private volatile long		binsCount			= 0;
+	private long				invalidLines		= 0;
+
+	public HackRFSweepFileParser(File file) throws IOException
+	{
+		this.file = file;
+		this.format = detect(file);
+		this.channel = new RandomAccessFile(file, "r").getChannel();
+		this.epochNanosOffset = System.currentTimeMillis() * 1000000l - System.nanoTime();
+	}
+
+	/**
+	 * Distinguishes the formats by the first four bytes - CSV starts with a printable date,
+	 * binary with a small record length
+	 */
+	public static Format detect(File file) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+		{
+			if (raf.length() < 4)
+				return Format.CSV;
+			byte[] head = new byte[4];
+			raf.readFully(head);
+			long recordLength = ByteBuffer.wrap(head).order(ByteOrder.LITTLE_ENDIAN).getInt() & 0xffffffffl;
+			return recordLength > 16 && recordLength < MAX_RECORD_LENGTH && (recordLength - 16) % 4 == 0 ? Format.BINARY : Format.CSV;
+		}
+	}
+
+	public Format getFormat()
+	{
+		return format;
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * @param useFileTimestamps true to set capture times of the emitted bins from the CSV timestamps,
+	 * false to stamp them when they are emitted. Binary files do not contain timestamps.
+	 */
+	public void setUseFileTimestamps(boolean useFileTimestamps)
+	{
+		this.useFileTimestamps = useFileTimestamps;
+	}
+
+	/**
+	 * Parses the whole file and passes the data to the callback. Blocks until the end of file or {@link #stop()}.
+	 * @param dataCallback
+	 * @param binsPool pool to lease the emitted bins from, null to pass newly allocated arrays
+	 * @throws IOException on read errors or a corrupted binary file
+	 */
+	public void parse(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool) throws IOException
+	{
+		buffer.clear();
+		channel.position(0);
+		boolean eof = false;
+		while (running && !eof)
+		{
+			eof = channel.read(buffer) < 0;
+			buffer.flip();
+			bytesRead += buffer.remaining();
+			if (format == Format.CSV)
+				parseLines(dataCallback, binsPool, eof);
+			else
+				parseRecords(dataCallback, binsPool, eof);
+			if (buffer.position() == 0 && buffer.limit() == buffer.capacity())
+			{
+				/**
+				 * a single line or record does not fit
+				 */
+				buffer = ByteBuffer.allocate(buffer.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN).put(buffer);
+			}
+			else
+			{
+				buffer.compact();
+			}
+			bytesRead -= buffer.position();
+		}
+		if (running)
+			emit(dataCallback, binsPool, true);
+	}
+
+	/**
+	 * Stops {@link #parse(HackRFSweepDataCallback, FFTBinsPool)} from any thread
+	 */
+	public void stop()
+	{
+		running = false;
+	}
+
+	public long getBytesRead()
+	{
+		return bytesRead;
+	}
+
+	public long getRunsCount()
+	{
+		return runsCount;
+	}
+
+	public long getSweepsCount()
+	{
+		return sweepsCount;
+	}
+
+	public long getBinsCount()
+	{
+		return binsCount;
+	}
+
+	@Override public void close() throws IOException
+	{
+		channel.close();
+	}
+
+	private void parseRecords(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool, boolean eof) throws IOException
+	{
+		ByteBuffer buffer = this.buffer;
+		while (running && buffer.remaining() >= 4)
+		{
+			int start = buffer.position();
+			long recordLength = buffer.getInt(start) & 0xffffffffl;
+			if (recordLength < 16 || recordLength >= MAX_RECORD_LENGTH || (recordLength - 16) % 4 != 0)
+				throw new IOException(file + ": invalid record length " + recordLength + " at offset " + (bytesRead - buffer.remaining()));
+			if (buffer.remaining() < 4 + recordLength)
+				break;
+			long hzLow = buffer.getLong(start + 4);
+			long hzHigh = buffer.getLong(start + 12);
+			int bins = (int) ((recordLength - 16) / 4);
+			if (bins > 0)
+			{
+				float[] power = addRun(dataCallback, binsPool, hzLow, (hzHigh - hzLow) / (float) bins, bins, 0);
+				int offset = pending.binsCount - bins;
+				int pos = start + 20;
+				for (int i = 0; i < bins; i++, pos += 4)
+					power[offset + i] = buffer.getFloat(pos);
+			}
+			buffer.position(start + 4 + (int) recordLength);
+		}
+		if (eof && buffer.hasRemaining())
+			System.err.println(file + ": truncated record at the end of file ignored");
+	}
+
+	private void parseLines(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool, boolean eof)
+	{
+		ByteBuffer buffer = this.buffer;
+		byte[] data = buffer.array();
+		int pos = buffer.position();
+		int limit = buffer.limit();
+		while (running && pos < limit)
+		{
+			int end = pos;
+			while (end < limit && data[end] != '\n')
+				end++;
+			if (end == limit && !eof)
+				break;
+			lineNumber++;
+			if (!parseLine(dataCallback, binsPool, data, pos, end > pos && data[end - 1] == '\r' ? end - 1 : end) && invalidLines++ < 10)
+				System.err.println(file + ": invalid line " + lineNumber + " ignored");
+			pos = end + 1;
+		}
+		buffer.position(Math.min(pos, limit));
+	}
+
+	private boolean parseLine(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool, byte[] data, int start, int end)
+	{
+		if (start == end)
+			return true;
+		cursor = start;
+		int year = (int) parseLong(data, end, '-');
+		int month = (int) parseLong(data, end, '-');
+		int day = (int) parseLong(data, end, ',');
+		int hour = (int) parseLong(data, end, ':');
+		int minute = (int) parseLong(data, end, ':');
+		double second = parseDouble(data, end);
+		long hzLow = parseLong(data, end, ',');
+		long hzHigh = parseLong(data, end, ',');
+		double binWidth = parseDouble(data, end);
+		parseLong(data, end, ',');
+		if (cursor > end || year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hzLow < 0 || hzHigh <= hzLow || !(binWidth > 0))
+			return false;
+		int bins = (int) Math.round((hzHigh - hzLow) / binWidth);
+		if (bins <= 0)
+			return false;
+
+		long epochNanos = 0;
+		if (useFileTimestamps)
+		{
+			int date = year * 10000 + month * 100 + day;
+			if (date != cachedDate)
+			{
+				cachedDate = date;
+				cachedDateEpochNanos = LocalDate.of(year, month, day).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() * 1000000l;
+			}
+			epochNanos = cachedDateEpochNanos + (hour * 3600 + minute * 60) * 1000000000l + (long) (second * 1e9);
+		}
+
+		float[] power = addRun(dataCallback, binsPool, hzLow, (float) binWidth, bins, epochNanos);
+		int offset = pending.binsCount - bins;
+		boolean complete = true;
+		for (int i = 0; i < bins; i++)
+		{
+			if (cursor <= end)
+				power[offset + i] = (float) parseDouble(data, end);
+			else
+			{
+				power[offset + i] = Float.NaN;
+				complete = false;
+			}
+		}
+		return complete;
+	}
+
+	/**
+	 * Parses an integer field terminated by the separator or the end of line, skips leading spaces
+	 * @return the value or -1 if the field is not a number
+	 */
+	private long parseLong(byte[] data, int end, char separator)
+	{
+		int pos = cursor;
+		while (pos < end && data[pos] == ' ')
+			pos++;
+		long value = 0;
+		boolean digits = false;
+		while (pos < end && data[pos] >= '0' && data[pos] <= '9')
+		{
+			value = value * 10 + (data[pos++] - '0');
+			digits = true;
+		}
+		if (!digits || (pos < end && data[pos] != separator))
+		{
+			cursor = end + 2;
+			return -1;
+		}
+		cursor = pos + 1;
+		return value;
+	}
+
+	/**
+	 * Parses a decimal number terminated by a comma or the end of line,
+	 * falls back to {@link Double#parseDouble(String)} for exponents, nan and infinity
+	 */
+	private double parseDouble(byte[] data, int end)
+	{
+		int pos = cursor;
+		while (pos < end && data[pos] == ' ')
+			pos++;
+		int fieldStart = pos;
+		boolean negative = pos < end && data[pos] == '-';
+		if (negative)
+			pos++;
+		long mantissa = 0;
+		int scale = 0;
+		int digits = 0;
+		boolean fraction = false;
+		for (; pos < end; pos++)
+		{
+			byte c = data[pos];
+			if (c >= '0' && c <= '9')
+			{
+				if (digits < 18)
+				{
+					mantissa = mantissa * 10 + (c - '0');
+					digits++;
+					if (fraction)
+						scale++;
+				}
+				else if (!fraction)
+				{
+					scale--;
+				}
+			}
+			else if (c == '.' && !fraction)
+			{
+				fraction = true;
+			}
+			else
+			{
+				break;
+			}
+		}
+		if (pos < end && data[pos] != ',')
+		{
+			int fieldEnd = pos;
+			while (fieldEnd < end && data[fieldEnd] != ',')
+				fieldEnd++;
+			cursor = fieldEnd + 1;
+			try
+			{
+				return Double.parseDouble(new String(data, fieldStart, fieldEnd - fieldStart, StandardCharsets.US_ASCII).trim());
+			}
+			catch (NumberFormatException e)
+			{
+				return Double.NaN;
+			}
+		}
+		cursor = pos + 1;
+		if (digits == 0)
+			return Double.NaN;
+		double value = scale >= 0 && scale < POWERS_OF_TEN.length ? mantissa / POWERS_OF_TEN[scale] : mantissa * Math.pow(10, -scale);
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Appends a run to the pending bins, flushes the pending bins first if the run starts a new sweep,
+	 * has a different bin width or the callback is full
+	 * @return power array the run's values are to be written to, after the previous {@link FFTBins#binsCount} bins
+	 */
+	private float[] addRun(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool, long hzLow, float binWidthHz, int bins, long epochNanos)
+	{
+		if (hzLow <= sweepStartHz)
+		{
+			if (sweepHasData)
+				emit(dataCallback, binsPool, true);
+			sweepStartHz = hzLow;
+		}
+		else if (pendingRuns >= RUNS_PER_CALLBACK || (pendingRuns > 0 && Math.abs(pending.fftBinWidthHz - binWidthHz) > binWidthHz * 0.001))
+		{
+			emit(dataCallback, binsPool, false);
+		}
+		if (pendingRuns == 0)
+		{
+			pending.fftBinWidthHz = binWidthHz;
+			pendingEpochNanos = epochNanos;
+		}
+		int total = pending.binsCount + bins;
+		if (pending.capacity() < total)
+			pending.sigPowdBm = Arrays.copyOf(pending.sigPowdBm == null ? new float[0] : pending.sigPowdBm, Math.max(total, pending.capacity() * 2));
+		pending.addSegment(hzLow, bins);
+		pending.binsCount = total;
+		pendingRuns++;
+		sweepHasData = true;
+		runsCount++;
+		binsCount += bins;
+		return pending.sigPowdBm;
+	}
+
+	private void emit(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool, boolean fullSweepDone)
+	{
+		if (pendingRuns == 0 && !fullSweepDone)
+			return;
+		if (fullSweepDone)
+		{
+			if (!sweepHasData)
+				return;
+			sweepHasData = false;
+			sweepsCount++;
+		}
+		int bins = pending.binsCount;
+		long captureTimeNanos = useFileTimestamps && pendingEpochNanos != 0 ? pendingEpochNanos - epochNanosOffset : System.nanoTime();
+		if (binsPool != null)
+		{
+			FFTBins fftBins = binsPool.lease(bins);
+			if (fftBins == null)
+			{
+				dataCallback.spectrumDataDropped(fullSweepDone);
+			}
+			else
+			{
+				fftBins.fullSweepDone = fullSweepDone;
+				fftBins.fftBinWidthHz = pending.fftBinWidthHz;
+				fftBins.captureTimeNanos = captureTimeNanos;
+				if (bins > 0)
+					System.arraycopy(pending.sigPowdBm, 0, fftBins.sigPowdBm, 0, bins);
+				for (int i = 0; i < pending.segmentsCount; i++)
+					fftBins.addSegment(pending.segmentFreqStartHz[i], pending.segmentBinCount[i]);
+				dataCallback.newSpectrumData(fftBins);
+			}
+		}
+		else
+		{
+			dataCallback.newSpectrumData(fullSweepDone, pending.toFrequencyArray(), pending.fftBinWidthHz,
+					bins == 0 ? null : Arrays.copyOf(pending.sigPowdBm, bins));
+		}
+		pending.clear();
+		pendingRuns = 0;
+	}
+}
@@ -0,0 +1,105 @@
+package jspectrumanalyzer.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import jspectrumanalyzer.core.FFTBinsPool;
+import jspectrumanalyzer.nativebridge.HackRFSweepDataCallback;
+import jspectrumanalyzer.nativebridge.HackRFSweepSource;
+
+/**
+ * Plays files written by the stock hackrf_sweep command line tool (CSV or binary, see {@link HackRFSweepFileParser})
+ * one after another as fast as the processing takes them, then stays idle until stopped.
+ * The data are passed as they were captured, regardless of the requested frequency range.
+ */
+public class HackRFSweepFileSource implements HackRFSweepSource
+{
+	private final File[]				files;
+	private volatile boolean			running		= false;
+	private volatile HackRFSweepFileParser	parser		= null;
+	/**
+	 * true while {@link #start(HackRFSweepDataCallback, FFTBinsPool, int, int, int, int, int, int, boolean, boolean)} runs, guarded by this
+	 */
+	private boolean						sweeping	= false;
+
+	public HackRFSweepFileSource(File... files)
+	{
+		this.files = files;
+	}
+
+	@Override public void start(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool, int freq_min_MHz, int freq_max_MHz, int fft_bin_width,
+			int num_samples, int lna_gain, int vga_gain, boolean antennaPowerEnable, boolean internalLNA)
+	{
+		synchronized (this)
+		{
+			sweeping = true;
+		}
+		try
+		{
+			play(dataCallback, binsPool);
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				sweeping = false;
+				notifyAll();
+			}
+		}
+	}
+
+	private void play(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool)
+	{
+		running = true;
+		for (int i = 0; i < files.length && running; i++)
+		{
+			long startNanos = System.nanoTime();
+			try (HackRFSweepFileParser parser = new HackRFSweepFileParser(files[i]))
+			{
+				this.parser = parser;
+				if (!running)
+					break;
+				parser.parse(dataCallback, binsPool);
+				double seconds = (System.nanoTime() - startNanos) / 1e9;
+				System.out.println(String.format("File %s finished: %s, %d sweeps in %.1fs (%.1f sweeps/s, %.1fMB/s)", files[i].getName(),
+						parser.getFormat(), parser.getSweepsCount(), seconds, parser.getSweepsCount() / seconds, parser.getBytesRead() / 1048576d / seconds));
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+			finally
+			{
+				this.parser = null;
+			}
+		}
+		while (running)
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+	}
+
+	@Override public void stop()
+	{
+		running = false;
+		HackRFSweepFileParser parser = this.parser;
+		if (parser != null)
+			parser.stop();
+	}
+
+	@Override public synchronized boolean awaitStopped(long timeoutMillis) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		long remaining;
+		while (sweeping && (remaining = deadline - System.nanoTime()) > 0)
+		{
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return !sweeping;
+	}
+
+	@Override public String getName()
+	{
+		return "File " + (files.length == 1 ? files[0].getName() : files.length + " files");
+	}
+}
@@ -0,0 +1,138 @@
+package jspectrumanalyzer.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import jspectrumanalyzer.core.DatasetSpectrum;
+import jspectrumanalyzer.core.FFTBins;
+import jspectrumanalyzer.core.FFTBinsRingBuffer;
+import jspectrumanalyzer.nativebridge.HackRFSweepDataCallback;
+import jspectrumanalyzer.nativebridge.HackRFSweepSource;
+import jspectrumanalyzer.synthetic.SyntheticSweepSource;
+
+/**
+ * Archives frames of the synthetic source at 10 sweeps/s over 1-6000MHz, or of a recording replayed as fast as possible,
+ * and reports the compression ratio, encoding time and decoding speed:
+ * <pre>
+ * java -cp hackrf_sweep_spectrum_analyzer.jar jspectrumanalyzer.recording.SpectrogramArchiveBenchmark [seconds] [bits] [recording]
+ * </pre>
+ */
+public class SpectrogramArchiveBenchmark
+{
+	private static final int	FREQ_MIN_MHZ	= 1;
+	private static final int	FREQ_MAX_MHZ	= 6000;
+	private static final int	FFT_BIN_WIDTH	= 100_000;
+
+	public static void main(String[] args) throws Exception
+	{
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int bits = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		File archive = File.createTempFile("spectrogram", ".hsa");
+		archive.deleteOnExit();
+
+		HackRFSweepSource source;
+		if (args.length > 2)
+		{
+			SweepReplaySource replay = new SweepReplaySource(args[2]);
+			replay.setSpeed(0);
+			replay.setLoop(false);
+			source = replay;
+		}
+		else
+		{
+			SyntheticSweepSource synthetic = new SyntheticSweepSource();
+			synthetic.setSweepsPerSecond(10);
+			source = synthetic;
+		}
+		SpectrogramArchiveWriter writer = bits == 16 ? new SpectrogramArchiveWriter(archive.getPath(), 16, -200, 0.01f,
+				SpectrogramArchiveWriter.DEFAULT_FRAMES_PER_CHUNK) : new SpectrogramArchiveWriter(archive.getPath());
+		long start = System.nanoTime();
+		archive(source, writer, seconds);
+		writer.close();
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Encoded %.1f frames/s: %s", writer.getFramesCount() / elapsed, writer.getStatistics()));
+		System.out.println(String.format("Archive %.1fx smaller than float32 power alone", writer.getCompressionRatio() * 4 
+				/ SpectrogramArchiveFormat.RAW_BYTES_PER_BIN));
+
+		try (SpectrogramArchiveReader reader = new SpectrogramArchiveReader(archive.getPath()))
+		{
+			int frames = reader.getFrameCount();
+			float[] power = new float[reader.getBins(0)];
+			long decodeStart = System.nanoTime();
+			for (int i = 0; i < frames; i++)
+				reader.readFrame(i, power);
+			double sequential = (System.nanoTime() - decodeStart) / 1e9;
+			Random random = new Random(1);
+			int seeks = 200;
+			decodeStart = System.nanoTime();
+			for (int i = 0; i < seeks; i++)
+				reader.readFrame(random.nextInt(frames), power);
+			double seek = (System.nanoTime() - decodeStart) / 1e6 / seeks;
+			System.out.println(String.format("Decoded %d frames sequentially at %.0f frames/s, random frame in %.2fms", frames, frames / sequential,
+					seek));
+		}
+	}
+
+	private static void archive(HackRFSweepSource source, SpectrogramArchiveWriter writer, int seconds) throws IOException, InterruptedException
+	{
+		FFTBinsRingBuffer ring = new FFTBinsRingBuffer(1024);
+		DatasetSpectrum spectrum = new DatasetSpectrum(FFT_BIN_WIDTH, FREQ_MIN_MHZ, FREQ_MAX_MHZ, -150);
+		Thread consumer = new Thread(() -> {
+			try
+			{
+				while (true)
+				{
+					FFTBins bins = ring.take();
+					spectrum.addNewData(bins);
+					if (bins.fullSweepDone)
+					{
+						/**
+						 * replayed recording is not paced, wait for the encoder instead of dropping
+						 */
+						while (!writer.append(spectrum))
+							Thread.sleep(1);
+					}
+					bins.release();
+				}
+			}
+			catch (InterruptedException e)
+			{
+			}
+		}, "archive benchmark consumer");
+		consumer.start();
+		Thread timer = new Thread(() -> {
+			try
+			{
+				Thread.sleep(seconds * 1000l);
+			}
+			catch (InterruptedException e)
+			{
+			}
+			source.stop();
+		});
+		timer.setDaemon(true);
+		timer.start();
+		source.start(new HackRFSweepDataCallback()
+		{
+			@Override public void newSpectrumData(boolean fullSweepDone, double[] frequencyStart, float fftBinWidthHz, float[] signalPowerdBm)
+			{
+				ring.publish(fullSweepDone, frequencyStart, fftBinWidthHz, signalPowerdBm);
+			}
+
+			@Override public void newSpectrumData(FFTBins fftBins)
+			{
+				ring.publish(fftBins);
+			}
+
+			@Override public void spectrumDataDropped(boolean fullSweepDone)
+			{
+				ring.dropped(fullSweepDone);
+			}
+		}, ring, FREQ_MIN_MHZ, FREQ_MAX_MHZ, FFT_BIN_WIDTH, 8192, 0, 0, false, false);
+		while (ring.getDepth() > 0)
+			Thread.sleep(1);
+		consumer.interrupt();
+		consumer.join();
+	}
+}
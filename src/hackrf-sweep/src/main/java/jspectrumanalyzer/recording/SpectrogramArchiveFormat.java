@@ -0,0 +1,51 @@
+package jspectrumanalyzer.recording;
+
+/**
+ * Layout of the spectrogram archive written by {@link SpectrogramArchiveWriter}, all values little endian.
+ * <p>
+ * Power values are quantized to 8 or 16 bits: q = round((dBm - min) / step). Frequencies are not stored per bin,
+ * every chunk stores start frequency, bin width and number of bins of its frames.
+ * <p>
+ * File header, {@link #FILE_HEADER_SIZE} bytes:
+ * <pre>
+ *  0 int    magic {@link #MAGIC}
+ *  4 short  version
+ *  6 short  header size
+ *  8 byte   bits per value, 8 or 16
+ * 12 float  quantization minimum, dBm
+ * 16 float  quantization step, dB
+ * 20 int    maximum frames per chunk
+ * 24 long   creation time, epoch milliseconds
+ * </pre>
+ * followed by chunks of frames with the same geometry:
+ * <pre>
+ *  0 int    compressed payload length
+ *  4 int    frames
+ *  8 int    bins per frame
+ * 12 float  bin width, Hz
+ * 16 double start frequency, Hz
+ * 24 long   sweep id of the first frame
+ * 32        frames x long capture time, epoch nanoseconds
+ *           deflate compressed payload
+ * </pre>
+ * Payload is columnar - deltas of all frames of the first bin, then of the second bin, etc.
+ * The first frame of a chunk is delta encoded against the previous bin, other frames against the same bin of the previous frame,
+ * deltas wrap around at the value width. 16 bit values are split into a plane of high bytes followed by a plane of low bytes.
+ */
+public final class SpectrogramArchiveFormat
+{
+	public static final int		MAGIC					= 0x52415348;	// "HSAR"
+	public static final short	VERSION					= 1;
+	public static final String	FILE_EXTENSION			= ".hsa";
+	public static final int		FILE_HEADER_SIZE		= 32;
+	public static final int		CHUNK_HEADER_SIZE		= 32;
+
+	/**
+	 * size of a bin in the raw hackrf_sweep output - float power and double frequency
+	 */
+	public static final int		RAW_BYTES_PER_BIN		= 12;
+
+	private SpectrogramArchiveFormat()
+	{
+	}
+}
@@ -0,0 +1,249 @@
+package jspectrumanalyzer.recording;
+
+import static jspectrumanalyzer.recording.SpectrogramArchiveFormat.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Random access to frames of an archive written by {@link SpectrogramArchiveWriter}.
+ * <p>
+ * Chunk headers are indexed when the archive is opened or {@link #refresh()}ed, the last decoded chunk is cached
+ * so that reading neighbouring frames only copies the values. Not thread safe.
+ */
+public class SpectrogramArchiveReader implements Closeable
+{
+	private final RandomAccessFile	file;
+	private final FileChannel		channel;
+	private final int				bits;
+	private final float				mindB, stepdB;
+	private final Inflater			inflater		= new Inflater();
+
+	/**
+	 * chunk index, one entry per chunk
+	 */
+	private long[]					chunkOffsets	= new long[16];
+	private int[]					chunkFirstFrame	= new int[16];
+	private int						chunks			= 0;
+	private long					scannedEnd;
+	/**
+	 * capture times of all frames
+	 */
+	private long[]					timestamps		= new long[1024];
+	private int						frames			= 0;
+
+	private int						cachedChunk		= -1;
+	private int						cachedFrames, cachedBins;
+	private float					cachedBinWidthHz;
+	private double					cachedFreqStartHz;
+	private float[]					decoded			= new float[0];
+	private byte[]					planes			= new byte[0];
+	private byte[]					compressed		= new byte[0];
+	private final ByteBuffer		header			= ByteBuffer.allocate(CHUNK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+	public SpectrogramArchiveReader(String path) throws IOException
+	{
+		file = new RandomAccessFile(path, "r");
+		channel = file.getChannel();
+		ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(fileHeader, 0);
+		if (fileHeader.getInt(0) != MAGIC)
+		{
+			close();
+			throw new IOException("Not a spectrogram archive: " + path);
+		}
+		bits = fileHeader.get(8);
+		mindB = fileHeader.getFloat(12);
+		stepdB = fileHeader.getFloat(16);
+		scannedEnd = fileHeader.getShort(6);
+		refresh();
+	}
+
+	/**
+	 * Indexes chunks appended since the last call, the archive can be read while it is written
+	 */
+	public void refresh() throws IOException
+	{
+		long size = channel.size();
+		while (scannedEnd + CHUNK_HEADER_SIZE <= size)
+		{
+			header.clear();
+			readFully(header, scannedEnd);
+			int compressedLength = header.getInt(0);
+			int chunkFrames = header.getInt(4);
+			long end = scannedEnd + CHUNK_HEADER_SIZE + chunkFrames * 8l + compressedLength;
+			if (end > size)
+				break;
+			if (chunks == chunkOffsets.length)
+			{
+				chunkOffsets = Arrays.copyOf(chunkOffsets, chunks * 2);
+				chunkFirstFrame = Arrays.copyOf(chunkFirstFrame, chunks * 2);
+			}
+			if (frames + chunkFrames > timestamps.length)
+				timestamps = Arrays.copyOf(timestamps, Math.max(timestamps.length * 2, frames + chunkFrames));
+			ByteBuffer chunkTimestamps = ByteBuffer.allocate(chunkFrames * 8).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(chunkTimestamps, scannedEnd + CHUNK_HEADER_SIZE);
+			for (int i = 0; i < chunkFrames; i++)
+				timestamps[frames + i] = chunkTimestamps.getLong(i * 8);
+			chunkOffsets[chunks] = scannedEnd;
+			chunkFirstFrame[chunks] = frames;
+			chunks++;
+			frames += chunkFrames;
+			scannedEnd = end;
+		}
+	}
+
+	public int getFrameCount()
+	{
+		return frames;
+	}
+
+	/**
+	 * @return capture time of the frame, epoch nanoseconds
+	 */
+	public long getTimestampEpochNanos(int frame)
+	{
+		return timestamps[frame];
+	}
+
+	/**
+	 * @return index of the last frame captured at or before given time, 0 if all frames are newer
+	 */
+	public int findFrame(long epochNanos)
+	{
+		int index = Arrays.binarySearch(timestamps, 0, frames, epochNanos);
+		if (index < 0)
+			index = -index - 2;
+		return Math.max(0, Math.min(frames - 1, index));
+	}
+
+	/**
+	 * Decodes the frame's chunk unless it is cached
+	 * @return number of bins of the frame
+	 */
+	public int getBins(int frame) throws IOException
+	{
+		loadChunk(frame);
+		return cachedBins;
+	}
+
+	public float getFFTBinWidthHz(int frame) throws IOException
+	{
+		loadChunk(frame);
+		return cachedBinWidthHz;
+	}
+
+	public double getFreqStartHz(int frame) throws IOException
+	{
+		loadChunk(frame);
+		return cachedFreqStartHz;
+	}
+
+	/**
+	 * Reads power values of the frame, quantized to the archive step
+	 * @param power array of at least {@link #getBins(int)} length
+	 * @return number of bins
+	 */
+	public int readFrame(int frame, float[] power) throws IOException
+	{
+		loadChunk(frame);
+		int row = frame - chunkFirstFrame[cachedChunk];
+		System.arraycopy(decoded, row * cachedBins, power, 0, cachedBins);
+		return cachedBins;
+	}
+
+	@Override public void close() throws IOException
+	{
+		inflater.end();
+		file.close();
+	}
+
+	private void loadChunk(int frame) throws IOException
+	{
+		if (frame < 0 || frame >= frames)
+			throw new IndexOutOfBoundsException("Frame " + frame + " of " + frames);
+		if (cachedChunk >= 0 && frame >= chunkFirstFrame[cachedChunk] && frame < chunkFirstFrame[cachedChunk] + cachedFrames)
+			return;
+		int chunk = Arrays.binarySearch(chunkFirstFrame, 0, chunks, frame);
+		if (chunk < 0)
+			chunk = -chunk - 2;
+
+		long offset = chunkOffsets[chunk];
+		header.clear();
+		readFully(header, offset);
+		int compressedLength = header.getInt(0);
+		int chunkFrames = header.getInt(4);
+		int bins = header.getInt(8);
+		cachedChunk = -1;
+		cachedBinWidthHz = header.getFloat(12);
+		cachedFreqStartHz = header.getDouble(16);
+
+		if (compressed.length < compressedLength)
+			compressed = new byte[compressedLength];
+		readFully(ByteBuffer.wrap(compressed, 0, compressedLength), offset + CHUNK_HEADER_SIZE + chunkFrames * 8l);
+		int planeCount = bits / 8;
+		int length = bins * chunkFrames * planeCount;
+		if (planes.length < length)
+			planes = new byte[length];
+		inflater.reset();
+		inflater.setInput(compressed, 0, compressedLength);
+		try
+		{
+			int inflated = 0;
+			while (inflated < length && !inflater.finished())
+			{
+				int n = inflater.inflate(planes, inflated, length - inflated);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				inflated += n;
+			}
+			if (inflated != length)
+				throw new IOException("Corrupted chunk at " + offset);
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException("Corrupted chunk at " + offset, e);
+		}
+
+		if (decoded.length < bins * chunkFrames)
+			decoded = new float[bins * chunkFrames];
+		int mask = (1 << bits) - 1;
+		int predicted = 0;
+		int firstFramePrevious = 0;
+		for (int b = 0; b < bins; b++)
+		{
+			int column = b * chunkFrames;
+			predicted = firstFramePrevious;
+			for (int f = 0; f < chunkFrames; f++)
+			{
+				int delta = bits == 8 ? planes[column + f] : (planes[column + f] << 8) | (planes[bins * chunkFrames + column + f] & 0xff);
+				int q = (predicted + delta) & mask;
+				decoded[f * bins + b] = mindB + q * stepdB;
+				predicted = q;
+				if (f == 0)
+					firstFramePrevious = q;
+			}
+		}
+		cachedChunk = chunk;
+		cachedFrames = chunkFrames;
+		cachedBins = bins;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			int n = channel.read(buffer, position);
+			if (n < 0)
+				throw new IOException("Unexpected end of archive");
+			position += n;
+		}
+	}
+}
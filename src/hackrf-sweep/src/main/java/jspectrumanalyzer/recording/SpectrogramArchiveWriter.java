@@ -0,0 +1,363 @@
+package jspectrumanalyzer.recording;
+
+import static jspectrumanalyzer.recording.SpectrogramArchiveFormat.*;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import jspectrumanalyzer.core.DatasetSpectrum;
+
+/**
+ * Archives completed spectrum frames in compact form for long term monitoring,
+ * see {@link SpectrogramArchiveFormat} for the layout.
+ * <p>
+ * {@link #append(DatasetSpectrum)} only copies the frame to a preallocated slot, quantization, 
+ * delta encoding and compression run in a background thread. Frames are dropped and counted if the encoder does not keep up.
+ */
+public class SpectrogramArchiveWriter implements Closeable
+{
+	public static final int		DEFAULT_FRAMES_PER_CHUNK	= 64;
+	private static final int	QUEUED_FRAMES				= 16;
+
+	private static class Frame
+	{
+		float[]	power	= new float[0];
+		int		bins;
+		float	binWidthHz;
+		double	freqStartHz;
+		long	timestampEpochNanos;
+		long	sweepId;
+	}
+
+	private final FileChannel	channel;
+	private final int			bits;
+	private final float			mindB, stepdB;
+	private final int			framesPerChunk;
+	private final long			epochNanosOffset;
+	private final ArrayBlockingQueue<Frame>	freeFrames;
+	private final ArrayBlockingQueue<Frame>	queuedFrames;
+	private final Thread		encoderThread;
+	private volatile boolean	closing				= false;
+	private volatile boolean	failed				= false;
+	private volatile boolean	blockWhenFull		= false;
+
+	/**
+	 * encoder thread only, chunk being built
+	 */
+	private final Deflater		deflater			= new Deflater(Deflater.BEST_SPEED);
+	private int[]				previous			= new int[0];
+	private byte[]				planes				= new byte[0];
+	private byte[]				compressed			= new byte[0];
+	private final long[]		timestamps;
+	private int					chunkFrames			= 0;
+	private int					chunkBins;
+	private float				chunkBinWidthHz;
+	private double				chunkFreqStartHz;
+	private long				chunkSweepId;
+	private ByteBuffer			header				= ByteBuffer.allocate(0);
+
+	private volatile long		framesCount			= 0;
+	private volatile long		binsCount			= 0;
+	private volatile long		droppedCount		= 0;
+	private volatile long		writtenBytes		= 0;
+	private volatile long		encodeNanos			= 0;
+
+	/**
+	 * Creates 8 bit archive with 0.5dB steps from -140dBm
+	 */
+	public SpectrogramArchiveWriter(String path) throws IOException
+	{
+		this(path, 8, -140, 0.5f, DEFAULT_FRAMES_PER_CHUNK);
+	}
+
+	/**
+	 * @param path archive file, overwritten
+	 * @param bits 8 or 16
+	 * @param mindB lowest power stored, lower values are clamped
+	 * @param stepdB quantization step, the highest power stored is mindB + (2^bits - 1) * stepdB
+	 * @param framesPerChunk frames compressed together, larger chunks compress better, smaller are faster to seek in
+	 */
+	public SpectrogramArchiveWriter(String path, int bits, float mindB, float stepdB, int framesPerChunk) throws IOException
+	{
+		if (bits != 8 && bits != 16)
+			throw new IllegalArgumentException("Unsupported bits per value: " + bits);
+		this.bits = bits;
+		this.mindB = mindB;
+		this.stepdB = stepdB;
+		this.framesPerChunk = Math.max(1, framesPerChunk);
+		timestamps = new long[this.framesPerChunk];
+		epochNanosOffset = System.currentTimeMillis() * 1000000l - System.nanoTime();
+		freeFrames = new ArrayBlockingQueue<>(QUEUED_FRAMES);
+		queuedFrames = new ArrayBlockingQueue<>(QUEUED_FRAMES);
+		for (int i = 0; i < QUEUED_FRAMES; i++)
+			freeFrames.add(new Frame());
+
+		channel = new FileOutputStream(path).getChannel();
+		ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		fileHeader.putInt(MAGIC).putShort(VERSION).putShort((short) FILE_HEADER_SIZE).put((byte) bits).put(new byte[3]);
+		fileHeader.putFloat(mindB).putFloat(stepdB).putInt(this.framesPerChunk).putLong(System.currentTimeMillis());
+		fileHeader.flip();
+		write(fileHeader);
+
+		encoderThread = new Thread(this::encoderLoop, "Spectrogram archive encoder");
+		encoderThread.setDaemon(true);
+		encoderThread.start();
+	}
+
+	/**
+	 * @param blockWhenFull true to wait for the encoder instead of dropping frames when all slots are queued,
+	 * for offline conversions which must not lose data
+	 */
+	public void setBlockWhenFull(boolean blockWhenFull)
+	{
+		this.blockWhenFull = blockWhenFull;
+	}
+
+	/**
+	 * Copies the frame for encoding. Does not block unless {@link #setBlockWhenFull(boolean)} is set, 
+	 * allocates only when the frame is larger than any before.
+	 * @return false if the frame was dropped
+	 */
+	public boolean append(DatasetSpectrum frame)
+	{
+		Frame slot = failed || closing ? null : freeFrames.poll();
+		while (slot == null && blockWhenFull && !failed && !closing)
+		{
+			try
+			{
+				slot = freeFrames.poll(10, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		if (slot == null)
+		{
+			droppedCount++;
+			return false;
+		}
+		int bins = frame.spectrumLength();
+		if (slot.power.length < bins)
+			slot.power = new float[bins];
+		System.arraycopy(frame.getSpectrumArray(), 0, slot.power, 0, bins);
+		slot.bins = bins;
+		slot.binWidthHz = frame.getFFTBinSizeHz();
+		slot.freqStartHz = frame.getFrequency(0);
+		slot.timestampEpochNanos = frame.getCaptureTimeNanos() + epochNanosOffset;
+		slot.sweepId = frame.getSweepId();
+		queuedFrames.add(slot);
+		return true;
+	}
+
+	/**
+	 * @return human readable counters
+	 */
+	public String getStatistics()
+	{
+		long frames = framesCount;
+		long bins = binsCount;
+		return String.format("%d frames  %.1fMB  %.1fx smaller than raw (%.2f bytes/bin)  encode %.2fms/frame  dropped %d%s", frames,
+				writtenBytes / 1048576d, getCompressionRatio(), bins == 0 ? 0 : writtenBytes / (double) bins,
+				frames == 0 ? 0 : encodeNanos / 1e6 / frames, droppedCount, failed ? "  FAILED" : "");
+	}
+
+	/**
+	 * @return size of the encoded frames in the raw hackrf_sweep representation ({@link SpectrogramArchiveFormat#RAW_BYTES_PER_BIN}) 
+	 * divided by the archive size
+	 */
+	public double getCompressionRatio()
+	{
+		return writtenBytes == 0 ? 0 : binsCount * (double) RAW_BYTES_PER_BIN / writtenBytes;
+	}
+
+	public long getFramesCount()
+	{
+		return framesCount;
+	}
+
+	public long getDroppedCount()
+	{
+		return droppedCount;
+	}
+
+	/**
+	 * @return time spent by the encoder thread on quantization, encoding and writing
+	 */
+	public long getEncodeNanos()
+	{
+		return encodeNanos;
+	}
+
+	/**
+	 * Encodes all queued frames, writes the last chunk and closes the file
+	 */
+	@Override public void close() throws IOException
+	{
+		closing = true;
+		try
+		{
+			encoderThread.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void encoderLoop()
+	{
+		try
+		{
+			while (true)
+			{
+				Frame frame = queuedFrames.poll(10, TimeUnit.MILLISECONDS);
+				if (frame == null)
+				{
+					if (closing)
+						break;
+					continue;
+				}
+				long start = System.nanoTime();
+				encode(frame);
+				freeFrames.add(frame);
+				encodeNanos += System.nanoTime() - start;
+			}
+			flushChunk();
+		}
+		catch (IOException | InterruptedException e)
+		{
+			failed = true;
+			e.printStackTrace();
+		}
+		finally
+		{
+			deflater.end();
+			try
+			{
+				channel.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void encode(Frame frame) throws IOException
+	{
+		if (chunkFrames > 0 && (chunkFrames == framesPerChunk || frame.bins != chunkBins || frame.binWidthHz != chunkBinWidthHz
+				|| frame.freqStartHz != chunkFreqStartHz))
+			flushChunk();
+		int bins = frame.bins;
+		if (chunkFrames == 0)
+		{
+			chunkBins = bins;
+			chunkBinWidthHz = frame.binWidthHz;
+			chunkFreqStartHz = frame.freqStartHz;
+			chunkSweepId = frame.sweepId;
+			int size = bins * framesPerChunk * (bits / 8);
+			if (planes.length < size)
+				planes = new byte[size];
+			if (previous.length < bins)
+				previous = new int[bins];
+		}
+		int f = chunkFrames;
+		int stride = framesPerChunk;
+		int maxValue = (1 << bits) - 1;
+		float scale = 1f / stepdB;
+		int predicted = 0;
+		for (int b = 0; b < bins; b++)
+		{
+			float power = frame.power[b];
+			int q = (int) ((power - mindB) * scale + 0.5f);
+			if (q < 0 || power != power)
+				q = 0;
+			else if (q > maxValue)
+				q = maxValue;
+			if (f > 0)
+				predicted = previous[b];
+			int delta = q - predicted;
+			int index = b * stride + f;
+			if (bits == 8)
+			{
+				planes[index] = (byte) delta;
+			}
+			else
+			{
+				planes[index] = (byte) (delta >> 8);
+				planes[bins * stride + index] = (byte) delta;
+			}
+			previous[b] = q;
+			predicted = q;
+		}
+		timestamps[f] = frame.timestampEpochNanos;
+		chunkFrames++;
+		framesCount++;
+		binsCount += bins;
+	}
+
+	private void flushChunk() throws IOException
+	{
+		if (chunkFrames == 0)
+			return;
+		int frames = chunkFrames;
+		int bins = chunkBins;
+		int planeCount = bits / 8;
+		if (frames < framesPerChunk)
+		{
+			/**
+			 * compact columns written with the full chunk stride
+			 */
+			for (int p = 0; p < planeCount; p++)
+			{
+				for (int b = 0; b < bins; b++)
+					System.arraycopy(planes, (p * bins + b) * framesPerChunk, planes, (p * bins + b) * frames, frames);
+			}
+		}
+		int length = bins * frames * planeCount;
+		if (compressed.length < length + 1024)
+			compressed = new byte[length + length / 100 + 1024];
+		deflater.reset();
+		deflater.setInput(planes, 0, length);
+		deflater.finish();
+		int compressedLength = 0;
+		while (!deflater.finished())
+		{
+			if (compressedLength == compressed.length)
+			{
+				byte[] larger = new byte[compressed.length * 2];
+				System.arraycopy(compressed, 0, larger, 0, compressedLength);
+				compressed = larger;
+			}
+			compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+		}
+
+		int headerSize = CHUNK_HEADER_SIZE + frames * 8;
+		if (header.capacity() < headerSize)
+			header = ByteBuffer.allocate(CHUNK_HEADER_SIZE + framesPerChunk * 8).order(ByteOrder.LITTLE_ENDIAN);
+		header.clear();
+		header.putInt(compressedLength).putInt(frames).putInt(bins).putFloat(chunkBinWidthHz).putDouble(chunkFreqStartHz).putLong(chunkSweepId);
+		for (int i = 0; i < frames; i++)
+			header.putLong(timestamps[i]);
+		header.flip();
+		write(header);
+		write(ByteBuffer.wrap(compressed, 0, compressedLength));
+		chunkFrames = 0;
+	}
+
+	private void write(ByteBuffer buffer) throws IOException
+	{
+		writtenBytes += buffer.remaining();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+}
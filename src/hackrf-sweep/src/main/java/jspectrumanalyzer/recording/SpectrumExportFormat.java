@@ -0,0 +1,59 @@
+package jspectrumanalyzer.recording;
+
+/**
+ * Formats written by {@link SpectrumExporter}, each export contains the spectrum and the peak hold trace of one sweep.
+ * <ul>
+ * <li>{@link #CSV} - two files in the layout of the stock hackrf_sweep tool, <code>base.csv</code> with the spectrum and <code>base-peak.csv</code> with the peak hold,
+ * one line per export: <code>date, time, hz_low, hz_high, hz_bin_width, num_samples, dB, dB, ...</code>, num_samples is always 0.
+ * The files can be read back by {@link HackRFSweepFileParser} and by tools written for hackrf_sweep.</li>
+ * <li>{@link #SIGMF} - SigMF recording, <code>base.sigmf-data</code> holds little endian float32 with the two traces interleaved as two channels,
+ * <code>base.sigmf-meta</code> has one capture per export with its time, center frequency and the span in the hackrf_spectrum extension.
+ * After {@link SpectrumExporter#SIGMF_MAX_CAPTURES} exports the recording is finished and the next one continues in <code>base-1</code>, <code>base-2</code>, ...</li>
+ * <li>{@link #BINARY} - compact little endian file <code>base.hse</code>: {@link #BINARY_HEADER_SIZE} bytes header
+ * (int magic "HSEX", short version, short header size, long creation time in epoch millis, rest reserved), then one record per export:
+ * <pre>
+ *  0 int     record length
+ *  4 long    timestamp, epoch nanoseconds
+ * 12 long    sweep id
+ * 20 double  frequency of the first bin in Hz
+ * 28 float   fft bin width in Hz
+ * 32 int     bins
+ * 36 short[] spectrum in 0.01dBm, {@link #BINARY_NO_VALUE} for missing values
+ *    short[] peak hold in 0.01dBm
+ * </pre>
+ * </li>
+ * </ul>
+ */
+public enum SpectrumExportFormat
+{
+	CSV(".csv"), SIGMF(".sigmf-data"), BINARY(".hse");
+
+	public static final int		BINARY_MAGIC			= 0x58455348;	// "HSEX"
+	public static final short	BINARY_VERSION			= 1;
+	public static final int		BINARY_HEADER_SIZE		= 32;
+	public static final int		BINARY_RECORD_HEADER	= 36;
+	public static final short	BINARY_NO_VALUE			= Short.MIN_VALUE;
+	public static final float	BINARY_STEP_DB			= 0.01f;
+	public static final String	CSV_PEAK_SUFFIX			= "-peak";
+	public static final String	SIGMF_META_EXTENSION	= ".sigmf-meta";
+
+	private final String		extension;
+
+	private SpectrumExportFormat(String extension)
+	{
+		this.extension = extension;
+	}
+
+	/**
+	 * @return extension of the (main) data file
+	 */
+	public String getExtension()
+	{
+		return extension;
+	}
+
+	public static int binaryRecordLength(int bins)
+	{
+		return BINARY_RECORD_HEADER + bins * 4;
+	}
+}
@@ -0,0 +1,505 @@
+package jspectrumanalyzer.recording;
+
+import static jspectrumanalyzer.recording.SpectrumExportFormat.*;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import jspectrumanalyzer.core.DatasetSpectrumPeak;
+
+/**
+ * Exports spectrum and peak hold traces of completed sweeps to CSV, SigMF or compact binary files, see {@link SpectrumExportFormat}.
+ * <p>
+ * {@link #export(DatasetSpectrumPeak)} only copies the traces into a preallocated snapshot and never waits for the disk,
+ * exports that find no free snapshot are dropped and counted.
+ * A writer thread encodes all snapshots queued meanwhile into one buffer and writes them at once,
+ * so that exporting every sweep costs one write per batch instead of one per export.
+ */
+public class SpectrumExporter implements Closeable
+{
+	public static final int		DEFAULT_QUEUED_EXPORTS		= 32;
+	private static final int	WRITE_BUFFER_SIZE			= 1 << 20;
+	/**
+	 * SigMF metadata are rewritten at most this often while exporting and always on close
+	 */
+	private static final long	SIGMF_META_INTERVAL_NANOS	= TimeUnit.SECONDS.toNanos(10);
+	/**
+	 * exports per SigMF recording, the next export starts a new recording so that the metadata kept in memory
+	 * and rewritten every {@link #SIGMF_META_INTERVAL_NANOS} stay small, one hour at one export per second
+	 */
+	public static final int		SIGMF_MAX_CAPTURES			= 3600;
+
+	private static class Snapshot
+	{
+		float[]	spectrum	= new float[0];
+		float[]	peakHold	= new float[0];
+		int		bins;
+		float	binWidthHz;
+		double	freqStartHz;
+		long	timestampEpochNanos;
+		long	sweepId;
+	}
+
+	/**
+	 * File written by the writer thread through a reused buffer
+	 */
+	private static class Output
+	{
+		private final FileChannel	channel;
+		private ByteBuffer			buffer	= ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		private volatile long		written	= 0;
+
+		Output(String path) throws IOException
+		{
+			channel = new FileOutputStream(path).getChannel();
+		}
+
+		/**
+		 * Makes room for given number of bytes, writes the buffered data if necessary
+		 */
+		ByteBuffer reserve(int bytes) throws IOException
+		{
+			if (buffer.remaining() < bytes)
+			{
+				flush();
+				if (buffer.capacity() < bytes)
+					buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			return buffer;
+		}
+
+		void flush() throws IOException
+		{
+			buffer.flip();
+			while (buffer.hasRemaining())
+				written += channel.write(buffer);
+			buffer.clear();
+		}
+
+		void close() throws IOException
+		{
+			try
+			{
+				flush();
+			}
+			finally
+			{
+				channel.close();
+			}
+		}
+	}
+
+	private final SpectrumExportFormat	format;
+	private final String				basePath;
+	private final long					epochNanosOffset;
+	private final ArrayBlockingQueue<Snapshot>	freeSnapshots;
+	private final ArrayBlockingQueue<Snapshot>	queuedSnapshots;
+	private final Thread				writerThread;
+	private volatile boolean			closing				= false;
+	private volatile boolean			failed				= false;
+
+	/**
+	 * writer thread only, replaced when a new SigMF recording is started
+	 */
+	private volatile Output				output;
+	/**
+	 * peak hold trace of {@link SpectrumExportFormat#CSV}, null for other formats
+	 */
+	private final Output				peakOutput;
+	private final List<Snapshot>		batch				= new ArrayList<>();
+	private final StringBuilder			sigmfCaptures		= new StringBuilder();
+	private long						sigmfSamples		= 0;
+	private int							sigmfCaptureCount	= 0;
+	private long						sigmfMetaWrittenNanos;
+	/**
+	 * number of finished SigMF recordings and bytes written to them
+	 */
+	private int							sigmfRecording		= 0;
+	private volatile long				sigmfFinishedBytes	= 0;
+
+	private volatile long				exportedCount		= 0;
+	private volatile long				droppedCount		= 0;
+	private volatile long				batchesCount		= 0;
+	private volatile long				writeNanos			= 0;
+
+	public SpectrumExporter(String basePath, SpectrumExportFormat format) throws IOException
+	{
+		this(basePath, format, DEFAULT_QUEUED_EXPORTS);
+	}
+
+	/**
+	 * @param basePath path of the exported files without extension, existing files are overwritten,
+	 * see {@link SpectrumExportFormat#SIGMF} for SigMF recordings following the first one
+	 * @param format
+	 * @param queuedExports number of exports that can wait for the writer before new ones are dropped
+	 * @throws IOException if the files cannot be created
+	 */
+	public SpectrumExporter(String basePath, SpectrumExportFormat format, int queuedExports) throws IOException
+	{
+		this.format = format;
+		this.basePath = basePath;
+		epochNanosOffset = System.currentTimeMillis() * 1000000l - System.nanoTime();
+		freeSnapshots = new ArrayBlockingQueue<>(Math.max(1, queuedExports));
+		queuedSnapshots = new ArrayBlockingQueue<>(Math.max(1, queuedExports));
+		for (int i = 0; i < Math.max(1, queuedExports); i++)
+			freeSnapshots.add(new Snapshot());
+
+		output = new Output(basePath + format.getExtension());
+		peakOutput = format == SpectrumExportFormat.CSV ? new Output(basePath + CSV_PEAK_SUFFIX + format.getExtension()) : null;
+		if (format == SpectrumExportFormat.BINARY)
+		{
+			output.reserve(BINARY_HEADER_SIZE).putInt(BINARY_MAGIC).putShort(BINARY_VERSION).putShort((short) BINARY_HEADER_SIZE)
+					.putLong(System.currentTimeMillis()).put(new byte[BINARY_HEADER_SIZE - 16]);
+		}
+		if (format == SpectrumExportFormat.SIGMF)
+			writeSigmfMeta();
+
+		writerThread = new Thread(this::writerLoop, "Spectrum exporter");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Copies the spectrum and the peak hold traces for export. Does not block, allocates only when the spectrum is larger than any before.
+	 * @return false if the export was dropped
+	 */
+	public boolean export(DatasetSpectrumPeak dataset)
+	{
+		Snapshot slot = failed || closing ? null : freeSnapshots.poll();
+		if (slot == null)
+		{
+			droppedCount++;
+			return false;
+		}
+		int bins = dataset.spectrumLength();
+		if (slot.spectrum.length < bins)
+		{
+			slot.spectrum = new float[bins];
+			slot.peakHold = new float[bins];
+		}
+		System.arraycopy(dataset.getSpectrumArray(), 0, slot.spectrum, 0, bins);
+		System.arraycopy(dataset.getPeakHoldArray(), 0, slot.peakHold, 0, bins);
+		slot.bins = bins;
+		slot.binWidthHz = dataset.getFFTBinSizeHz();
+		slot.freqStartHz = dataset.getFrequency(0);
+		slot.timestampEpochNanos = dataset.getCaptureTimeNanos() + epochNanosOffset;
+		slot.sweepId = dataset.getSweepId();
+		queuedSnapshots.add(slot);
+		return true;
+	}
+
+	public SpectrumExportFormat getFormat()
+	{
+		return format;
+	}
+
+	public long getExportedCount()
+	{
+		return exportedCount;
+	}
+
+	public long getDroppedCount()
+	{
+		return droppedCount;
+	}
+
+	/**
+	 * @return human readable counters
+	 */
+	public String getStatistics()
+	{
+		long exported = exportedCount;
+		long batches = batchesCount;
+		long written = sigmfFinishedBytes + output.written + (peakOutput == null ? 0 : peakOutput.written);
+		return String.format("%s %d exports  %.1fMB  %.1f exports/write  write %.2fms/export  dropped %d%s", format, exported, written / 1048576d,
+				batches == 0 ? 0 : exported / (double) batches, exported == 0 ? 0 : writeNanos / 1e6 / exported, droppedCount,
+				failed ? "  FAILED" : "");
+	}
+
+	/**
+	 * Writes all queued exports and closes the files
+	 */
+	@Override public void close() throws IOException
+	{
+		closing = true;
+		try
+		{
+			writerThread.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writerLoop()
+	{
+		try
+		{
+			while (true)
+			{
+				Snapshot first = queuedSnapshots.poll(10, TimeUnit.MILLISECONDS);
+				if (first == null)
+				{
+					if (closing)
+						break;
+					continue;
+				}
+				long start = System.nanoTime();
+				batch.add(first);
+				queuedSnapshots.drainTo(batch);
+				for (int i = 0; i < batch.size(); i++)
+					write(batch.get(i));
+				output.flush();
+				if (peakOutput != null)
+					peakOutput.flush();
+				if (format == SpectrumExportFormat.SIGMF && System.nanoTime() - sigmfMetaWrittenNanos > SIGMF_META_INTERVAL_NANOS)
+					writeSigmfMeta();
+				exportedCount += batch.size();
+				batchesCount++;
+				writeNanos += System.nanoTime() - start;
+				freeSnapshots.addAll(batch);
+				batch.clear();
+			}
+			if (format == SpectrumExportFormat.SIGMF)
+				writeSigmfMeta();
+		}
+		catch (IOException | InterruptedException e)
+		{
+			failed = true;
+			e.printStackTrace();
+		}
+		finally
+		{
+			try
+			{
+				output.close();
+				if (peakOutput != null)
+					peakOutput.close();
+			}
+			catch (IOException e)
+			{
+				failed = true;
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void write(Snapshot snapshot) throws IOException
+	{
+		switch (format)
+		{
+			case CSV:
+				writeCsvLine(output, snapshot, snapshot.spectrum);
+				writeCsvLine(peakOutput, snapshot, snapshot.peakHold);
+				break;
+			case SIGMF:
+				writeSigmf(snapshot);
+				break;
+			case BINARY:
+			default:
+				writeBinary(snapshot);
+				break;
+		}
+	}
+
+	private void writeBinary(Snapshot snapshot) throws IOException
+	{
+		int length = binaryRecordLength(snapshot.bins);
+		ByteBuffer buffer = output.reserve(length);
+		buffer.putInt(length).putLong(snapshot.timestampEpochNanos).putLong(snapshot.sweepId).putDouble(snapshot.freqStartHz)
+				.putFloat(snapshot.binWidthHz).putInt(snapshot.bins);
+		putQuantized(buffer, snapshot.spectrum, snapshot.bins);
+		putQuantized(buffer, snapshot.peakHold, snapshot.bins);
+	}
+
+	private static void putQuantized(ByteBuffer buffer, float[] values, int bins)
+	{
+		for (int i = 0; i < bins; i++)
+		{
+			float value = values[i] / BINARY_STEP_DB;
+			buffer.putShort(value != value ? BINARY_NO_VALUE : (short) Math.max(BINARY_NO_VALUE + 1, Math.min(Short.MAX_VALUE, Math.round(value))));
+		}
+	}
+
+	private void writeSigmf(Snapshot snapshot) throws IOException
+	{
+		if (sigmfCaptureCount >= SIGMF_MAX_CAPTURES)
+			startSigmfRecording();
+		ByteBuffer buffer = output.reserve(snapshot.bins * 8);
+		for (int i = 0; i < snapshot.bins; i++)
+			buffer.putFloat(snapshot.spectrum[i]).putFloat(snapshot.peakHold[i]);
+		if (sigmfCaptures.length() > 0)
+			sigmfCaptures.append(",\n");
+		sigmfCaptures.append("    {\"core:sample_start\": ").append(sigmfSamples)
+				.append(", \"core:frequency\": ").append(snapshot.freqStartHz + snapshot.bins * (double) snapshot.binWidthHz / 2)
+				.append(", \"core:datetime\": \"").append(Instant.ofEpochSecond(0, snapshot.timestampEpochNanos)).append('"')
+				.append(", \"hackrf_spectrum:freq_start\": ").append(snapshot.freqStartHz)
+				.append(", \"hackrf_spectrum:bin_width\": ").append(snapshot.binWidthHz)
+				.append(", \"hackrf_spectrum:bins\": ").append(snapshot.bins)
+				.append(", \"hackrf_spectrum:sweep_id\": ").append(snapshot.sweepId).append('}');
+		sigmfSamples += snapshot.bins;
+		sigmfCaptureCount++;
+	}
+
+	/**
+	 * Finishes the current SigMF recording and continues in a new one with the next numeric suffix
+	 */
+	private void startSigmfRecording() throws IOException
+	{
+		writeSigmfMeta();
+		Output finished = output;
+		finished.close();
+		sigmfFinishedBytes += finished.written;
+		sigmfRecording++;
+		output = new Output(sigmfBasePath() + format.getExtension());
+		sigmfCaptures.setLength(0);
+		sigmfSamples = 0;
+		sigmfCaptureCount = 0;
+		writeSigmfMeta();
+	}
+
+	private String sigmfBasePath()
+	{
+		return sigmfRecording == 0 ? basePath : basePath + "-" + sigmfRecording;
+	}
+
+	/**
+	 * Replaces the metadata file, written to a temporary file first so that readers never see it incomplete
+	 */
+	private void writeSigmfMeta() throws IOException
+	{
+		StringBuilder meta = new StringBuilder(sigmfCaptures.length() + 1024);
+		meta.append("{\n  \"global\": {\n");
+		meta.append("    \"core:datatype\": \"rf32_le\",\n");
+		meta.append("    \"core:version\": \"1.0.0\",\n");
+		meta.append("    \"core:num_channels\": 2,\n");
+		meta.append("    \"core:recorder\": \"hackrf_sweep_spectrum_analyzer\",\n");
+		meta.append("    \"core:description\": \"Power in dBm per fft bin, channel 0 spectrum, channel 1 peak hold, one capture per sweep\",\n");
+		meta.append("    \"core:extensions\": [{\"name\": \"hackrf_spectrum\", \"version\": \"1.0.0\", \"optional\": true}]\n");
+		meta.append("  },\n  \"captures\": [\n").append(sigmfCaptures).append("\n  ],\n  \"annotations\": []\n}\n");
+		Path path = Paths.get(sigmfBasePath() + SIGMF_META_EXTENSION);
+		Path temporary = Paths.get(sigmfBasePath() + SIGMF_META_EXTENSION + ".tmp");
+		Files.write(temporary, meta.toString().getBytes(StandardCharsets.UTF_8));
+		try
+		{
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+		sigmfMetaWrittenNanos = System.nanoTime();
+	}
+
+	/**
+	 * Writes one line in the layout of the stock hackrf_sweep tool, time in the local time zone as hackrf_sweep does
+	 */
+	private void writeCsvLine(Output output, Snapshot snapshot, float[] values) throws IOException
+	{
+		ByteBuffer buffer = output.reserve(128 + snapshot.bins * 24);
+		LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochSecond(0, snapshot.timestampEpochNanos), ZoneId.systemDefault());
+		putDigits(buffer, time.getYear(), 4);
+		buffer.put((byte) '-');
+		putDigits(buffer, time.getMonthValue(), 2);
+		buffer.put((byte) '-');
+		putDigits(buffer, time.getDayOfMonth(), 2);
+		buffer.put((byte) ',').put((byte) ' ');
+		putDigits(buffer, time.getHour(), 2);
+		buffer.put((byte) ':');
+		putDigits(buffer, time.getMinute(), 2);
+		buffer.put((byte) ':');
+		putDigits(buffer, time.getSecond(), 2);
+		buffer.put((byte) '.');
+		putDigits(buffer, time.getNano() / 1000, 6);
+		long hzLow = Math.round(snapshot.freqStartHz);
+		putSeparator(buffer);
+		putLong(buffer, hzLow);
+		putSeparator(buffer);
+		putLong(buffer, hzLow + Math.round(snapshot.bins * (double) snapshot.binWidthHz));
+		putSeparator(buffer);
+		putDecimal(buffer, snapshot.binWidthHz);
+		putSeparator(buffer);
+		buffer.put((byte) '0');
+		for (int i = 0; i < snapshot.bins; i++)
+		{
+			putSeparator(buffer);
+			putDecimal(buffer, values[i]);
+		}
+		buffer.put((byte) '\n');
+	}
+
+	private static void putSeparator(ByteBuffer buffer)
+	{
+		buffer.put((byte) ',').put((byte) ' ');
+	}
+
+	private static void putDigits(ByteBuffer buffer, int value, int digits)
+	{
+		int position = buffer.position();
+		for (int i = digits - 1; i >= 0; i--)
+		{
+			buffer.put(position + i, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		buffer.position(position + digits);
+	}
+
+	private static void putLong(ByteBuffer buffer, long value)
+	{
+		if (value < 0)
+		{
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		int digits = 1;
+		for (long limit = 10; digits < 19 && value >= limit; limit *= 10)
+			digits++;
+		int position = buffer.position();
+		for (int i = digits - 1; i >= 0; i--)
+		{
+			buffer.put(position + i, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		buffer.position(position + digits);
+	}
+
+	/**
+	 * Writes the value with two decimals, as hackrf_sweep does
+	 */
+	private static void putDecimal(ByteBuffer buffer, float value)
+	{
+		if (value != value || Math.abs(value) >= 1e15f)
+		{
+			buffer.put((value != value ? "nan" : value == Float.POSITIVE_INFINITY ? "inf" : value == Float.NEGATIVE_INFINITY ? "-inf"
+					: Float.toString(value)).getBytes(StandardCharsets.US_ASCII));
+			return;
+		}
+		long hundredths = Math.round(value * 100d);
+		if (hundredths < 0)
+		{
+			buffer.put((byte) '-');
+			hundredths = -hundredths;
+		}
+		putLong(buffer, hundredths / 100);
+		buffer.put((byte) '.');
+		putDigits(buffer, (int) (hundredths % 100), 2);
+	}
+}
@@ -0,0 +1,64 @@
+package jspectrumanalyzer.recording;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import jspectrumanalyzer.core.DatasetSpectrumPeak;
+import jspectrumanalyzer.core.FFTBins;
+
+/**
+ * Exports a spectrum of given span back to back in every format for the given time and reports the sustained export rate
+ * and the time the processing thread spends in {@link SpectrumExporter#export(DatasetSpectrumPeak)}:
+ * <pre>
+ * java -cp hackrf_sweep_spectrum_analyzer.jar jspectrumanalyzer.recording.SpectrumExporterBenchmark [seconds] [span MHz] [fft bin Hz] [directory]
+ * </pre>
+ * Real HackRF sweeps about 8GHz per second, so the rate needed to export every sweep is 8000 / span sweeps/s.
+ */
+public class SpectrumExporterBenchmark
+{
+	private static final int	FREQ_MIN_MHZ	= 1;
+
+	public static void main(String[] args) throws Exception
+	{
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int spanMHz = args.length > 1 ? Integer.parseInt(args[1]) : 6000;
+		int fftBinWidth = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+		File directory = args.length > 3 ? new File(args[3]) : Files.createTempDirectory("spectrumexport").toFile();
+
+		DatasetSpectrumPeak dataset = new DatasetSpectrumPeak(fftBinWidth, FREQ_MIN_MHZ, FREQ_MIN_MHZ + spanMHz, -150, 15, 30000);
+		int bins = dataset.spectrumLength();
+		FFTBins fftBins = new FFTBins(true, null, fftBinWidth, null);
+		fftBins.ensureCapacity(bins);
+		Random random = new Random(1);
+		for (int i = 0; i < bins; i++)
+			fftBins.sigPowdBm[i] = -100 + random.nextFloat() * 10;
+		fftBins.addSegment(FREQ_MIN_MHZ * 1e6, bins);
+		fftBins.binsCount = bins;
+		dataset.addNewData(fftBins);
+		dataset.refreshPeakSpectrum();
+		System.out.println(String.format("%d bins per export, every sweep of real hardware is %.1f exports/s", bins, 8000d / spanMHz));
+
+		for (SpectrumExportFormat format : SpectrumExportFormat.values())
+		{
+			SpectrumExporter exporter = new SpectrumExporter(new File(directory, "benchmark").getPath(), format);
+			long start = System.nanoTime();
+			long end = start + seconds * 1_000_000_000l;
+			long exportNanos = 0;
+			long calls = 0;
+			while (System.nanoTime() < end)
+			{
+				long callStart = System.nanoTime();
+				boolean exported = exporter.export(dataset);
+				exportNanos += System.nanoTime() - callStart;
+				calls++;
+				if (!exported)
+					Thread.sleep(1);
+			}
+			exporter.close();
+			double elapsed = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("%-6s sustained %.1f exports/s, export() %.3fms per call: %s", format,
+					exporter.getExportedCount() / elapsed, exportNanos / 1e6 / calls, exporter.getStatistics()));
+		}
+	}
+}
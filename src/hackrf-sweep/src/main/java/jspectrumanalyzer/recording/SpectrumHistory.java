@@ -0,0 +1,538 @@
+package jspectrumanalyzer.recording;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import jspectrumanalyzer.core.DatasetSpectrum;
+import jspectrumanalyzer.core.DecibelTable;
+
+/**
+ * Round robin history of the spectrum for long term monitoring, similar to RRD.
+ * <p>
+ * The span is divided into a fixed number of history bins, each keeps min/max/mean power at several time resolutions,
+ * the mean is the average of linear power converted back to dBm, see {@link DecibelTable}
+ * ({@link #DEFAULT_STEP_SECONDS}) in a fixed number of rows per resolution. The row of a time slot is given by the slot number modulo
+ * the number of rows, so old slots are overwritten in place and the size of the file never changes.
+ * Every completed sweep updates the current row of each resolution, the file is memory mapped and survives restarts.
+ * <p>
+ * File layout, little endian: {@link #HEADER_SIZE} bytes header
+ * (int magic "HSRD", short version, short levels, int bins, int reserved, double start frequency of the first bin in Hz, double bin width in Hz),
+ * {@link #LEVEL_ENTRY_SIZE} bytes per level (int step in seconds, int rows, long offset of the level data), then the data of each level:
+ * long slot[rows] followed by the rows, each row short min[bins], short max[bins], short mean[bins] in 0.01dBm
+ * ({@link #NO_VALUE} for bins without data). Slot is the epoch time divided by the step, -1 for empty rows.
+ * <p>
+ * {@link #addSweep(DatasetSpectrum)} and {@link #query(long, long, double, double)} can be called from different threads.
+ */
+public class SpectrumHistory implements Closeable
+{
+	public static final int		MAGIC					= 0x44525348;	// "HSRD"
+	public static final short	VERSION					= 1;
+	public static final int		HEADER_SIZE				= 32;
+	public static final int		LEVEL_ENTRY_SIZE		= 16;
+	public static final short	NO_VALUE				= Short.MIN_VALUE;
+	public static final float	STEP_DB					= 0.01f;
+	public static final String	FILE_EXTENSION			= ".hsh";
+	/**
+	 * 1s, 1min, 15min, 1h
+	 */
+	public static final int[]	DEFAULT_STEP_SECONDS	= { 1, 60, 900, 3600 };
+	/**
+	 * 10 minutes, 1 day, 7 days, 31 days
+	 */
+	public static final int[]	DEFAULT_ROWS			= { 600, 1440, 672, 744 };
+	public static final int		DEFAULT_BINS			= 4096;
+
+	/**
+	 * One time resolution, accumulates sweeps of the current slot
+	 */
+	private static class Level
+	{
+		final int				stepSeconds;
+		final long				stepMillis;
+		final int				rows;
+		final MappedByteBuffer	data;
+		final int				rowsOffset;
+		final float[]			min, max;
+		/**
+		 * sum of the linear mean power of every sweep
+		 */
+		final float[]			sum;
+		final int[]				count;
+		long					slot	= -1;
+		long					latestSlot	= -1;
+
+		Level(int stepSeconds, int rows, MappedByteBuffer data, int bins)
+		{
+			this.stepSeconds = stepSeconds;
+			this.stepMillis = stepSeconds * 1000l;
+			this.rows = rows;
+			this.data = data;
+			this.rowsOffset = rows * 8;
+			min = new float[bins];
+			max = new float[bins];
+			sum = new float[bins];
+			count = new int[bins];
+			for (int i = 0; i < rows; i++)
+				latestSlot = Math.max(latestSlot, data.getLong(i * 8));
+		}
+
+		int rowOffset(int row, int bins)
+		{
+			return rowsOffset + row * bins * 6;
+		}
+
+		/**
+		 * @return time of the oldest slot still kept
+		 */
+		long oldestMillis()
+		{
+			return (latestSlot - rows + 1) * stepMillis;
+		}
+	}
+
+	/**
+	 * Min/max/mean of the history bins of one resolution, rows in chronological order, NaN for bins without data
+	 */
+	public static class Overview
+	{
+		private final int		stepSeconds;
+		private final long[]	timesMillis;
+		private final int		bins;
+		private final double	freqStartHz;
+		private final double	binWidthHz;
+		private final float[]	min, max, mean;
+
+		Overview(int stepSeconds, long[] timesMillis, int bins, double freqStartHz, double binWidthHz)
+		{
+			this.stepSeconds = stepSeconds;
+			this.timesMillis = timesMillis;
+			this.bins = bins;
+			this.freqStartHz = freqStartHz;
+			this.binWidthHz = binWidthHz;
+			min = new float[timesMillis.length * bins];
+			max = new float[timesMillis.length * bins];
+			mean = new float[timesMillis.length * bins];
+		}
+
+		public int getStepSeconds()
+		{
+			return stepSeconds;
+		}
+
+		public int getRows()
+		{
+			return timesMillis.length;
+		}
+
+		/**
+		 * @return start of the row's time slot in epoch millis
+		 */
+		public long getTimeMillis(int row)
+		{
+			return timesMillis[row];
+		}
+
+		public int getBins()
+		{
+			return bins;
+		}
+
+		public double getFrequency(int bin)
+		{
+			return freqStartHz + bin * binWidthHz;
+		}
+
+		public double getBinWidthHz()
+		{
+			return binWidthHz;
+		}
+
+		public float getMin(int row, int bin)
+		{
+			return min[row * bins + bin];
+		}
+
+		public float getMax(int row, int bin)
+		{
+			return max[row * bins + bin];
+		}
+
+		public float getMean(int row, int bin)
+		{
+			return mean[row * bins + bin];
+		}
+	}
+
+	private final String			path;
+	private final RandomAccessFile	file;
+	private final int				bins;
+	private final int				freqStartMHz, freqStopMHz;
+	private final double			freqStartHz;
+	private final double			binWidthHz;
+	private final Level[]			levels;
+	private final long				fileSize;
+	/**
+	 * converts {@link System#nanoTime()} capture times to epoch millis
+	 */
+	private final long				epochNanosOffset;
+
+	/**
+	 * power of the last sweep per history bin, reused, the sum is linear
+	 */
+	private final float[]			sweepMin, sweepMax, sweepSum;
+	private final int[]				sweepCount;
+
+	private volatile long			sweepsCount		= 0;
+	private volatile long			updateNanos		= 0;
+
+	/**
+	 * Opens the history with {@link #DEFAULT_STEP_SECONDS} and {@link #DEFAULT_ROWS}
+	 */
+	public SpectrumHistory(String path, int freqStartMHz, int freqStopMHz, int bins) throws IOException
+	{
+		this(path, freqStartMHz, freqStopMHz, bins, DEFAULT_STEP_SECONDS, DEFAULT_ROWS);
+	}
+
+	/**
+	 * Opens existing history with the same span and resolutions, otherwise creates a new one.
+	 * An existing file with different span or resolutions is kept, renamed to <code>path.&lt;epoch millis&gt;.old</code>.
+	 * @param path history file
+	 * @param freqStartMHz
+	 * @param freqStopMHz
+	 * @param bins number of history bins the span is divided into
+	 * @param stepSeconds time resolutions, from the finest
+	 * @param rows number of rows kept for each resolution
+	 */
+	public SpectrumHistory(String path, int freqStartMHz, int freqStopMHz, int bins, int[] stepSeconds, int[] rows) throws IOException
+	{
+		if (stepSeconds.length != rows.length || bins <= 0 || freqStopMHz <= freqStartMHz)
+			throw new IllegalArgumentException("Invalid history configuration");
+		this.path = path;
+		this.bins = bins;
+		this.freqStartMHz = freqStartMHz;
+		this.freqStopMHz = freqStopMHz;
+		this.freqStartHz = freqStartMHz * 1e6;
+		this.binWidthHz = (freqStopMHz - freqStartMHz) * 1e6 / bins;
+		this.epochNanosOffset = System.currentTimeMillis() * 1000000l - System.nanoTime();
+		sweepMin = new float[bins];
+		sweepMax = new float[bins];
+		sweepSum = new float[bins];
+		sweepCount = new int[bins];
+
+		long[] offsets = new long[stepSeconds.length];
+		long size = HEADER_SIZE + LEVEL_ENTRY_SIZE * stepSeconds.length;
+		for (int i = 0; i < stepSeconds.length; i++)
+		{
+			offsets[i] = size;
+			long levelSize = rows[i] * (8 + bins * 6l);
+			if (levelSize > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("History level " + stepSeconds[i] + "s too large, reduce bins or rows");
+			size += levelSize;
+		}
+		fileSize = size;
+
+		RandomAccessFile existing = new RandomAccessFile(path, "rw");
+		boolean compatible = isCompatible(existing, stepSeconds, rows, offsets);
+		if (!compatible && existing.length() > 0)
+		{
+			existing.close();
+			String kept = path + "." + System.currentTimeMillis() + ".old";
+			System.out.println("History " + path + " has different span or resolutions, kept as " + kept + ", starting a new one");
+			Files.move(Paths.get(path), Paths.get(kept));
+			existing = new RandomAccessFile(path, "rw");
+		}
+		file = existing;
+		FileChannel channel = file.getChannel();
+		if (!compatible)
+		{
+			file.setLength(size);
+			MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + LEVEL_ENTRY_SIZE * stepSeconds.length);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putShort(VERSION).putShort((short) stepSeconds.length).putInt(bins).putInt(0).putDouble(freqStartHz)
+					.putDouble(binWidthHz);
+			for (int i = 0; i < stepSeconds.length; i++)
+				header.putInt(stepSeconds[i]).putInt(rows[i]).putLong(offsets[i]);
+			header.force();
+		}
+		levels = new Level[stepSeconds.length];
+		for (int i = 0; i < stepSeconds.length; i++)
+		{
+			MappedByteBuffer data = channel.map(MapMode.READ_WRITE, offsets[i], rows[i] * (8 + bins * 6l));
+			data.order(ByteOrder.LITTLE_ENDIAN);
+			if (!compatible)
+			{
+				for (int row = 0; row < rows[i]; row++)
+					data.putLong(row * 8, -1);
+			}
+			levels[i] = new Level(stepSeconds[i], rows[i], data, bins);
+		}
+	}
+
+	private boolean isCompatible(RandomAccessFile file, int[] stepSeconds, int[] rows, long[] offsets) throws IOException
+	{
+		if (file.length() != fileSize)
+			return false;
+		file.seek(0);
+		byte[] header = new byte[HEADER_SIZE + LEVEL_ENTRY_SIZE * stepSeconds.length];
+		file.readFully(header);
+		ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION || buffer.getShort() != stepSeconds.length || buffer.getInt() != bins)
+			return false;
+		buffer.getInt();
+		if (buffer.getDouble() != freqStartHz || buffer.getDouble() != binWidthHz)
+			return false;
+		for (int i = 0; i < stepSeconds.length; i++)
+		{
+			if (buffer.getInt() != stepSeconds[i] || buffer.getInt() != rows[i] || buffer.getLong() != offsets[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a completed sweep timestamped by its capture time. Bins of the spectrum are assigned to the history bin
+	 * containing their center, spectrum outside of the history span is ignored.
+	 */
+	public void addSweep(DatasetSpectrum spectrum)
+	{
+		addSweep(spectrum, (spectrum.getCaptureTimeNanos() + epochNanosOffset) / 1000000l);
+	}
+
+	/**
+	 * Adds a completed sweep with given time
+	 */
+	public synchronized void addSweep(DatasetSpectrum spectrum, long epochMillis)
+	{
+		long start = System.nanoTime();
+		Arrays.fill(sweepMin, Float.POSITIVE_INFINITY);
+		Arrays.fill(sweepMax, Float.NEGATIVE_INFINITY);
+		Arrays.fill(sweepSum, 0);
+		Arrays.fill(sweepCount, 0);
+		float[] power = spectrum.getSpectrumArray();
+		int length = spectrum.spectrumLength();
+		double spectrumBinWidth = spectrum.getFFTBinSizeHz();
+		double firstCenter = (spectrum.getFrequency(0) + spectrumBinWidth / 2 - freqStartHz) / binWidthHz;
+		double step = spectrumBinWidth / binWidthHz;
+		for (int i = 0; i < length; i++)
+		{
+			int bin = (int) Math.floor(firstCenter + i * step);
+			if (bin < 0 || bin >= bins)
+				continue;
+			float value = power[i];
+			if (value != value)
+				continue;
+			if (value < sweepMin[bin])
+				sweepMin[bin] = value;
+			if (value > sweepMax[bin])
+				sweepMax[bin] = value;
+			sweepSum[bin] += DecibelTable.toLinear(value);
+			sweepCount[bin]++;
+		}
+		for (Level level : levels)
+			update(level, epochMillis);
+		sweepsCount++;
+		updateNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Accumulates the sweep into the level's current slot and rewrites its row
+	 */
+	private void update(Level level, long epochMillis)
+	{
+		long slot = Math.floorDiv(epochMillis, level.stepMillis);
+		int row = (int) Math.floorMod(slot, (long) level.rows);
+		MappedByteBuffer data = level.data;
+		int minOffset = level.rowOffset(row, bins);
+		int maxOffset = minOffset + bins * 2;
+		int meanOffset = maxOffset + bins * 2;
+		if (slot != level.slot)
+		{
+			level.slot = slot;
+			Arrays.fill(level.min, Float.POSITIVE_INFINITY);
+			Arrays.fill(level.max, Float.NEGATIVE_INFINITY);
+			Arrays.fill(level.sum, 0);
+			Arrays.fill(level.count, 0);
+			if (data.getLong(row * 8) == slot)
+			{
+				/**
+				 * continues a slot written before restart, its mean counts as one sweep
+				 */
+				for (int bin = 0; bin < bins; bin++)
+				{
+					short mean = data.getShort(meanOffset + bin * 2);
+					if (mean == NO_VALUE)
+						continue;
+					level.min[bin] = dequantize(data.getShort(minOffset + bin * 2));
+					level.max[bin] = dequantize(data.getShort(maxOffset + bin * 2));
+					level.sum[bin] = DecibelTable.toLinear(dequantize(mean));
+					level.count[bin] = 1;
+				}
+			}
+		}
+		for (int bin = 0; bin < bins; bin++)
+		{
+			int count = sweepCount[bin];
+			if (count > 0)
+			{
+				level.min[bin] = Math.min(level.min[bin], sweepMin[bin]);
+				level.max[bin] = Math.max(level.max[bin], sweepMax[bin]);
+				level.sum[bin] += sweepSum[bin] / count;
+				level.count[bin]++;
+			}
+			boolean empty = level.count[bin] == 0;
+			data.putShort(minOffset + bin * 2, empty ? NO_VALUE : quantize(level.min[bin]));
+			data.putShort(maxOffset + bin * 2, empty ? NO_VALUE : quantize(level.max[bin]));
+			data.putShort(meanOffset + bin * 2, empty ? NO_VALUE : quantize(DecibelTable.toDecibels(level.sum[bin] / level.count[bin])));
+		}
+		data.putLong(row * 8, slot);
+		if (slot > level.latestSlot)
+			level.latestSlot = slot;
+	}
+
+	private static short quantize(float value)
+	{
+		return (short) Math.max(NO_VALUE + 1, Math.min(Short.MAX_VALUE, Math.round(value / STEP_DB)));
+	}
+
+	/**
+	 * Returns the history of given time and frequency range from the finest resolution that still keeps the start of the time range,
+	 * or from the coarsest one if none does. Only slots that have data are returned.
+	 * @param fromEpochMillis
+	 * @param toEpochMillis
+	 * @param freqFromHz
+	 * @param freqToHz
+	 */
+	public synchronized Overview query(long fromEpochMillis, long toEpochMillis, double freqFromHz, double freqToHz)
+	{
+		Level level = levels[levels.length - 1];
+		for (Level candidate : levels)
+		{
+			if (candidate.latestSlot >= 0 && candidate.oldestMillis() <= fromEpochMillis)
+			{
+				level = candidate;
+				break;
+			}
+		}
+		int firstBin = Math.max(0, (int) Math.floor((freqFromHz - freqStartHz) / binWidthHz));
+		int lastBin = Math.min(bins - 1, (int) Math.ceil((freqToHz - freqStartHz) / binWidthHz) - 1);
+		int resultBins = Math.max(0, lastBin - firstBin + 1);
+
+		long firstSlot = Math.max(Math.floorDiv(fromEpochMillis, level.stepMillis), level.latestSlot - level.rows + 1);
+		long lastSlot = Math.min(Math.floorDiv(toEpochMillis, level.stepMillis), level.latestSlot);
+		int validRows = 0;
+		long[] slots = new long[(int) Math.max(0, Math.min(level.rows, lastSlot - firstSlot + 1))];
+		for (long slot = firstSlot; slot <= lastSlot; slot++)
+		{
+			int row = (int) Math.floorMod(slot, (long) level.rows);
+			if (level.data.getLong(row * 8) == slot)
+				slots[validRows++] = slot;
+		}
+		long[] times = new long[validRows];
+		for (int i = 0; i < validRows; i++)
+			times[i] = slots[i] * level.stepMillis;
+
+		Overview overview = new Overview(level.stepSeconds, times, resultBins, freqStartHz + firstBin * binWidthHz, binWidthHz);
+		MappedByteBuffer data = level.data;
+		for (int i = 0; i < validRows; i++)
+		{
+			int row = (int) Math.floorMod(slots[i], (long) level.rows);
+			int minOffset = level.rowOffset(row, bins) + firstBin * 2;
+			int maxOffset = minOffset + bins * 2;
+			int meanOffset = maxOffset + bins * 2;
+			int target = i * resultBins;
+			for (int bin = 0; bin < resultBins; bin++)
+			{
+				overview.min[target + bin] = dequantize(data.getShort(minOffset + bin * 2));
+				overview.max[target + bin] = dequantize(data.getShort(maxOffset + bin * 2));
+				overview.mean[target + bin] = dequantize(data.getShort(meanOffset + bin * 2));
+			}
+		}
+		return overview;
+	}
+
+	private static float dequantize(short value)
+	{
+		return value == NO_VALUE ? Float.NaN : value * STEP_DB;
+	}
+
+	public int getBins()
+	{
+		return bins;
+	}
+
+	public double getFreqStartHz()
+	{
+		return freqStartHz;
+	}
+
+	public double getFreqStopHz()
+	{
+		return freqStartHz + bins * binWidthHz;
+	}
+
+	public String getPath()
+	{
+		return path;
+	}
+
+	/**
+	 * @return true if the history was opened for the given span
+	 */
+	public boolean hasSpan(int freqStartMHz, int freqStopMHz)
+	{
+		return this.freqStartMHz == freqStartMHz && this.freqStopMHz == freqStopMHz;
+	}
+
+	/**
+	 * @param path history path with or without {@link #FILE_EXTENSION}
+	 * @return path of the history of the given span, <code>path-&lt;start&gt;-&lt;stop&gt;MHz.hsh</code>
+	 */
+	public static String spanPath(String path, int freqStartMHz, int freqStopMHz)
+	{
+		if (path.endsWith(FILE_EXTENSION))
+			path = path.substring(0, path.length() - FILE_EXTENSION.length());
+		return String.format("%s-%d-%dMHz%s", path, freqStartMHz, freqStopMHz, FILE_EXTENSION);
+	}
+
+	/**
+	 * @return human readable configuration and counters
+	 */
+	public String getStatistics()
+	{
+		StringBuilder b = new StringBuilder();
+		b.append(bins).append(" bins ");
+		for (Level level : levels)
+			b.append(' ').append(formatDuration(level.stepSeconds)).append('x').append(level.rows);
+		long sweeps = sweepsCount;
+		b.append(String.format("  %.1fMB  %d sweeps  update %.3fms/sweep", fileSize / 1048576d, sweeps, sweeps == 0 ? 0 : updateNanos / 1e6 / sweeps));
+		return b.toString();
+	}
+
+	private static String formatDuration(int seconds)
+	{
+		if (seconds % 3600 == 0)
+			return seconds / 3600 + "h";
+		if (seconds % 60 == 0)
+			return seconds / 60 + "m";
+		return seconds + "s";
+	}
+
+	/**
+	 * Writes the mapped data and closes the file
+	 */
+	@Override public synchronized void close() throws IOException
+	{
+		for (Level level : levels)
+			level.data.force();
+		file.close();
+	}
+}
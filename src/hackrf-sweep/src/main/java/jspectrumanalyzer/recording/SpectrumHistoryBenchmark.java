@@ -0,0 +1,87 @@
+package jspectrumanalyzer.recording;
+
+import java.io.File;
+import java.util.Random;
+
+import jspectrumanalyzer.core.DatasetSpectrum;
+import jspectrumanalyzer.core.FFTBins;
+
+/**
+ * Feeds {@link SpectrumHistory} with simulated days of 1-6000MHz sweeps at 100kHz, timestamped faster than real time,
+ * then measures the update time per sweep and queries over the last hour and the last 7 days:
+ * <pre>
+ * java -cp hackrf_sweep_spectrum_analyzer.jar jspectrumanalyzer.recording.SpectrumHistoryBenchmark [days] [seconds between sweeps] [history bins]
+ * </pre>
+ */
+public class SpectrumHistoryBenchmark
+{
+	private static final int	FREQ_MIN_MHZ	= 1;
+	private static final int	FREQ_MAX_MHZ	= 6000;
+	private static final int	FFT_BIN_WIDTH	= 100_000;
+
+	public static void main(String[] args) throws Exception
+	{
+		int days = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int sweepSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int bins = args.length > 2 ? Integer.parseInt(args[2]) : SpectrumHistory.DEFAULT_BINS;
+		File file = File.createTempFile("history", SpectrumHistory.FILE_EXTENSION);
+		file.deleteOnExit();
+
+		DatasetSpectrum spectrum = new DatasetSpectrum(FFT_BIN_WIDTH, FREQ_MIN_MHZ, FREQ_MAX_MHZ, -150);
+		int spectrumBins = spectrum.spectrumLength();
+		FFTBins fftBins = new FFTBins(true, null, FFT_BIN_WIDTH, null);
+		fftBins.ensureCapacity(spectrumBins);
+		fftBins.addSegment(FREQ_MIN_MHZ * 1e6, spectrumBins);
+		fftBins.binsCount = spectrumBins;
+		Random random = new Random(1);
+		float[] noise = new float[65521];
+		for (int i = 0; i < noise.length; i++)
+			noise[i] = -100 + random.nextFloat() * 10;
+
+		long end = System.currentTimeMillis();
+		long start = end - days * 86_400_000l;
+		try (SpectrumHistory history = new SpectrumHistory(file.getPath(), FREQ_MIN_MHZ, FREQ_MAX_MHZ, bins))
+		{
+			long sweeps = 0;
+			long updateNanos = 0;
+			for (long time = start; time < end; time += sweepSeconds * 1000l)
+			{
+				/**
+				 * noise floor with a carrier at 2450MHz present during the day only
+				 */
+				int offset = random.nextInt(noise.length);
+				for (int i = 0; i < spectrumBins; i++)
+					fftBins.sigPowdBm[i] = noise[(offset + i) % noise.length];
+				if ((time / 3_600_000l) % 24 < 12)
+					fftBins.sigPowdBm[(int) ((2450e6 - FREQ_MIN_MHZ * 1e6) / FFT_BIN_WIDTH)] = -40;
+				spectrum.addNewData(fftBins);
+				long updateStart = System.nanoTime();
+				history.addSweep(spectrum, time);
+				updateNanos += System.nanoTime() - updateStart;
+				sweeps++;
+			}
+			System.out.println(String.format("%d sweeps over %d days, update %.3fms/sweep, file %.1fMB: %s", sweeps, days, updateNanos / 1e6 / sweeps,
+					file.length() / 1048576d, history.getStatistics()));
+
+			query(history, "last hour, 2400-2500MHz", end - 3_600_000l, end, 2400e6, 2500e6);
+			query(history, "last 7 days, 2400-2500MHz", end - 7 * 86_400_000l, end, 2400e6, 2500e6);
+			query(history, "last 7 days, 1-6000MHz", end - 7 * 86_400_000l, end, FREQ_MIN_MHZ * 1e6, FREQ_MAX_MHZ * 1e6);
+		}
+	}
+
+	private static void query(SpectrumHistory history, String name, long from, long to, double freqFrom, double freqTo)
+	{
+		SpectrumHistory.Overview overview = null;
+		int repeats = 20;
+		long start = System.nanoTime();
+		for (int i = 0; i < repeats; i++)
+			overview = history.query(from, to, freqFrom, freqTo);
+		double millis = (System.nanoTime() - start) / 1e6 / repeats;
+		float max = Float.NEGATIVE_INFINITY;
+		for (int row = 0; row < overview.getRows(); row++)
+			for (int bin = 0; bin < overview.getBins(); bin++)
+				max = Math.max(max, overview.getMax(row, bin));
+		System.out.println(String.format("%-28s %4d rows of %ds x %4d bins in %.2fms, max %.1fdBm", name, overview.getRows(),
+				overview.getStepSeconds(), overview.getBins(), millis, max));
+	}
+}
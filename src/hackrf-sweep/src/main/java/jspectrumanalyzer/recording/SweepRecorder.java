@@ -0,0 +1,443 @@
+package jspectrumanalyzer.recording;
+
+import static jspectrumanalyzer.recording.SweepRecordingFormat.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import jspectrumanalyzer.core.DatasetSpectrum;
+import jspectrumanalyzer.core.FFTBins;
+
+/**
+ * Records {@link FFTBins} or completed {@link DatasetSpectrum} frames to memory mapped segment files,
+ * see {@link SweepRecordingFormat} for the file layout.
+ * <p>
+ * The producer (processing thread) only encodes records into a preallocated in-memory ring and never waits for the disk,
+ * records that do not fit into the ring are dropped and counted.
+ * A writer thread copies the records to the mapped segment, rolls over to a new segment file when the current one is full
+ * and maintains the recording's {@link SweepRecordingIndex}.
+ * <p>
+ * {@link #record(FFTBins)} and {@link #record(DatasetSpectrum)} must be called from one thread only, 
+ * {@link #setSettings(SweepRecordingSettings)} and the statistics from any thread.
+ */
+public class SweepRecorder implements Closeable
+{
+	public static final int		DEFAULT_SEGMENT_SIZE	= 256 << 20;
+	public static final int		DEFAULT_BUFFER_SIZE		= 32 << 20;
+	private static final int	WRAP_MARKER				= -1;
+
+	private final String		basePath;
+	private final int			segmentSize;
+	/**
+	 * records waiting for the writer, addressed by byte sequences modulo the buffer size
+	 */
+	private final byte[]		buffer;
+	private final ByteBuffer	bufferView;
+	private final int			mask;
+	private final AtomicLong	head					= new AtomicLong();
+	private final AtomicLong	tail					= new AtomicLong();
+	/**
+	 * producer only, tail after the record being encoded is committed
+	 */
+	private long				reservedTail			= 0;
+	/**
+	 * converts {@link System#nanoTime()} capture times to epoch nanoseconds
+	 */
+	private final long			epochNanosOffset;
+	private final Thread		writerThread;
+	private volatile Thread		waitingWriter			= null;
+	private volatile boolean	closing					= false;
+	private volatile boolean	failed					= false;
+	private volatile boolean	blockWhenFull			= false;
+
+	private volatile SweepRecordingSettings	settings	= null;
+	/**
+	 * producer only, settings already encoded into the ring
+	 */
+	private SweepRecordingSettings	recordedSettings	= null;
+
+	/**
+	 * writer thread only
+	 */
+	private RandomAccessFile	file;
+	private MappedByteBuffer	segment;
+	private SweepRecordingSettings	segmentSettings		= null;
+	private final SweepRecordingIndexer	indexer;
+
+	private volatile int		segmentIndex			= -1;
+	private volatile long		recordedCount			= 0;
+	private volatile long		droppedCount			= 0;
+	private volatile long		writtenBytes			= 0;
+	private volatile int		bufferHighWaterMark		= 0;
+
+	public SweepRecorder(String basePath) throws IOException
+	{
+		this(basePath, DEFAULT_SEGMENT_SIZE, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param basePath path of the recording, segment files are named by {@link SweepRecordingFormat#segmentPath(String, int)}
+	 * @param segmentSize size of one segment file in bytes, segments are only larger if a single record does not fit
+	 * @param bufferSize size of the ring between the producer and the writer thread, rounded up to the power of two
+	 * @throws IOException if the first segment cannot be created or segments of an older recording with the same path cannot be deleted
+	 */
+	public SweepRecorder(String basePath, int segmentSize, int bufferSize) throws IOException
+	{
+		this.basePath = basePath;
+		this.segmentSize = Math.max(FILE_HEADER_SIZE * 2, segmentSize);
+		int size = Integer.highestOneBit(Math.max(1024, bufferSize) - 1) << 1;
+		buffer = new byte[size];
+		bufferView = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+		mask = size - 1;
+		epochNanosOffset = System.currentTimeMillis() * 1000000l - System.nanoTime();
+		indexer = new SweepRecordingIndexer(indexPath(basePath), SweepRecordingIndexer.DEFAULT_BLOCK_WIDTH_HZ, SweepRecordingIndexer.DEFAULT_CHUNK_NANOS);
+		deleteOldSegments();
+		openSegment(0);
+		writerThread = new Thread(this::writerLoop, "Sweep recorder");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Settings are recorded before the next record and stored in the headers of following segments
+	 */
+	public void setSettings(SweepRecordingSettings settings)
+	{
+		this.settings = settings;
+	}
+
+	/**
+	 * @param blockWhenFull true to let the producer wait for the writer instead of dropping records when the ring is full,
+	 * for offline conversions which must not lose data
+	 */
+	public void setBlockWhenFull(boolean blockWhenFull)
+	{
+		this.blockWhenFull = blockWhenFull;
+	}
+
+	/**
+	 * Producer only. Does not block unless {@link #setBlockWhenFull(boolean)} is set, does not allocate.
+	 * @return false if the record was dropped
+	 */
+	public boolean record(FFTBins bins)
+	{
+		if (!recordSettings())
+			return false;
+		int length = binsRecordLength(bins.segmentsCount, bins.binsCount);
+		int offset = reserve(length);
+		if (offset < 0)
+			return false;
+		putRecordHeader(offset, length, RECORD_BINS, bins.fullSweepDone, bins.captureTimeNanos, bins.sweepId);
+		int pos = offset + RECORD_HEADER_SIZE;
+		bufferView.putFloat(pos, bins.fftBinWidthHz);
+		bufferView.putInt(pos + 4, bins.segmentsCount);
+		bufferView.putInt(pos + 8, bins.binsCount);
+		pos += 12;
+		for (int i = 0; i < bins.segmentsCount; i++, pos += SEGMENT_ENTRY_SIZE)
+		{
+			bufferView.putDouble(pos, bins.segmentFreqStartHz[i]);
+			bufferView.putInt(pos + 8, bins.segmentBinCount[i]);
+		}
+		putPowers(pos, bins.sigPowdBm, 0, bins.binsCount);
+		commit();
+		return true;
+	}
+
+	/**
+	 * Producer only. Records the whole spectrum of a completed sweep. Does not block unless {@link #setBlockWhenFull(boolean)} is set,
+	 * does not allocate.
+	 * @return false if the record was dropped
+	 */
+	public boolean record(DatasetSpectrum frame)
+	{
+		int bins = frame.spectrumLength();
+		return record(frame.getCaptureTimeNanos(), frame.getSweepId(), frame.getFFTBinSizeHz(), bins == 0 ? 0 : frame.getFrequency(0),
+				frame.getSpectrumArray(), 0, bins);
+	}
+
+	/**
+	 * Producer only. Records the spectrum of a completed sweep kept outside of {@link DatasetSpectrum}, see {@link #record(DatasetSpectrum)}.
+	 * @param captureTimeNanos capture time in {@link System#nanoTime()}
+	 * @param powers array holding the spectrum from the given offset
+	 * @return false if the record was dropped
+	 */
+	public boolean record(long captureTimeNanos, long sweepId, float fftBinWidthHz, double freqStartHz, float[] powers, int powersOffset, int bins)
+	{
+		if (!recordSettings())
+			return false;
+		int length = frameRecordLength(bins);
+		int offset = reserve(length);
+		if (offset < 0)
+			return false;
+		putRecordHeader(offset, length, RECORD_FRAME, true, captureTimeNanos, sweepId);
+		int pos = offset + RECORD_HEADER_SIZE;
+		bufferView.putFloat(pos, fftBinWidthHz);
+		bufferView.putInt(pos + 4, bins);
+		bufferView.putDouble(pos + 8, freqStartHz);
+		putPowers(pos + 16, powers, powersOffset, bins);
+		commit();
+		return true;
+	}
+
+	public long getRecordedCount()
+	{
+		return recordedCount;
+	}
+
+	/**
+	 * @return records lost because the writer did not keep up or failed
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount;
+	}
+
+	public long getWrittenBytes()
+	{
+		return writtenBytes;
+	}
+
+	/**
+	 * @return human readable counters
+	 */
+	public String getStatistics()
+	{
+		return String.format("%d records  %.1fMB in %d segments  dropped %d  buffer max %d%%%s", recordedCount, writtenBytes / 1048576d,
+				segmentIndex + 1, droppedCount, bufferHighWaterMark * 100l / buffer.length, failed ? "  FAILED" : "");
+	}
+
+	/**
+	 * Writes all buffered records, flushes and closes the last segment
+	 */
+	@Override public void close() throws IOException
+	{
+		closing = true;
+		LockSupport.unpark(writerThread);
+		try
+		{
+			writerThread.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private boolean recordSettings()
+	{
+		SweepRecordingSettings current = settings;
+		if (current == recordedSettings)
+			return true;
+		int length = settingsRecordLength();
+		int offset = reserve(length);
+		if (offset < 0)
+			return false;
+		putRecordHeader(offset, length, RECORD_SETTINGS, false, System.nanoTime(), -1);
+		putSettings(bufferView, offset + RECORD_HEADER_SIZE, current);
+		commit();
+		recordedSettings = current;
+		return true;
+	}
+
+	/**
+	 * Reserves contiguous space in the ring, wraps to its start if the record does not fit before the end
+	 * @return offset of the record or -1 if the record was dropped
+	 */
+	private int reserve(int length)
+	{
+		long sequence = tail.get();
+		int offset = (int) sequence & mask;
+		int toEnd = buffer.length - offset;
+		int needed = length <= toEnd ? length : toEnd + length;
+		long used = sequence + needed - head.get();
+		while (used > buffer.length && blockWhenFull && !failed && !closing && length <= buffer.length)
+		{
+			LockSupport.unpark(writerThread);
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+			used = sequence + needed - head.get();
+		}
+		if (failed || closing || length > buffer.length || used > buffer.length)
+		{
+			droppedCount++;
+			return -1;
+		}
+		if (used > bufferHighWaterMark)
+			bufferHighWaterMark = (int) used;
+		if (length > toEnd)
+		{
+			bufferView.putInt(offset, WRAP_MARKER);
+			offset = 0;
+		}
+		reservedTail = sequence + needed;
+		return offset;
+	}
+
+	private void commit()
+	{
+		tail.set(reservedTail);
+		Thread writer = waitingWriter;
+		if (writer != null)
+			LockSupport.unpark(writer);
+	}
+
+	private void putRecordHeader(int offset, int length, byte type, boolean fullSweepDone, long captureTimeNanos, long sweepId)
+	{
+		bufferView.putInt(offset, length);
+		bufferView.put(offset + 4, type);
+		bufferView.put(offset + 5, (byte) (fullSweepDone ? FLAG_FULL_SWEEP_DONE : 0));
+		bufferView.putShort(offset + 6, (short) 0);
+		bufferView.putLong(offset + 8, captureTimeNanos + epochNanosOffset);
+		bufferView.putLong(offset + 16, sweepId);
+	}
+
+	private void putPowers(int pos, float[] powers, int offset, int bins)
+	{
+		for (int i = 0; i < bins; i++, pos += 4)
+		{
+			bufferView.putFloat(pos, powers[offset + i]);
+		}
+	}
+
+	private void writerLoop()
+	{
+		try
+		{
+			while (true)
+			{
+				long sequence = head.get();
+				if (sequence == tail.get())
+				{
+					if (closing)
+						break;
+					waitingWriter = Thread.currentThread();
+					if (sequence == tail.get() && !closing)
+						LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+					waitingWriter = null;
+					continue;
+				}
+				int offset = (int) sequence & mask;
+				int length = bufferView.getInt(offset);
+				if (length == WRAP_MARKER)
+				{
+					head.set(sequence + buffer.length - offset);
+					continue;
+				}
+				write(offset, length);
+				head.set(sequence + length);
+			}
+		}
+		catch (IOException e)
+		{
+			failed = true;
+			e.printStackTrace();
+		}
+		finally
+		{
+			try
+			{
+				closeSegment();
+				indexer.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void write(int offset, int length) throws IOException
+	{
+		byte type = buffer[offset + 4];
+		if (type == RECORD_SETTINGS)
+		{
+			segmentSettings = SweepRecordingFormat.getSettings(bufferView, offset + RECORD_HEADER_SIZE);
+			if (segment.position() == FILE_HEADER_SIZE)
+			{
+				/**
+				 * nothing recorded yet, the header is enough
+				 */
+				putSettings(segment, HEADER_SETTINGS, segmentSettings);
+				return;
+			}
+		}
+		if (segment.remaining() < length + 8)
+			openSegment(length);
+		indexer.add(bufferView, offset, segmentIndex, segment.position(), segmentSettings);
+		segment.put(buffer, offset, length);
+		segment.putLong(HEADER_DATA_END, segment.position());
+		writtenBytes += length;
+		if (type != RECORD_SETTINGS)
+			recordedCount++;
+	}
+
+	/**
+	 * Deletes segments after the first one left by an older, longer recording with the same path,
+	 * readers follow the segments until the first missing one and would continue into the old recording.
+	 * The first segment is overwritten by {@link #openSegment(int)}.
+	 */
+	private void deleteOldSegments() throws IOException
+	{
+		for (int index = 1;; index++)
+		{
+			File old = new File(segmentPath(basePath, index));
+			if (!old.exists())
+				return;
+			if (!old.delete())
+				throw new IOException("Cannot delete segment of an older recording: " + old);
+		}
+	}
+
+	/**
+	 * Closes the current segment and maps the next one
+	 * @param recordLength length of the record that has to fit into the segment
+	 */
+	private void openSegment(int recordLength) throws IOException
+	{
+		closeSegment();
+		int index = segmentIndex + 1;
+		file = new RandomAccessFile(segmentPath(basePath, index), "rw");
+		file.setLength(0);
+		segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, FILE_HEADER_SIZE + recordLength + 8));
+		segment.order(ByteOrder.LITTLE_ENDIAN);
+		segment.putInt(0, MAGIC);
+		segment.putShort(4, VERSION);
+		segment.putShort(6, (short) FILE_HEADER_SIZE);
+		segment.putInt(HEADER_SEGMENT_INDEX, index);
+		segment.putLong(HEADER_CREATED, System.currentTimeMillis());
+		segment.putLong(HEADER_DATA_END, FILE_HEADER_SIZE);
+		if (segmentSettings != null)
+			putSettings(segment, HEADER_SETTINGS, segmentSettings);
+		segment.position(FILE_HEADER_SIZE);
+		segmentIndex = index;
+	}
+
+	private void closeSegment() throws IOException
+	{
+		if (segment == null)
+			return;
+		segment.force();
+		long end = segment.position();
+		segment = null;
+		try
+		{
+			/**
+			 * cut off the unused preallocated space, not possible on platforms that do not allow truncating mapped files,
+			 * readers rely on the data end in the header there
+			 */
+			file.getChannel().truncate(end);
+		}
+		catch (IOException e)
+		{
+		}
+		file.close();
+	}
+}
@@ -0,0 +1,133 @@
+package jspectrumanalyzer.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+
+import jspectrumanalyzer.core.FFTBins;
+import jspectrumanalyzer.core.FFTBinsRingBuffer;
+import jspectrumanalyzer.nativebridge.HackRFSweepDataCallback;
+import jspectrumanalyzer.synthetic.SyntheticSweepSource;
+
+/**
+ * Measures CPU used by {@link SweepRecorder} on top of the synthetic source and the hand over to the processing thread,
+ * first at 10 sweeps/s over 1-6000MHz, then with the source generating as fast as possible:
+ * <pre>
+ * java -cp hackrf_sweep_spectrum_analyzer.jar jspectrumanalyzer.recording.SweepRecorderBenchmark [seconds] [fft bin Hz] [directory]
+ * </pre>
+ * CPU is reported in percent of one core for the whole process.
+ */
+public class SweepRecorderBenchmark
+{
+	private static final int	FREQ_MIN_MHZ	= 1;
+	private static final int	FREQ_MAX_MHZ	= 6000;
+
+	public static void main(String[] args) throws Exception
+	{
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int fftBinWidth = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+		File directory = args.length > 2 ? new File(args[2]) : Files.createTempDirectory("sweeprecorder").toFile();
+
+		double baseline = run(null, 10, seconds, fftBinWidth);
+		double recording = run(directory, 10, seconds, fftBinWidth);
+		System.out.println(String.format("10 sweeps/s: baseline %.1f%% CPU, with recorder %.1f%% CPU, recorder adds %.1f%% of one core", baseline,
+				recording, recording - baseline));
+		run(directory, 0, seconds, fftBinWidth);
+	}
+
+	/**
+	 * @param directory where to record, null to only pass the data through
+	 * @param sweepsPerSecond 0 for as fast as possible
+	 * @return CPU used by the process in percent of one core
+	 */
+	private static double run(File directory, double sweepsPerSecond, int seconds, int fftBinWidth) throws IOException, InterruptedException
+	{
+		String path = directory == null ? null : new File(directory, "benchmark").getPath();
+		SweepRecorder recorder = path == null ? null : new SweepRecorder(path);
+		if (recorder != null)
+			recorder.setSettings(new SweepRecordingSettings(FREQ_MIN_MHZ, FREQ_MAX_MHZ, fftBinWidth, 8192, 0, 0, false, false));
+		FFTBinsRingBuffer ring = new FFTBinsRingBuffer(1024);
+		long[] sweeps = new long[1];
+		Thread consumer = new Thread(() -> {
+			try
+			{
+				while (true)
+				{
+					FFTBins bins = ring.take();
+					if (recorder != null)
+						recorder.record(bins);
+					if (bins.fullSweepDone)
+						sweeps[0]++;
+					bins.release();
+				}
+			}
+			catch (InterruptedException e)
+			{
+			}
+		}, "recorder benchmark consumer");
+		consumer.start();
+
+		SyntheticSweepSource source = new SyntheticSweepSource();
+		source.setSweepsPerSecond(sweepsPerSecond);
+		Thread timer = new Thread(() -> {
+			try
+			{
+				Thread.sleep(seconds * 1000l);
+			}
+			catch (InterruptedException e)
+			{
+			}
+			source.stop();
+		});
+		timer.start();
+
+		long cpuStart = getProcessCpuTime();
+		long start = System.nanoTime();
+		source.start(new HackRFSweepDataCallback()
+		{
+			@Override public void newSpectrumData(boolean fullSweepDone, double[] frequencyStart, float fftBinWidthHz, float[] signalPowerdBm)
+			{
+				ring.publish(fullSweepDone, frequencyStart, fftBinWidthHz, signalPowerdBm);
+			}
+
+			@Override public void newSpectrumData(FFTBins fftBins)
+			{
+				ring.publish(fftBins);
+			}
+
+			@Override public void spectrumDataDropped(boolean fullSweepDone)
+			{
+				ring.dropped(fullSweepDone);
+			}
+		}, ring, FREQ_MIN_MHZ, FREQ_MAX_MHZ, fftBinWidth, 8192, 0, 0, false, false);
+		while (ring.getDepth() > 0)
+			Thread.sleep(1);
+		if (recorder != null)
+			recorder.close();
+		long elapsed = System.nanoTime() - start;
+		double cpu = (getProcessCpuTime() - cpuStart) * 100d / elapsed;
+		consumer.interrupt();
+		consumer.join();
+		timer.join();
+
+		System.out.println(String.format("%s %s: %.1f sweeps/s, queue dropped %d, %.1f%% CPU%s", recorder == null ? "pass through" : "recording",
+				sweepsPerSecond > 0 ? String.format("%.0f sweeps/s", sweepsPerSecond) : "max rate", sweeps[0] * 1e9 / elapsed, ring.getDroppedCount(), cpu,
+				recorder == null ? "" : String.format(", %.1fMB/s, recorder %s", recorder.getWrittenBytes() / 1048576d * 1e9 / elapsed, recorder.getStatistics())));
+		if (path != null)
+		{
+			for (int i = 0; new File(SweepRecordingFormat.segmentPath(path, i)).delete(); i++)
+				;
+		}
+		return cpu;
+	}
+
+	private static long getProcessCpuTime()
+	{
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		return 0;
+	}
+}
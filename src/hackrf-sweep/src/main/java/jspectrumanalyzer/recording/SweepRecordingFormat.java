@@ -0,0 +1,149 @@
+package jspectrumanalyzer.recording;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the segment files written by {@link SweepRecorder}, all values little endian.
+ * <p>
+ * Each segment starts with a {@link #FILE_HEADER_SIZE} bytes header:
+ * <pre>
+ *  0 int    magic {@link #MAGIC}
+ *  4 short  version
+ *  6 short  header size
+ *  8 int    segment index
+ * 12 int    reserved
+ * 16 long   creation time, epoch milliseconds
+ * 24 long   end of written records, updated after each record
+ * 32        settings block, see {@link #putSettings(ByteBuffer, int, SweepRecordingSettings)}
+ * </pre>
+ * followed by records aligned to 8 bytes. A record with zero length marks the end of data.
+ * Every record starts with:
+ * <pre>
+ *  0 int    record length in bytes including padding
+ *  4 byte   type
+ *  5 byte   flags, {@link #FLAG_FULL_SWEEP_DONE}
+ *  6 short  reserved
+ *  8 long   capture time, epoch nanoseconds
+ * 16 long   sweep id
+ * </pre>
+ * {@link #RECORD_BINS}: float bin width, int segments, int bins, segments x (double start frequency, int bin count), bins x float power<br>
+ * {@link #RECORD_FRAME}: float bin width, int bins, double start frequency, bins x float power<br>
+ * {@link #RECORD_SETTINGS}: settings block, applies to the following records
+ * <p>
+ * Recording is indexed by a separate file, see {@link #indexPath(String)}, starting with {@link #INDEX_HEADER_SIZE} bytes header:
+ * <pre>
+ *  0 int    magic {@link #INDEX_MAGIC}
+ *  4 short  version
+ *  6 short  header size
+ *  8 int    frequency block width of the zone maps, Hz
+ * 12 int    reserved
+ * 16 long   maximum duration of an indexed chunk, nanoseconds
+ * 24 long   creation time, epoch milliseconds
+ * </pre>
+ * followed by one entry per chunk of consecutive records:
+ * <pre>
+ *  0 int    entry length
+ *  4 int    segment index of the first record
+ *  8 long   offset of the first record in the segment
+ * 16 long   capture time of the first record, epoch nanoseconds
+ * 24 long   capture time of the last record, epoch nanoseconds
+ * 32 int    records
+ * 36 int    first frequency block (frequency / block width)
+ * 40 int    number of blocks
+ * 44        settings block in effect at the first record, zeros if unknown
+ * 76        blocks x (byte minimum, byte maximum) power in whole dBm, minimum is rounded down and maximum up
+ * </pre>
+ */
+public final class SweepRecordingFormat
+{
+	public static final int		MAGIC					= 0x43525348;	// "HSRC"
+	public static final short	VERSION					= 1;
+	public static final String	FILE_EXTENSION			= ".hsr";
+
+	public static final int		FILE_HEADER_SIZE		= 64;
+	static final int			HEADER_SEGMENT_INDEX	= 8;
+	static final int			HEADER_CREATED			= 16;
+	static final int			HEADER_DATA_END			= 24;
+	static final int			HEADER_SETTINGS			= 32;
+
+	public static final byte	RECORD_BINS				= 1;
+	public static final byte	RECORD_FRAME			= 2;
+	public static final byte	RECORD_SETTINGS			= 3;
+	public static final int		FLAG_FULL_SWEEP_DONE	= 1;
+
+	public static final int		RECORD_HEADER_SIZE		= 24;
+	static final int			SETTINGS_SIZE			= 32;
+	static final int			SEGMENT_ENTRY_SIZE		= 12;
+
+	public static final String	INDEX_EXTENSION			= ".hsi";
+	public static final int		INDEX_MAGIC				= 0x58495348;	// "HSIX"
+	public static final int		INDEX_HEADER_SIZE		= 32;
+	static final int			INDEX_ENTRY_HEADER_SIZE	= 44 + SETTINGS_SIZE;
+
+	private SweepRecordingFormat()
+	{
+	}
+
+	/**
+	 * @return length rounded up to the record alignment
+	 */
+	static int align(int length)
+	{
+		return (length + 7) & ~7;
+	}
+
+	static int binsRecordLength(int segments, int bins)
+	{
+		return align(RECORD_HEADER_SIZE + 12 + segments * SEGMENT_ENTRY_SIZE + bins * 4);
+	}
+
+	static int frameRecordLength(int bins)
+	{
+		return align(RECORD_HEADER_SIZE + 16 + bins * 4);
+	}
+
+	static int settingsRecordLength()
+	{
+		return RECORD_HEADER_SIZE + SETTINGS_SIZE;
+	}
+
+	static void putSettings(ByteBuffer buffer, int offset, SweepRecordingSettings settings)
+	{
+		buffer.putInt(offset, settings.getFreqStartMHz());
+		buffer.putInt(offset + 4, settings.getFreqStopMHz());
+		buffer.putFloat(offset + 8, settings.getFFTBinWidthHz());
+		buffer.putInt(offset + 12, settings.getSamples());
+		buffer.putInt(offset + 16, settings.getLNAGain());
+		buffer.putInt(offset + 20, settings.getVGAGain());
+		buffer.put(offset + 24, (byte) (settings.isAntennaPowerEnable() ? 1 : 0));
+		buffer.put(offset + 25, (byte) (settings.isAntennaLNA() ? 1 : 0));
+	}
+
+	public static SweepRecordingSettings getSettings(ByteBuffer buffer, int offset)
+	{
+		return new SweepRecordingSettings(buffer.getInt(offset), buffer.getInt(offset + 4), buffer.getFloat(offset + 8), buffer.getInt(offset + 12),
+				buffer.getInt(offset + 16), buffer.getInt(offset + 20), buffer.get(offset + 24) != 0, buffer.get(offset + 25) != 0);
+	}
+
+	/**
+	 * @param base recording path with or without {@link #FILE_EXTENSION}
+	 * @return path of the segment file with given index
+	 */
+	public static String segmentPath(String base, int segmentIndex)
+	{
+		if (base.endsWith(FILE_EXTENSION))
+			base = base.substring(0, base.length() - FILE_EXTENSION.length());
+		return String.format("%s-%06d%s", base, segmentIndex, FILE_EXTENSION);
+	}
+
+	/**
+	 * @param base recording path with or without {@link #FILE_EXTENSION}
+	 * @return path of the recording's index
+	 */
+	public static String indexPath(String base)
+	{
+		if (base.endsWith(FILE_EXTENSION))
+			base = base.substring(0, base.length() - FILE_EXTENSION.length());
+		return base + INDEX_EXTENSION;
+	}
+}
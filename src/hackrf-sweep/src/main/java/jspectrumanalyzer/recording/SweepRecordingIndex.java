@@ -0,0 +1,229 @@
+package jspectrumanalyzer.recording;
+
+import static jspectrumanalyzer.recording.SweepRecordingFormat.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Time and frequency index of a recording written by {@link SweepRecorder}.
+ * <p>
+ * The recording is split to chunks of consecutive records, each chunk knows its time range, location in the segment files
+ * and minimum and maximum power in every frequency block it covers. Queries use the index to skip chunks outside
+ * of the time range or too weak in the frequency range, {@link SweepRecordingReader#seek(Chunk)} jumps to the matching chunks.
+ */
+public class SweepRecordingIndex
+{
+	/**
+	 * Indexed chunk of consecutive records
+	 */
+	public static class Chunk
+	{
+		private final int						segmentIndex;
+		private final long						segmentOffset;
+		private final long						firstTimestamp, lastTimestamp;
+		private final int						records;
+		private final SweepRecordingSettings	settings;
+		private final int						firstBlock;
+		private final byte[]					zoneMap;
+		private final int						blockWidthHz;
+
+		private Chunk(ByteBuffer entry, int offset, int blockWidthHz)
+		{
+			segmentIndex = entry.getInt(offset + 4);
+			segmentOffset = entry.getLong(offset + 8);
+			firstTimestamp = entry.getLong(offset + 16);
+			lastTimestamp = entry.getLong(offset + 24);
+			records = entry.getInt(offset + 32);
+			firstBlock = entry.getInt(offset + 36);
+			zoneMap = new byte[entry.getInt(offset + 40) * 2];
+			SweepRecordingSettings recorded = SweepRecordingFormat.getSettings(entry, offset + 44);
+			settings = recorded.getFreqStopMHz() == 0 ? null : recorded;
+			for (int i = 0; i < zoneMap.length; i++)
+				zoneMap[i] = entry.get(offset + INDEX_ENTRY_HEADER_SIZE + i);
+			this.blockWidthHz = blockWidthHz;
+		}
+
+		public int getSegmentIndex()
+		{
+			return segmentIndex;
+		}
+
+		public long getSegmentOffset()
+		{
+			return segmentOffset;
+		}
+
+		/**
+		 * @return capture time of the first record, epoch nanoseconds
+		 */
+		public long getFirstTimestamp()
+		{
+			return firstTimestamp;
+		}
+
+		/**
+		 * @return capture time of the last record, epoch nanoseconds
+		 */
+		public long getLastTimestamp()
+		{
+			return lastTimestamp;
+		}
+
+		public int getRecords()
+		{
+			return records;
+		}
+
+		/**
+		 * @return settings in effect at the first record, null if they were not recorded
+		 */
+		public SweepRecordingSettings getSettings()
+		{
+			return settings;
+		}
+
+		/**
+		 * @return upper bound of the power in the frequency range in whole dBm, {@link Float#NEGATIVE_INFINITY} if the chunk has no data there
+		 */
+		public float getMaxPower(double freqFromHz, double freqToHz)
+		{
+			float max = Float.NEGATIVE_INFINITY;
+			int from = Math.max(firstBlock, (int) Math.max(0, freqFromHz / blockWidthHz));
+			int to = Math.min(firstBlock + zoneMap.length / 2 - 1, (int) Math.max(0, freqToHz / blockWidthHz));
+			for (int b = from; b <= to; b++)
+				max = Math.max(max, zoneMap[(b - firstBlock) * 2 + 1]);
+			return max;
+		}
+
+		/**
+		 * @return lower bound of the power in the frequency range in whole dBm (values below -128dBm are counted as -128dBm),
+		 * {@link Float#POSITIVE_INFINITY} if the chunk has no data there
+		 */
+		public float getMinPower(double freqFromHz, double freqToHz)
+		{
+			float min = Float.POSITIVE_INFINITY;
+			int from = Math.max(firstBlock, (int) Math.max(0, freqFromHz / blockWidthHz));
+			int to = Math.min(firstBlock + zoneMap.length / 2 - 1, (int) Math.max(0, freqToHz / blockWidthHz));
+			for (int b = from; b <= to; b++)
+				min = Math.min(min, zoneMap[(b - firstBlock) * 2]);
+			return min;
+		}
+	}
+
+	private final int			blockWidthHz;
+	private final List<Chunk>	chunks			= new ArrayList<>();
+	private final long[]		firstTimestamps;
+
+	private SweepRecordingIndex(ByteBuffer index)
+	{
+		blockWidthHz = index.getInt(8);
+		int pos = index.getShort(6);
+		while (pos + INDEX_ENTRY_HEADER_SIZE <= index.limit())
+		{
+			int length = index.getInt(pos);
+			if (length < INDEX_ENTRY_HEADER_SIZE || pos + length > index.limit())
+				break;
+			chunks.add(new Chunk(index, pos, blockWidthHz));
+			pos += length;
+		}
+		firstTimestamps = new long[chunks.size()];
+		for (int i = 0; i < firstTimestamps.length; i++)
+			firstTimestamps[i] = chunks.get(i).firstTimestamp;
+	}
+
+	/**
+	 * Loads index of the recording, builds it if it does not exist
+	 * @param path recording base path
+	 */
+	public static SweepRecordingIndex open(String path) throws IOException
+	{
+		File file = new File(indexPath(path));
+		if (!file.isFile())
+			build(path);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+		{
+			byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			ByteBuffer index = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+			if (data.length < INDEX_HEADER_SIZE || index.getInt(0) != INDEX_MAGIC)
+				throw new IOException("Not a recording index: " + file);
+			return new SweepRecordingIndex(index);
+		}
+	}
+
+	/**
+	 * Scans the whole recording and writes its index, e.g. for recordings whose index was lost
+	 * @param path recording base path
+	 */
+	public static void build(String path) throws IOException
+	{
+		try (SweepRecordingReader reader = new SweepRecordingReader(path);
+				SweepRecordingIndexer indexer = new SweepRecordingIndexer(indexPath(path), SweepRecordingIndexer.DEFAULT_BLOCK_WIDTH_HZ,
+						SweepRecordingIndexer.DEFAULT_CHUNK_NANOS))
+		{
+			while (reader.next())
+				indexer.add(reader.getSegmentBuffer(), reader.getRecordOffset(), reader.getSegmentIndex(), reader.getRecordOffset(), reader.getSettings());
+		}
+	}
+
+	public int getChunkCount()
+	{
+		return chunks.size();
+	}
+
+	public Chunk getChunk(int index)
+	{
+		return chunks.get(index);
+	}
+
+	/**
+	 * @return width of the frequency blocks of the zone maps
+	 */
+	public int getBlockWidthHz()
+	{
+		return blockWidthHz;
+	}
+
+	/**
+	 * @return index of the chunk containing given time - the last chunk starting at or before it, 0 if all chunks start later
+	 */
+	public int findChunk(long epochNanos)
+	{
+		int index = Arrays.binarySearch(firstTimestamps, epochNanos);
+		if (index < 0)
+			index = -index - 2;
+		return Math.max(0, index);
+	}
+
+	/**
+	 * Finds chunks overlapping the time range which may contain power at or above the threshold in the frequency range.
+	 * Matching chunks may still contain no matching record, zone maps only exclude chunks that cannot match.
+	 * @param minPowerdBm threshold, {@link Float#NEGATIVE_INFINITY} to only filter by time and frequency
+	 * @return chunks in recording order
+	 */
+	public List<Chunk> query(long fromEpochNanos, long toEpochNanos, double freqFromHz, double freqToHz, float minPowerdBm)
+	{
+		List<Chunk> result = new ArrayList<>();
+		float threshold = (float) Math.floor(minPowerdBm);
+		for (int i = findChunk(fromEpochNanos); i < chunks.size(); i++)
+		{
+			Chunk chunk = chunks.get(i);
+			if (chunk.firstTimestamp > toEpochNanos)
+				break;
+			if (chunk.lastTimestamp < fromEpochNanos)
+				continue;
+			float max = chunk.getMaxPower(freqFromHz, freqToHz);
+			if (max == Float.NEGATIVE_INFINITY || max < threshold)
+				continue;
+			result.add(chunk);
+		}
+		return result;
+	}
+}
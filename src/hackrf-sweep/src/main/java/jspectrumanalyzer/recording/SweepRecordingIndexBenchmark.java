@@ -0,0 +1,157 @@
+package jspectrumanalyzer.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import jspectrumanalyzer.core.FFTBins;
+import jspectrumanalyzer.core.FFTBinsRingBuffer;
+import jspectrumanalyzer.nativebridge.HackRFSweepDataCallback;
+import jspectrumanalyzer.synthetic.SyntheticSweepSource;
+
+/**
+ * Measures time and frequency queries over a recording. Without arguments records the synthetic source over 1-6000MHz
+ * as fast as possible for given time first (several GB), then runs random queries of one second around a frequency
+ * and reads the first record of the first matching chunk:
+ * <pre>
+ * java -cp hackrf_sweep_spectrum_analyzer.jar jspectrumanalyzer.recording.SweepRecordingIndexBenchmark [seconds | recording]
+ * </pre>
+ */
+public class SweepRecordingIndexBenchmark
+{
+	private static final int	FREQ_MIN_MHZ	= 1;
+	private static final int	FREQ_MAX_MHZ	= 6000;
+	private static final int	QUERIES			= 1000;
+
+	public static void main(String[] args) throws Exception
+	{
+		String path;
+		File directory = null;
+		if (args.length > 0 && !args[0].matches("\\d+"))
+		{
+			path = args[0];
+		}
+		else
+		{
+			directory = Files.createTempDirectory("sweepindex").toFile();
+			path = new File(directory, "benchmark").getPath();
+			record(path, args.length > 0 ? Integer.parseInt(args[0]) : 30);
+		}
+
+		long start = System.nanoTime();
+		SweepRecordingIndex index = SweepRecordingIndex.open(path);
+		System.out.println(String.format("Index of %d chunks (%.1fkB) loaded in %.1fms", index.getChunkCount(),
+				new File(SweepRecordingFormat.indexPath(path)).length() / 1024d, (System.nanoTime() - start) / 1e6));
+		if (index.getChunkCount() == 0)
+			return;
+
+		try (SweepRecordingReader reader = new SweepRecordingReader(path))
+		{
+			query(index, reader, Float.NEGATIVE_INFINITY);
+			query(index, reader, -60);
+		}
+
+		if (directory != null)
+		{
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+	}
+
+	private static void query(SweepRecordingIndex index, SweepRecordingReader reader, float minPowerdBm) throws IOException
+	{
+		long first = index.getChunk(0).getFirstTimestamp();
+		long last = index.getChunk(index.getChunkCount() - 1).getLastTimestamp();
+		Random random = new Random(1);
+		long queryNanos = 0, seekNanos = 0;
+		int matching = 0, seeks = 0;
+		long start;
+		{
+			for (int i = 0; i < QUERIES; i++)
+			{
+				long from = first + (long) (random.nextDouble() * (last - first));
+				double freq = (FREQ_MIN_MHZ + random.nextDouble() * (FREQ_MAX_MHZ - FREQ_MIN_MHZ)) * 1e6;
+				start = System.nanoTime();
+				List<SweepRecordingIndex.Chunk> chunks = index.query(from, from + 1_000_000_000l, freq - 1e6, freq + 1e6, minPowerdBm);
+				queryNanos += System.nanoTime() - start;
+				matching += chunks.size();
+				if (chunks.isEmpty())
+					continue;
+				start = System.nanoTime();
+				reader.seek(chunks.get(0));
+				if (reader.next())
+				{
+					FFTBins bins = new FFTBins(false, null, 0, null);
+					bins.ensureCapacity(reader.getBinsCount());
+					reader.readBins(bins);
+				}
+				seekNanos += System.nanoTime() - start;
+				seeks++;
+			}
+		}
+		System.out.println(String.format("%d queries above %.0fdBm: %.1fus per query, %.2f matching chunks per query, seek and read %.2fms",
+				QUERIES, minPowerdBm, queryNanos / 1e3 / QUERIES, matching / (double) QUERIES, seeks == 0 ? 0 : seekNanos / 1e6 / seeks));
+	}
+
+	private static void record(String path, int seconds) throws Exception
+	{
+		SweepRecorder recorder = new SweepRecorder(path);
+		recorder.setSettings(new SweepRecordingSettings(FREQ_MIN_MHZ, FREQ_MAX_MHZ, 100_000, 8192, 0, 0, false, false));
+		FFTBinsRingBuffer ring = new FFTBinsRingBuffer(1024);
+		Thread consumer = new Thread(() -> {
+			try
+			{
+				while (true)
+				{
+					FFTBins bins = ring.take();
+					recorder.record(bins);
+					bins.release();
+				}
+			}
+			catch (InterruptedException e)
+			{
+			}
+		}, "index benchmark consumer");
+		consumer.start();
+		SyntheticSweepSource source = new SyntheticSweepSource();
+		source.setSweepsPerSecond(0);
+		Thread timer = new Thread(() -> {
+			try
+			{
+				Thread.sleep(seconds * 1000l);
+			}
+			catch (InterruptedException e)
+			{
+			}
+			source.stop();
+		});
+		timer.setDaemon(true);
+		timer.start();
+		source.start(new HackRFSweepDataCallback()
+		{
+			@Override public void newSpectrumData(boolean fullSweepDone, double[] frequencyStart, float fftBinWidthHz, float[] signalPowerdBm)
+			{
+				ring.publish(fullSweepDone, frequencyStart, fftBinWidthHz, signalPowerdBm);
+			}
+
+			@Override public void newSpectrumData(FFTBins fftBins)
+			{
+				ring.publish(fftBins);
+			}
+
+			@Override public void spectrumDataDropped(boolean fullSweepDone)
+			{
+				ring.dropped(fullSweepDone);
+			}
+		}, ring, FREQ_MIN_MHZ, FREQ_MAX_MHZ, 100_000, 8192, 0, 0, false, false);
+		while (ring.getDepth() > 0)
+			Thread.sleep(1);
+		consumer.interrupt();
+		consumer.join();
+		recorder.close();
+		System.out.println("Recorded " + recorder.getStatistics());
+	}
+}
@@ -0,0 +1,211 @@
+package jspectrumanalyzer.recording;
+
+import static jspectrumanalyzer.recording.SweepRecordingFormat.*;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the sparse index of a recording - one entry with time range, location and per frequency block
+ * min/max power for every chunk of consecutive records, see {@link SweepRecordingFormat}.
+ * <p>
+ * Records are passed in their recorded form, so the index can be built while recording or from an existing recording.
+ * Not thread safe.
+ */
+class SweepRecordingIndexer implements Closeable
+{
+	static final int			DEFAULT_BLOCK_WIDTH_HZ	= 10_000_000;
+	static final long			DEFAULT_CHUNK_NANOS		= TimeUnit.SECONDS.toNanos(1);
+
+	private final FileChannel	channel;
+	private final int			blockWidthHz;
+	private final long			chunkNanos;
+
+	private float[]				blockMin				= new float[1024];
+	private float[]				blockMax				= new float[1024];
+	private int					firstBlock				= Integer.MAX_VALUE;
+	private int					lastBlock				= -1;
+
+	private int					records					= 0;
+	private int					chunkSegment;
+	private long				chunkOffset;
+	private long				chunkFirstTimestamp, chunkLastTimestamp;
+	private SweepRecordingSettings	chunkSettings;
+	private ByteBuffer			entry					= ByteBuffer.allocate(0);
+	private long				writtenBytes			= 0;
+
+	/**
+	 * @param path index file, overwritten
+	 */
+	SweepRecordingIndexer(String path, int blockWidthHz, long chunkNanos) throws IOException
+	{
+		this.blockWidthHz = blockWidthHz;
+		this.chunkNanos = chunkNanos;
+		Arrays.fill(blockMin, Float.POSITIVE_INFINITY);
+		Arrays.fill(blockMax, Float.NEGATIVE_INFINITY);
+		channel = new FileOutputStream(path).getChannel();
+		ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(INDEX_MAGIC).putShort(VERSION).putShort((short) INDEX_HEADER_SIZE).putInt(blockWidthHz).putInt(0);
+		header.putLong(chunkNanos).putLong(System.currentTimeMillis());
+		header.flip();
+		write(header);
+	}
+
+	/**
+	 * Adds record to the index, settings records are ignored
+	 * @param buffer buffer holding the record in the recorded layout
+	 * @param recordOffset offset of the record in the buffer
+	 * @param segmentIndex segment the record is stored in
+	 * @param segmentOffset offset of the record in the segment
+	 * @param settings settings in effect for the record, null if unknown
+	 */
+	void add(ByteBuffer buffer, int recordOffset, int segmentIndex, long segmentOffset, SweepRecordingSettings settings) throws IOException
+	{
+		byte type = buffer.get(recordOffset + 4);
+		if (type != RECORD_BINS && type != RECORD_FRAME)
+			return;
+		long timestamp = buffer.getLong(recordOffset + 8);
+		if (records > 0 && (segmentIndex != chunkSegment || timestamp - chunkFirstTimestamp >= chunkNanos || settings != chunkSettings))
+			flush();
+		if (records == 0)
+		{
+			chunkSegment = segmentIndex;
+			chunkOffset = segmentOffset;
+			chunkFirstTimestamp = timestamp;
+			chunkSettings = settings;
+		}
+		chunkLastTimestamp = timestamp;
+		records++;
+
+		int pos = recordOffset + RECORD_HEADER_SIZE;
+		float binWidth = buffer.getFloat(pos);
+		if (type == RECORD_BINS)
+		{
+			int segments = buffer.getInt(pos + 4);
+			int powerPos = pos + 12 + segments * SEGMENT_ENTRY_SIZE;
+			for (int s = 0; s < segments; s++)
+			{
+				int entryPos = pos + 12 + s * SEGMENT_ENTRY_SIZE;
+				int bins = buffer.getInt(entryPos + 8);
+				addRun(buffer, powerPos, buffer.getDouble(entryPos), binWidth, bins);
+				powerPos += bins * 4;
+			}
+		}
+		else
+		{
+			addRun(buffer, pos + 16, buffer.getDouble(pos + 8), binWidth, buffer.getInt(pos + 4));
+		}
+	}
+
+	/**
+	 * @return bytes written to the index so far
+	 */
+	long getWrittenBytes()
+	{
+		return writtenBytes;
+	}
+
+	/**
+	 * Writes the last entry and closes the index
+	 */
+	@Override public void close() throws IOException
+	{
+		flush();
+		channel.close();
+	}
+
+	private void addRun(ByteBuffer buffer, int powerPos, double freqStartHz, float binWidth, int bins)
+	{
+		if (bins <= 0)
+			return;
+		int block = (int) Math.max(0, freqStartHz / blockWidthHz);
+		double nextBlockHz = (block + 1) * (double) blockWidthHz;
+		ensureBlock((int) ((freqStartHz + (bins - 1) * (double) binWidth) / blockWidthHz));
+		if (block < firstBlock)
+			firstBlock = block;
+		float min = blockMin[block], max = blockMax[block];
+		for (int i = 0; i < bins; i++, powerPos += 4)
+		{
+			double freq = freqStartHz + i * (double) binWidth;
+			if (freq >= nextBlockHz)
+			{
+				blockMin[block] = min;
+				blockMax[block] = max;
+				block = (int) (freq / blockWidthHz);
+				nextBlockHz = (block + 1) * (double) blockWidthHz;
+				min = blockMin[block];
+				max = blockMax[block];
+			}
+			float power = buffer.getFloat(powerPos);
+			if (power < min)
+				min = power;
+			if (power > max)
+				max = power;
+		}
+		blockMin[block] = min;
+		blockMax[block] = max;
+		if (block > lastBlock)
+			lastBlock = block;
+	}
+
+	private void ensureBlock(int block)
+	{
+		if (block < blockMin.length)
+			return;
+		int length = blockMin.length;
+		blockMin = Arrays.copyOf(blockMin, Math.max(length * 2, block + 1));
+		blockMax = Arrays.copyOf(blockMax, blockMin.length);
+		Arrays.fill(blockMin, length, blockMin.length, Float.POSITIVE_INFINITY);
+		Arrays.fill(blockMax, length, blockMax.length, Float.NEGATIVE_INFINITY);
+	}
+
+	private void flush() throws IOException
+	{
+		if (records == 0)
+			return;
+		int blocks = lastBlock < firstBlock ? 0 : lastBlock - firstBlock + 1;
+		int length = INDEX_ENTRY_HEADER_SIZE + blocks * 2;
+		if (entry.capacity() < length)
+			entry = ByteBuffer.allocate(length * 2).order(ByteOrder.LITTLE_ENDIAN);
+		entry.clear();
+		entry.putInt(length).putInt(chunkSegment).putLong(chunkOffset).putLong(chunkFirstTimestamp).putLong(chunkLastTimestamp).putInt(records);
+		entry.putInt(blocks == 0 ? 0 : firstBlock).putInt(blocks);
+		int settingsPos = entry.position();
+		for (int i = 0; i < SETTINGS_SIZE; i++)
+			entry.put((byte) 0);
+		if (chunkSettings != null)
+			putSettings(entry, settingsPos, chunkSettings);
+		for (int b = firstBlock; b <= lastBlock; b++)
+		{
+			entry.put(toByte(Math.floor(blockMin[b])));
+			entry.put(toByte(Math.ceil(blockMax[b])));
+			blockMin[b] = Float.POSITIVE_INFINITY;
+			blockMax[b] = Float.NEGATIVE_INFINITY;
+		}
+		entry.flip();
+		write(entry);
+		records = 0;
+		firstBlock = Integer.MAX_VALUE;
+		lastBlock = -1;
+	}
+
+	private static byte toByte(double dBm)
+	{
+		if (dBm != dBm)
+			return Byte.MIN_VALUE;
+		return (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, dBm));
+	}
+
+	private void write(ByteBuffer buffer) throws IOException
+	{
+		writtenBytes += buffer.remaining();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+}
@@ -0,0 +1,261 @@
+package jspectrumanalyzer.recording;
+
+import static jspectrumanalyzer.recording.SweepRecordingFormat.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jspectrumanalyzer.core.FFTBins;
+
+/**
+ * Sequential reader of recordings written by {@link SweepRecorder}. Segment files are memory mapped read only
+ * and their records visited in the order they were recorded.
+ * <p>
+ * Not thread safe.
+ */
+public class SweepRecordingReader implements Closeable
+{
+	private static final Pattern	SEGMENT_NAME	= Pattern.compile("(.*)-\\d{6}" + Pattern.quote(FILE_EXTENSION));
+
+	private final String			basePath;
+	private int						segmentIndex	= -1;
+	private MappedByteBuffer		segment;
+	/**
+	 * float view of the whole segment, records are aligned so that power values can be copied in bulk
+	 */
+	private FloatBuffer				segmentFloats;
+	private long					dataEnd;
+	private int						nextRecord;
+
+	private SweepRecordingSettings	settings		= null;
+	private int						recordOffset, recordLength;
+	private byte					type;
+	private boolean					fullSweepDone;
+	private long					timestampEpochNanos;
+	private long					sweepId;
+
+	/**
+	 * @param path recording base path as passed to {@link SweepRecorder} or path of any of its segments to start from
+	 * @throws IOException if the first segment cannot be opened or is not a recording
+	 */
+	public SweepRecordingReader(String path) throws IOException
+	{
+		Matcher matcher = SEGMENT_NAME.matcher(path);
+		if (matcher.matches())
+		{
+			basePath = matcher.group(1);
+			segmentIndex = Integer.parseInt(path.substring(basePath.length() + 1, path.length() - FILE_EXTENSION.length())) - 1;
+		}
+		else
+		{
+			basePath = path;
+		}
+		if (!openSegment(segmentIndex + 1))
+			throw new IOException("Recording not found: " + SweepRecordingFormat.segmentPath(basePath, segmentIndex + 1));
+	}
+
+	/**
+	 * Advances to the next record, continues with the next segment at the end of the current one
+	 * @return false if there are no more records
+	 */
+	public boolean next() throws IOException
+	{
+		while (true)
+		{
+			if (nextRecord + RECORD_HEADER_SIZE <= dataEnd)
+			{
+				int length = segment.getInt(nextRecord);
+				if (length >= RECORD_HEADER_SIZE && nextRecord + length <= dataEnd)
+				{
+					recordOffset = nextRecord;
+					recordLength = length;
+					nextRecord += length;
+					type = segment.get(recordOffset + 4);
+					fullSweepDone = (segment.get(recordOffset + 5) & FLAG_FULL_SWEEP_DONE) != 0;
+					timestampEpochNanos = segment.getLong(recordOffset + 8);
+					sweepId = segment.getLong(recordOffset + 16);
+					if (type == RECORD_SETTINGS)
+						settings = SweepRecordingFormat.getSettings(segment, recordOffset + RECORD_HEADER_SIZE);
+					return true;
+				}
+			}
+			if (!openSegment(segmentIndex + 1))
+				return false;
+		}
+	}
+
+	/**
+	 * Continues reading at the first record of the indexed chunk
+	 */
+	public void seek(SweepRecordingIndex.Chunk chunk) throws IOException
+	{
+		if (!openSegment(chunk.getSegmentIndex()))
+			throw new IOException("Recording not found: " + SweepRecordingFormat.segmentPath(basePath, chunk.getSegmentIndex()));
+		nextRecord = (int) chunk.getSegmentOffset();
+		if (chunk.getSettings() != null)
+			settings = chunk.getSettings();
+	}
+
+	/**
+	 * Starts again from the first segment
+	 */
+	public void rewind() throws IOException
+	{
+		if (!openSegment(0))
+			throw new IOException("Recording not found: " + SweepRecordingFormat.segmentPath(basePath, 0));
+	}
+
+	/**
+	 * @return settings of the current record, null if they were not recorded
+	 */
+	public SweepRecordingSettings getSettings()
+	{
+		return settings;
+	}
+
+	/**
+	 * @return one of {@link SweepRecordingFormat#RECORD_BINS}, {@link SweepRecordingFormat#RECORD_FRAME}, {@link SweepRecordingFormat#RECORD_SETTINGS}
+	 */
+	public byte getType()
+	{
+		return type;
+	}
+
+	public boolean isFullSweepDone()
+	{
+		return fullSweepDone;
+	}
+
+	public long getTimestampEpochNanos()
+	{
+		return timestampEpochNanos;
+	}
+
+	public long getSweepId()
+	{
+		return sweepId;
+	}
+
+	public int getSegmentIndex()
+	{
+		return segmentIndex;
+	}
+
+	public float getFFTBinWidthHz()
+	{
+		return type == RECORD_SETTINGS ? 0 : segment.getFloat(recordOffset + RECORD_HEADER_SIZE);
+	}
+
+	/**
+	 * @return number of power values in the current record
+	 */
+	public int getBinsCount()
+	{
+		switch (type)
+		{
+			case RECORD_BINS:
+				return segment.getInt(recordOffset + RECORD_HEADER_SIZE + 8);
+			case RECORD_FRAME:
+				return segment.getInt(recordOffset + RECORD_HEADER_SIZE + 4);
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Copies bins or frame record to given bins, a frame is read as one segment.
+	 * @param target cleared bins able to hold {@link #getBinsCount()} values
+	 */
+	public void readBins(FFTBins target)
+	{
+		int bins = getBinsCount();
+		int pos = recordOffset + RECORD_HEADER_SIZE;
+		target.fftBinWidthHz = getFFTBinWidthHz();
+		target.fullSweepDone = fullSweepDone;
+		target.binsCount = bins;
+		if (type == RECORD_BINS)
+		{
+			int segments = segment.getInt(pos + 4);
+			pos += 12;
+			for (int i = 0; i < segments; i++, pos += SEGMENT_ENTRY_SIZE)
+			{
+				target.addSegment(segment.getDouble(pos), segment.getInt(pos + 8));
+			}
+		}
+		else if (type == RECORD_FRAME)
+		{
+			if (bins > 0)
+				target.addSegment(segment.getDouble(pos + 8), bins);
+			pos += 16;
+		}
+		else
+		{
+			return;
+		}
+		if (bins == 0)
+			return;
+		segmentFloats.position(pos / 4);
+		segmentFloats.get(target.sigPowdBm, 0, bins);
+	}
+
+	/**
+	 * @return mapped segment of the current record
+	 */
+	ByteBuffer getSegmentBuffer()
+	{
+		return segment;
+	}
+
+	/**
+	 * @return offset of the current record in its segment
+	 */
+	int getRecordOffset()
+	{
+		return recordOffset;
+	}
+
+	@Override public void close()
+	{
+		segment = null;
+		segmentFloats = null;
+	}
+
+	/**
+	 * @return false if the segment does not exist
+	 */
+	private boolean openSegment(int index) throws IOException
+	{
+		File file = new File(SweepRecordingFormat.segmentPath(basePath, index));
+		if (!file.isFile())
+			return false;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+		{
+			/**
+			 * the mapping stays valid after the file is closed
+			 */
+			MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			if (mapped.limit() < FILE_HEADER_SIZE || mapped.getInt(0) != MAGIC)
+				throw new IOException("Not a sweep recording: " + file);
+			if (mapped.getShort(4) > VERSION)
+				throw new IOException("Unsupported recording version " + mapped.getShort(4) + ": " + file);
+			segment = mapped;
+			segmentFloats = mapped.asFloatBuffer();
+			dataEnd = Math.min(mapped.limit(), mapped.getLong(HEADER_DATA_END));
+			nextRecord = mapped.getShort(6);
+			segmentIndex = index;
+			SweepRecordingSettings headerSettings = SweepRecordingFormat.getSettings(mapped, HEADER_SETTINGS);
+			settings = headerSettings.getFreqStopMHz() == 0 ? null : headerSettings;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package jspectrumanalyzer.recording;
+
+/**
+ * Sweep parameters stored in recording headers so that recorded data can be interpreted without the application state
+ */
+public class SweepRecordingSettings
+{
+	private final int		freqStartMHz, freqStopMHz;
+	private final float		fftBinWidthHz;
+	private final int		samples;
+	private final int		lnaGain, vgaGain;
+	private final boolean	antennaPowerEnable, antennaLNA;
+
+	public SweepRecordingSettings(int freqStartMHz, int freqStopMHz, float fftBinWidthHz, int samples, int lnaGain, int vgaGain,
+			boolean antennaPowerEnable, boolean antennaLNA)
+	{
+		this.freqStartMHz = freqStartMHz;
+		this.freqStopMHz = freqStopMHz;
+		this.fftBinWidthHz = fftBinWidthHz;
+		this.samples = samples;
+		this.lnaGain = lnaGain;
+		this.vgaGain = vgaGain;
+		this.antennaPowerEnable = antennaPowerEnable;
+		this.antennaLNA = antennaLNA;
+	}
+
+	public int getFreqStartMHz()
+	{
+		return freqStartMHz;
+	}
+
+	public int getFreqStopMHz()
+	{
+		return freqStopMHz;
+	}
+
+	public float getFFTBinWidthHz()
+	{
+		return fftBinWidthHz;
+	}
+
+	public int getSamples()
+	{
+		return samples;
+	}
+
+	public int getLNAGain()
+	{
+		return lnaGain;
+	}
+
+	public int getVGAGain()
+	{
+		return vgaGain;
+	}
+
+	public boolean isAntennaPowerEnable()
+	{
+		return antennaPowerEnable;
+	}
+
+	public boolean isAntennaLNA()
+	{
+		return antennaLNA;
+	}
+
+	@Override public boolean equals(Object obj)
+	{
+		if (!(obj instanceof SweepRecordingSettings))
+			return false;
+		SweepRecordingSettings other = (SweepRecordingSettings) obj;
+		return freqStartMHz == other.freqStartMHz && freqStopMHz == other.freqStopMHz && fftBinWidthHz == other.fftBinWidthHz
+				&& samples == other.samples && lnaGain == other.lnaGain && vgaGain == other.vgaGain
+				&& antennaPowerEnable == other.antennaPowerEnable && antennaLNA == other.antennaLNA;
+	}
+
+	@Override public int hashCode()
+	{
+		return ((freqStartMHz * 31 + freqStopMHz) * 31 + Float.floatToIntBits(fftBinWidthHz)) * 31 + lnaGain * 7 + vgaGain;
+	}
+
+	@Override public String toString()
+	{
+		return String.format("%d-%dMHz RBW %.0fHz samples %d LNA %d VGA %d%s%s", freqStartMHz, freqStopMHz, fftBinWidthHz, samples, lnaGain,
+				vgaGain, antennaPowerEnable ? " antenna power" : "", antennaLNA ? " antenna LNA" : "");
+	}
+}
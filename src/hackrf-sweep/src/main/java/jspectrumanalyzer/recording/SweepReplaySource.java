@@ -0,0 +1,189 @@
+package jspectrumanalyzer.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import jspectrumanalyzer.core.FFTBins;
+import jspectrumanalyzer.core.FFTBinsPool;
+import jspectrumanalyzer.nativebridge.HackRFSweepDataCallback;
+import jspectrumanalyzer.nativebridge.HackRFSweepSource;
+
+/**
+ * Replays recordings written by {@link SweepRecorder} through {@link HackRFSweepDataCallback} in real time,
+ * accelerated or as fast as possible. Recorded data are passed as they were recorded, regardless of the requested frequency range.
+ */
+public class SweepReplaySource implements HackRFSweepSource
+{
+	private final String		path;
+	private volatile double		speed			= 1;
+	private volatile boolean	loop			= true;
+	private volatile boolean	running			= false;
+	/**
+	 * true while {@link #start(HackRFSweepDataCallback, FFTBinsPool, int, int, int, int, int, int, boolean, boolean)} runs, guarded by this
+	 */
+	private boolean				sweeping		= false;
+
+	/**
+	 * @param path recording base path or path of the segment to start from, see {@link SweepRecordingReader#SweepRecordingReader(String)}
+	 */
+	public SweepReplaySource(String path)
+	{
+		this.path = path;
+	}
+
+	/**
+	 * @param speed 1 for real time, larger to accelerate, zero or negative to replay as fast as possible
+	 */
+	public void setSpeed(double speed)
+	{
+		this.speed = speed;
+	}
+
+	/**
+	 * @param loop true to start again at the end of the recording, 
+	 * false to stay idle until stopped
+	 */
+	public void setLoop(boolean loop)
+	{
+		this.loop = loop;
+	}
+
+	@Override public void start(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool, int freq_min_MHz, int freq_max_MHz, int fft_bin_width,
+			int num_samples, int lna_gain, int vga_gain, boolean antennaPowerEnable, boolean internalLNA)
+	{
+		synchronized (this)
+		{
+			sweeping = true;
+		}
+		try
+		{
+			replay(dataCallback, binsPool, freq_min_MHz, freq_max_MHz, fft_bin_width);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				sweeping = false;
+				notifyAll();
+			}
+		}
+	}
+
+	private void replay(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool, int freq_min_MHz, int freq_max_MHz, int fft_bin_width)
+			throws IOException
+	{
+		running = true;
+		try (SweepRecordingReader reader = new SweepRecordingReader(path))
+		{
+			FFTBins allocated = binsPool == null ? new FFTBins(false, null, 0, null) : null;
+			SweepRecordingSettings reportedSettings = null;
+			long startNanos = System.nanoTime();
+			long firstTimestamp = 0;
+			boolean first = true;
+			long sweeps = 0;
+			while (running)
+			{
+				if (!reader.next())
+				{
+					double seconds = (System.nanoTime() - startNanos) / 1e9;
+					System.out.println(String.format("Replay finished: %d sweeps in %.1fs (%.1f sweeps/s)", sweeps, seconds, sweeps / seconds));
+					if (!loop)
+					{
+						while (running)
+							LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+						break;
+					}
+					reader.rewind();
+					startNanos = System.nanoTime();
+					first = true;
+					sweeps = 0;
+					continue;
+				}
+				SweepRecordingSettings settings = reader.getSettings();
+				if (settings != null && !settings.equals(reportedSettings))
+				{
+					reportedSettings = settings;
+					if (settings.getFreqStartMHz() != freq_min_MHz || settings.getFreqStopMHz() != freq_max_MHz
+							|| settings.getFFTBinWidthHz() != fft_bin_width)
+						System.out.println("Replay: recorded " + settings + " differs from the requested " + freq_min_MHz + "-" + freq_max_MHz
+								+ "MHz RBW " + fft_bin_width + "Hz");
+				}
+				if (reader.getType() == SweepRecordingFormat.RECORD_SETTINGS)
+					continue;
+
+				double speed = this.speed;
+				if (speed > 0)
+				{
+					if (first)
+						firstTimestamp = reader.getTimestampEpochNanos();
+					waitUntil(startNanos + (long) ((reader.getTimestampEpochNanos() - firstTimestamp) / speed));
+				}
+				first = false;
+				if (reader.isFullSweepDone())
+					sweeps++;
+
+				int bins = reader.getBinsCount();
+				if (binsPool != null)
+				{
+					FFTBins fftBins = binsPool.lease(bins);
+					if (fftBins == null)
+					{
+						dataCallback.spectrumDataDropped(reader.isFullSweepDone());
+						continue;
+					}
+					reader.readBins(fftBins);
+					dataCallback.newSpectrumData(fftBins);
+				}
+				else
+				{
+					allocated.clear();
+					allocated.ensureCapacity(bins);
+					reader.readBins(allocated);
+					dataCallback.newSpectrumData(allocated.fullSweepDone, allocated.toFrequencyArray(), allocated.fftBinWidthHz,
+							bins == 0 ? null : Arrays.copyOf(allocated.sigPowdBm, bins));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits in short intervals so that {@link #stop()} is not delayed
+	 */
+	private void waitUntil(long dueNanos)
+	{
+		long remaining;
+		while (running && (remaining = dueNanos - System.nanoTime()) > 0)
+		{
+			LockSupport.parkNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(10)));
+		}
+	}
+
+	@Override public void stop()
+	{
+		running = false;
+	}
+
+	@Override public synchronized boolean awaitStopped(long timeoutMillis) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		long remaining;
+		while (sweeping && (remaining = deadline - System.nanoTime()) > 0)
+		{
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return !sweeping;
+	}
+
+	@Override public String getName()
+	{
+		double speed = this.speed;
+		return "Replay " + (speed <= 0 ? "max" : speed == Math.rint(speed) ? String.format("x%.0f", speed) : String.format("x%.2f", speed)) + " " + new File(path).getName();
+	}
+}
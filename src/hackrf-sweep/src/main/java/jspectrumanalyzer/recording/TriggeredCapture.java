@@ -0,0 +1,421 @@
+package jspectrumanalyzer.recording;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import jspectrumanalyzer.core.DatasetSpectrum;
+
+/**
+ * Keeps the newest completed sweeps in a preallocated in-memory ring and records the sweeps around a trigger in the background,
+ * so that the onset of an event is not lost even though it is noticed late.
+ * <p>
+ * A capture is triggered by power above a level within a frequency range, see {@link #setLevelTrigger(double, double, float)},
+ * or manually by {@link #trigger()}. It starts with the sweeps of the pre-trigger time before the trigger and ends when the post-trigger time
+ * passes without another trigger. Every capture is written as frames to its own {@link SweepRecorder} recording named
+ * <code>basePath-yyyyMMdd-HHmmss-SSS</code> after the time of its first sweep.
+ * <p>
+ * The ring is a single float array partitioned into slots of the current spectrum size, sweeps of a different size repartition it,
+ * so keeping the ring generates no garbage. {@link #add(DatasetSpectrum)} never waits for the writer thread: if the writer falls behind
+ * so that a sweep would overwrite a sweep not written yet, the sweep is dropped and counted.
+ * <p>
+ * {@link #add(DatasetSpectrum)} must be called from one thread only,
+ * {@link #trigger()}, {@link #setSettings(SweepRecordingSettings)}, {@link #setLevelTrigger(double, double, float)} and the statistics from any thread.
+ */
+public class TriggeredCapture implements Closeable
+{
+	public static final int			DEFAULT_MAX_SWEEPS		= 65536;
+	/**
+	 * captures triggered but not written yet, further triggers are ignored
+	 */
+	public static final int			MAX_PENDING_CAPTURES	= 16;
+	private static final int		RECORDER_BUFFER_SIZE	= 8 << 20;
+
+	private final String			basePath;
+	private final long				preTriggerNanos;
+	private final long				postTriggerNanos;
+	/**
+	 * converts {@link System#nanoTime()} capture times to epoch milliseconds for capture names
+	 */
+	private final long				epochNanosOffset;
+
+	/**
+	 * ring of sweeps addressed by sequence modulo {@link #slots}, written by the producer only
+	 */
+	private final float[]			powers;
+	private final long[]			captureTimes;
+	private final long[]			sweepIds;
+	private final double[]			freqStartHz;
+	private final float[]			binWidthHz;
+	private final SweepRecordingSettings[]	settings;
+	/**
+	 * published to the writer with {@link #capturesOpened}, changed only when no capture is pending
+	 */
+	private int						slots					= 0;
+	private int						slotBins				= 0;
+
+	/**
+	 * producer only
+	 */
+	private long					sequence				= 0;
+	private long					validFrom				= 0;
+	private long					lastCaptureEnd			= 0;
+	private boolean					capturing				= false;
+	private long					captureUntilNanos		= 0;
+	/**
+	 * set from any thread, read by the producer
+	 */
+	private volatile SweepRecordingSettings	currentSettings	= null;
+
+	/**
+	 * captures as ranges of sequences, the start is published by {@link #capturesOpened}, the end grows while the capture is open
+	 */
+	private final long[]			captureStart			= new long[MAX_PENDING_CAPTURES];
+	private final AtomicLongArray	captureEnd				= new AtomicLongArray(MAX_PENDING_CAPTURES);
+	private final AtomicLong		capturesOpened			= new AtomicLong();
+	private final AtomicLong		capturesClosed			= new AtomicLong();
+	private volatile long			capturesWritten			= 0;
+	/**
+	 * next sequence to be written by the writer thread
+	 */
+	private volatile long			writerPosition			= 0;
+
+	private volatile boolean		manualTrigger			= false;
+	private volatile double			triggerFreqFromHz		= 0;
+	private volatile double			triggerFreqToHz			= 0;
+	private volatile float			triggerLevel			= Float.NaN;
+	/**
+	 * compare the channel power of the whole range instead of single bins with {@link #triggerLevel}
+	 */
+	private volatile boolean		triggerChannelPower		= false;
+
+	private final Thread			writerThread;
+	private volatile Thread			waitingWriter			= null;
+	private volatile boolean		closing					= false;
+	private volatile long			addedCount				= 0;
+	private volatile long			droppedCount			= 0;
+	private volatile long			triggerCount			= 0;
+	private volatile long			ignoredTriggerCount		= 0;
+	private volatile long			writtenSweeps			= 0;
+	private volatile String			lastCapture				= null;
+
+	/**
+	 * @param basePath path prefix of the capture recordings
+	 * @param bufferSize size of the ring in floats, the ring holds <code>bufferSize / bins</code> sweeps but at most maxSweeps
+	 * @param maxSweeps maximum number of sweeps in the ring
+	 * @param preTriggerMillis time before the trigger included in the capture
+	 * @param postTriggerMillis time after the last trigger included in the capture
+	 */
+	public TriggeredCapture(String basePath, int bufferSize, int maxSweeps, long preTriggerMillis, long postTriggerMillis)
+	{
+		this.basePath = basePath;
+		this.preTriggerNanos = TimeUnit.MILLISECONDS.toNanos(preTriggerMillis);
+		this.postTriggerNanos = TimeUnit.MILLISECONDS.toNanos(postTriggerMillis);
+		epochNanosOffset = System.currentTimeMillis() * 1000000l - System.nanoTime();
+		powers = new float[bufferSize];
+		captureTimes = new long[maxSweeps];
+		sweepIds = new long[maxSweeps];
+		freqStartHz = new double[maxSweeps];
+		binWidthHz = new float[maxSweeps];
+		settings = new SweepRecordingSettings[maxSweeps];
+		writerThread = new Thread(this::writerLoop, "Triggered capture");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Triggers a capture at the next added sweep, or extends the running capture
+	 */
+	public void trigger()
+	{
+		manualTrigger = true;
+	}
+
+	/**
+	 * Triggers a capture whenever a sweep has power above the level within the frequency range
+	 * @param level trigger level in dBm, {@link Float#NaN} disables the level trigger
+	 */
+	public void setLevelTrigger(double freqFromHz, double freqToHz, float level)
+	{
+		setLevelTrigger(freqFromHz, freqToHz, level, false);
+	}
+
+	/**
+	 * Triggers a capture whenever a sweep has power above the level within the frequency range
+	 * @param level trigger level in dBm, {@link Float#NaN} disables the level trigger
+	 * @param channelPower compares the channel power of the range, see {@link DatasetSpectrum#calculateChannelPower(double, double)},
+	 * instead of the power of single bins, so that wideband signals below the level in every bin trigger too
+	 */
+	public void setLevelTrigger(double freqFromHz, double freqToHz, float level, boolean channelPower)
+	{
+		triggerFreqFromHz = freqFromHz;
+		triggerFreqToHz = freqToHz;
+		triggerChannelPower = channelPower;
+		triggerLevel = level;
+	}
+
+	/**
+	 * Settings stored in the capture recordings with the following sweeps, can be called from any thread
+	 */
+	public void setSettings(SweepRecordingSettings settings)
+	{
+		currentSettings = settings;
+	}
+
+	/**
+	 * Producer only, copies the sweep into the ring and evaluates the triggers. Does not block, does not allocate.
+	 * @return false if the sweep was dropped
+	 */
+	public boolean add(DatasetSpectrum spectrum)
+	{
+		int bins = spectrum.spectrumLength();
+		boolean pending = capturesWritten < capturesOpened.get();
+		if (closing || bins == 0 || bins > powers.length)
+		{
+			droppedCount++;
+			return false;
+		}
+		if (bins != slotBins)
+		{
+			/**
+			 * repartition, the writer must not be reading the ring
+			 */
+			if (pending)
+			{
+				droppedCount++;
+				return false;
+			}
+			slotBins = bins;
+			slots = Math.min(captureTimes.length, powers.length / bins);
+			validFrom = sequence;
+		}
+		if (pending && sequence - slots >= protectedSequence())
+		{
+			droppedCount++;
+			return false;
+		}
+
+		int slot = (int) (sequence % slots);
+		long captureTime = spectrum.getCaptureTimeNanos();
+		System.arraycopy(spectrum.getSpectrumArray(), 0, powers, slot * bins, bins);
+		captureTimes[slot] = captureTime;
+		sweepIds[slot] = spectrum.getSweepId();
+		freqStartHz[slot] = spectrum.getFrequency(0);
+		binWidthHz[slot] = spectrum.getFFTBinSizeHz();
+		settings[slot] = currentSettings;
+		sequence++;
+		addedCount++;
+
+		boolean triggered = manualTrigger || isAboveLevel(spectrum);
+		if (triggered)
+		{
+			manualTrigger = false;
+			triggerCount++;
+			if (!capturing)
+				openCapture(captureTime);
+			if (capturing)
+				captureUntilNanos = captureTime + postTriggerNanos;
+		}
+		if (capturing)
+		{
+			int index = (int) ((capturesOpened.get() - 1) % MAX_PENDING_CAPTURES);
+			captureEnd.set(index, sequence);
+			if (captureTime >= captureUntilNanos)
+			{
+				capturing = false;
+				lastCaptureEnd = sequence;
+				capturesClosed.incrementAndGet();
+			}
+			Thread writer = waitingWriter;
+			if (writer != null)
+				LockSupport.unpark(writer);
+		}
+		return true;
+	}
+
+	public long getAddedCount()
+	{
+		return addedCount;
+	}
+
+	/**
+	 * @return sweeps not added because the writer did not keep up with a capture
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount;
+	}
+
+	public long getCaptureCount()
+	{
+		return capturesOpened.get();
+	}
+
+	/**
+	 * @return path of the last completely written capture, null if there is none
+	 */
+	public String getLastCapture()
+	{
+		return lastCapture;
+	}
+
+	/**
+	 * @return human readable counters
+	 */
+	public String getStatistics()
+	{
+		long opened = capturesOpened.get();
+		return String.format("ring %d sweeps  %d triggers  %d captures (%d pending, %d ignored)  %d sweeps written  dropped %d", slots,
+				triggerCount, opened, opened - capturesWritten, ignoredTriggerCount, writtenSweeps, droppedCount);
+	}
+
+	/**
+	 * Ends the running capture and writes all pending captures
+	 */
+	@Override public void close() throws IOException
+	{
+		closing = true;
+		LockSupport.unpark(writerThread);
+		try
+		{
+			writerThread.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private boolean isAboveLevel(DatasetSpectrum spectrum)
+	{
+		float level = triggerLevel;
+		if (Float.isNaN(level))
+			return false;
+		if (triggerChannelPower)
+			return spectrum.calculateChannelPower(triggerFreqFromHz, triggerFreqToHz) > level;
+		double binWidth = spectrum.getFFTBinSizeHz();
+		double firstFreq = spectrum.getFrequency(0);
+		int from = (int) Math.max(0, Math.ceil((triggerFreqFromHz - firstFreq) / binWidth));
+		int to = (int) Math.min(spectrum.spectrumLength() - 1, Math.floor((triggerFreqToHz - firstFreq) / binWidth));
+		float[] spectrumArray = spectrum.getSpectrumArray();
+		for (int i = from; i <= to; i++)
+		{
+			if (spectrumArray[i] > level)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Opens a capture starting with the oldest sweep in the ring within the pre-trigger time
+	 * that does not belong to the previous capture
+	 */
+	private void openCapture(long triggerTime)
+	{
+		long opened = capturesOpened.get();
+		if (opened - capturesWritten >= MAX_PENDING_CAPTURES)
+		{
+			ignoredTriggerCount++;
+			return;
+		}
+		long first = Math.max(Math.max(validFrom, sequence - slots), lastCaptureEnd);
+		long start = sequence - 1;
+		while (start > first && triggerTime - captureTimes[(int) ((start - 1) % slots)] <= preTriggerNanos)
+			start--;
+		int index = (int) (opened % MAX_PENDING_CAPTURES);
+		captureStart[index] = start;
+		captureEnd.set(index, sequence);
+		capturesOpened.incrementAndGet();
+		capturing = true;
+	}
+
+	/**
+	 * @return oldest sequence that is still to be written, conservative if the writer has not started the capture yet
+	 */
+	private long protectedSequence()
+	{
+		long written = capturesWritten;
+		return Math.max(writerPosition, captureStart[(int) (written % MAX_PENDING_CAPTURES)]);
+	}
+
+	private void writerLoop()
+	{
+		SweepRecorder recorder = null;
+		String recorderPath = null;
+		long position = 0;
+		while (true)
+		{
+			long capture = capturesWritten;
+			if (capture == capturesOpened.get())
+			{
+				if (closing)
+					break;
+				waitingWriter = Thread.currentThread();
+				if (capture == capturesOpened.get() && !closing)
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+				waitingWriter = null;
+				continue;
+			}
+			int index = (int) (capture % MAX_PENDING_CAPTURES);
+			if (recorder == null)
+			{
+				position = captureStart[index];
+				writerPosition = position;
+				recorderPath = basePath + new SimpleDateFormat("-yyyyMMdd-HHmmss-SSS")
+						.format(new Date((captureTimes[(int) (position % slots)] + epochNanosOffset) / 1000000l));
+				try
+				{
+					recorder = new SweepRecorder(recorderPath, SweepRecorder.DEFAULT_SEGMENT_SIZE, RECORDER_BUFFER_SIZE);
+					recorder.setBlockWhenFull(true);
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+			boolean closed = capture < capturesClosed.get() || closing;
+			long end = captureEnd.get(index);
+			for (; position < end; position++)
+			{
+				int slot = (int) (position % slots);
+				if (recorder != null)
+				{
+					if (settings[slot] != null)
+						recorder.setSettings(settings[slot]);
+					recorder.record(captureTimes[slot], sweepIds[slot], binWidthHz[slot], freqStartHz[slot], powers, slot * slotBins, slotBins);
+				}
+				writtenSweeps++;
+				writerPosition = position + 1;
+			}
+			if (closed)
+			{
+				if (recorder != null)
+				{
+					try
+					{
+						recorder.close();
+						lastCapture = recorderPath;
+					}
+					catch (IOException e)
+					{
+						e.printStackTrace();
+					}
+					recorder = null;
+				}
+				capturesWritten = capture + 1;
+			}
+			else
+			{
+				waitingWriter = Thread.currentThread();
+				if (end == captureEnd.get(index) && capture >= capturesClosed.get() && !closing)
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+				waitingWriter = null;
+			}
+		}
+	}
+}
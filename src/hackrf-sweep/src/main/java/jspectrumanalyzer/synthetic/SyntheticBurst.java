@@ -0,0 +1,34 @@
+package jspectrumanalyzer.synthetic;
+
+/**
+ * Periodic wideband transmission, like wifi or LTE bursts
+ */
+public class SyntheticBurst implements SyntheticSignal
+{
+	private final double	fromHz, toHz;
+	private final double	periodSeconds, durationSeconds;
+	private final float		mw;
+
+	/**
+	 * @param centerHz
+	 * @param bandwidthHz
+	 * @param periodSeconds burst repetition period
+	 * @param durationSeconds how long each burst lasts
+	 * @param powerdBm
+	 */
+	public SyntheticBurst(double centerHz, double bandwidthHz, double periodSeconds, double durationSeconds, double powerdBm)
+	{
+		this.fromHz = centerHz - bandwidthHz / 2;
+		this.toHz = centerHz + bandwidthHz / 2;
+		this.periodSeconds = periodSeconds;
+		this.durationSeconds = durationSeconds;
+		this.mw = SyntheticSignal.toMw(powerdBm);
+	}
+
+	@Override public void render(double timeSeconds, double freqStartHz, float binWidthHz, float[] powerMw, int offset, int bins)
+	{
+		if (timeSeconds % periodSeconds >= durationSeconds)
+			return;
+		SyntheticSignal.addFlat(fromHz, toHz, mw, freqStartHz, binWidthHz, powerMw, offset, bins);
+	}
+}
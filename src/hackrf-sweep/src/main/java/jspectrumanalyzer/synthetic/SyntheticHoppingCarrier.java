@@ -0,0 +1,41 @@
+package jspectrumanalyzer.synthetic;
+
+/**
+ * Carrier hopping pseudo-randomly between channels of a band, like bluetooth or FHSS remotes
+ */
+public class SyntheticHoppingCarrier implements SyntheticSignal
+{
+	private final double	freqStartHz, channelWidthHz;
+	private final int		channels;
+	private final double	hopsPerSecond;
+	private final float		mw;
+	private final long		seed;
+
+	/**
+	 * @param freqStartHz start of the first channel
+	 * @param channelWidthHz
+	 * @param channels
+	 * @param hopsPerSecond
+	 * @param powerdBm
+	 * @param seed selects the hopping sequence
+	 */
+	public SyntheticHoppingCarrier(double freqStartHz, double channelWidthHz, int channels, double hopsPerSecond, double powerdBm, long seed)
+	{
+		this.freqStartHz = freqStartHz;
+		this.channelWidthHz = channelWidthHz;
+		this.channels = channels;
+		this.hopsPerSecond = hopsPerSecond;
+		this.mw = SyntheticSignal.toMw(powerdBm);
+		this.seed = seed;
+	}
+
+	@Override public void render(double timeSeconds, double freqStartHz, float binWidthHz, float[] powerMw, int offset, int bins)
+	{
+		long hop = (long) (timeSeconds * hopsPerSecond);
+		long hash = (hop + seed) * 0x9E3779B97F4A7C15l;
+		hash ^= hash >>> 31;
+		int channel = (int) Math.floorMod(hash, (long) channels);
+		double channelStart = this.freqStartHz + channel * channelWidthHz;
+		SyntheticSignal.addFlat(channelStart, channelStart + channelWidthHz, mw, freqStartHz, binWidthHz, powerMw, offset, bins);
+	}
+}
@@ -0,0 +1,33 @@
+package jspectrumanalyzer.synthetic;
+
+/**
+ * Constant spurs at regular frequency steps, like the ones caused by the receiver's local oscillator.
+ * These are what {@link jspectrumanalyzer.core.SpurFilter} is supposed to remove.
+ */
+public class SyntheticLOSpurs implements SyntheticSignal
+{
+	private final double	offsetHz, stepHz;
+	private final float		mw;
+
+	/**
+	 * @param offsetHz frequency of the first spur
+	 * @param stepHz distance between spurs
+	 * @param powerdBm
+	 */
+	public SyntheticLOSpurs(double offsetHz, double stepHz, double powerdBm)
+	{
+		this.offsetHz = offsetHz;
+		this.stepHz = stepHz;
+		this.mw = SyntheticSignal.toMw(powerdBm);
+	}
+
+	@Override public void render(double timeSeconds, double freqStartHz, float binWidthHz, float[] powerMw, int offset, int bins)
+	{
+		double freqEndHz = freqStartHz + bins * (double) binWidthHz;
+		double spur = offsetHz + Math.ceil((freqStartHz - binWidthHz - offsetHz) / stepHz) * stepHz;
+		for (; spur < freqEndHz + binWidthHz; spur += stepHz)
+		{
+			SyntheticSignal.addTone(spur, mw, freqStartHz, binWidthHz, powerMw, offset, bins);
+		}
+	}
+}
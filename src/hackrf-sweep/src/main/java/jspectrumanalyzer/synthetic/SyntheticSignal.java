@@ -0,0 +1,54 @@
+package jspectrumanalyzer.synthetic;
+
+/**
+ * Signal generated by {@link SyntheticSweepSource}
+ */
+public interface SyntheticSignal
+{
+	/**
+	 * Adds power of the signal to the bins.
+	 * @param timeSeconds time since the start of the source
+	 * @param freqStartHz start frequency of the first bin, bins are contiguous
+	 * @param binWidthHz
+	 * @param powerMw linear power of the bins in mW
+	 * @param offset index of the first bin in powerMw
+	 * @param bins number of bins
+	 */
+	public void render(double timeSeconds, double freqStartHz, float binWidthHz, float[] powerMw, int offset, int bins);
+
+	/**
+	 * Converts dBm to mW
+	 */
+	public static float toMw(double dBm)
+	{
+		return (float) Math.pow(10, dBm / 10);
+	}
+
+	/**
+	 * Adds constant power to all bins overlapping given frequency range
+	 */
+	public static void addFlat(double fromHz, double toHz, float mw, double freqStartHz, float binWidthHz, float[] powerMw, int offset, int bins)
+	{
+		int from = (int) Math.max(0, Math.floor((fromHz - freqStartHz) / binWidthHz));
+		int to = (int) Math.min(bins, Math.ceil((toHz - freqStartHz) / binWidthHz));
+		for (int i = from; i < to; i++)
+		{
+			powerMw[offset + i] += mw;
+		}
+	}
+
+	/**
+	 * Adds narrowband signal at given frequency, leaking into neighbouring bins like a windowed FFT
+	 */
+	public static void addTone(double freqHz, float mw, double freqStartHz, float binWidthHz, float[] powerMw, int offset, int bins)
+	{
+		double position = (freqHz - freqStartHz) / binWidthHz - 0.5;
+		int from = (int) Math.max(0, Math.ceil(position - 1.5));
+		int to = (int) Math.min(bins - 1, Math.floor(position + 1.5));
+		for (int i = from; i <= to; i++)
+		{
+			double leakage = 1 - Math.abs(i - position) / 1.5;
+			powerMw[offset + i] += mw * leakage * leakage;
+		}
+	}
+}
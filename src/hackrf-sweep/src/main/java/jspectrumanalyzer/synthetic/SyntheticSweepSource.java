@@ -0,0 +1,282 @@
+package jspectrumanalyzer.synthetic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import jspectrumanalyzer.core.FFTBins;
+import jspectrumanalyzer.core.FFTBinsPool;
+import jspectrumanalyzer.nativebridge.HackRFSweepDataCallback;
+import jspectrumanalyzer.nativebridge.HackRFSweepSource;
+
+/**
+ * Pure java sweep source generating noise floor and {@link SyntheticSignal}s, used to run and measure
+ * the whole processing pipeline without HackRF hardware.
+ * <p>
+ * Data are emitted with the same layout and cadence as the patched hackrf_sweep library: the span is covered in 20MHz tuning steps,
+ * each step consists of two interleaved blocks, each block of two runs of fftSize/4 bins,
+ * {@link #DEFAULT_BLOCKS_PER_TRANSFER} blocks are sent in one callback
+ * and the data accumulated before wrapping back to the start frequency are flushed with fullSweepDone flag.
+ * <p>
+ * The output is deterministic for given parameters, time used by signals is derived from the number of emitted sweeps.
+ */
+public class SyntheticSweepSource implements HackRFSweepSource
+{
+	private static final int	SAMPLE_RATE_HZ				= 20_000_000;
+	private static final int	TUNE_STEP_HZ				= SAMPLE_RATE_HZ;
+	public static final int		DEFAULT_BLOCKS_PER_TRANSFER	= 16;
+	/**
+	 * approximate sweep rate of real HackRF
+	 */
+	public static final double	HARDWARE_SWEEP_RATE_MHZ		= 8000;
+	private static final int	NOISE_TABLE_SIZE			= 1 << 14;
+	/**
+	 * reference total gain, signal levels are offset by the difference from it
+	 */
+	private static final int	REFERENCE_GAIN				= 40;
+	private static final int	INTERNAL_LNA_GAIN			= 11;
+
+	private volatile boolean	running						= false;
+	/**
+	 * true while {@link #start(HackRFSweepDataCallback, FFTBinsPool, int, int, int, int, int, int, boolean, boolean)} runs, guarded by this
+	 */
+	private boolean				sweeping					= false;
+	private double				sweepsPerSecond				= Double.NaN;
+	private int					binsPerCallback				= 0;
+	private float				noiseFloordBm				= -100;
+	private long				seed						= 1;
+	private final List<SyntheticSignal>	signals				= new ArrayList<>();
+
+	/**
+	 * Sets the rate of generated sweeps
+	 * @param sweepsPerSecond NaN for the rate of real hardware ({@link #HARDWARE_SWEEP_RATE_MHZ}),
+	 * zero or negative to generate as fast as possible
+	 */
+	public void setSweepsPerSecond(double sweepsPerSecond)
+	{
+		this.sweepsPerSecond = sweepsPerSecond;
+	}
+
+	/**
+	 * @param binsPerCallback approximate number of bins passed in one callback,
+	 * rounded to whole runs of fftSize/4 bins, zero to use the same number as the native library
+	 */
+	public void setBinsPerCallback(int binsPerCallback)
+	{
+		this.binsPerCallback = binsPerCallback;
+	}
+
+	public void setNoiseFloor(float noiseFloordBm)
+	{
+		this.noiseFloordBm = noiseFloordBm;
+	}
+
+	public void setSeed(long seed)
+	{
+		this.seed = seed;
+	}
+
+	/**
+	 * Adds signal to the generated spectrum. If no signals are added, a default scenario
+	 * relative to the swept span is generated.
+	 */
+	public void addSignal(SyntheticSignal signal)
+	{
+		signals.add(signal);
+	}
+
+	/**
+	 * Creates tones, hopping carrier, periodic burst and LO spurs spread over given span
+	 */
+	public static List<SyntheticSignal> createDefaultScenario(int freq_min_MHz, int freq_max_MHz, int fft_bin_width)
+	{
+		double start = freq_min_MHz * 1e6;
+		double span = (freq_max_MHz - freq_min_MHz) * 1e6;
+		List<SyntheticSignal> scenario = new ArrayList<>();
+		scenario.add(new SyntheticTone(start + span * 0.2, -40));
+		scenario.add(new SyntheticTone(start + span * 0.55, -65));
+		double channelWidth = Math.max(1e6, fft_bin_width * 3d);
+		int channels = (int) Math.max(1, span * 0.15 / channelWidth);
+		scenario.add(new SyntheticHoppingCarrier(start + span * 0.3, channelWidth, channels, 100, -55, 7));
+		scenario.add(new SyntheticBurst(start + span * 0.75, Math.min(20e6, span * 0.1), 0.5, 0.1, -60));
+		scenario.add(new SyntheticLOSpurs(start + TUNE_STEP_HZ / 2, TUNE_STEP_HZ, -85));
+		return scenario;
+	}
+
+	@Override public void start(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool, int freq_min_MHz, int freq_max_MHz, int fft_bin_width,
+			int num_samples, int lna_gain, int vga_gain, boolean antennaPowerEnable, boolean internalLNA)
+	{
+		synchronized (this)
+		{
+			sweeping = true;
+		}
+		try
+		{
+			generate(dataCallback, binsPool, freq_min_MHz, freq_max_MHz, fft_bin_width, lna_gain, vga_gain, internalLNA);
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				sweeping = false;
+				notifyAll();
+			}
+		}
+	}
+
+	private void generate(HackRFSweepDataCallback dataCallback, FFTBinsPool binsPool, int freq_min_MHz, int freq_max_MHz, int fft_bin_width,
+			int lna_gain, int vga_gain, boolean internalLNA)
+	{
+		running = true;
+		List<SyntheticSignal> signals = this.signals.isEmpty() ? createDefaultScenario(freq_min_MHz, freq_max_MHz, fft_bin_width) : new ArrayList<>(this.signals);
+		float gainOffset = lna_gain + vga_gain + (internalLNA ? INTERNAL_LNA_GAIN : 0) - REFERENCE_GAIN;
+
+		int fftSize = SAMPLE_RATE_HZ / fft_bin_width;
+		int runBins = fftSize / 4;
+		int steps = Math.max(1, (int) Math.ceil((freq_max_MHz - freq_min_MHz) * 1e6 / TUNE_STEP_HZ));
+		int runsPerSweep = steps * 4;
+		int runsPerCallback = binsPerCallback > 0 ? Math.max(1, binsPerCallback / runBins) : DEFAULT_BLOCKS_PER_TRANSFER * 2;
+		double sweepRate = Double.isNaN(sweepsPerSecond) ? HARDWARE_SWEEP_RATE_MHZ / (steps * TUNE_STEP_HZ / 1e6) : sweepsPerSecond;
+		double timeBaseRate = sweepRate > 0 ? sweepRate : HARDWARE_SWEEP_RATE_MHZ / (steps * TUNE_STEP_HZ / 1e6);
+
+		Random random = new Random(seed);
+		float[] noiseMw = new float[NOISE_TABLE_SIZE];
+		float floorMw = SyntheticSignal.toMw(noiseFloordBm);
+		for (int i = 0; i < noiseMw.length; i++)
+		{
+			/**
+			 * power of noise in a fft bin is exponentially distributed
+			 */
+			noiseMw[i] = (float) (-Math.log(1 - random.nextDouble()) * floorMw);
+		}
+		float[] runMw = new float[runBins];
+		float[] allocatedPower = null;
+		double[] allocatedFreq = null;
+
+		long startNanos = System.nanoTime();
+		long sweep = 0;
+		int run = 0;
+		boolean flushSweep = true;
+		while (running)
+		{
+			int runs = Math.min(runsPerCallback, runsPerSweep - run);
+			if (flushSweep)
+			{
+				/**
+				 * native library flushes accumulated data with fullSweepDone flag when it wraps to the start frequency
+				 */
+				runs = 0;
+			}
+			int bins = runs * runBins;
+			FFTBins fftBins = null;
+			if (binsPool != null)
+			{
+				fftBins = binsPool.lease(bins);
+				if (fftBins == null)
+				{
+					dataCallback.spectrumDataDropped(flushSweep);
+				}
+				else
+				{
+					fftBins.fullSweepDone = flushSweep;
+					fftBins.fftBinWidthHz = fft_bin_width;
+				}
+			}
+			else if (bins > 0)
+			{
+				allocatedPower = new float[bins];
+				allocatedFreq = new double[bins];
+			}
+
+			for (int i = 0; i < runs && (binsPool == null || fftBins != null); i++)
+			{
+				int runIndex = run + i;
+				int step = runIndex / 4;
+				int block = (runIndex / 2) % 2;
+				double runFreqStart = freq_min_MHz * 1e6 + step * (double) TUNE_STEP_HZ + block * TUNE_STEP_HZ / 4 + (runIndex % 2) * SAMPLE_RATE_HZ / 2;
+				double time = (sweep + runIndex / (double) runsPerSweep) / timeBaseRate;
+
+				int noiseIndex = random.nextInt(NOISE_TABLE_SIZE);
+				for (int j = 0; j < runBins; j++)
+				{
+					runMw[j] = noiseMw[(noiseIndex + j) & (NOISE_TABLE_SIZE - 1)];
+				}
+				for (SyntheticSignal signal : signals)
+				{
+					signal.render(time, runFreqStart, fft_bin_width, runMw, 0, runBins);
+				}
+				float[] power = fftBins != null ? fftBins.sigPowdBm : allocatedPower;
+				int offset = i * runBins;
+				for (int j = 0; j < runBins; j++)
+				{
+					power[offset + j] = (float) (10 * Math.log10(runMw[j])) + gainOffset;
+				}
+				if (fftBins != null)
+				{
+					fftBins.addSegment(runFreqStart, runBins);
+				}
+				else
+				{
+					for (int j = 0; j < runBins; j++)
+					{
+						allocatedFreq[offset + j] = runFreqStart + j * (double) fft_bin_width;
+					}
+				}
+			}
+
+			if (fftBins != null)
+				dataCallback.newSpectrumData(fftBins);
+			else if (binsPool == null)
+				dataCallback.newSpectrumData(flushSweep, bins == 0 ? null : allocatedFreq, fft_bin_width, bins == 0 ? null : allocatedPower);
+
+			flushSweep = false;
+			run += runs;
+			if (run >= runsPerSweep)
+			{
+				run = 0;
+				sweep++;
+				flushSweep = true;
+			}
+			if (sweepRate > 0)
+			{
+				long due = startNanos + (long) ((sweep + run / (double) runsPerSweep) / sweepRate * 1e9);
+				waitUntil(due);
+			}
+		}
+	}
+
+	/**
+	 * Waits in short intervals so that {@link #stop()} is not delayed
+	 */
+	private void waitUntil(long dueNanos)
+	{
+		long remaining;
+		while (running && (remaining = dueNanos - System.nanoTime()) > 0)
+		{
+			LockSupport.parkNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(10)));
+		}
+	}
+
+	@Override public void stop()
+	{
+		running = false;
+	}
+
+	@Override public synchronized boolean awaitStopped(long timeoutMillis) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		long remaining;
+		while (sweeping && (remaining = deadline - System.nanoTime()) > 0)
+		{
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return !sweeping;
+	}
+
+	@Override public String getName()
+	{
+		return "Synthetic";
+	}
+}
@@ -0,0 +1,21 @@
+package jspectrumanalyzer.synthetic;
+
+/**
+ * Continuous carrier at fixed frequency
+ */
+public class SyntheticTone implements SyntheticSignal
+{
+	private final double	freqHz;
+	private final float		mw;
+
+	public SyntheticTone(double freqHz, double powerdBm)
+	{
+		this.freqHz = freqHz;
+		this.mw = SyntheticSignal.toMw(powerdBm);
+	}
+
+	@Override public void render(double timeSeconds, double freqStartHz, float binWidthHz, float[] powerMw, int offset, int bins)
+	{
+		SyntheticSignal.addTone(freqHz, mw, freqStartHz, binWidthHz, powerMw, offset, bins);
+	}
+}
@@ -9,6 +9,7 @@ import java.awt.Label;
 import java.beans.PropertyChangeEvent;
 import java.math.BigDecimal;
 import java.net.URI;
+import java.util.EnumMap;
 import java.util.Optional;
 import java.util.Vector;
 import java.util.function.Consumer;
@@ -32,11 +33,13 @@ import javax.swing.UIManager;
 
 import jspectrumanalyzer.HackRFSweepSpectrumAnalyzer;
 import jspectrumanalyzer.Version;
+import jspectrumanalyzer.core.FFTBinsOverflowPolicy;
 import jspectrumanalyzer.core.FrequencyAllocationTable;
 import jspectrumanalyzer.core.FrequencyAllocations;
 import jspectrumanalyzer.core.FrequencyRange;
 import jspectrumanalyzer.core.HackRFSettings;
 import jspectrumanalyzer.core.HackRFSettings.HackRFEventAdapter;
+import jspectrumanalyzer.core.TraceMode;
 import net.miginfocom.swing.MigLayout;
 import shared.mvc.MVCController;
 import javax.swing.border.BevelBorder;
@@ -83,6 +86,12 @@ public class HackRFSweepSettingsUI extends JPanel
 	private JComboBox comboBoxDecayRate;
 	private JLabel lblDebugDisplay;
 	private JCheckBox checkBoxDebugDisplay;
+	private JLabel lblHwQueueOverflow;
+	private JComboBox<FFTBinsOverflowPolicy> comboBoxHwQueueOverflow;
+	private EnumMap<TraceMode, JCheckBox> checkBoxTraces = new EnumMap<>(TraceMode.class);
+	private JSpinner spinnerTraceAverageSweeps;
+	private JCheckBox checkBoxRecording;
+	private JCheckBox checkBoxTriggeredCapture;
 
 	public HackRFSweepSettingsUI()
 	{
@@ -143,7 +152,7 @@ public class HackRFSweepSettingsUI extends JPanel
 		tab1.setForeground(Color.WHITE);
 		tab1.setBackground(Color.BLACK);
 		
-		JPanel tab2	= new JPanel(new MigLayout("", "[123.00px,grow,leading]", "[][0][][][0][][][0][][0][][][0][][0][][][0][0][][][0][][0][grow,fill]"));
+		JPanel tab2	= new JPanel(new MigLayout("", "[123.00px,grow,leading]", "[][0][][][0][][][0][][0][][][0][][0][][][0][0][][][0][][0][][0][][][][][][][][][0][][][][grow,fill]"));
 		tab2.setForeground(Color.WHITE);
 		tab2.setBackground(Color.BLACK);
 		
@@ -375,6 +384,61 @@ public class HackRFSweepSettingsUI extends JPanel
 		checkBoxDebugDisplay.setBackground(Color.BLACK);
 		tab2.add(checkBoxDebugDisplay, "cell 0 22,alignx right");
 		
+		lblHwQueueOverflow = new JLabel("  HW queue overflow");
+		lblHwQueueOverflow.setForeground(Color.WHITE);
+		tab2.add(lblHwQueueOverflow, "flowx,cell 0 24,growx");
+		
+		comboBoxHwQueueOverflow = new JComboBox<>(FFTBinsOverflowPolicy.values());
+		tab2.add(comboBoxHwQueueOverflow, "cell 0 24,alignx right");
+		
+		JLabel lblTraces = new JLabel("Traces");
+		lblTraces.setForeground(Color.WHITE);
+		tab2.add(lblTraces, "cell 0 26");
+		
+		int traceRow = 27;
+		for (TraceMode mode : TraceMode.values()) {
+			JLabel lblTrace = new JLabel("  " + mode);
+			lblTrace.setForeground(Color.WHITE);
+			tab2.add(lblTrace, "flowx,cell 0 " + traceRow + ",growx");
+			
+			JCheckBox checkBoxTrace = new JCheckBox("");
+			checkBoxTrace.setForeground(Color.WHITE);
+			checkBoxTrace.setBackground(Color.BLACK);
+			tab2.add(checkBoxTrace, "cell 0 " + traceRow + ",alignx right");
+			checkBoxTraces.put(mode, checkBoxTrace);
+			traceRow++;
+		}
+		
+		JLabel lblTraceAverageSweeps = new JLabel("  Average sweeps");
+		lblTraceAverageSweeps.setForeground(Color.WHITE);
+		tab2.add(lblTraceAverageSweeps, "flowx,cell 0 " + traceRow + ",growx");
+		
+		spinnerTraceAverageSweeps = new JSpinner();
+		spinnerTraceAverageSweeps.setModel(new SpinnerNumberModel(10, 1, 1000, 1));
+		tab2.add(spinnerTraceAverageSweeps, "cell 0 " + traceRow + ",alignx right");
+		
+		JLabel lblRecording = new JLabel("Recording");
+		lblRecording.setForeground(Color.WHITE);
+		tab2.add(lblRecording, "cell 0 " + (traceRow + 2));
+		
+		JLabel lblRecordSweeps = new JLabel("  Record sweeps");
+		lblRecordSweeps.setForeground(Color.WHITE);
+		tab2.add(lblRecordSweeps, "flowx,cell 0 " + (traceRow + 3) + ",growx");
+		
+		checkBoxRecording = new JCheckBox("");
+		checkBoxRecording.setForeground(Color.WHITE);
+		checkBoxRecording.setBackground(Color.BLACK);
+		tab2.add(checkBoxRecording, "cell 0 " + (traceRow + 3) + ",alignx right");
+		
+		JLabel lblTriggeredCapture = new JLabel("  Triggered capture (F9)");
+		lblTriggeredCapture.setForeground(Color.WHITE);
+		tab2.add(lblTriggeredCapture, "flowx,cell 0 " + (traceRow + 4) + ",growx");
+		
+		checkBoxTriggeredCapture = new JCheckBox("");
+		checkBoxTriggeredCapture.setForeground(Color.WHITE);
+		checkBoxTriggeredCapture.setBackground(Color.BLACK);
+		tab2.add(checkBoxTriggeredCapture, "cell 0 " + (traceRow + 4) + ",alignx right");
+		
 		if (hRF != null)
 			bindViewToModel();
 	}
@@ -416,6 +480,12 @@ public class HackRFSweepSettingsUI extends JPanel
 				hRF.isCapturingPaused());
 	
 		new MVCController(spinnerPeakFallSpeed, hRF.getPeakFallRate(), in -> (Integer)in, in -> in);
+		
+		for (TraceMode mode : TraceMode.values())
+			new MVCController(checkBoxTraces.get(mode), hRF.isTraceVisible(mode));
+		new MVCController(spinnerTraceAverageSweeps, hRF.getTraceAverageSweeps(), in -> (Integer)in, in -> in);
+		new MVCController(checkBoxRecording, hRF.isRecording());
+		new MVCController(checkBoxTriggeredCapture, hRF.isTriggeredCapture());
 	
 		new MVCController(comboBoxFrequencyAllocationBands, hRF.getFrequencyAllocationTable());
 		
@@ -439,6 +509,15 @@ public class HackRFSweepSettingsUI extends JPanel
 		
 		new MVCController(checkBoxDebugDisplay, hRF.isDebugDisplay());
 		
+		new MVCController(comboBoxHwQueueOverflow, hRF.getHwQueueOverflowPolicy());
+		hRF.isDebugDisplay().addListener((debug) -> {
+			SwingUtilities.invokeLater(()->{
+				comboBoxHwQueueOverflow.setVisible(debug);
+				lblHwQueueOverflow.setVisible(debug);
+			});
+		});
+		hRF.isDebugDisplay().callObservers();
+		
 		hRF.isChartsPeaksVisible().addListener((enabled) -> {
 			SwingUtilities.invokeLater(()->{
 				spinnerPeakFallSpeed.setEnabled(enabled);
@@ -20,7 +20,11 @@ import javax.swing.JPanel;
 import org.jfree.chart.ChartPanel;
 
 import jspectrumanalyzer.core.DatasetSpectrum;
+import jspectrumanalyzer.core.DirtyBlocks;
 import jspectrumanalyzer.core.EMA;
+import jspectrumanalyzer.core.LatencyHistogram;
+import jspectrumanalyzer.core.SpectrumKernels;
+import jspectrumanalyzer.core.SpectrumStripes;
 
 public class WaterfallPlot extends JPanel {
 	/**
@@ -34,9 +38,32 @@ public class WaterfallPlot extends JPanel {
 	private int					displayMarkerX			= 0;
 	private int					drawIndex				= 0;
 	/**
-	 * stores max value in pixel
+	 * stores max value in pixel, kept between frames and recomputed only for {@link #dirtyColumns}
 	 */
 	private float				drawMaxBuffer[];
+	private boolean				dirtyColumns[];
+	/**
+	 * spectrum already reduced into {@link #drawMaxBuffer}, bins changed after {@link #drawnVersion} are reduced again
+	 */
+	private DirtyBlocks			drawnBlocks;
+	private long				drawnVersion			= -1;
+	private int					drawnSize				= -1;
+	private double				drawnPaletteStart, drawnPaletteSize;
+	/**
+	 * position of each bin's power in the palette, resized with the spectrum
+	 */
+	private float				paletteBuffer[]			= new float[0];
+	private SpectrumStripes		stripes					= SpectrumStripes.SERIAL;
+	/**
+	 * arguments of the running {@link #addNewData(DatasetSpectrum)}
+	 */
+	private float[]				drawSpectrum;
+	private double				drawWidthDivSize;
+
+	private static final float										EMPTY_COLUMN	= -150;
+	private static final SpectrumStripes.StripeTask<WaterfallPlot>	MARK_COLUMNS	= (plot, stripe, from, to) -> Arrays.fill(plot.dirtyColumns,
+			plot.pixelX(from), plot.pixelX(to - 1) + 1, true);
+	private static final SpectrumStripes.StripeTask<WaterfallPlot>	REDUCE_COLUMNS	= (plot, stripe, from, to) -> plot.reduceColumns(from, to);
 	private EMA					fps						= new EMA(3);
 	private int					fpsRenderedFrames		= 0;
 	private long				lastFPSRecalculated		= 0;
@@ -62,6 +89,7 @@ public class WaterfallPlot extends JPanel {
 
 		screenWidth = (int) Toolkit.getDefaultToolkit().getScreenSize().getWidth();
 		drawMaxBuffer = new float[screenWidth];
+		dirtyColumns = new boolean[screenWidth];
 
 		bufferedImages[0] = GraphicsToolkit.createAcceleratedImageOpaque(screenWidth, maxHeight);
 		bufferedImages[1] = GraphicsToolkit.createAcceleratedImageOpaque(screenWidth, maxHeight);
@@ -110,6 +138,7 @@ public class WaterfallPlot extends JPanel {
 		double spectrumPalleteMax = spectrumPaletteStart + spectrumPaletteSize;
 
 		this.lastSpectrum = spectrum;
+		this.lastCaptureTimeNanos = spectrum.getCaptureTimeNanos();
 
 		/**
 		 * shift image by one pixel down
@@ -127,8 +156,7 @@ public class WaterfallPlot extends JPanel {
 		rect.height = 0;
 		rect.width = binWidth;
 
-		float minimumValueDrawBuffer = -150;
-		Arrays.fill(drawMaxBuffer, minimumValueDrawBuffer);
+		float minimumValueDrawBuffer = EMPTY_COLUMN;
 
 		/**
 		 * draw in two passes - first determines maximum power for the pixel,
@@ -136,28 +164,37 @@ public class WaterfallPlot extends JPanel {
 		 */
 		if (true) {
 			//optimized drawing
-			double widthDivSize = (double)width / size;
-			double inverseSpectrumPaletteSize	= 1d/spectrumPaletteSize;
-			double spectrumPaletteStartDivSpectrumPaletteSize	= (double)spectrumPaletteStart/spectrumPaletteSize;
-			for (int i = 0; i < size; i++) {
-				double power = spectrum.getPower(i);
-				double percentagePower	= 0;
-				if (power > spectrumPaletteStart) {
-					if ( power < spectrumPalleteMax) { 
-//						percentagePower	= (power - spectrumPaletteStart) / spectrumPaletteSize;
-						//percentagePower	= power/spectrumPaletteSize - spectrumPaletteStart/spectrumPaletteSize;
-						percentagePower	= power*inverseSpectrumPaletteSize - spectrumPaletteStartDivSpectrumPaletteSize;
-					}
-					else
-						percentagePower = 1;
-				}
-				int pixelX = (int) Math.round(widthDivSize * i);
-				pixelX = pixelX >= drawMaxBuffer.length ? drawMaxBuffer.length - 1 : pixelX < 0 ? 0 : pixelX;
-				if (percentagePower > drawMaxBuffer[pixelX])
-					drawMaxBuffer[pixelX] = (float) percentagePower;
+			if (paletteBuffer.length < size)
+				paletteBuffer = new float[size];
+			drawSpectrum = spectrum.getSpectrumArray();
+			drawWidthDivSize = (double)width / size;
+			/**
+			 * only columns with bins changed since the previous frame are reduced again,
+			 * all of them if the layout or the palette changed
+			 */
+			DirtyBlocks dirty = spectrum.getDirtyBlocks();
+			int changedBins;
+			if (dirty != drawnBlocks || size != drawnSize || spectrumPaletteStart != drawnPaletteStart || spectrumPaletteSize != drawnPaletteSize) {
+				Arrays.fill(dirtyColumns, true);
+				changedBins = size;
+			} else {
+				Arrays.fill(dirtyColumns, false);
+				dirty.forEachDirtyRange(drawnVersion, 0, 0, size, this, MARK_COLUMNS);
+				changedBins = dirty.countDirtyBins(drawnVersion);
 			}
+			/**
+			 * split by pixel columns so that no two stripes write the same pixel
+			 */
+			stripes.forEach(stripes.stripeCount(changedBins), drawMaxBuffer.length, this, REDUCE_COLUMNS);
+			drawSpectrum = null;
+			drawnBlocks = dirty;
+			drawnVersion = dirty.getVersion();
+			drawnSize = size;
+			drawnPaletteStart = spectrumPaletteStart;
+			drawnPaletteSize = spectrumPaletteSize;
 		} else {
 			//unoptimized drawing
+			Arrays.fill(drawMaxBuffer, minimumValueDrawBuffer);
 			for (int i = 0; i < size; i++) {
 				double freq = spectrum.getFrequency(i);
 				double power = spectrum.getPower(i);
@@ -207,6 +244,59 @@ public class WaterfallPlot extends JPanel {
 //		repaint();
 	}
 
+	/**
+	 * Finds maximum position in the palette of the bins drawn into the dirty pixel columns among fromX to toX - 1
+	 */
+	private void reduceColumns(int fromX, int toX) {
+		int x = fromX;
+		while (x < toX) {
+			if (!dirtyColumns[x]) {
+				x++;
+				continue;
+			}
+			int runStart = x;
+			while (x < toX && dirtyColumns[x])
+				x++;
+			Arrays.fill(drawMaxBuffer, runStart, x, EMPTY_COLUMN);
+			reduceBins(runStart, x);
+		}
+	}
+
+	/**
+	 * Finds maximum position in the palette of the bins drawn into pixel columns fromX to toX - 1
+	 */
+	private void reduceBins(int fromX, int toX) {
+		int size = drawSpectrum.length;
+		int from = firstBinOfColumn(fromX, size);
+		int to = toX == drawMaxBuffer.length ? size : firstBinOfColumn(toX, size);
+		SpectrumKernels.scaleAndClamp(drawSpectrum, paletteBuffer, (float) spectrumPaletteStart, (float) (1d / spectrumPaletteSize), from, to);
+		for (int i = from; i < to; i++) {
+			float percentagePower	= paletteBuffer[i];
+			int pixelX = pixelX(i);
+			if (percentagePower > drawMaxBuffer[pixelX])
+				drawMaxBuffer[pixelX] = percentagePower;
+		}
+	}
+
+	/**
+	 * @return first bin drawn into the column or later
+	 */
+	private int firstBinOfColumn(int x, int size) {
+		if (x <= 0)
+			return 0;
+		int i = (int) Math.max(0, Math.min(size, Math.ceil((x - 0.5) / drawWidthDivSize)));
+		while (i > 0 && pixelX(i - 1) >= x)
+			i--;
+		while (i < size && pixelX(i) < x)
+			i++;
+		return i;
+	}
+
+	private int pixelX(int bin) {
+		int pixelX = (int) Math.round(drawWidthDivSize * bin);
+		return pixelX >= drawMaxBuffer.length ? drawMaxBuffer.length - 1 : pixelX < 0 ? 0 : pixelX;
+	}
+
 	/**
 	 * Draws color palette into given area from bottom (0%) to top (100%)
 	 * 
@@ -345,9 +435,43 @@ public class WaterfallPlot extends JPanel {
 		long drawingTime	= System.nanoTime()-drawStart;
 		drawingTimeSum	+= drawingTime;
 		drawingCounter++;
+		LatencyHistogram latency	= drawingLatency;
+		if (latency != null)
+			latency.record(drawingTime);
+		long captureTime	= lastCaptureTimeNanos;
+		latency	= displayLatency;
+		if (latency != null && captureTime != lastPaintedCaptureTimeNanos) {
+			latency.record(System.nanoTime() - captureTime);
+			lastPaintedCaptureTimeNanos	= captureTime;
+		}
 	}
 	private volatile long drawingTimeSum	= 0;
 	private volatile int drawingCounter	= 0;
+	private volatile LatencyHistogram drawingLatency	= null;
+	private volatile LatencyHistogram displayLatency	= null;
+	/**
+	 * capture time of the newest data added and of the data painted the last time
+	 */
+	private volatile long lastCaptureTimeNanos	= 0;
+	private long lastPaintedCaptureTimeNanos	= 0;
+	/**
+	 * Records duration of every draw to the histogram, null to disable
+	 */
+	public void setDrawingLatencyHistogram(LatencyHistogram drawingLatency) {
+		this.drawingLatency	= drawingLatency;
+	}
+	/**
+	 * Records time from the capture of the newest data to its first paint, null to disable
+	 */
+	public void setDisplayLatencyHistogram(LatencyHistogram displayLatency) {
+		this.displayLatency	= displayLatency;
+	}
+	/**
+	 * Sets the stripes used to draw large spectra in parallel, {@link SpectrumStripes#SERIAL} by default
+	 */
+	public void setStripes(SpectrumStripes stripes) {
+		this.stripes = stripes;
+	}
 	public int getDrawingCounterAndReset() {
 		int val	= drawingCounter;
 		drawingCounter	= 0;